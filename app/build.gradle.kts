@@ -23,6 +23,18 @@ dependencies {
 
     // This dependency is used by the application.
     implementation(libs.guava)
+
+    // Библиотека игры: интерфейсы программ, юниты и программы юнитов
+    implementation(files("../libs/heroes_task_lib-1.0-SNAPSHOT.jar"))
+}
+
+// Реализации из src/programs собираются вместе с приложением
+sourceSets {
+    main {
+        java {
+            srcDir("../src")
+        }
+    }
 }
 
 // Apply a specific Java toolchain to ease working on different environments.
@@ -37,6 +49,53 @@ application {
     mainClass = "as.App"
 }
 
+tasks.named<Jar>("jar") {
+    manifest {
+        attributes("Main-Class" to "as.App")
+    }
+}
+
+// Кривая масштабирования массового боя: ./gradlew :app:scalingBenchmark --args="1000 10000"
+tasks.register<JavaExec>("scalingBenchmark") {
+    group = "verification"
+    description = "Измеряет время раунда массового боя для растущего числа юнитов"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass = "as.ScalingBenchmark"
+    jvmArgs("-Xmx2g")
+}
+
+// Качество выбора цели MCTS от бюджета на ход: ./gradlew :app:mctsBenchmark --args="--battles 50 2 10"
+tasks.register<JavaExec>("mctsBenchmark") {
+    group = "verification"
+    description = "Сравнивает MCTS-выбор цели с программами библиотеки при разных бюджетах на ход"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass = "as.MctsBenchmark"
+}
+
+// Инкрементальное перепланирование против A*: ./gradlew :app:replanningBenchmark --args="--battles 300 --turns 30"
+tasks.register<JavaExec>("replanningBenchmark") {
+    group = "verification"
+    description = "Сравнивает исправление поиска D* Lite с полным A* в боях и при преследовании"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass = "as.ReplanningBenchmark"
+}
+
+// Цена замеров фаз BattleMetrics: ./gradlew :app:metricsOverheadBenchmark --args="--battles 300 --passes 15"
+tasks.register<JavaExec>("metricsOverheadBenchmark") {
+    group = "verification"
+    description = "Сравнивает время боёв при включённых и выключенных метриках фаз"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass = "as.MetricsOverheadBenchmark"
+}
+
+// Нагрузка по записи вызовов (app --record FILE): ./gradlew :app:replayLoadTest --args="FILE --threads 8 --speedup 4"
+tasks.register<JavaExec>("replayLoadTest") {
+    group = "verification"
+    description = "Воспроизводит записанные вызовы точек входа и печатает пропускную способность и задержки"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass = "as.ReplayLoadTest"
+}
+
 tasks.named<Test>("test") {
     // Use JUnit Platform for unit tests.
     useJUnitPlatform()
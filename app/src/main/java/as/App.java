@@ -1,14 +1,683 @@
-/*
- * This source file was generated by the Gradle 'init' task
- */
 package as;
 
+import com.battle.heroes.army.Army;
+import programs.BattleMetrics;
+import programs.BattleResultStore;
+import programs.BattleTranspositionTable;
+import programs.CallRecording;
+import programs.PresetTableStore;
+import programs.ScenarioFile;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Пакетный прогон боёв без интерфейса.
+ *
+ * <pre>
+ * app [--format jsonl|csv] [--threads N] [--max-in-flight N] [--output FILE] [--metrics]
+ *     [--strategy S] [--shard K/N] [--pack FILE] &lt;каталог|файл|-&gt;
+ * </pre>
+ *
+ * Сценарии (см. {@link Scenario}) читаются построчно из файла, из всех файлов
+ * *.scenarios каталога по алфавиту или из stdin ("-"). Бои идут на пуле потоков;
+ * число боёв в работе ограничено --max-in-flight, поэтому чтение входа
+ * притормаживает вместе с исполнением и память не растёт с размером входа.
+ * Результаты пишутся по мере готовности, по строке на бой.
+ *
+ * Вместо текста можно передать двоичный файл расстановок ({@link ScenarioFile}):
+ * бои идут по готовым армиям со стратегией --strategy, а --shard K/N оставляет
+ * сценарии с номерами K, K+N, K+2N... для раздачи прогона по машинам.
+ * --pack FILE не проводит бои, а записывает расстановки текстовых сценариев
+ * в двоичный файл.
+ *
+ * --preset-store FILE берёт оптимальные составы армий из файла решённых таблиц
+ * ({@link PresetTableStore}) и дописывает в него таблицы, решённые за прогон,
+ * чтобы следующий запуск не решал их заново. Сохранение пишет рядом новое
+ * поколение FILE.1, FILE.2, ..., а открытие берёт последнее.
+ *
+ * --transpositions N запоминает исходы боёв SIMULTANEOUS в таблице на N
+ * записей ({@link BattleTranspositionTable}): повторный бой из того же
+ * канонического состояния не разыгрывается. --transpositions-mid-battle
+ * дополнительно сверяется с таблицей в начале каждого раунда. Доля
+ * попаданий печатается в stderr после прогона.
+ *
+ * --aggregate собирает итоги боёв вне кучи ({@link BattleResultStore})
+ * и печатает в stderr сводки: исходы, среднее число раундов по стратегиям
+ * и долю побед по составам армии игрока. --spill-dir DIR позволяет итогам
+ * не помещаться в память: сегменты сверх лимита пишутся в файлы каталога
+ * и удаляются после прогона.
+ *
+ * --record FILE пишет в файл ({@link CallRecording}) вызовы генератора
+ * пресетов, поиска атакуемых юнитов, поиска пути и симуляции с их входными
+ * данными и временем, чтобы воспроизвести настоящую нагрузку в
+ * {@link ReplayLoadTest}.
+ */
 public class App {
-    public String getGreeting() {
-        return "Hello World!";
+    static final String USAGE = "Использование: app [--format jsonl|csv] [--threads N] [--max-in-flight N]"
+            + " [--output FILE] [--metrics] [--strategy S] [--shard K/N] [--pack FILE] [--preset-store FILE]"
+            + " [--transpositions N [--transpositions-mid-battle]] [--aggregate [--spill-dir DIR]]"
+            + " [--record FILE] <каталог|файл|->";
+    // Сколько составов армии печатать в сводке --aggregate
+    static final int AGGREGATE_TOP_COMPOSITIONS = 10;
+    static final String SCENARIO_SUFFIX = ".scenarios";
+
+    private final ResultWriter.Format format;
+    private final int threads;
+    private final int maxInFlight;
+    private final BattleMetrics metrics = new BattleMetrics();
+    private String strategy = Scenario.DEFAULT_STRATEGY;
+    private int shardIndex = 0;
+    private int shardCount = 1;
+    private PresetTableStore presetStore;
+    private BattleTranspositionTable transpositionTable;
+    private BattleResultStore resultStore;
+    private CallRecording.Recorder recorder;
+
+    App(ResultWriter.Format format, int threads, int maxInFlight) {
+        if (threads < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Число потоков и боёв в работе должно быть положительным");
+        }
+        this.format = format;
+        this.threads = threads;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Стратегия для боёв из двоичного файла (в текстовых сценариях она своя)
+     */
+    void setStrategy(String strategy) {
+        this.strategy = Scenario.parseStrategy(strategy);
+    }
+
+    /**
+     * Оставляет из двоичного файла только сценарии с номером index по модулю count
+     */
+    void setShard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Некорректная часть прогона: " + index + "/" + count);
+        }
+        this.shardIndex = index;
+        this.shardCount = count;
+    }
+
+    /**
+     * Хранилище таблиц составов армии для текстовых сценариев
+     *
+     * @param presetStore хранилище или null, чтобы решать составы каждый раз
+     */
+    void setPresetStore(PresetTableStore presetStore) {
+        this.presetStore = presetStore;
+    }
+
+    /**
+     * Таблица исходов боёв SIMULTANEOUS, общая для всех боёв прогона
+     *
+     * @param transpositionTable таблица или null, чтобы разыгрывать каждый бой
+     */
+    void setTranspositionTable(BattleTranspositionTable transpositionTable) {
+        this.transpositionTable = transpositionTable;
+    }
+
+    /**
+     * Хранилище, куда текстовые сценарии и двоичный файл дописывают итоги боёв
+     *
+     * @param resultStore хранилище или null
+     */
+    void setResultStore(BattleResultStore resultStore) {
+        this.resultStore = resultStore;
+    }
+
+    /**
+     * Запись вызовов точек входа для нагрузочного воспроизведения
+     *
+     * @param recorder запись или null
+     */
+    void setRecorder(CallRecording.Recorder recorder) {
+        this.recorder = recorder;
     }
 
     public static void main(String[] args) {
-        System.out.println(new App().getGreeting());
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    /**
+     * Разбирает аргументы и выполняет прогон
+     *
+     * @return код завершения: 0 — успех, 1 — были ошибки в сценариях или боях, 2 — неверные аргументы
+     */
+    static int run(String[] args, InputStream stdin, PrintStream stdout, PrintStream stderr) {
+        ResultWriter.Format format = ResultWriter.Format.JSONL;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxInFlight = -1;
+        String output = null;
+        String input = null;
+        boolean printMetrics = false;
+        String strategy = null;
+        String shard = null;
+        String pack = null;
+        String presetStorePath = null;
+        int transpositions = 0;
+        boolean transpositionsMidBattle = false;
+        boolean aggregate = false;
+        String spillDirectory = null;
+        String recordPath = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format":
+                        format = ResultWriter.Format.parse(requireValue(args, ++i));
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(requireValue(args, ++i));
+                        break;
+                    case "--max-in-flight":
+                        maxInFlight = Integer.parseInt(requireValue(args, ++i));
+                        break;
+                    case "--output":
+                        output = requireValue(args, ++i);
+                        break;
+                    case "--metrics":
+                        printMetrics = true;
+                        break;
+                    case "--strategy":
+                        strategy = requireValue(args, ++i);
+                        break;
+                    case "--shard":
+                        shard = requireValue(args, ++i);
+                        break;
+                    case "--pack":
+                        pack = requireValue(args, ++i);
+                        break;
+                    case "--preset-store":
+                        presetStorePath = requireValue(args, ++i);
+                        break;
+                    case "--transpositions":
+                        transpositions = Integer.parseInt(requireValue(args, ++i));
+                        break;
+                    case "--transpositions-mid-battle":
+                        transpositionsMidBattle = true;
+                        break;
+                    case "--aggregate":
+                        aggregate = true;
+                        break;
+                    case "--spill-dir":
+                        spillDirectory = requireValue(args, ++i);
+                        aggregate = true;
+                        break;
+                    case "--record":
+                        recordPath = requireValue(args, ++i);
+                        break;
+                    default:
+                        if (input != null || (args[i].startsWith("--") && args[i].length() > 2)) {
+                            throw new IllegalArgumentException("Неизвестный аргумент: " + args[i]);
+                        }
+                        input = args[i];
+                }
+            }
+            if (input == null) {
+                throw new IllegalArgumentException("Не задан источник сценариев");
+            }
+            App app = new App(format, threads, maxInFlight > 0 ? maxInFlight : threads * 4);
+            if (strategy != null) {
+                app.setStrategy(strategy);
+            }
+            if (shard != null) {
+                String[] parts = shard.split("/");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Ожидалось --shard K/N: " + shard);
+                }
+                app.setShard(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+            }
+            PresetTableStore store = null;
+            if (presetStorePath != null) {
+                store = PresetTableStore.open(Paths.get(presetStorePath));
+                app.setPresetStore(store);
+            }
+            BattleTranspositionTable table = null;
+            if (transpositions > 0) {
+                table = new BattleTranspositionTable(transpositions);
+                table.setCheckMidBattle(transpositionsMidBattle);
+                app.setTranspositionTable(table);
+            }
+            if (pack != null) {
+                Summary summary = app.pack(input, stdin, Paths.get(pack), stderr);
+                stderr.println(summary);
+                savePresetStore(store, stderr);
+                return summary.hasErrors() ? 1 : 0;
+            }
+
+            BattleResultStore results = null;
+            if (aggregate) {
+                results = spillDirectory == null ? BattleResultStore.offHeap()
+                        : BattleResultStore.spilling(Paths.get(spillDirectory),
+                                BattleResultStore.DEFAULT_RESIDENT_SEGMENTS);
+                app.setResultStore(results);
+            }
+            CallRecording.Recorder recorder = null;
+
+            try {
+                if (recordPath != null) {
+                    recorder = new CallRecording.Recorder(Paths.get(recordPath));
+                    app.setRecorder(recorder);
+                }
+                // stdout не закрываем, только сбрасываем буфер
+                Writer writer = output == null
+                        ? new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8))
+                        : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8);
+                Summary summary;
+                try {
+                    summary = app.execute(input, stdin, writer, stderr);
+                } finally {
+                    if (output == null) {
+                        writer.flush();
+                    } else {
+                        writer.close();
+                    }
+                }
+                stderr.println(summary);
+                if (printMetrics) {
+                    stderr.println(app.metrics.snapshot());
+                }
+                if (table != null) {
+                    stderr.println(table);
+                }
+                if (results != null) {
+                    printAggregates(results, stderr);
+                }
+                if (recorder != null) {
+                    stderr.println(recorder);
+                }
+                savePresetStore(store, stderr);
+                return summary.hasErrors() ? 1 : 0;
+            } finally {
+                try {
+                    if (recorder != null) {
+                        recorder.close();
+                    }
+                } finally {
+                    if (results != null) {
+                        results.close();
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            stderr.println(e.getMessage());
+            stderr.println(USAGE);
+            return 2;
+        } catch (IOException e) {
+            stderr.println("Ошибка ввода-вывода: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stderr.println("Прогон прерван");
+            return 1;
+        }
+    }
+
+    /**
+     * Дописывает в файл таблицы, решённые за прогон
+     */
+    private static void savePresetStore(PresetTableStore store, PrintStream stderr) throws IOException {
+        if (store == null) {
+            return;
+        }
+        store.save();
+        stderr.println(store);
+    }
+
+    /**
+     * Печатает сводки по итогам прогона
+     */
+    private static void printAggregates(BattleResultStore results, PrintStream stderr) {
+        stderr.println(results);
+        stderr.println("Исходы: " + results.countByOutcome());
+        for (Map.Entry<String, Double> entry : results.meanRoundsByStrategy().entrySet()) {
+            stderr.printf(Locale.ROOT, "Раундов в среднем, %s: %.2f%n", entry.getKey(), entry.getValue());
+        }
+        List<BattleResultStore.CompositionStats> compositions = results.winRateByComposition();
+        for (int i = 0; i < Math.min(AGGREGATE_TOP_COMPOSITIONS, compositions.size()); i++) {
+            stderr.println(compositions.get(i));
+        }
+    }
+
+    private static String requireValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Не задано значение для " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    /**
+     * Выполняет все сценарии источника и пишет результаты в writer.
+     * Двоичный файл сценариев (см. {@link ScenarioFile}) распознаётся по сигнатуре.
+     *
+     * @param input "-" для stdin, путь к файлу или каталогу
+     */
+    Summary execute(String input, InputStream stdin, Writer writer, PrintStream stderr)
+            throws IOException, InterruptedException {
+        ResultWriter results = new ResultWriter(writer, format);
+        results.writeHeader();
+        Batch batch = new Batch(results, stderr);
+        long start = System.nanoTime();
+
+        try {
+            if (!"-".equals(input) && ScenarioFile.isScenarioFile(Paths.get(input))) {
+                runLayouts(Paths.get(input), batch);
+            } else {
+                runScenarios(input, stdin, batch);
+            }
+        } finally {
+            batch.finish();
+        }
+
+        results.flush();
+        return new Summary(batch.scenarios.sum(), results.getWritten(), batch.errors.sum(),
+                System.nanoTime() - start);
+    }
+
+    private void runScenarios(String input, InputStream stdin, Batch batch) throws IOException, InterruptedException {
+        ScenarioRunner runner = new ScenarioRunner(metrics, presetStore, transpositionTable, resultStore, recorder);
+        ScenarioReader reader = new ScenarioReader(input, stdin, batch.stderr);
+        Scenario scenario;
+        while (!batch.isFailed() && (scenario = reader.next()) != null) {
+            batch.scenarios.increment();
+            Scenario current = scenario;
+            for (int repetition = 0; repetition < scenario.getRepeat(); repetition++) {
+                int index = repetition;
+                batch.submit(current.getId() + "#" + index, () -> runner.run(current, index));
+            }
+        }
+        batch.errors.add(reader.getErrors());
+    }
+
+    private void runLayouts(Path path, Batch batch) throws IOException, InterruptedException {
+        ScenarioRunner runner = new ScenarioRunner(metrics, null, transpositionTable, resultStore, recorder);
+        String id = path.getFileName().toString();
+        try (ScenarioFile file = ScenarioFile.open(path)) {
+            // Сценарии shardIndex, shardIndex + shardCount, ... — доступ по индексу без чтения остальных
+            for (int index = shardIndex; index < file.getScenarioCount() && !batch.isFailed(); index += shardCount) {
+                batch.scenarios.increment();
+                int current = index;
+                batch.submit(id + "#" + index, () -> runner.run(id, file, current, strategy));
+            }
+            // Отображение файла должно жить, пока идут бои
+            batch.finish();
+        }
+    }
+
+    /**
+     * Переводит текстовые сценарии в двоичный файл расстановок: по сценарию
+     * на каждый повтор, армии собираются так же, как для боя. Шаблоны юнитов
+     * берутся из первого сценария; сценарии с другими шаблонами пропускаются.
+     */
+    Summary pack(String input, InputStream stdin, Path output, PrintStream stderr) throws IOException {
+        long start = System.nanoTime();
+        ScenarioReader reader = new ScenarioReader(input, stdin, stderr);
+        long scenarios = 0;
+        long mismatched = 0;
+        int layouts = 0;
+        ScenarioFile.Writer writer = null;
+        List<Scenario.UnitTemplate> templates = null;
+
+        try {
+            Scenario scenario;
+            while ((scenario = reader.next()) != null) {
+                if (writer == null) {
+                    templates = scenario.getUnits();
+                    writer = new ScenarioFile.Writer(output, scenario.createTemplates());
+                } else if (!templates.equals(scenario.getUnits())) {
+                    stderr.println(scenario.getId() + ": шаблоны юнитов отличаются от первого сценария");
+                    mismatched++;
+                    continue;
+                }
+                scenarios++;
+                for (int repetition = 0; repetition < scenario.getRepeat(); repetition++) {
+                    Army[] armies = ScenarioRunner.createArmies(scenario, repetition, presetStore, null);
+                    layouts = writer.add(armies[0], armies[1]) + 1;
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        if (writer == null) {
+            stderr.println("Нет ни одного корректного сценария, файл не создан");
+        }
+        return new Summary(scenarios, layouts, reader.getErrors() + mismatched, System.nanoTime() - start);
+    }
+
+    /**
+     * Пул боёв с ограничением числа боёв в работе
+     */
+    private final class Batch {
+        private final ResultWriter results;
+        private final PrintStream stderr;
+        private final ExecutorService executor;
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+        private final LongAdder scenarios = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicReference<IOException> writeFailure = new AtomicReference<>();
+
+        Batch(ResultWriter results, PrintStream stderr) {
+            this.results = results;
+            this.stderr = stderr;
+            this.executor = Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "battle-runner");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /**
+         * Ставит бой в очередь; ждёт, если в работе уже maxInFlight боёв
+         */
+        void submit(String name, BattleTask task) throws InterruptedException {
+            inFlight.acquire();
+            try {
+                executor.execute(() -> {
+                    try {
+                        results.write(task.run());
+                    } catch (IOException e) {
+                        writeFailure.compareAndSet(null, e);
+                    } catch (InterruptedException e) {
+                        // Бой не доигран: считаем его ошибкой, а не тихо теряем
+                        stderr.println(name + ": прерван");
+                        errors.increment();
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException e) {
+                        stderr.println(name + ": " + e);
+                        errors.increment();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Задача не принята, и её finally не выполнится — возвращаем разрешение здесь
+                inFlight.release();
+                throw e;
+            }
+        }
+
+        boolean isFailed() {
+            return writeFailure.get() != null;
+        }
+
+        /**
+         * Дожидается всех боёв; повторный вызов ничего не делает
+         */
+        void finish() throws IOException, InterruptedException {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            if (writeFailure.get() != null) {
+                throw writeFailure.get();
+            }
+        }
+    }
+
+    private interface BattleTask {
+        ScenarioRunner.BattleResult run() throws InterruptedException;
+    }
+
+    /**
+     * Читает текстовые сценарии из всех источников подряд, пропуская
+     * комментарии и некорректные строки (они печатаются в stderr)
+     */
+    private static final class ScenarioReader {
+        private final Iterator<Source> sources;
+        private final PrintStream stderr;
+        private Source source;
+        private BufferedReader reader;
+        private int lineNumber;
+        private long errors;
+
+        ScenarioReader(String input, InputStream stdin, PrintStream stderr) throws IOException {
+            this.sources = sources(input, stdin).iterator();
+            this.stderr = stderr;
+        }
+
+        /**
+         * @return следующий сценарий или null, если источники закончились
+         */
+        Scenario next() throws IOException {
+            while (true) {
+                if (reader == null) {
+                    if (!sources.hasNext()) {
+                        return null;
+                    }
+                    source = sources.next();
+                    reader = source.open();
+                    lineNumber = 0;
+                }
+                String line = reader.readLine();
+                if (line == null) {
+                    reader.close();
+                    reader = null;
+                    continue;
+                }
+                lineNumber++;
+                if (!Scenario.isScenarioLine(line)) {
+                    continue;
+                }
+                try {
+                    return Scenario.parse(line, source.name + ":" + lineNumber);
+                } catch (IllegalArgumentException e) {
+                    stderr.println(source.name + ":" + lineNumber + ": " + e.getMessage());
+                    errors++;
+                }
+            }
+        }
+
+        long getErrors() {
+            return errors;
+        }
+    }
+
+    /**
+     * Источники сценариев в порядке чтения
+     */
+    private static List<Source> sources(String input, InputStream stdin) throws IOException {
+        if ("-".equals(input)) {
+            return Collections.singletonList(new Source("stdin", null, stdin));
+        }
+        Path path = Paths.get(input);
+        if (!Files.exists(path)) {
+            throw new IllegalArgumentException("Источник сценариев не найден: " + input);
+        }
+        if (!Files.isDirectory(path)) {
+            return Collections.singletonList(new Source(path.toString(), path, null));
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*" + SCENARIO_SUFFIX)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        List<Source> sources = new ArrayList<>(files.size());
+        for (Path file : files) {
+            sources.add(new Source(file.getFileName().toString(), file, null));
+        }
+        return sources;
+    }
+
+    private static final class Source {
+        private final String name;
+        private final Path path;
+        private final InputStream stream;
+
+        Source(String name, Path path, InputStream stream) {
+            this.name = name;
+            this.path = path;
+            this.stream = stream;
+        }
+
+        BufferedReader open() throws IOException {
+            if (path != null) {
+                return Files.newBufferedReader(path, StandardCharsets.UTF_8);
+            }
+            // stdin не закрываем вместе с читателем
+            return new BufferedReader(new InputStreamReader(new FilterInputStream(stream) {
+                @Override
+                public void close() {
+                }
+            }, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Итоги прогона
+     */
+    static final class Summary {
+        private final long scenarios;
+        private final long battles;
+        private final long errors;
+        private final long wallNanos;
+
+        Summary(long scenarios, long battles, long errors, long wallNanos) {
+            this.scenarios = scenarios;
+            this.battles = battles;
+            this.errors = errors;
+            this.wallNanos = wallNanos;
+        }
+
+        long getScenarios() {
+            return scenarios;
+        }
+
+        long getBattles() {
+            return battles;
+        }
+
+        long getErrors() {
+            return errors;
+        }
+
+        boolean hasErrors() {
+            return errors > 0;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = wallNanos / 1e9;
+            return String.format(Locale.ROOT, "Сценариев: %d, боёв: %d, ошибок: %d, время: %.2f с, боёв/с: %.1f",
+                    scenarios, battles, errors, seconds, seconds > 0 ? battles / seconds : 0.0);
+        }
     }
 }
@@ -0,0 +1,145 @@
+package as;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import programs.BattleEvent;
+import programs.BattleMetrics;
+import programs.BattleScale;
+import programs.MctsTargetSelector;
+import programs.SimulateBattleImpl;
+import programs.SuitableForAttackUnitsFinderImpl;
+import programs.UnitTargetPathFinderImpl;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Качество выбора цели MCTS в зависимости от бюджета времени на ход:
+ * одни и те же расстановки разыгрываются сначала программами библиотеки,
+ * затем с селектором MCTS у армии игрока при разных бюджетах. Печатает
+ * долю побед игрока, долю оставшегося здоровья и цену хода.
+ *
+ * <pre>
+ * MctsBenchmark [--battles N] [--threads P] [--strategy S] [бюджет, мс ...]
+ * </pre>
+ */
+public class MctsBenchmark {
+    private static final long[] DEFAULT_BUDGETS = { 1, 2, 5, 10, 20 };
+    private static final String UNITS = "units=Мечник:50:20:100,Лучник:30:25:120,Копейщик:40:18:90,Всадник:60:30:200";
+
+    public static void main(String[] args) throws InterruptedException {
+        int battles = 30;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String strategy = Scenario.DEFAULT_STRATEGY;
+        List<Long> budgets = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--battles":
+                    battles = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--strategy":
+                    strategy = Scenario.parseStrategy(args[++i]);
+                    break;
+                default:
+                    budgets.add(Long.parseLong(args[i]));
+            }
+        }
+        if (budgets.isEmpty()) {
+            for (long budget : DEFAULT_BUDGETS) {
+                budgets.add(budget);
+            }
+        }
+
+        Scenario scenario = Scenario.parse("id=mcts budget=1500 seed=23 " + UNITS, "mcts");
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "mcts-rollout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            System.out.printf(Locale.ROOT, "Боёв на строку: %d, стратегия %s, потоков розыгрыша: %d%n",
+                    battles, strategy, threads);
+            System.out.printf(Locale.ROOT, "%10s %7s %7s %7s %8s %9s %10s %12s %9s%n",
+                    "бюджет", "побед", "пораж.", "ничьих", "победы", "здоровье", "мс/ход", "розыгр./ход", "отказы");
+            System.out.println(format("программы", run(scenario, strategy, battles, null), null));
+
+            for (long budget : budgets) {
+                MctsTargetSelector selector = new MctsTargetSelector(executor, threads, BattleScale.STANDARD, budget);
+                selector.setBudgetMillis(budget);
+                Result result = run(scenario, strategy, battles, selector);
+                System.out.println(format(budget + " мс", result, selector.getStatistics()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Result run(Scenario scenario, String strategy, int battles, MctsTargetSelector selector)
+            throws InterruptedException {
+        Result result = new Result();
+        for (int repetition = 0; repetition < battles; repetition++) {
+            Army[] armies = ScenarioRunner.createArmies(scenario, repetition, null, null);
+            ScenarioRunner.assignPrograms(armies[0], armies[1], new SuitableForAttackUnitsFinderImpl(),
+                    new UnitTargetPathFinderImpl());
+            int initialHealth = totalHealth(armies[0]);
+
+            SimulateBattleImpl simulation = new SimulateBattleImpl();
+            simulation.setRoundDelay(0);
+            simulation.setReportResult(false);
+            simulation.setMetrics(new BattleMetrics());
+            simulation.setPlayerTargetSelector(selector);
+            simulation.simulateWithStrategy(armies[0], armies[1], strategy);
+
+            BattleEvent.Outcome outcome = simulation.getLastBattleSummary().getOutcome();
+            if (outcome == BattleEvent.Outcome.PLAYER_WON) {
+                result.wins++;
+            } else if (outcome == BattleEvent.Outcome.COMPUTER_WON) {
+                result.losses++;
+            } else {
+                result.draws++;
+            }
+            result.healthShare += totalHealth(armies[0]) / (double) Math.max(1, initialHealth);
+        }
+        result.battles = battles;
+        return result;
+    }
+
+    private static int totalHealth(Army army) {
+        int total = 0;
+        for (Unit unit : army.getUnits()) {
+            if (unit.isAlive()) {
+                total += Math.max(0, unit.getHealth());
+            }
+        }
+        return total;
+    }
+
+    private static String format(String label, Result result, MctsTargetSelector.Statistics statistics) {
+        String millis = "";
+        String rollouts = "";
+        String fallbacks = "";
+        if (statistics != null) {
+            millis = String.format(Locale.ROOT, "%.2f", statistics.getMillisPerDecision());
+            rollouts = String.format(Locale.ROOT, "%.0f", statistics.getRolloutsPerSearch());
+            fallbacks = String.format(Locale.ROOT, "%.1f%%",
+                    100.0 * statistics.getFallbacks() / Math.max(1, statistics.getDecisions()));
+        }
+        return String.format(Locale.ROOT, "%10s %7d %7d %7d %7.1f%% %8.1f%% %10s %12s %9s",
+                label, result.wins, result.losses, result.draws,
+                100.0 * result.wins / Math.max(1, result.battles),
+                100.0 * result.healthShare / Math.max(1, result.battles),
+                millis, rollouts, fallbacks);
+    }
+
+    private static final class Result {
+        private int battles;
+        private int wins;
+        private int losses;
+        private int draws;
+        private double healthShare;
+    }
+}
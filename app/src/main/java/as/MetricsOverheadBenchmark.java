@@ -0,0 +1,120 @@
+package as;
+
+import com.battle.heroes.army.Army;
+import programs.BattleMetrics;
+import programs.ScenarioFile;
+import programs.SimulateBattleImpl;
+import programs.SuitableForAttackUnitsFinderImpl;
+import programs.UnitTargetPathFinderImpl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Цена замеров фаз {@link BattleMetrics}: одни и те же бои ALTERNATING
+ * с обычным A* идут при включённых и выключенных метриках. Проходы
+ * чередуются, из каждого режима берётся лучший; разница делится на число
+ * замеров фаз, чтобы получить цену одного замера. Расстановки берутся из
+ * двоичного файла сценариев или генерируются из сценария по умолчанию.
+ *
+ * <pre>
+ * MetricsOverheadBenchmark [--battles N] [--warmup N] [--passes N] [--layouts FILE]
+ * </pre>
+ */
+public class MetricsOverheadBenchmark {
+    private static final String SCENARIO = "id=metrics budget=1500 seed=29 "
+            + "units=Мечник:50:20:100,Лучник:30:25:120,Копейщик:40:18:90,Всадник:60:30:200";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int battles = 300;
+        int warmup = 100;
+        int passes = 15;
+        String layouts = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--battles":
+                    battles = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--passes":
+                    passes = Integer.parseInt(args[++i]);
+                    break;
+                case "--layouts":
+                    layouts = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Неизвестный аргумент: " + args[i]);
+            }
+        }
+
+        if (layouts == null) {
+            Scenario scenario = Scenario.parse(SCENARIO, "metrics");
+            run(warmup, battles, passes, repetition -> ScenarioRunner.createArmies(scenario, repetition, null, null));
+        } else {
+            try (ScenarioFile file = ScenarioFile.open(Paths.get(layouts))) {
+                run(warmup, battles, passes, index -> new Army[]{
+                        file.loadArmy(index % file.getScenarioCount(), ScenarioFile.Side.PLAYER),
+                        file.loadArmy(index % file.getScenarioCount(), ScenarioFile.Side.COMPUTER)});
+            }
+        }
+    }
+
+    private static void run(int warmup, int battles, int passes, Layouts layouts) throws InterruptedException {
+        timeBattles(warmup, layouts, new BattleMetrics(), true);
+        timeBattles(warmup, layouts, new BattleMetrics(), false);
+
+        long enabledNanos = Long.MAX_VALUE;
+        long disabledNanos = Long.MAX_VALUE;
+        BattleMetrics.Snapshot snapshot = null;
+        for (int pass = 0; pass < passes; pass++) {
+            BattleMetrics metrics = new BattleMetrics();
+            enabledNanos = Math.min(enabledNanos, timeBattles(battles, layouts, metrics, true));
+            snapshot = metrics.snapshot();
+            disabledNanos = Math.min(disabledNanos, timeBattles(battles, layouts, new BattleMetrics(), false));
+        }
+
+        long timers = 0;
+        for (BattleMetrics.Phase phase : BattleMetrics.Phase.values()) {
+            timers += snapshot.getCount(phase);
+        }
+        System.out.printf(Locale.ROOT, "Метрики, %d боёв ALTERNATING с A*, лучший из %d проходов%n", battles, passes);
+        System.out.printf(Locale.ROOT, "%12s %10s %10s%n", "", "мс/бой", "замеров");
+        System.out.printf(Locale.ROOT, "%12s %10.3f %10d%n", "включены", enabledNanos / 1e6 / battles, timers);
+        System.out.printf(Locale.ROOT, "%12s %10.3f %10d%n", "выключены", disabledNanos / 1e6 / battles, 0);
+        System.out.printf(Locale.ROOT, "Разница: %.1f%%, %.0f нс на замер (из них поиск пути: %d)%n",
+                100.0 * (enabledNanos - disabledNanos) / disabledNanos,
+                (enabledNanos - disabledNanos) / (double) Math.max(1, timers),
+                snapshot.getCount(BattleMetrics.Phase.PATHFINDING));
+    }
+
+    /**
+     * Суммарное время симуляции battles боёв без подготовки армий
+     */
+    private static long timeBattles(int battles, Layouts layouts, BattleMetrics metrics, boolean enabled)
+            throws InterruptedException {
+        metrics.setEnabled(enabled);
+        UnitTargetPathFinderImpl finder = new UnitTargetPathFinderImpl();
+        finder.setMetrics(metrics);
+        long total = 0;
+        for (int battle = 0; battle < battles; battle++) {
+            Army[] armies = layouts.load(battle);
+            ScenarioRunner.assignPrograms(armies[0], armies[1], new SuitableForAttackUnitsFinderImpl(), finder);
+
+            SimulateBattleImpl simulation = new SimulateBattleImpl();
+            simulation.setRoundDelay(0);
+            simulation.setReportResult(false);
+            simulation.setMetrics(metrics);
+            long start = System.nanoTime();
+            simulation.simulateWithStrategy(armies[0], armies[1], "ALTERNATING");
+            total += System.nanoTime() - start;
+        }
+        return total;
+    }
+
+    private interface Layouts {
+        Army[] load(int index);
+    }
+}
@@ -0,0 +1,182 @@
+package as;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import programs.BattleMetrics;
+import programs.BattleScale;
+import programs.CompactPath;
+import programs.IncrementalPathFinder;
+import programs.ScenarioFile;
+import programs.SimulateBattleImpl;
+import programs.SuitableForAttackUnitsFinderImpl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Цена инкрементального перепланирования ({@link IncrementalPathFinder})
+ * против полного A*, в двух частях:
+ * <ul>
+ * <li>записанные бои: программы библиотеки ведут бои ALTERNATING, все их
+ * запросы пути решаются D* Lite и для сравнения полным A*;</li>
+ * <li>преследование: на тех же расстановках первый юнит игрока ход за ходом
+ * идёт к первому юниту компьютера, а между ходами сдвигаются на клетку
+ * несколько других юнитов.</li>
+ * </ul>
+ * Программы библиотеки выбирают цели случайно и доходят до цели за один ход,
+ * поэтому в боях пара (атакующий, цель) повторяется редко; преследование
+ * показывает цену исправления, когда она повторяется.
+ * Расстановки берутся из двоичного файла сценариев или генерируются
+ * из сценария по умолчанию.
+ *
+ * <pre>
+ * ReplanningBenchmark [--battles N] [--layouts FILE] [--warmup N] [--turns N] [--moved N]
+ * </pre>
+ */
+public class ReplanningBenchmark {
+    private static final String SCENARIO = "id=replan budget=1500 seed=29 "
+            + "units=Мечник:50:20:100,Лучник:30:25:120,Копейщик:40:18:90,Всадник:60:30:200";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int battles = 50;
+        int warmup = 20;
+        int turns = 15;
+        int moved = 2;
+        String layouts = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--battles":
+                    battles = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--turns":
+                    turns = Integer.parseInt(args[++i]);
+                    break;
+                case "--moved":
+                    moved = Integer.parseInt(args[++i]);
+                    break;
+                case "--layouts":
+                    layouts = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Неизвестный аргумент: " + args[i]);
+            }
+        }
+
+        if (layouts == null) {
+            Scenario scenario = Scenario.parse(SCENARIO, "replan");
+            Layouts source = repetition -> ScenarioRunner.createArmies(scenario, repetition, null, null);
+            run(warmup, source);
+            report("сценарий " + scenario.getId(), run(battles, source));
+            chase(warmup, turns, moved, source);
+            report("преследование, ходов " + turns, chase(battles, turns, moved, source));
+        } else {
+            try (ScenarioFile file = ScenarioFile.open(Paths.get(layouts))) {
+                int count = Math.min(battles, file.getScenarioCount());
+                Layouts source = index -> new Army[]{
+                        file.loadArmy(index % file.getScenarioCount(), ScenarioFile.Side.PLAYER),
+                        file.loadArmy(index % file.getScenarioCount(), ScenarioFile.Side.COMPUTER)};
+                run(warmup, source);
+                report(layouts, run(count, source));
+                chase(warmup, turns, moved, source);
+                report("преследование, ходов " + turns, chase(count, turns, moved, source));
+            }
+        }
+    }
+
+    private static IncrementalPathFinder.Statistics run(int battles, Layouts layouts) throws InterruptedException {
+        BattleMetrics metrics = new BattleMetrics();
+        IncrementalPathFinder finder = new IncrementalPathFinder();
+        finder.setCompareWithAStar(true);
+        finder.setMetrics(metrics);
+        for (int battle = 0; battle < battles; battle++) {
+            Army[] armies = layouts.load(battle);
+            finder.clear();
+            ScenarioRunner.assignPrograms(armies[0], armies[1], new SuitableForAttackUnitsFinderImpl(), finder);
+
+            SimulateBattleImpl simulation = new SimulateBattleImpl();
+            simulation.setRoundDelay(0);
+            simulation.setReportResult(false);
+            simulation.setMetrics(metrics);
+            simulation.simulateWithStrategy(armies[0], armies[1], "ALTERNATING");
+        }
+        return finder.getStatistics();
+    }
+
+    /**
+     * Преследование на каждой расстановке: атакующий делает шаг по пути,
+     * затем moved случайных юнитов сдвигаются на соседнюю свободную клетку
+     */
+    private static IncrementalPathFinder.Statistics chase(int layoutCount, int turns, int moved, Layouts layouts) {
+        BattleScale scale = BattleScale.STANDARD;
+        IncrementalPathFinder finder = new IncrementalPathFinder();
+        finder.setCompareWithAStar(true);
+        Random random = new Random(43);
+        for (int layout = 0; layout < layoutCount; layout++) {
+            Army[] armies = layouts.load(layout);
+            List<Unit> units = new ArrayList<>(armies[0].getUnits());
+            units.addAll(armies[1].getUnits());
+            if (armies[0].getUnits().isEmpty() || armies[1].getUnits().isEmpty()) {
+                continue;
+            }
+            Unit attacker = armies[0].getUnits().get(0);
+            Unit target = armies[1].getUnits().get(0);
+            finder.clear();
+            for (int turn = 0; turn < turns; turn++) {
+                CompactPath path = finder.getCompactTargetPath(attacker, target, units);
+                if (path.length() <= 2) {
+                    break;
+                }
+                attacker.setxCoordinate(path.getX(1));
+                attacker.setyCoordinate(path.getY(1));
+                for (int i = 0; i < moved; i++) {
+                    step(units.get(random.nextInt(units.size())), attacker, target, units, scale, random);
+                }
+            }
+        }
+        return finder.getStatistics();
+    }
+
+    private static void step(Unit unit, Unit attacker, Unit target, List<Unit> units, BattleScale scale,
+                             Random random) {
+        if (unit == attacker || unit == target) {
+            return;
+        }
+        int x = unit.getxCoordinate() + random.nextInt(3) - 1;
+        int y = unit.getyCoordinate() + random.nextInt(3) - 1;
+        if (x < 0 || x >= scale.getWidth() || y < 0 || y >= scale.getHeight()) {
+            return;
+        }
+        for (Unit other : units) {
+            if (other.getxCoordinate() == x && other.getyCoordinate() == y) {
+                return;
+            }
+        }
+        unit.setxCoordinate(x);
+        unit.setyCoordinate(y);
+    }
+
+    private static void report(String source, IncrementalPathFinder.Statistics statistics) {
+        long searches = Math.max(1, statistics.getSearches());
+        long repairs = Math.max(1, statistics.getRepairs());
+        System.out.printf(Locale.ROOT, "Источник: %s%n", source);
+        System.out.printf(Locale.ROOT, "Запросов пути: %d, новых поисков: %d, исправлений: %d (%.1f%%)%n",
+                statistics.getSearches(), statistics.getRestarts(), statistics.getRepairs(),
+                100.0 * statistics.getRepairs() / searches);
+        System.out.printf(Locale.ROOT, "Клеток сменило занятость за исправление: %.1f%n",
+                statistics.getChangedCells() / (double) repairs);
+        System.out.printf(Locale.ROOT, "%12s %14s %12s%n", "", "раскрытий/поиск", "мкс/поиск");
+        System.out.printf(Locale.ROOT, "%12s %14.1f %12.2f%n", "D* Lite",
+                statistics.getExpansions() / (double) searches, statistics.getNanos() / 1e3 / searches);
+        System.out.printf(Locale.ROOT, "%12s %14.1f %12.2f%n", "A*",
+                statistics.getAStarExpansions() / (double) searches, statistics.getAStarNanos() / 1e3 / searches);
+        System.out.printf(Locale.ROOT, "Расхождений в стоимости пути: %d%n", statistics.getMismatches());
+    }
+
+    private interface Layouts {
+        Army[] load(int index);
+    }
+}
@@ -0,0 +1,372 @@
+package as;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import com.battle.heroes.army.programs.Edge;
+import programs.BattleMetrics;
+import programs.CallRecording;
+import programs.GeneratePresetImpl;
+import programs.SimulateBattleImpl;
+import programs.SuitableForAttackUnitsFinderImpl;
+import programs.UnitTargetPathFinderImpl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Нагрузочное воспроизведение записи вызовов ({@link CallRecording},
+ * записывается через app --record) на текущей сборке. Записанные входные
+ * данные подаются генератору пресетов, поиску атакуемых юнитов, поиску пути
+ * и симуляции в пуле потоков; для каждой точки входа печатаются пропускная
+ * способность и задержки p50/p99/p999 рядом с p99 при записи.
+ *
+ * <pre>
+ * ReplayLoadTest FILE [--threads N] [--speedup X] [--repeat N] [--warmup N] [--top-level]
+ * </pre>
+ *
+ * --speedup X держит записанный темп, ускоренный в X раз: вызов начинается
+ * не раньше своего времени в записи, делённого на X. Если пул отстаёт от
+ * графика, задержка вызова считается от запланированного начала, так что
+ * очередь попадает в хвост задержек, а не прячется в нём. --speedup 0 (по
+ * умолчанию) — без графика: потоки берут вызовы подряд, как только
+ * освободятся, и задержка равна времени самого вызова.
+ *
+ * Вложенные вызовы (поиск пути изнутри записанного боя) воспроизводятся
+ * отдельно, хотя воспроизведение боя делает их заново; --top-level оставляет
+ * только внешние вызовы. --repeat N проигрывает запись N раз подряд,
+ * --warmup N сначала прогоняет без замеров первые N вызовов.
+ * Сборка входных данных и назначение программ юнитам в замер не входят.
+ */
+public class ReplayLoadTest {
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String path = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double speedup = 0;
+        int repeat = 1;
+        int warmup = 1000;
+        boolean topLevel = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--speedup":
+                    speedup = Double.parseDouble(args[++i]);
+                    break;
+                case "--repeat":
+                    repeat = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--top-level":
+                    topLevel = true;
+                    break;
+                default:
+                    if (path != null || args[i].startsWith("--")) {
+                        throw new IllegalArgumentException("Неизвестный аргумент: " + args[i]);
+                    }
+                    path = args[i];
+            }
+        }
+        if (path == null) {
+            throw new IllegalArgumentException("Не задан файл записи вызовов");
+        }
+
+        try (CallRecording recording = CallRecording.open(Paths.get(path))) {
+            System.out.println(recording);
+            int[] calls = selectCalls(recording, topLevel);
+            if (warmup > 0) {
+                replay(recording, Arrays.copyOf(calls, Math.min(warmup, calls.length)), 1, threads, 0);
+            }
+            Report report = replay(recording, calls, repeat, threads, speedup);
+            System.out.printf(Locale.ROOT, "Потоков: %d, ускорение: %s, повторов: %d%n", threads,
+                    speedup > 0 ? speedup + "x" : "без графика", repeat);
+            System.out.println(report);
+        }
+    }
+
+    /**
+     * Номера вызовов записи по порядку начала
+     *
+     * @param topLevel только вызовы, не вложенные в другие записанные
+     */
+    static int[] selectCalls(CallRecording recording, boolean topLevel) {
+        int[] calls = new int[recording.getCallCount()];
+        int count = 0;
+        for (int call = 0; call < recording.getCallCount(); call++) {
+            if (!topLevel || !recording.isNested(call)) {
+                calls[count++] = call;
+            }
+        }
+        return Arrays.copyOf(calls, count);
+    }
+
+    /**
+     * Воспроизводит вызовы calls repeat раз на threads потоках
+     *
+     * @param speedup во сколько раз ускорить записанный темп; 0 — без графика
+     */
+    static Report replay(CallRecording recording, int[] calls, int repeat, int threads, double speedup)
+            throws InterruptedException {
+        if (threads < 1 || repeat < 1 || speedup < 0) {
+            throw new IllegalArgumentException("Некорректные параметры воспроизведения: потоков " + threads
+                    + ", повторов " + repeat + ", ускорение " + speedup);
+        }
+        long first = calls.length == 0 ? 0 : recording.getStartNanos(calls[0]);
+        // Следующий проход начинается, когда в записи закончился последний вызов прохода
+        long last = 1;
+        for (int call : calls) {
+            last = Math.max(last, recording.getStartNanos(call) + recording.getRecordedNanos(call) - first);
+        }
+        long span = last;
+        long total = (long) calls.length * repeat;
+        AtomicLong next = new AtomicLong();
+        Worker[] workers = new Worker[threads];
+        Thread[] pool = new Thread[threads];
+        long origin = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(recording);
+            workers[i] = worker;
+            pool[i] = new Thread(() -> {
+                long task;
+                while ((task = next.getAndIncrement()) < total) {
+                    int call = calls[(int) (task % calls.length)];
+                    long due = speedup == 0 ? 0
+                            : origin + (long) ((recording.getStartNanos(call) - first
+                                    + task / calls.length * span) / speedup);
+                    worker.run(call, due);
+                }
+            }, "replay-" + i);
+            pool[i].start();
+        }
+        for (Thread thread : pool) {
+            thread.join();
+        }
+        long wallNanos = System.nanoTime() - origin;
+
+        Report report = new Report(wallNanos, speedup > 0);
+        for (int call : calls) {
+            report.recorded[recording.getEntryPoint(call).ordinal()].add(recording.getRecordedNanos(call));
+        }
+        for (Worker worker : workers) {
+            for (int i = 0; i < report.latencies.length; i++) {
+                report.latencies[i].addAll(worker.latencies[i]);
+                report.errors[i] += worker.errors[i];
+            }
+            report.maxLag = Math.max(report.maxLag, worker.maxLag);
+        }
+        return report;
+    }
+
+    /**
+     * Поток воспроизведения: свои экземпляры точек входа и свои замеры
+     */
+    private static final class Worker {
+        private final CallRecording recording;
+        private final GeneratePresetImpl preset = new GeneratePresetImpl();
+        private final SuitableForAttackUnitsFinderImpl finder = new SuitableForAttackUnitsFinderImpl();
+        private final UnitTargetPathFinderImpl pathFinder = new UnitTargetPathFinderImpl();
+        private final BattleMetrics metrics = new BattleMetrics();
+        private final Samples[] latencies = Samples.perEntryPoint();
+        private final long[] errors = new long[CallRecording.EntryPoint.values().length];
+        private long maxLag;
+        // Результаты вызовов, чтобы JIT не выбросил их как неиспользуемые
+        private long sink;
+
+        Worker(CallRecording recording) {
+            this.recording = recording;
+            pathFinder.setMetrics(metrics);
+        }
+
+        /**
+         * Выполняет вызов не раньше due (0 — сразу) и записывает его задержку
+         */
+        void run(int call, long due) {
+            CallRecording.EntryPoint entryPoint = recording.getEntryPoint(call);
+            long pickedUp = System.nanoTime();
+            if (due != 0) {
+                for (long wait = due - pickedUp; wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            try {
+                long elapsed;
+                switch (entryPoint) {
+                    case GENERATE: {
+                        CallRecording.Generate input = recording.decodeGenerate(call);
+                        long start = System.nanoTime();
+                        Army army = preset.generate(input.getTemplates(), input.getBudget());
+                        elapsed = System.nanoTime() - start;
+                        sink += army.getUnits().size();
+                        break;
+                    }
+                    case SUITABLE_UNITS: {
+                        CallRecording.SuitableUnits input = recording.decodeSuitableUnits(call);
+                        long start = System.nanoTime();
+                        List<Unit> units = finder.getSuitableUnits(input.getUnitsByRow(), input.isLeftArmyTarget());
+                        elapsed = System.nanoTime() - start;
+                        sink += units.size();
+                        break;
+                    }
+                    case TARGET_PATH: {
+                        CallRecording.TargetPath input = recording.decodeTargetPath(call);
+                        long start = System.nanoTime();
+                        List<Edge> path = pathFinder.getTargetPath(input.getAttacker(), input.getTarget(),
+                                input.getUnits());
+                        elapsed = System.nanoTime() - start;
+                        sink += path.size();
+                        break;
+                    }
+                    case SIMULATE: {
+                        CallRecording.Simulate input = recording.decodeSimulate(call);
+                        ScenarioRunner.assignPrograms(input.getPlayerArmy(), input.getComputerArmy(),
+                                new SuitableForAttackUnitsFinderImpl(), new UnitTargetPathFinderImpl());
+                        SimulateBattleImpl simulation = new SimulateBattleImpl();
+                        simulation.setRoundDelay(0);
+                        simulation.setReportResult(false);
+                        simulation.setMetrics(metrics);
+                        long start = System.nanoTime();
+                        simulation.simulateWithStrategy(input.getPlayerArmy(), input.getComputerArmy(),
+                                input.getStrategy());
+                        elapsed = System.nanoTime() - start;
+                        sink += simulation.getLastBattleSummary().getRounds();
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("Неизвестная точка входа: " + entryPoint);
+                }
+                // Вызов взят из очереди после срока — ожидание в очереди входит в задержку
+                long lag = due != 0 && pickedUp > due ? pickedUp - due : 0;
+                maxLag = Math.max(maxLag, lag);
+                latencies[entryPoint.ordinal()].add(lag + elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errors[entryPoint.ordinal()]++;
+            } catch (RuntimeException e) {
+                errors[entryPoint.ordinal()]++;
+            }
+        }
+    }
+
+    /**
+     * Итоги воспроизведения по точкам входа
+     */
+    static final class Report {
+        private final long wallNanos;
+        private final boolean paced;
+        private final Samples[] latencies = Samples.perEntryPoint();
+        private final Samples[] recorded = Samples.perEntryPoint();
+        private final long[] errors = new long[CallRecording.EntryPoint.values().length];
+        private long maxLag;
+
+        Report(long wallNanos, boolean paced) {
+            this.wallNanos = wallNanos;
+            this.paced = paced;
+        }
+
+        long getCount(CallRecording.EntryPoint entryPoint) {
+            return latencies[entryPoint.ordinal()].size();
+        }
+
+        long getErrors(CallRecording.EntryPoint entryPoint) {
+            return errors[entryPoint.ordinal()];
+        }
+
+        /**
+         * Задержка с квантилем quantile, нс; 0, если вызовов не было
+         */
+        long getPercentileNanos(CallRecording.EntryPoint entryPoint, double quantile) {
+            return latencies[entryPoint.ordinal()].percentile(quantile);
+        }
+
+        /**
+         * Вызовов в секунду за всё воспроизведение
+         */
+        double getThroughput(CallRecording.EntryPoint entryPoint) {
+            return getCount(entryPoint) / (wallNanos / 1e9);
+        }
+
+        /**
+         * Наибольшее отставание от графика, нс
+         */
+        long getMaxLagNanos() {
+            return maxLag;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            Formatter formatter = new Formatter(out, Locale.ROOT);
+            formatter.format("Время: %.2f с%s%n", wallNanos / 1e9,
+                    paced ? String.format(Locale.ROOT, ", наибольшее отставание от графика: %.2f мс", maxLag / 1e6)
+                            : "");
+            formatter.format("%-15s %9s %7s %11s %10s %10s %10s %10s %12s%n", "", "вызовов", "ошибок",
+                    "вызовов/с", "p50 мкс", "p99 мкс", "p999 мкс", "max мкс", "запись p99");
+            for (CallRecording.EntryPoint entryPoint : CallRecording.EntryPoint.values()) {
+                Samples samples = latencies[entryPoint.ordinal()];
+                formatter.format("%-15s %9d %7d %11.1f %10.1f %10.1f %10.1f %10.1f %12.1f%n", entryPoint,
+                        samples.size(), errors[entryPoint.ordinal()], getThroughput(entryPoint),
+                        samples.percentile(QUANTILES[0]) / 1e3, samples.percentile(QUANTILES[1]) / 1e3,
+                        samples.percentile(QUANTILES[2]) / 1e3, samples.percentile(1) / 1e3,
+                        recorded[entryPoint.ordinal()].percentile(0.99) / 1e3);
+            }
+            return out.toString();
+        }
+    }
+
+    /**
+     * Все замеры подряд: квантили считаются точно по отсортированному массиву
+     */
+    private static final class Samples {
+        private long[] values = new long[256];
+        private int size;
+        private boolean sorted = true;
+
+        static Samples[] perEntryPoint() {
+            Samples[] samples = new Samples[CallRecording.EntryPoint.values().length];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = new Samples();
+            }
+            return samples;
+        }
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            sorted = false;
+        }
+
+        void addAll(Samples other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Квантиль по ближайшему рангу, 0 для пустого набора
+         */
+        long percentile(double quantile) {
+            if (size == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(values, 0, size);
+                sorted = true;
+            }
+            int rank = (int) Math.ceil(quantile * size);
+            return values[Math.max(0, Math.min(size, rank) - 1)];
+        }
+    }
+}
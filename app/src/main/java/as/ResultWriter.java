@@ -0,0 +1,119 @@
+package as;
+
+import programs.BattleMetrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Построчная запись результатов боёв в JSON Lines или CSV.
+ * Каждая строка пишется одним вызовом под блокировкой, поэтому результаты
+ * из разных потоков не перемешиваются.
+ */
+final class ResultWriter {
+
+    enum Format {
+        JSONL, CSV;
+
+        static Format parse(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Неизвестный формат: " + value + " (ожидался jsonl или csv)");
+            }
+        }
+    }
+
+    static final String CSV_HEADER = "scenario,repetition,strategy,outcome,rounds,player_units,computer_units,"
+            + "player_survivors,computer_survivors,attacks,kills,swallowed_exceptions,wall_micros";
+
+    private final Writer out;
+    private final Format format;
+    private long written;
+
+    ResultWriter(Writer out, Format format) {
+        this.out = out;
+        this.format = format;
+    }
+
+    /**
+     * Пишет заголовок (только для CSV)
+     */
+    synchronized void writeHeader() throws IOException {
+        if (format == Format.CSV) {
+            out.write(CSV_HEADER);
+            out.write('\n');
+        }
+    }
+
+    synchronized void write(ScenarioRunner.BattleResult result) throws IOException {
+        out.write(format == Format.CSV ? toCsv(result) : toJson(result));
+        out.write('\n');
+        written++;
+    }
+
+    synchronized long getWritten() {
+        return written;
+    }
+
+    synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    static String toJson(ScenarioRunner.BattleResult result) {
+        BattleMetrics.BattleSummary summary = result.getSummary();
+        return "{\"scenario\":\"" + escapeJson(result.getScenarioId()) + "\""
+                + ",\"repetition\":" + result.getRepetition()
+                + ",\"strategy\":\"" + result.getStrategy() + "\""
+                + ",\"outcome\":\"" + summary.getOutcome() + "\""
+                + ",\"rounds\":" + summary.getRounds()
+                + ",\"playerUnits\":" + result.getPlayerUnits()
+                + ",\"computerUnits\":" + result.getComputerUnits()
+                + ",\"playerSurvivors\":" + summary.getPlayerSurvivors()
+                + ",\"computerSurvivors\":" + summary.getComputerSurvivors()
+                + ",\"attacks\":" + summary.getAttacks()
+                + ",\"kills\":" + summary.getKills()
+                + ",\"swallowedExceptions\":" + summary.getSwallowedExceptions()
+                + ",\"wallMicros\":" + summary.getWallNanos() / 1_000 + "}";
+    }
+
+    static String toCsv(ScenarioRunner.BattleResult result) {
+        BattleMetrics.BattleSummary summary = result.getSummary();
+        return escapeCsv(result.getScenarioId())
+                + "," + result.getRepetition()
+                + "," + result.getStrategy()
+                + "," + summary.getOutcome()
+                + "," + summary.getRounds()
+                + "," + result.getPlayerUnits()
+                + "," + result.getComputerUnits()
+                + "," + summary.getPlayerSurvivors()
+                + "," + summary.getComputerSurvivors()
+                + "," + summary.getAttacks()
+                + "," + summary.getKills()
+                + "," + summary.getSwallowedExceptions()
+                + "," + summary.getWallNanos() / 1_000;
+    }
+
+    private static String escapeJson(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String escapeCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,236 @@
+package as;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import programs.BattleMetrics;
+import programs.BattleScale;
+import programs.BoardSnapshot;
+import programs.DistanceOracle;
+import programs.GeneratePresetImpl;
+import programs.SimulateBattleImpl;
+
+import java.util.*;
+
+/**
+ * Кривая масштабирования массового боя: для растущего числа юнитов на сторону
+ * измеряет расстановку армий и первые раунды боя в режиме SIMULTANEOUS на
+ * большом поле и печатает время на юнит-раунд и показатель степени роста
+ * времени раунда между соседними размерами (1 — линейный рост, 2 — квадратичный).
+ *
+ * <pre>
+ * ScalingBenchmark [--board N] [--candidates K] [--rounds R] [--all-up-to N] [размер ...]
+ * </pre>
+ *
+ * Для размеров не больше --all-up-to бой повторяется с выбором цели среди
+ * всех врагов (как на стандартном поле), чтобы было видно, что даёт индекс.
+ *
+ * В конце на стандартном поле сравниваются целые бои с выбором цели через A*
+ * и через {@link DistanceOracle}: время боя, память таблицы, число построенных
+ * строк и инкрементальных обновлений и суммарное время на их поддержку.
+ */
+public class ScalingBenchmark {
+    private static final int[] DEFAULT_SIZES = { 100, 300, 1_000, 3_000, 10_000 };
+    private static final int[] STANDARD_SIZES = { 10, 30, 60 };
+    private static final int UNIT_COST = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        int board = 1_000;
+        int candidates = BattleScale.DEFAULT_MASS_CANDIDATES;
+        int rounds = 3;
+        int allUpTo = 1_000;
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--board":
+                    board = Integer.parseInt(args[++i]);
+                    break;
+                case "--candidates":
+                    candidates = Integer.parseInt(args[++i]);
+                    break;
+                case "--rounds":
+                    rounds = Integer.parseInt(args[++i]);
+                    break;
+                case "--all-up-to":
+                    allUpTo = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    sizes.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (sizes.isEmpty()) {
+            for (int size : DEFAULT_SIZES) {
+                sizes.add(size);
+            }
+        }
+
+        // Прогрев JIT на маленьком бою
+        run(board, 200, candidates, rounds, 1);
+
+        System.out.printf(Locale.ROOT, "Поле %dx%d, кандидатов в цели: %d%n", board, board, candidates);
+        System.out.printf(Locale.ROOT, "%8s %10s %12s %7s %12s %14s %12s %8s%n",
+                "юнитов", "кандидаты", "расстановка", "раундов", "бой, мс", "мкс/юнит-раунд", "мс/раунд", "степень");
+        Result previous = null;
+        for (int size : sizes) {
+            Result result = run(board, size, candidates, rounds, 3);
+            System.out.println(format(result, previous));
+            previous = result;
+        }
+
+        Result previousAll = null;
+        for (int size : sizes) {
+            if (size > allUpTo) {
+                break;
+            }
+            Result result = run(board, size, 0, rounds, 1);
+            System.out.println(format(result, previousAll));
+            previousAll = result;
+        }
+
+        System.out.printf(Locale.ROOT, "%nСтандартное поле %dx%d, бой до конца: A* против таблицы расстояний%n",
+                BoardSnapshot.DEFAULT_WIDTH, BoardSnapshot.DEFAULT_HEIGHT);
+        System.out.printf(Locale.ROOT, "%8s %7s %10s %12s %10s %7s %10s %14s%n",
+                "юнитов", "раундов", "A*, мс", "таблица, мс", "память, КБ", "строк", "обновлений",
+                "поддержка, мс");
+        for (int size : STANDARD_SIZES) {
+            runStandard(size, 0, 3);
+            runStandard(size, SimulateBattleImpl.DEFAULT_DISTANCE_ORACLE_LIMIT, 3);
+            Result aStar = runStandard(size, 0, 20);
+            Result oracle = runStandard(size, SimulateBattleImpl.DEFAULT_DISTANCE_ORACLE_LIMIT, 20);
+            System.out.printf(Locale.ROOT, "%8d %7d %10.2f %12.2f %10.1f %7d %10d %14.2f%n",
+                    size, oracle.rounds, aStar.battleNanos / 1e6, oracle.battleNanos / 1e6,
+                    oracle.oracle.getPeakMemoryFootprintBytes() / 1024.0,
+                    oracle.oracle.getRowBuilds(),
+                    oracle.oracle.getIncrementalUpdates(),
+                    oracle.oracle.getTotalRebuildNanos() / 1e6);
+        }
+    }
+
+    /**
+     * Лучший по времени из repeats одинаковых боёв до конца на стандартном поле
+     *
+     * @param oracleLimit предел памяти под таблицу расстояний, 0 — только A*
+     */
+    private static Result runStandard(int unitsPerSide, long oracleLimit, int repeats) throws InterruptedException {
+        BattleScale scale = BattleScale.of(BoardSnapshot.DEFAULT_WIDTH, BoardSnapshot.DEFAULT_HEIGHT,
+                BattleScale.STANDARD.getDeploymentDepth(), (unitsPerSide + 3) / 4, 0);
+
+        Result best = null;
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            Random random = new Random(unitsPerSide);
+            GeneratePresetImpl preset = new GeneratePresetImpl(scale);
+            Army computerArmy = preset.generate(templates(), unitsPerSide * UNIT_COST, random);
+            Army playerArmy = preset.generate(templates(), unitsPerSide * UNIT_COST, random);
+            for (Unit unit : playerArmy.getUnits()) {
+                unit.setxCoordinate(scale.mirrorX(unit.getxCoordinate()));
+            }
+
+            SimulateBattleImpl simulation = new SimulateBattleImpl();
+            simulation.setScale(scale);
+            simulation.setRoundDelay(0);
+            simulation.setReportResult(false);
+            simulation.setMetrics(new BattleMetrics());
+            simulation.setDistanceOracleLimit(oracleLimit);
+            simulation.simulateWithStrategy(playerArmy, computerArmy, "SIMULTANEOUS");
+
+            BattleMetrics.BattleSummary summary = simulation.getLastBattleSummary();
+            Result result = new Result(computerArmy.getUnits().size(), 0, 0,
+                    summary.getRounds(), summary.getWallNanos());
+            result.oracle = simulation.getLastDistanceOracle();
+            if (best == null || result.battleNanos < best.battleNanos) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Лучший по времени из repeats одинаковых боёв
+     */
+    private static Result run(int board, int unitsPerSide, int candidates, int rounds, int repeats)
+            throws InterruptedException {
+        // Зона расстановки заполнена не больше чем на три четверти
+        int depth = Math.max(1, (int) Math.ceil(unitsPerSide * 4.0 / 3 / board));
+        BattleScale scale = BattleScale.of(board, board, depth, (unitsPerSide + 3) / 4, candidates);
+
+        Result best = null;
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            Random random = new Random(repeat);
+            GeneratePresetImpl preset = new GeneratePresetImpl(scale);
+            long start = System.nanoTime();
+            Army computerArmy = preset.generate(templates(), unitsPerSide * UNIT_COST, random);
+            Army playerArmy = preset.generate(templates(), unitsPerSide * UNIT_COST, random);
+            long placementNanos = System.nanoTime() - start;
+            for (Unit unit : playerArmy.getUnits()) {
+                unit.setxCoordinate(scale.mirrorX(unit.getxCoordinate()));
+            }
+
+            SimulateBattleImpl simulation = new SimulateBattleImpl();
+            simulation.setScale(scale);
+            simulation.setRoundDelay(0);
+            simulation.setReportResult(false);
+            simulation.setMaxRounds(rounds);
+            simulation.setMetrics(new BattleMetrics());
+            simulation.simulateWithStrategy(playerArmy, computerArmy, "SIMULTANEOUS");
+
+            BattleMetrics.BattleSummary summary = simulation.getLastBattleSummary();
+            Result result = new Result(computerArmy.getUnits().size(), candidates, placementNanos,
+                    summary.getRounds(), summary.getWallNanos());
+            if (best == null || result.battleNanos < best.battleNanos) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Четыре типа одной стоимости: бюджет n * UNIT_COST даёт ровно n юнитов
+     */
+    private static List<Unit> templates() {
+        return Arrays.asList(
+                template("Мечник", 50, 20),
+                template("Лучник", 30, 25),
+                template("Копейщик", 40, 18),
+                template("Всадник", 60, 30));
+    }
+
+    private static Unit template(String type, int health, int attack) {
+        return new Unit(type, type, health, attack, UNIT_COST, "", new HashMap<>(), new HashMap<>(), 0, 0);
+    }
+
+    private static String format(Result result, Result previous) {
+        long unitRounds = 2L * result.units * Math.max(1, result.rounds);
+        String exponent = "";
+        if (previous != null && previous.units != result.units) {
+            double perRound = result.battleNanos / (double) Math.max(1, result.rounds);
+            double previousPerRound = previous.battleNanos / (double) Math.max(1, previous.rounds);
+            exponent = String.format(Locale.ROOT, "%.2f",
+                    Math.log(perRound / previousPerRound) / Math.log((double) result.units / previous.units));
+        }
+        return String.format(Locale.ROOT, "%8d %10s %12.1f %7d %12.1f %14.2f %12.2f %8s",
+                result.units,
+                result.candidates == 0 ? "все" : String.valueOf(result.candidates),
+                result.placementNanos / 1e6,
+                result.rounds,
+                result.battleNanos / 1e6,
+                result.battleNanos / 1e3 / unitRounds,
+                result.battleNanos / 1e6 / Math.max(1, result.rounds),
+                exponent);
+    }
+
+    private static final class Result {
+        private final int units;
+        private final int candidates;
+        private final long placementNanos;
+        private final int rounds;
+        private final long battleNanos;
+        private DistanceOracle oracle; // таблица расстояний боя или null
+
+        Result(int units, int candidates, long placementNanos, int rounds, long battleNanos) {
+            this.units = units;
+            this.candidates = candidates;
+            this.placementNanos = placementNanos;
+            this.rounds = rounds;
+            this.battleNanos = battleNanos;
+        }
+    }
+}
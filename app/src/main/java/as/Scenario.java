@@ -0,0 +1,229 @@
+package as;
+
+import com.battle.heroes.army.Unit;
+
+import java.util.*;
+
+/**
+ * Один сценарий пакетного прогона. Сценарий записывается одной строкой
+ * из пар ключ=значение, разделённых пробелами:
+ *
+ * <pre>
+ * id=s1 strategy=SIMULTANEOUS budget=1500 seed=7 repeat=100 units=Мечник:50:20:100,Лучник:30:25:120
+ * </pre>
+ *
+ * units — шаблоны юнитов в виде тип:здоровье:атака:стоимость. Бюджеты сторон
+ * можно задать отдельно через playerBudget и computerBudget. Пустые строки
+ * и строки, начинающиеся с #, пропускаются.
+ */
+final class Scenario {
+    static final String DEFAULT_STRATEGY = "ALTERNATING";
+    static final int DEFAULT_BUDGET = 1500;
+
+    private static final Set<String> STRATEGIES = new HashSet<>(
+            Arrays.asList("ALTERNATING", "PLAYER_FIRST", "COMPUTER_FIRST", "SIMULTANEOUS"));
+
+    private final String id;
+    private final String strategy;
+    private final int playerBudget;
+    private final int computerBudget;
+    private final long seed;
+    private final int repeat;
+    private final List<UnitTemplate> units;
+
+    Scenario(String id, String strategy, int playerBudget, int computerBudget, long seed, int repeat,
+            List<UnitTemplate> units) {
+        this.id = id;
+        this.strategy = strategy;
+        this.playerBudget = playerBudget;
+        this.computerBudget = computerBudget;
+        this.seed = seed;
+        this.repeat = repeat;
+        this.units = Collections.unmodifiableList(new ArrayList<>(units));
+    }
+
+    /**
+     * Проверяет, что строка содержит сценарий, а не комментарий
+     */
+    static boolean isScenarioLine(String line) {
+        String trimmed = line.trim();
+        return !trimmed.isEmpty() && !trimmed.startsWith("#");
+    }
+
+    /**
+     * Разбирает строку сценария
+     *
+     * @param line      строка сценария
+     * @param defaultId идентификатор, если в строке нет id
+     * @throws IllegalArgumentException если строка некорректна
+     */
+    static Scenario parse(String line, String defaultId) {
+        Map<String, String> values = new HashMap<>();
+        for (String token : line.trim().split("\\s+")) {
+            int eq = token.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Ожидалась пара ключ=значение: " + token);
+            }
+            values.put(token.substring(0, eq), token.substring(eq + 1));
+        }
+
+        String strategy = parseStrategy(values.getOrDefault("strategy", DEFAULT_STRATEGY));
+
+        int budget = parseInt(values, "budget", DEFAULT_BUDGET);
+        int repeat = parseInt(values, "repeat", 1);
+        if (repeat < 1) {
+            throw new IllegalArgumentException("repeat должен быть не меньше 1: " + repeat);
+        }
+
+        String unitSpec = values.get("units");
+        if (unitSpec == null || unitSpec.isEmpty()) {
+            throw new IllegalArgumentException("Не задан список юнитов (units=...)");
+        }
+        List<UnitTemplate> units = new ArrayList<>();
+        for (String spec : unitSpec.split(",")) {
+            units.add(UnitTemplate.parse(spec));
+        }
+
+        return new Scenario(
+                values.getOrDefault("id", defaultId),
+                strategy,
+                parseInt(values, "playerBudget", budget),
+                parseInt(values, "computerBudget", budget),
+                values.containsKey("seed") ? parseLong(values.get("seed"), "seed") : 0L,
+                repeat,
+                units);
+    }
+
+    /**
+     * Приводит имя стратегии к виду, который понимает SimulateBattleImpl
+     *
+     * @throws IllegalArgumentException если стратегия неизвестна
+     */
+    static String parseStrategy(String value) {
+        String strategy = value.toUpperCase(Locale.ROOT);
+        if (!STRATEGIES.contains(strategy)) {
+            throw new IllegalArgumentException("Неизвестная стратегия: " + value);
+        }
+        return strategy;
+    }
+
+    private static int parseInt(Map<String, String> values, String key, int defaultValue) {
+        String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное значение " + key + ": " + value);
+        }
+    }
+
+    private static long parseLong(String value, String key) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное значение " + key + ": " + value);
+        }
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getStrategy() {
+        return strategy;
+    }
+
+    int getPlayerBudget() {
+        return playerBudget;
+    }
+
+    int getComputerBudget() {
+        return computerBudget;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    int getRepeat() {
+        return repeat;
+    }
+
+    List<UnitTemplate> getUnits() {
+        return units;
+    }
+
+    /**
+     * Создаёт свежие шаблоны юнитов для генерации армии
+     */
+    List<Unit> createTemplates() {
+        List<Unit> templates = new ArrayList<>(units.size());
+        for (UnitTemplate template : units) {
+            templates.add(template.create());
+        }
+        return templates;
+    }
+
+    /**
+     * Шаблон юнита из описания тип:здоровье:атака:стоимость
+     */
+    static final class UnitTemplate {
+        private final String type;
+        private final int health;
+        private final int attack;
+        private final int cost;
+
+        UnitTemplate(String type, int health, int attack, int cost) {
+            this.type = type;
+            this.health = health;
+            this.attack = attack;
+            this.cost = cost;
+        }
+
+        static UnitTemplate parse(String spec) {
+            String[] parts = spec.split(":");
+            if (parts.length != 4 || parts[0].isEmpty()) {
+                throw new IllegalArgumentException("Ожидался юнит тип:здоровье:атака:стоимость: " + spec);
+            }
+            try {
+                int health = Integer.parseInt(parts[1]);
+                int attack = Integer.parseInt(parts[2]);
+                int cost = Integer.parseInt(parts[3]);
+                if (health <= 0 || attack < 0 || cost <= 0) {
+                    throw new IllegalArgumentException("Некорректные характеристики юнита: " + spec);
+                }
+                return new UnitTemplate(parts[0], health, attack, cost);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Некорректные характеристики юнита: " + spec);
+            }
+        }
+
+        Unit create() {
+            return new Unit(type, type, health, attack, cost, "", new HashMap<>(), new HashMap<>(), 0, 0);
+        }
+
+        String getType() {
+            return type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof UnitTemplate)) {
+                return false;
+            }
+            UnitTemplate other = (UnitTemplate) o;
+            return health == other.health && attack == other.attack && cost == other.cost
+                    && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, health, attack, cost);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package as;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import com.battle.heroes.army.programs.Program;
+import com.battle.heroes.army.programs.SuitableForAttackUnitsFinder;
+import com.battle.heroes.army.programs.UnitTargetPathFinder;
+import com.battle.heroes.army.programs.computer.ComputerArcherProgram;
+import com.battle.heroes.army.programs.computer.ComputerKnightProgram;
+import com.battle.heroes.army.programs.computer.ComputerPikemanProgram;
+import com.battle.heroes.army.programs.computer.ComputerSwordsmanProgram;
+import com.battle.heroes.army.programs.user.UserArcherProgram;
+import com.battle.heroes.army.programs.user.UserKnightProgram;
+import com.battle.heroes.army.programs.user.UserPikemanProgram;
+import com.battle.heroes.army.programs.user.UserSwordsmanProgram;
+import com.battle.heroes.util.GameSpeedUtil;
+import programs.BattleMetrics;
+import programs.BattleResultStore;
+import programs.BattleScale;
+import programs.BattleTranspositionTable;
+import programs.CallRecording;
+import programs.GeneratePresetImpl;
+import programs.PresetTableStore;
+import programs.ScenarioFile;
+import programs.SimulateBattleImpl;
+import programs.SuitableForAttackUnitsFinderImpl;
+import programs.UnitTargetPathFinderImpl;
+
+import java.util.*;
+
+/**
+ * Проводит один бой сценария без интерфейса: обе армии собираются
+ * генератором пресетов из шаблонов сценария, армия игрока зеркально
+ * переносится в правую зону поля, задержки отключены.
+ *
+ * Экземпляр не хранит состояния боя и может использоваться из нескольких потоков.
+ */
+final class ScenarioRunner {
+    // Правая граница стандартного поля: армия игрока стоит в трёх последних колонках
+    private static final int MAX_X = BattleScale.STANDARD.getWidth() - 1;
+
+    private final BattleMetrics metrics;
+    private final PresetTableStore presetStore;
+    private final BattleTranspositionTable transpositionTable;
+    private final BattleResultStore resultStore;
+    private final CallRecording.Recorder recorder;
+
+    /**
+     * @param metrics            метрики движка
+     * @param presetStore        хранилище таблиц составов армии или null, чтобы решать каждый раз
+     * @param transpositionTable таблица исходов боёв SIMULTANEOUS или null, чтобы разыгрывать каждый бой
+     * @param resultStore        хранилище итогов для сводок по прогону или null
+     * @param recorder           запись вызовов генератора, поиска целей и пути и симуляции для
+     *                           нагрузочного воспроизведения или null
+     */
+    ScenarioRunner(BattleMetrics metrics, PresetTableStore presetStore, BattleTranspositionTable transpositionTable,
+            BattleResultStore resultStore, CallRecording.Recorder recorder) {
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+        this.presetStore = presetStore;
+        this.transpositionTable = transpositionTable;
+        this.resultStore = resultStore;
+        this.recorder = recorder;
+    }
+
+    /**
+     * Проводит повтор номер repetition сценария
+     *
+     * @throws InterruptedException если поток был прерван во время боя
+     */
+    BattleResult run(Scenario scenario, int repetition) throws InterruptedException {
+        Army[] armies = createArmies(scenario, repetition, presetStore, recorder);
+        return fight(scenario.getId(), repetition, scenario.getStrategy(), armies[0], armies[1]);
+    }
+
+    /**
+     * Проводит бой по готовой расстановке из двоичного файла сценариев
+     *
+     * @param id   идентификатор источника для результата
+     * @param file файл сценариев
+     * @param index номер сценария в файле
+     * @throws InterruptedException если поток был прерван во время боя
+     */
+    BattleResult run(String id, ScenarioFile file, int index, String strategy) throws InterruptedException {
+        Army playerArmy = file.loadArmy(index, ScenarioFile.Side.PLAYER);
+        Army computerArmy = file.loadArmy(index, ScenarioFile.Side.COMPUTER);
+        return fight(id, index, strategy, playerArmy, computerArmy);
+    }
+
+    /**
+     * Собирает армии повтора: {армия игрока, армия компьютера}
+     *
+     * @param presetStore хранилище таблиц составов или null, чтобы решать каждый раз
+     * @param recorder    запись вызовов генератора или null
+     */
+    static Army[] createArmies(Scenario scenario, int repetition, PresetTableStore presetStore,
+            CallRecording.Recorder recorder) {
+        // Свой генератор на каждый повтор: повторы независимы от порядка выполнения
+        Random random = new Random(scenario.getSeed() * 31 + repetition);
+        GeneratePresetImpl preset = new GeneratePresetImpl(BattleScale.STANDARD, presetStore);
+        Army computerArmy = generate(preset, scenario.createTemplates(), scenario.getComputerBudget(), random,
+                recorder);
+        Army playerArmy = generate(preset, scenario.createTemplates(), scenario.getPlayerBudget(), random, recorder);
+        for (Unit unit : playerArmy.getUnits()) {
+            unit.setxCoordinate(MAX_X - unit.getxCoordinate());
+        }
+        return new Army[]{playerArmy, computerArmy};
+    }
+
+    private static Army generate(GeneratePresetImpl preset, List<Unit> templates, int budget, Random random,
+            CallRecording.Recorder recorder) {
+        if (recorder == null) {
+            return preset.generate(templates, budget, random);
+        }
+        CallRecording.Call call = recorder.beginGenerate(templates, budget);
+        try {
+            return preset.generate(templates, budget, random);
+        } finally {
+            call.finish();
+        }
+    }
+
+    private BattleResult fight(String id, int repetition, String strategy, Army playerArmy, Army computerArmy)
+            throws InterruptedException {
+        // Поиск пути пишет в метрики прогона, а не в общие
+        UnitTargetPathFinderImpl pathFinder = new UnitTargetPathFinderImpl();
+        pathFinder.setMetrics(metrics);
+        if (recorder == null) {
+            assignPrograms(playerArmy, computerArmy, new SuitableForAttackUnitsFinderImpl(), pathFinder);
+        } else {
+            assignPrograms(playerArmy, computerArmy, recorder.wrapFinder(new SuitableForAttackUnitsFinderImpl()),
+                    recorder.wrapPathFinder(pathFinder));
+        }
+
+        SimulateBattleImpl simulation = new SimulateBattleImpl();
+        simulation.setRoundDelay(0);
+        simulation.setReportResult(false);
+        simulation.setMetrics(metrics);
+        simulation.setTranspositionTable(transpositionTable);
+        int[] playerHealth = resultStore == null ? null : healths(playerArmy);
+        int[] computerHealth = resultStore == null ? null : healths(computerArmy);
+        if (recorder == null) {
+            simulation.simulateWithStrategy(playerArmy, computerArmy, strategy);
+        } else {
+            CallRecording.Call call = recorder.beginSimulate(playerArmy, computerArmy, strategy);
+            try {
+                simulation.simulateWithStrategy(playerArmy, computerArmy, strategy);
+            } finally {
+                call.finish();
+            }
+        }
+
+        if (resultStore != null) {
+            BattleMetrics.BattleSummary summary = simulation.getLastBattleSummary();
+            BattleResultStore.Row row = resultStore.newRow()
+                    .setOutcome(summary.getOutcome())
+                    .setStrategy(strategy)
+                    .setRounds(summary.getRounds())
+                    .setDamageDealt(true, damageTaken(computerArmy, computerHealth))
+                    .setDamageDealt(false, damageTaken(playerArmy, playerHealth));
+            for (Unit unit : playerArmy.getUnits()) {
+                row.addUnit(true, unit.getUnitType(), unit.isAlive());
+            }
+            for (Unit unit : computerArmy.getUnits()) {
+                row.addUnit(false, unit.getUnitType(), unit.isAlive());
+            }
+            resultStore.append(row);
+        }
+
+        return new BattleResult(id, repetition, strategy,
+                playerArmy.getUnits().size(), computerArmy.getUnits().size(), simulation.getLastBattleSummary());
+    }
+
+    private static int[] healths(Army army) {
+        List<Unit> units = army.getUnits();
+        int[] healths = new int[units.size()];
+        for (int i = 0; i < healths.length; i++) {
+            healths[i] = units.get(i).getHealth();
+        }
+        return healths;
+    }
+
+    /**
+     * Сколько здоровья армия потеряла за бой
+     *
+     * @param initial здоровье юнитов до боя в порядке армии
+     */
+    private static int damageTaken(Army army, int[] initial) {
+        List<Unit> units = army.getUnits();
+        int damage = 0;
+        for (int i = 0; i < initial.length; i++) {
+            damage += initial[i] - Math.max(0, units.get(i).getHealth());
+        }
+        return damage;
+    }
+
+    /**
+     * Назначает юнитам программы библиотеки без задержек между ходами;
+     * поиск атакуемых юнитов и поиск пути общие для всех юнитов боя
+     */
+    static void assignPrograms(Army playerArmy, Army computerArmy, SuitableForAttackUnitsFinder finder,
+            UnitTargetPathFinder pathFinder) {
+        GameSpeedUtil speed = new GameSpeedUtil(0);
+
+        for (Unit unit : playerArmy.getUnits()) {
+            unit.setProgram(createProgram(unit, playerArmy, computerArmy, true, speed, finder, pathFinder));
+        }
+        for (Unit unit : computerArmy.getUnits()) {
+            unit.setProgram(createProgram(unit, computerArmy, playerArmy, false, speed, finder, pathFinder));
+        }
+    }
+
+    /**
+     * Подбирает программу библиотеки по типу юнита; неизвестные типы воюют как мечники
+     */
+    private static Program createProgram(Unit unit, Army allies, Army enemies, boolean player, GameSpeedUtil speed,
+            SuitableForAttackUnitsFinder finder, UnitTargetPathFinder pathFinder) {
+        switch (unit.getUnitType()) {
+            case "Лучник":
+                return player ? new UserArcherProgram(unit, allies, enemies, speed)
+                        : new ComputerArcherProgram(unit, allies, enemies, speed);
+            case "Всадник":
+                return player ? new UserKnightProgram(unit, allies, enemies, speed, finder, pathFinder)
+                        : new ComputerKnightProgram(unit, allies, enemies, speed, finder, pathFinder);
+            case "Копейщик":
+                return player ? new UserPikemanProgram(unit, allies, enemies, speed, finder, pathFinder)
+                        : new ComputerPikemanProgram(unit, allies, enemies, speed, finder, pathFinder);
+            default:
+                return player ? new UserSwordsmanProgram(unit, allies, enemies, speed, finder, pathFinder)
+                        : new ComputerSwordsmanProgram(unit, allies, enemies, speed, finder, pathFinder);
+        }
+    }
+
+    /**
+     * Результат одного боя пакетного прогона
+     */
+    static final class BattleResult {
+        private final String scenarioId;
+        private final int repetition;
+        private final String strategy;
+        private final int playerUnits;
+        private final int computerUnits;
+        private final BattleMetrics.BattleSummary summary;
+
+        BattleResult(String scenarioId, int repetition, String strategy, int playerUnits, int computerUnits,
+                BattleMetrics.BattleSummary summary) {
+            this.scenarioId = scenarioId;
+            this.repetition = repetition;
+            this.strategy = strategy;
+            this.playerUnits = playerUnits;
+            this.computerUnits = computerUnits;
+            this.summary = summary;
+        }
+
+        String getScenarioId() {
+            return scenarioId;
+        }
+
+        int getRepetition() {
+            return repetition;
+        }
+
+        String getStrategy() {
+            return strategy;
+        }
+
+        int getPlayerUnits() {
+            return playerUnits;
+        }
+
+        int getComputerUnits() {
+            return computerUnits;
+        }
+
+        BattleMetrics.BattleSummary getSummary() {
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package as;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import programs.GeneratePresetImpl;
+import programs.SimulateBattleImpl;
+import programs.SuitableForAttackUnitsFinderImpl;
+import programs.UnitTargetPathFinderImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Бюджеты выделения памяти для точек входа programs.*: на фиксированном
+ * сценарии считает байты, выделенные за одну операцию, по счётчикам
+ * ThreadMXBean и падает, если превышен бюджет из allocation-budgets.properties.
+ *
+ * Каждая операция сначала прогревается, затем берётся минимум по нескольким
+ * замерам: так JIT и случайные выделения JVM не делают тест нестабильным.
+ * Подготовка (сборка армий, назначение программ) в замер не входит.
+ */
+class AllocationBudgetTest {
+    private static final String BUDGETS = "/allocation-budgets.properties";
+    private static final String UNITS = "units=Мечник:50:20:100,Лучник:30:25:120,Копейщик:40:18:90,Всадник:60:30:200";
+    private static final Scenario SCENARIO = Scenario.parse("id=budget budget=1500 seed=17 " + UNITS, "budget");
+
+    private static final int WARMUP = 30;
+    private static final int SAMPLES = 7;
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static Properties budgets;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "JVM не считает выделения по потокам");
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "JVM не считает выделения по потокам");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        budgets = new Properties();
+        try (InputStream in = AllocationBudgetTest.class.getResourceAsStream(BUDGETS)) {
+            assertNotNull(in, "нет файла бюджетов " + BUDGETS);
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                budgets.load(reader);
+            }
+        }
+    }
+
+    @Test
+    void generatePresetStaysWithinBudget() throws Exception {
+        List<Unit> templates = SCENARIO.createTemplates();
+        GeneratePresetImpl preset = new GeneratePresetImpl();
+
+        assertWithinBudget("preset.generate", false, 10, () -> null,
+                state -> preset.generate(templates, SCENARIO.getComputerBudget(), new Random(SCENARIO.getSeed())));
+    }
+
+    @Test
+    void targetPathStaysWithinBudget() throws Exception {
+        Army[] armies = ScenarioRunner.createArmies(SCENARIO, 0, null, null);
+        List<Unit> existing = new ArrayList<>(armies[0].getUnits());
+        existing.addAll(armies[1].getUnits());
+        Unit attacker = armies[1].getUnits().get(0);
+        Unit target = armies[0].getUnits().get(armies[0].getUnits().size() - 1);
+        UnitTargetPathFinderImpl pathFinder = new UnitTargetPathFinderImpl();
+        assertFalse(pathFinder.getTargetPath(attacker, target, existing).isEmpty(), "путь должен существовать");
+
+        assertWithinBudget("pathFinder.getTargetPath", false, 100, () -> null,
+                state -> pathFinder.getTargetPath(attacker, target, existing));
+    }
+
+    @Test
+    void suitableUnitsStayWithinBudget() throws Exception {
+        Army[] armies = ScenarioRunner.createArmies(SCENARIO, 0, null, null);
+        List<List<Unit>> unitsByRow = byRow(armies[0].getUnits());
+        SuitableForAttackUnitsFinderImpl finder = new SuitableForAttackUnitsFinderImpl();
+        assertFalse(finder.getSuitableUnits(unitsByRow, false).isEmpty(), "должны найтись цели");
+
+        assertWithinBudget("finder.getSuitableUnits", false, 1000, () -> null,
+                state -> finder.getSuitableUnits(unitsByRow, false));
+    }
+
+    @Test
+    void alternatingBattleStaysWithinBudget() throws Exception {
+        assertBattleWithinBudget("battle.alternating", "ALTERNATING", false);
+    }
+
+    @Test
+    void simultaneousBattleStaysWithinBudget() throws Exception {
+        // Решения принимаются на ForkJoinPool, поэтому считаются выделения всех потоков
+        assertBattleWithinBudget("battle.simultaneous", "SIMULTANEOUS", true);
+    }
+
+    private void assertBattleWithinBudget(String key, String strategy, boolean allThreads) throws Exception {
+        assertWithinBudget(key, allThreads, 1, () -> {
+            Army[] armies = ScenarioRunner.createArmies(SCENARIO, 0, null, null);
+            ScenarioRunner.assignPrograms(armies[0], armies[1], new SuitableForAttackUnitsFinderImpl(),
+                    new UnitTargetPathFinderImpl());
+            SimulateBattleImpl simulation = new SimulateBattleImpl();
+            simulation.setRoundDelay(0);
+            simulation.setReportResult(false);
+            return new Battle(simulation, armies[0], armies[1]);
+        }, battle -> battle.simulation.simulateWithStrategy(battle.playerArmy, battle.computerArmy, strategy));
+    }
+
+    /**
+     * Замеряет байты на операцию и сравнивает с бюджетом из файла
+     *
+     * @param operations сколько раз выполнить операцию за один замер
+     */
+    private <T> void assertWithinBudget(String key, boolean allThreads, int operations, Setup<T> setup,
+            Operation<T> operation) throws Exception {
+        String value = budgets.getProperty(key);
+        assertNotNull(value, "нет бюджета для " + key + " в " + BUDGETS);
+        long budget = Long.parseLong(value.trim());
+
+        for (int i = 0; i < WARMUP; i++) {
+            T state = setup.prepare();
+            for (int k = 0; k < operations; k++) {
+                operation.run(state);
+            }
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            T state = setup.prepare();
+            Map<Long, Long> before = allocatedBytes(allThreads);
+            for (int k = 0; k < operations; k++) {
+                operation.run(state);
+            }
+            Map<Long, Long> after = allocatedBytes(allThreads);
+            best = Math.min(best, difference(before, after) / operations);
+        }
+
+        assertTrue(best <= budget, String.format(Locale.ROOT,
+                "%s: выделено %d байт на операцию при бюджете %d (%s)", key, best, budget, BUDGETS));
+    }
+
+    /**
+     * Счётчики выделений: текущего потока или всех живых потоков
+     */
+    private static Map<Long, Long> allocatedBytes(boolean allThreads) {
+        long[] ids = allThreads ? threads.getAllThreadIds() : new long[]{Thread.currentThread().threadId()};
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> result = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                result.put(ids[i], bytes[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Потоки, появившиеся за время замера, учитываются целиком
+     */
+    private static long difference(Map<Long, Long> before, Map<Long, Long> after) {
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : after.entrySet()) {
+            total += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+        }
+        return total;
+    }
+
+    private static List<List<Unit>> byRow(List<Unit> units) {
+        Map<Integer, List<Unit>> rows = new TreeMap<>();
+        for (Unit unit : units) {
+            rows.computeIfAbsent(unit.getyCoordinate(), y -> new ArrayList<>()).add(unit);
+        }
+        return new ArrayList<>(rows.values());
+    }
+
+    private interface Setup<T> {
+        T prepare() throws Exception;
+    }
+
+    private interface Operation<T> {
+        void run(T state) throws Exception;
+    }
+
+    private static final class Battle {
+        private final SimulateBattleImpl simulation;
+        private final Army playerArmy;
+        private final Army computerArmy;
+
+        Battle(SimulateBattleImpl simulation, Army playerArmy, Army computerArmy) {
+            this.simulation = simulation;
+            this.playerArmy = playerArmy;
+            this.computerArmy = computerArmy;
+        }
+    }
+}
@@ -1,14 +1,315 @@
-/*
- * This source file was generated by the Gradle 'init' task
- */
 package as;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.battle.heroes.army.Army;
+import programs.BattleEvent;
+import programs.BattleResultStore;
+import programs.BattleTranspositionTable;
+import programs.CallRecording;
+import programs.PresetTableStore;
+import programs.ScenarioFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class AppTest {
-    @Test void appHasAGreeting() {
-        App classUnderTest = new App();
-        assertNotNull(classUnderTest.getGreeting(), "app should have a greeting");
+    private static final String UNITS = "units=Мечник:50:20:100,Лучник:30:25:120,Копейщик:40:18:90,Всадник:60:30:200";
+
+    @Test
+    void parsesScenarioWithDefaults() {
+        Scenario scenario = Scenario.parse("budget=900 " + UNITS, "file:3");
+
+        assertEquals("file:3", scenario.getId());
+        assertEquals(Scenario.DEFAULT_STRATEGY, scenario.getStrategy());
+        assertEquals(900, scenario.getPlayerBudget());
+        assertEquals(900, scenario.getComputerBudget());
+        assertEquals(1, scenario.getRepeat());
+        assertEquals(4, scenario.getUnits().size());
+        assertEquals("Лучник", scenario.getUnits().get(1).getType());
+    }
+
+    @Test
+    void rejectsMalformedScenario() {
+        assertThrows(IllegalArgumentException.class, () -> Scenario.parse("strategy=RANDOM " + UNITS, "x"));
+        assertThrows(IllegalArgumentException.class, () -> Scenario.parse("units=Мечник:50:20", "x"));
+        assertThrows(IllegalArgumentException.class, () -> Scenario.parse("budget=много " + UNITS, "x"));
+        assertFalse(Scenario.isScenarioLine("   # комментарий"));
+    }
+
+    @Test
+    void runsEveryRepetitionAndSkipsBadLines() throws Exception {
+        String input = "id=a strategy=SIMULTANEOUS budget=600 seed=3 repeat=3 " + UNITS + "\n"
+                + "\n"
+                + "not a scenario\n"
+                + "id=b budget=400 repeat=2 " + UNITS + "\n";
+        StringWriter out = new StringWriter();
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+
+        App.Summary summary = new App(ResultWriter.Format.CSV, 2, 2).execute("-",
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out, err);
+
+        assertEquals(2, summary.getScenarios());
+        assertEquals(5, summary.getBattles());
+        assertEquals(1, summary.getErrors());
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(ResultWriter.CSV_HEADER, lines[0]);
+        assertEquals(6, lines.length);
+    }
+
+    @Test
+    void packsLayoutsAndRunsShardOfBinaryFile(@TempDir Path dir) throws Exception {
+        Path text = dir.resolve("corpus.scenarios");
+        Files.write(text, ("id=a budget=600 seed=5 repeat=5 " + UNITS + "\n").getBytes(StandardCharsets.UTF_8));
+        Path binary = dir.resolve("corpus.hsc");
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+
+        App.Summary packed = new App(ResultWriter.Format.JSONL, 1, 1).pack(text.toString(), null, binary, err);
+        assertEquals(5, packed.getBattles());
+        assertTrue(ScenarioFile.isScenarioFile(binary));
+        assertFalse(ScenarioFile.isScenarioFile(text));
+
+        try (ScenarioFile file = ScenarioFile.open(binary)) {
+            assertEquals(5, file.getScenarioCount());
+            ScenarioFile.BattleState state = file.read(4, new ScenarioFile.BattleState());
+            assertEquals(file.getUnitCount(4, ScenarioFile.Side.PLAYER), state.getPlayerCount());
+            assertEquals(file.loadArmy(4, ScenarioFile.Side.COMPUTER).getUnits().get(0).getxCoordinate(),
+                    state.getX(state.getPlayerCount()));
+        }
+
+        App app = new App(ResultWriter.Format.CSV, 2, 2);
+        app.setShard(1, 2);
+        StringWriter out = new StringWriter();
+        App.Summary summary = app.execute(binary.toString(), null, out, err);
+
+        assertEquals(2, summary.getBattles());
+        assertEquals(0, summary.getErrors());
+        assertEquals(3, out.toString().split("\n").length);
+    }
+
+    @Test
+    void rejectsScenarioOffsetOutsideDataArea(@TempDir Path dir) throws Exception {
+        Path text = dir.resolve("corpus.scenarios");
+        Files.write(text, ("id=a budget=600 seed=5 repeat=2 " + UNITS + "\n").getBytes(StandardCharsets.UTF_8));
+        Path binary = dir.resolve("corpus.hsc");
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+        new App(ResultWriter.Format.JSONL, 1, 1).pack(text.toString(), null, binary, err);
+
+        // Второе смещение индекса указывает внутрь самого индекса
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(binary));
+        int index = (int) bytes.getLong(16);
+        bytes.putLong(index + 8, index);
+        Files.write(binary, bytes.array());
+
+        try (ScenarioFile file = ScenarioFile.open(binary)) {
+            assertEquals(2, file.getScenarioCount());
+            file.loadArmy(0, ScenarioFile.Side.PLAYER);
+            UncheckedIOException e = assertThrows(UncheckedIOException.class,
+                    () -> file.loadArmy(1, ScenarioFile.Side.PLAYER));
+            assertTrue(e.getCause().getMessage().startsWith("Повреждён индекс"));
+        }
+    }
+
+    @Test
+    void reusesSolvedPresetTablesAfterRestart(@TempDir Path dir) throws Exception {
+        Path tables = dir.resolve("presets.bin");
+        Scenario scenario = Scenario.parse("budget=1200 seed=9 " + UNITS, "x");
+        Army[] expected = ScenarioRunner.createArmies(scenario, 0, null, null);
+
+        PresetTableStore store = PresetTableStore.open(tables);
+        ScenarioRunner.createArmies(scenario, 0, store, null);
+        assertEquals(1, store.getMisses());
+        assertTrue(store.isDirty());
+        store.save();
+
+        PresetTableStore reopened = PresetTableStore.open(tables);
+        Army[] armies = ScenarioRunner.createArmies(scenario, 0, reopened, null);
+        assertEquals(0, reopened.getMisses());
+        assertEquals(2, reopened.getMappedHits());
+        assertEquals(expected[1].getUnits().size(), armies[1].getUnits().size());
+        assertEquals(expected[1].getUnits().get(0).getxCoordinate(), armies[1].getUnits().get(0).getxCoordinate());
+
+        // Другие шаблоны — другой отпечаток: таблица решается заново
+        ScenarioRunner.createArmies(Scenario.parse("budget=1200 units=Мечник:50:20:100,Лучник:30:25:150", "y"),
+                0, reopened, null);
+        assertEquals(1, reopened.getMisses());
+    }
+
+    @Test
+    void savesPresetTablesAsNewGenerationNextToMappedFile(@TempDir Path dir) throws Exception {
+        Path tables = dir.resolve("presets.bin");
+        PresetTableStore store = PresetTableStore.open(tables);
+        ScenarioRunner.createArmies(Scenario.parse("budget=1200 seed=9 " + UNITS, "x"), 0, store, null);
+        store.save();
+        Path first = store.getCurrentFile();
+        assertEquals(dir.resolve("presets.bin.1"), first);
+
+        // Второе сохранение не трогает отображённый файл, а пишет следующее поколение
+        ScenarioRunner.createArmies(Scenario.parse("budget=1200 units=Мечник:50:20:100,Лучник:30:25:150", "y"),
+                0, store, null);
+        store.save();
+        assertEquals(dir.resolve("presets.bin.2"), store.getCurrentFile());
+        assertFalse(Files.exists(first));
+        assertFalse(Files.exists(tables));
+
+        PresetTableStore reopened = PresetTableStore.open(tables);
+        assertEquals(store.getCurrentFile(), reopened.getCurrentFile());
+        assertEquals(2, reopened.getTableCount());
+    }
+
+    @Test
+    void unreadableNewestGenerationFallsBackAndKeepsOlderFiles(@TempDir Path dir) throws Exception {
+        Path tables = dir.resolve("presets.bin");
+        PresetTableStore store = PresetTableStore.open(tables);
+        ScenarioRunner.createArmies(Scenario.parse("budget=1200 seed=9 " + UNITS, "x"), 0, store, null);
+        store.save();
+        Path valid = store.getCurrentFile();
+        // Недописанное новейшее поколение, например после сбоя при записи
+        Path broken = dir.resolve("presets.bin.2");
+        Files.write(broken, new byte[]{1, 2, 3});
+
+        PresetTableStore reopened = PresetTableStore.open(tables);
+        assertEquals(valid, reopened.getCurrentFile());
+        assertEquals(1, reopened.getTableCount());
+        assertTrue(Files.exists(valid));
+        assertTrue(Files.exists(broken));
+
+        // Следующее сохранение пишет поколение новее непрочитанного и убирает оба старых
+        ScenarioRunner.createArmies(Scenario.parse("budget=1200 units=Мечник:50:20:100,Лучник:30:25:150", "y"),
+                0, reopened, null);
+        reopened.save();
+        assertEquals(dir.resolve("presets.bin.3"), reopened.getCurrentFile());
+        assertFalse(Files.exists(valid));
+        assertFalse(Files.exists(broken));
+        assertEquals(2, PresetTableStore.open(tables).getTableCount());
+    }
+
+    @Test
+    void repeatedSimultaneousBattlesComeFromTranspositionTable() throws Exception {
+        String input = "id=a strategy=SIMULTANEOUS budget=600 seed=7 repeat=2 " + UNITS + "\n"
+                + "id=b strategy=SIMULTANEOUS budget=600 seed=7 repeat=2 " + UNITS + "\n";
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+        BattleTranspositionTable table = new BattleTranspositionTable(64);
+        App app = new App(ResultWriter.Format.CSV, 1, 1);
+        app.setTranspositionTable(table);
+        StringWriter out = new StringWriter();
+
+        App.Summary summary = app.execute("-", new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                out, err);
+
+        assertEquals(4, summary.getBattles());
+        assertEquals(4, table.getLookups());
+        assertEquals(2, table.getHits());
+        // Бои b взяты из таблицы, но итоги совпадают с разыгранными боями a (кроме id и времени)
+        String[] lines = out.toString().split("\n");
+        for (int i = 1; i <= 2; i++) {
+            String[] played = lines[i].split(",");
+            String[] cached = lines[i + 2].split(",");
+            assertEquals("a", played[0]);
+            assertEquals("b", cached[0]);
+            assertEquals(Arrays.asList(played).subList(1, played.length - 1),
+                    Arrays.asList(cached).subList(1, cached.length - 1));
+        }
+    }
+
+    @Test
+    void aggregatesResultsWithoutKeepingRows() throws Exception {
+        String input = "id=a strategy=SIMULTANEOUS budget=600 seed=3 repeat=3 " + UNITS + "\n"
+                + "id=b budget=400 repeat=2 " + UNITS + "\n";
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+        try (BattleResultStore results = BattleResultStore.offHeap()) {
+            App app = new App(ResultWriter.Format.CSV, 2, 2);
+            app.setResultStore(results);
+            StringWriter out = new StringWriter();
+
+            app.execute("-", new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out, err);
+
+            assertEquals(5, results.getRowCount());
+            long outcomes = 0;
+            for (long count : results.countByOutcome().values()) {
+                outcomes += count;
+            }
+            assertEquals(5, outcomes);
+            Map<String, Double> rounds = results.meanRoundsByStrategy();
+            assertEquals(2, rounds.size());
+            assertTrue(rounds.get("SIMULTANEOUS") > 0);
+
+            // Бюджеты сценариев разные — составы армии игрока тоже
+            List<BattleResultStore.CompositionStats> compositions = results.winRateByComposition();
+            assertEquals(2, compositions.size());
+            assertEquals(3, compositions.get(0).getBattles());
+            long wins = 0;
+            for (String line : out.toString().split("\n")) {
+                if (line.contains("," + BattleEvent.Outcome.PLAYER_WON + ",")) {
+                    wins++;
+                }
+            }
+            assertEquals(wins, compositions.get(0).getWins() + compositions.get(1).getWins());
+        }
+    }
+
+    @Test
+    void recordsEntryPointCallsAndReplaysThem(@TempDir Path dir) throws Exception {
+        String input = "id=r budget=1500 seed=11 repeat=3 " + UNITS + "\n";
+        Path file = dir.resolve("battles.calls");
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+        App app = new App(ResultWriter.Format.CSV, 2, 2);
+        try (CallRecording.Recorder recorder = new CallRecording.Recorder(file)) {
+            app.setRecorder(recorder);
+            app.execute("-", new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new StringWriter(), err);
+            assertEquals(0, recorder.getDropped());
+        }
+
+        try (CallRecording recording = CallRecording.open(file)) {
+            assertFalse(recording.isTruncated());
+            Map<CallRecording.EntryPoint, Integer> counts = new EnumMap<>(CallRecording.EntryPoint.class);
+            for (int call = 0; call < recording.getCallCount(); call++) {
+                counts.merge(recording.getEntryPoint(call), 1, Integer::sum);
+                if (call > 0) {
+                    assertTrue(recording.getStartNanos(call - 1) <= recording.getStartNanos(call));
+                }
+                // Программы ищут цели и путь изнутри боя
+                CallRecording.EntryPoint entryPoint = recording.getEntryPoint(call);
+                assertEquals(entryPoint == CallRecording.EntryPoint.SUITABLE_UNITS
+                        || entryPoint == CallRecording.EntryPoint.TARGET_PATH, recording.isNested(call));
+                if (entryPoint == CallRecording.EntryPoint.TARGET_PATH) {
+                    CallRecording.TargetPath path = recording.decodeTargetPath(call);
+                    assertTrue(path.getUnits().stream().anyMatch(unit -> unit == path.getAttacker()));
+                }
+            }
+            assertEquals(6, (int) counts.get(CallRecording.EntryPoint.GENERATE));
+            assertEquals(3, (int) counts.get(CallRecording.EntryPoint.SIMULATE));
+            assertTrue(counts.get(CallRecording.EntryPoint.TARGET_PATH) > 0);
+            int simulate = 0;
+            while (recording.getEntryPoint(simulate) != CallRecording.EntryPoint.SIMULATE) {
+                simulate++;
+            }
+            CallRecording.Simulate battle = recording.decodeSimulate(simulate);
+            assertEquals("ALTERNATING", battle.getStrategy());
+            assertFalse(battle.getPlayerArmy().getUnits().isEmpty());
+
+            int[] calls = ReplayLoadTest.selectCalls(recording, false);
+            ReplayLoadTest.Report report = ReplayLoadTest.replay(recording, calls, 2, 2, 0);
+            for (CallRecording.EntryPoint entryPoint : CallRecording.EntryPoint.values()) {
+                assertEquals(2L * counts.getOrDefault(entryPoint, 0), report.getCount(entryPoint));
+                assertEquals(0, report.getErrors(entryPoint));
+            }
+            assertTrue(report.getPercentileNanos(CallRecording.EntryPoint.SIMULATE, 0.99) > 0);
+            assertEquals(9, ReplayLoadTest.selectCalls(recording, true).length);
+        }
     }
 }
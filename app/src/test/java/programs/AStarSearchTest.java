@@ -0,0 +1,77 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AStarSearchTest {
+    private static final int WIDTH = BoardSnapshot.DEFAULT_WIDTH;
+    private static final int HEIGHT = BoardSnapshot.DEFAULT_HEIGHT;
+
+    @Test
+    void pathDoesNotDependOnThreadOrEarlierSearches() throws Exception {
+        Random random = new Random(17);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int trial = 0; trial < 30; trial++) {
+                List<Unit> units = randomUnits(random, 60 + random.nextInt(120));
+                BoardSnapshot board = BoardSnapshot.fromUnits(WIDTH, HEIGHT, units);
+                int start = random.nextInt(WIDTH * HEIGHT);
+                int goal = random.nextInt(WIDTH * HEIGHT);
+                AStarSearch search = AStarSearch.forCurrentThread(board.getCellCount());
+                int[] expected = search.findPath(board, start, goal);
+                int expectedCost = expected == null ? -1 : search.getLastCost();
+
+                // Буферы другого потока после чужих поисков дают тот же путь и ту же стоимость
+                Future<int[]> other = executor.submit(() -> {
+                    AStarSearch own = AStarSearch.forCurrentThread(board.getCellCount());
+                    own.findPath(board, goal, start);
+                    int[] path = own.findPath(board, start, goal);
+                    assertEquals(expectedCost, path == null ? -1 : own.getLastCost());
+                    return path;
+                });
+                assertArrayEquals(expected, other.get(), "trial " + trial);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void largeBoardBuffersAreReleasedWhenScaleDropsBack() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            int large = AStarSearch.RETAINED_CELL_LIMIT * 4;
+            int standard = WIDTH * HEIGHT;
+            assertEquals(Arrays.asList(large + standard, standard), executor.submit(() -> {
+                AStarSearch.forCurrentThread(standard);
+                AStarSearch first = AStarSearch.forCurrentThread(large);
+                // Повторный поиск на том же большом поле берёт те же буферы
+                assertSame(first, AStarSearch.forCurrentThread(large));
+                int withLarge = AStarSearch.getRetainedCells();
+                AStarSearch.forCurrentThread(standard);
+                return Arrays.asList(withLarge, AStarSearch.getRetainedCells());
+            }).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Unit> randomUnits(Random random, int count) {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            units.add(unit(random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+        }
+        return units;
+    }
+
+    private static Unit unit(int x, int y) {
+        return new Unit("x", "x", 1, 1, 1, "", new HashMap<>(), new HashMap<>(), x, y);
+    }
+}
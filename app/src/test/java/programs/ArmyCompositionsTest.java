@@ -0,0 +1,159 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArmyCompositionsTest {
+
+    @Test
+    void streamMatchesBruteForce() {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 30; trial++) {
+            List<Unit> templates = templates(random, 1 + random.nextInt(4));
+            int budget = 100 + random.nextInt(400);
+            int maxPerType = 1 + random.nextInt(5);
+            int minCost = random.nextBoolean() ? 0 : budget - random.nextInt(150);
+            long minAttack = random.nextBoolean() ? 0 : random.nextInt(120);
+            int archerLimit = random.nextInt(3);
+            boolean customPruning = random.nextBoolean();
+
+            ArmyCompositions compositions = new ArmyCompositions(templates, budget);
+            compositions.setMaxPerType(maxPerType);
+            compositions.setMinCost(minCost);
+            compositions.setMinAttack(minAttack);
+            if (customPruning) {
+                // Не больше archerLimit юнитов первого типа
+                compositions.addPruning(prefix -> prefix.getAssignedTypes() == 0 || prefix.getCount(0) <= archerLimit);
+            }
+
+            Set<List<Integer>> expected = bruteForce(templates, budget, maxPerType, minCost, minAttack,
+                    customPruning ? archerLimit : Integer.MAX_VALUE);
+            String context = "trial " + trial;
+            assertEquals(expected, collect(compositions, false), context);
+            assertEquals(expected, collect(compositions, true), context);
+        }
+    }
+
+    @Test
+    void everyCompositionIsNewArray() {
+        ArmyCompositions compositions = new ArmyCompositions(templates(new Random(2), 3), 300);
+        List<int[]> all = compositions.stream(false).collect(Collectors.toList());
+        Set<int[]> identities = Collections.newSetFromMap(new IdentityHashMap<>());
+        identities.addAll(all);
+        assertEquals(all.size(), identities.size());
+    }
+
+    @Test
+    void splitPartsAreDisjointAndCoverEverything() {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 20; trial++) {
+            List<Unit> templates = templates(random, 2 + random.nextInt(3));
+            int budget = 200 + random.nextInt(400);
+            int minCost = random.nextBoolean() ? 0 : budget / 2;
+            ArmyCompositions compositions = new ArmyCompositions(templates, budget);
+            compositions.setMinCost(minCost);
+            Set<List<Integer>> expected = bruteForce(templates, budget, GeneratePresetImpl.MAX_COUNT_UNITS_PER_TYPE,
+                    minCost, 0, Integer.MAX_VALUE);
+
+            // Часть составов выдаётся до деления, чтобы делился уже начатый обход
+            Spliterator<int[]> root = compositions.spliterator();
+            List<List<Integer>> seen = new ArrayList<>();
+            int advance = random.nextInt(5);
+            for (int i = 0; i < advance && root.tryAdvance(counts -> seen.add(asList(counts))); i++) {
+                // выдаём составы по одному
+            }
+
+            Deque<Spliterator<int[]>> parts = new ArrayDeque<>();
+            parts.push(root);
+            List<Spliterator<int[]>> leaves = new ArrayList<>();
+            while (!parts.isEmpty()) {
+                Spliterator<int[]> part = parts.pop();
+                Spliterator<int[]> other = leaves.size() + parts.size() < 16 ? part.trySplit() : null;
+                if (other == null) {
+                    leaves.add(part);
+                } else {
+                    parts.push(part);
+                    parts.push(other);
+                }
+            }
+            assertTrue(leaves.size() > 1, "trial " + trial);
+
+            for (Spliterator<int[]> leaf : leaves) {
+                leaf.forEachRemaining(counts -> seen.add(asList(counts)));
+            }
+            Set<List<Integer>> unique = new HashSet<>(seen);
+            assertEquals(seen.size(), unique.size(), "повторы, trial " + trial);
+            assertEquals(expected, unique, "trial " + trial);
+        }
+    }
+
+    @Test
+    void splitStopsOnSingleComposition() {
+        ArmyCompositions compositions = new ArmyCompositions(templates(new Random(1), 2), 0);
+        Spliterator<int[]> spliterator = compositions.spliterator();
+        assertNull(spliterator.trySplit());
+        List<List<Integer>> all = new ArrayList<>();
+        spliterator.forEachRemaining(counts -> all.add(asList(counts)));
+        assertEquals(Collections.singletonList(Arrays.asList(0, 0)), all);
+    }
+
+    private static Set<List<Integer>> collect(ArmyCompositions compositions, boolean parallel) {
+        List<List<Integer>> all = compositions.stream(parallel)
+                .map(ArmyCompositionsTest::asList)
+                .collect(Collectors.toList());
+        Set<List<Integer>> unique = new HashSet<>(all);
+        assertEquals(all.size(), unique.size(), "состав встретился дважды");
+        return unique;
+    }
+
+    /**
+     * Все векторы количеств, проверенные по готовому составу
+     */
+    private static Set<List<Integer>> bruteForce(List<Unit> templates, int budget, int maxPerType, int minCost,
+            long minAttack, int firstTypeLimit) {
+        Set<List<Integer>> result = new HashSet<>();
+        int[] counts = new int[templates.size()];
+        while (true) {
+            int cost = 0;
+            long attack = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cost += counts[i] * templates.get(i).getCost();
+                attack += (long) counts[i] * templates.get(i).getBaseAttack();
+            }
+            if (cost <= budget && cost >= minCost && attack >= minAttack
+                    && (counts.length == 0 || counts[0] <= firstTypeLimit)) {
+                result.add(asList(counts));
+            }
+            int type = 0;
+            while (type < counts.length && counts[type] == maxPerType) {
+                counts[type++] = 0;
+            }
+            if (type == counts.length) {
+                return result;
+            }
+            counts[type]++;
+        }
+    }
+
+    private static List<Unit> templates(Random random, int count) {
+        List<Unit> templates = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            templates.add(new Unit("t" + i, "t" + i, 20 + random.nextInt(40), 5 + random.nextInt(30),
+                    20 + random.nextInt(120), "", new HashMap<>(), new HashMap<>(), 0, 0));
+        }
+        return templates;
+    }
+
+    private static List<Integer> asList(int[] counts) {
+        List<Integer> list = new ArrayList<>(counts.length);
+        for (int count : counts) {
+            list.add(count);
+        }
+        return list;
+    }
+}
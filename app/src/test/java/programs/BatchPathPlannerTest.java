@@ -0,0 +1,142 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchPathPlannerTest {
+    private static final int WIDTH = BoardSnapshot.DEFAULT_WIDTH;
+    private static final int HEIGHT = BoardSnapshot.DEFAULT_HEIGHT;
+
+    @Test
+    void resultsComeInRequestOrderAndPickCheapestTarget() {
+        Random random = new Random(31);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int trial = 0; trial < 10; trial++) {
+                List<Unit> units = randomUnits(random, 120);
+                BoardSnapshot board = BoardSnapshot.fromUnits(WIDTH, HEIGHT, units);
+                List<BatchPathPlanner.PathRequest> requests = new ArrayList<>();
+                for (int i = 0; i < 40; i++) {
+                    List<Unit> candidates = new ArrayList<>();
+                    for (int k = random.nextInt(6); k > 0; k--) {
+                        candidates.add(units.get(random.nextInt(units.size())));
+                    }
+                    requests.add(new BatchPathPlanner.PathRequest(units.get(random.nextInt(units.size())), candidates));
+                }
+
+                List<BatchPathPlanner.PlannedPath> planned = new BatchPathPlanner(pool).planAll(board, requests);
+                List<BatchPathPlanner.PlannedPath> fromOracle = new BatchPathPlanner(pool)
+                        .planAll(new DistanceOracle(board), requests);
+
+                assertEquals(requests.size(), planned.size());
+                assertEquals(requests.size(), fromOracle.size());
+                for (int i = 0; i < requests.size(); i++) {
+                    BatchPathPlanner.PathRequest request = requests.get(i);
+                    BatchPathPlanner.PlannedPath result = planned.get(i);
+                    String context = "trial " + trial + ", request " + i;
+                    assertSame(request.getAttacker(), result.getAttacker(), context);
+                    assertSame(cheapest(board, request), result.getTarget(), context);
+                    assertSame(result.getTarget(), fromOracle.get(i).getTarget(), context);
+                    if (result.isReachable()) {
+                        assertEquals(fullCost(board, request.getAttacker(), result.getTarget()), result.getCost(), context);
+                        assertEquals(result.getCost(), fromOracle.get(i).getCost(), context);
+                    } else {
+                        assertTrue(result.getPath().isEmpty(), context);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void equalCostKeepsEarlierCandidate() {
+        Unit attacker = unit(10, 10);
+        Unit left = unit(7, 10);
+        Unit right = unit(13, 10);
+        List<Unit> units = Arrays.asList(attacker, left, right);
+        BoardSnapshot board = BoardSnapshot.fromUnits(WIDTH, HEIGHT, units);
+
+        BatchPathPlanner planner = new BatchPathPlanner();
+        assertSame(right, planner.planAll(board, Collections.singletonList(
+                new BatchPathPlanner.PathRequest(attacker, Arrays.asList(right, left)))).get(0).getTarget());
+        assertSame(left, planner.planAll(board, Collections.singletonList(
+                new BatchPathPlanner.PathRequest(attacker, Arrays.asList(left, right)))).get(0).getTarget());
+    }
+
+    @Test
+    void searchStopsAtCostBound() {
+        Random random = new Random(41);
+        for (int trial = 0; trial < 50; trial++) {
+            BoardSnapshot board = BoardSnapshot.fromUnits(WIDTH, HEIGHT, randomUnits(random, 150));
+            int start = random.nextInt(WIDTH * HEIGHT);
+            int goal = random.nextInt(WIDTH * HEIGHT);
+            AStarSearch search = AStarSearch.forCurrentThread(board.getCellCount());
+            int[] full = search.findPath(board, start, goal);
+            if (full == null) {
+                assertNull(search.findPath(board, start, goal, 1000));
+                continue;
+            }
+            int cost = search.getLastCost();
+
+            // Путь ровно за предел не нужен: планировщик ищет только строго дешевле
+            assertNull(search.findPath(board, start, goal, cost), "trial " + trial);
+            assertArrayEquals(full, search.findPath(board, start, goal, cost + 1), "trial " + trial);
+            assertEquals(cost, search.getLastCost());
+        }
+    }
+
+    @Test
+    void requestKeepsCoordinatesFromCreation() {
+        Unit attacker = unit(0, 0);
+        Unit target = unit(5, 0);
+        BoardSnapshot board = BoardSnapshot.fromUnits(WIDTH, HEIGHT, Arrays.asList(attacker, target));
+        BatchPathPlanner.PathRequest request = new BatchPathPlanner.PathRequest(attacker,
+                Collections.singletonList(target));
+        attacker.setxCoordinate(4);
+
+        BatchPathPlanner.PlannedPath result = new BatchPathPlanner().planAll(board,
+                Collections.singletonList(request)).get(0);
+        assertEquals(5 * AStarSearch.STRAIGHT_COST, result.getCost());
+    }
+
+    /**
+     * Эталон: полный A* до каждого кандидата, при равной стоимости — более ранний
+     */
+    private static Unit cheapest(BoardSnapshot board, BatchPathPlanner.PathRequest request) {
+        Unit best = null;
+        int bestCost = Integer.MAX_VALUE;
+        for (Unit target : request.getTargets()) {
+            int cost = fullCost(board, request.getAttacker(), target);
+            if (cost >= 0 && cost < bestCost) {
+                best = target;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    private static int fullCost(BoardSnapshot board, Unit from, Unit to) {
+        AStarSearch search = AStarSearch.forCurrentThread(board.getCellCount());
+        return search.findPath(board, board.cellIndex(from.getxCoordinate(), from.getyCoordinate()),
+                board.cellIndex(to.getxCoordinate(), to.getyCoordinate())) == null ? -1 : search.getLastCost();
+    }
+
+    private static List<Unit> randomUnits(Random random, int count) {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            units.add(unit(random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+        }
+        return units;
+    }
+
+    private static Unit unit(int x, int y) {
+        return new Unit("u" + x + "," + y, "Мечник", 50, 20, 100, "", new HashMap<>(), new HashMap<>(), x, y);
+    }
+}
@@ -0,0 +1,84 @@
+package programs;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BattleEventTest {
+
+    @Test
+    void eventKeepsValuesFromTheMomentItWasCreated() {
+        Unit attacker = unit("a", 1, 2, 50, 20);
+        Unit target = unit("t", 3, 4, 50, 20);
+
+        BattleEvent attack = BattleEvent.attack(1, attacker, target);
+        target.setHealth(30);
+        target.setxCoordinate(9);
+        BattleEvent damage = BattleEvent.damage(1, attacker, target, 20, 50);
+        target.setHealth(0);
+
+        assertEquals(50, attack.getHealthBefore());
+        assertEquals(50, attack.getHealthAfter());
+        assertEquals(3, attack.getTarget().getX());
+        assertEquals("t", attack.getTarget().getName());
+        assertEquals(50, damage.getHealthBefore());
+        assertEquals(30, damage.getHealthAfter());
+        assertEquals(9, damage.getTarget().getX());
+        assertNull(BattleEvent.roundStart(1).getAttacker());
+    }
+
+    @Test
+    void damageEventsCarryHealthBeforeAndAfterTheStrike() throws InterruptedException {
+        List<BattleEvent> events = new ArrayList<>();
+        // Доставка в потоке симуляции, чтобы после боя все события уже были получены
+        BattleEventPublisher publisher = new BattleEventPublisher(Runnable::run, 16, 4,
+                BattleEventPublisher.OverflowPolicy.BLOCK);
+        publisher.subscribe(new Flow.Subscriber<List<BattleEvent>>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(List<BattleEvent> batch) {
+                events.addAll(batch);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        SimulateBattleImpl simulation = new SimulateBattleImpl();
+        simulation.setRoundDelay(0);
+        simulation.setReportResult(false);
+        simulation.setMetrics(new BattleMetrics());
+        simulation.setEventPublisher(publisher);
+        simulation.simulateWithStrategy(new Army(new ArrayList<>(Collections.singletonList(unit("p", 5, 5, 50, 30)))),
+                new Army(new ArrayList<>(Collections.singletonList(unit("c", 6, 5, 45, 20)))), "SIMULTANEOUS");
+        publisher.close();
+
+        int damageEvents = 0;
+        for (BattleEvent event : events) {
+            if (event.getType() == BattleEvent.Type.DAMAGE) {
+                damageEvents++;
+                assertEquals(Math.max(0, event.getHealthBefore() - event.getDamage()), event.getHealthAfter());
+                assertTrue(event.getHealthBefore() > event.getHealthAfter());
+            }
+        }
+        assertTrue(damageEvents >= 2);
+    }
+
+    private static Unit unit(String name, int x, int y, int health, int attack) {
+        return new Unit(name, "Копейщик", health, attack, 100, "", new HashMap<>(), new HashMap<>(), x, y);
+    }
+}
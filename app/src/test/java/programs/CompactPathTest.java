@@ -0,0 +1,125 @@
+package programs;
+
+import com.battle.heroes.army.programs.Edge;
+import com.battle.heroes.army.programs.EdgeDistance;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactPathTest {
+
+    @Test
+    void packedCoordinatesRoundTrip() {
+        int[] values = { -32768, -2, 0, 1, 26, 255, 256, 4095, 32767 };
+        for (int x : values) {
+            for (int y : values) {
+                CompactPath path = CompactPath.fromPacked(new int[] { CompactPath.pack(x, y) }, 0);
+                assertEquals(x, path.getX(0), x + "," + y);
+                assertEquals(y, path.getY(0), x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void coordinatesOutsideSixteenBitsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> CompactPath.pack(32768, 0));
+        assertThrows(IllegalArgumentException.class, () -> CompactPath.pack(0, -32769));
+
+        // Поле, координаты которого не упаковать, нельзя и создать
+        BattleScale.of(BattleScale.MAX_SIDE, 10, 3, 11, 0);
+        assertThrows(IllegalArgumentException.class, () -> BattleScale.of(BattleScale.MAX_SIDE + 1, 10, 3, 11, 0));
+        assertThrows(IllegalArgumentException.class, () -> BattleScale.mass(100, BattleScale.MAX_SIDE + 1, 3));
+    }
+
+    @Test
+    void fromCellsConvertsBoardIndices() {
+        BoardSnapshot board = BoardSnapshot.fromUnits(BoardSnapshot.DEFAULT_WIDTH, BoardSnapshot.DEFAULT_HEIGHT,
+                new ArrayList<>());
+        int[] cells = { board.cellIndex(0, 0), board.cellIndex(1, 1), board.cellIndex(2, 1), board.cellIndex(26, 20) };
+
+        CompactPath path = CompactPath.fromCells(board, cells.clone(), 42);
+
+        assertEquals(cells.length, path.length());
+        assertEquals(42, path.getCost());
+        for (int i = 0; i < cells.length; i++) {
+            assertEquals(board.cellX(cells[i]), path.getX(i));
+            assertEquals(board.cellY(cells[i]), path.getY(i));
+        }
+    }
+
+    @Test
+    void edgeViewsReadThePackedPoints() {
+        CompactPath path = path(3, 4, 4, 5, 5, 5, 6, 6);
+
+        List<Edge> edges = path.asEdges();
+        assertEquals(4, edges.size());
+        assertTrue(edges instanceof RandomAccess);
+        assertEquals(Arrays.asList("3,4", "4,5", "5,5", "6,6"), coordinates(edges));
+
+        // Edge создаётся при каждом обращении, изменения копии путь не трогают
+        Edge copy = edges.get(1);
+        assertNotSame(copy, edges.get(1));
+        copy.setX(20);
+        assertEquals(4, path.getX(1));
+
+        List<EdgeDistance> distances = path.asEdgeDistances();
+        assertEquals(4, distances.size());
+        for (int i = 0; i < distances.size(); i++) {
+            assertEquals(path.getX(i), distances.get(i).getX());
+            assertEquals(path.getY(i), distances.get(i).getY());
+            assertEquals(i, distances.get(i).getDistance());
+        }
+
+        assertThrows(IndexOutOfBoundsException.class, () -> edges.get(4));
+        assertThrows(IndexOutOfBoundsException.class, () -> distances.get(-1));
+    }
+
+    @Test
+    void firstStepAndSummary() {
+        CompactPath path = path(3, 4, 4, 5, 5, 5);
+        assertEquals(4, path.firstStep().getX());
+        assertEquals(5, path.firstStep().getY());
+
+        CompactPath.Summary summary = path.summary();
+        assertTrue(summary.isFound());
+        assertEquals(3, summary.getLength());
+        assertEquals(24, summary.getCost());
+        assertEquals(4, summary.getFirstStepX());
+        assertEquals(5, summary.getFirstStepY());
+
+        // Путь из одной точки: шагать некуда, первым шагом считается сама точка
+        CompactPath single = path(7, 8);
+        assertNull(single.firstStep());
+        assertEquals(7, single.summary().getFirstStepX());
+        assertEquals(8, single.summary().getFirstStepY());
+    }
+
+    @Test
+    void emptyPath() {
+        CompactPath empty = CompactPath.empty();
+        assertTrue(empty.isEmpty());
+        assertEquals(-1, empty.getCost());
+        assertTrue(empty.asEdges().isEmpty());
+        assertTrue(empty.asEdgeDistances().isEmpty());
+        assertNull(empty.firstStep());
+        assertFalse(empty.summary().isFound());
+    }
+
+    private static CompactPath path(int... coordinates) {
+        int[] packed = new int[coordinates.length / 2];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = CompactPath.pack(coordinates[2 * i], coordinates[2 * i + 1]);
+        }
+        return CompactPath.fromPacked(packed, 24);
+    }
+
+    private static List<String> coordinates(List<Edge> edges) {
+        List<String> result = new ArrayList<>();
+        for (Edge edge : edges) {
+            result.add(edge.getX() + "," + edge.getY());
+        }
+        return result;
+    }
+}
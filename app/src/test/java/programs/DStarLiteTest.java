@@ -0,0 +1,120 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DStarLiteTest {
+    private static final int WIDTH = BoardSnapshot.DEFAULT_WIDTH;
+    private static final int HEIGHT = BoardSnapshot.DEFAULT_HEIGHT;
+
+    @Test
+    void costMatchesAStarAfterOccupancyChangesAndStartMoves() {
+        Random random = new Random(37);
+        for (int trial = 0; trial < 20; trial++) {
+            boolean[] blocked = new boolean[WIDTH * HEIGHT];
+            for (int cell = 0; cell < blocked.length; cell++) {
+                blocked[cell] = random.nextInt(100) < 25;
+            }
+            int start = random.nextInt(blocked.length);
+            int goal = random.nextInt(blocked.length);
+            DStarLite search = new DStarLite(board(blocked), start, goal);
+            assertMatchesAStar(search, blocked, start, goal, "trial " + trial);
+
+            for (int step = 0; step < 40; step++) {
+                // Несколько клеток меняют занятость: юниты погибли или сдвинулись
+                int flips = random.nextInt(6);
+                for (int i = 0; i < flips; i++) {
+                    int cell = random.nextInt(blocked.length);
+                    blocked[cell] = !blocked[cell];
+                }
+
+                // Старт либо делает шаг по найденному пути, либо переносится куда угодно
+                int[] path = search.plan();
+                if (path != null && path.length > 1 && random.nextInt(3) > 0) {
+                    start = path[1];
+                } else if (random.nextInt(4) == 0) {
+                    start = random.nextInt(blocked.length);
+                }
+
+                BoardSnapshot board = board(blocked);
+                search.update(board, start);
+                assertMatchesAStar(search, blocked, start, goal, "trial " + trial + ", step " + step);
+            }
+        }
+    }
+
+    @Test
+    void updateReportsChangedCells() {
+        boolean[] blocked = new boolean[WIDTH * HEIGHT];
+        DStarLite search = new DStarLite(board(blocked), 0, WIDTH * HEIGHT - 1);
+        search.plan();
+
+        blocked[5] = true;
+        blocked[WIDTH + 7] = true;
+        assertEquals(2, search.update(board(blocked), 0));
+        assertEquals(0, search.update(board(blocked), 1));
+    }
+
+    @Test
+    void enclosedGoalHasNoPath() {
+        boolean[] blocked = new boolean[WIDTH * HEIGHT];
+        int goal = 5 * WIDTH + 5;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                blocked[goal + dy * WIDTH + dx] = dx != 0 || dy != 0;
+            }
+        }
+        DStarLite search = new DStarLite(board(blocked), 0, goal);
+        assertNull(search.plan());
+        assertEquals(-1, search.getCost());
+
+        // Сосед цели освободился — путь появляется без пересоздания состояния
+        blocked[goal - 1] = false;
+        search.update(board(blocked), 0);
+        assertMatchesAStar(search, blocked, 0, goal, "после освобождения");
+    }
+
+    private static void assertMatchesAStar(DStarLite search, boolean[] blocked, int start, int goal,
+            String context) {
+        BoardSnapshot board = board(blocked);
+        AStarSearch reference = AStarSearch.forCurrentThread(board.getCellCount());
+        int expected = reference.findPath(board, start, goal) == null ? -1 : reference.getLastCost();
+
+        int[] path = search.plan();
+        assertEquals(expected, search.getCost(), context);
+        if (expected < 0) {
+            assertNull(path, context);
+            return;
+        }
+
+        // Путь идёт из старта в цель по свободным клеткам и стоит ровно getCost
+        assertEquals(start, path[0], context);
+        assertEquals(goal, path[path.length - 1], context);
+        int walked = 0;
+        for (int i = 1; i < path.length; i++) {
+            int dx = Math.abs(path[i] % WIDTH - path[i - 1] % WIDTH);
+            int dy = Math.abs(path[i] / WIDTH - path[i - 1] / WIDTH);
+            assertTrue(dx <= 1 && dy <= 1 && dx + dy > 0, context);
+            if (i < path.length - 1) {
+                assertFalse(blocked[path[i]], context);
+            }
+            walked += dx + dy == 2 ? AStarSearch.DIAGONAL_COST : AStarSearch.STRAIGHT_COST;
+        }
+        assertEquals(expected, walked, context);
+    }
+
+    private static BoardSnapshot board(boolean[] blocked) {
+        List<Unit> units = new ArrayList<>();
+        for (int cell = 0; cell < blocked.length; cell++) {
+            if (blocked[cell]) {
+                units.add(new Unit("x", "x", 1, 1, 1, "", new HashMap<>(), new HashMap<>(),
+                        cell % WIDTH, cell / WIDTH));
+            }
+        }
+        return BoardSnapshot.fromUnits(WIDTH, HEIGHT, units);
+    }
+}
@@ -0,0 +1,202 @@
+package programs;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistanceOracleTest {
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 9;
+
+    @Test
+    void incrementalUpdatesMatchFreshAStar() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 20; trial++) {
+            boolean[] blocked = new boolean[WIDTH * HEIGHT];
+            for (int cell = 0; cell < blocked.length; cell++) {
+                blocked[cell] = random.nextInt(100) < 30;
+            }
+            DistanceOracle oracle = new DistanceOracle(board(blocked));
+            int[] targets = new int[6];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = random.nextInt(blocked.length);
+                oracle.precompute(targets[i] % WIDTH, targets[i] / WIDTH);
+            }
+            assertMatchesAStar(oracle, blocked, targets);
+
+            for (int step = 0; step < 40; step++) {
+                int cell = random.nextInt(blocked.length);
+                if (blocked[cell]) {
+                    oracle.cellFreed(cell % WIDTH, cell / WIDTH);
+                } else {
+                    oracle.cellOccupied(cell % WIDTH, cell / WIDTH);
+                }
+                blocked[cell] = !blocked[cell];
+                assertMatchesAStar(oracle, blocked, targets);
+            }
+        }
+    }
+
+    @Test
+    void freedCellIsUpdatedWithoutRebuildingRows() {
+        boolean[] blocked = new boolean[WIDTH * HEIGHT];
+        // Стена на колонке 5 с одним проходом внизу
+        for (int y = 0; y < HEIGHT - 1; y++) {
+            blocked[y * WIDTH + 5] = true;
+        }
+        DistanceOracle oracle = new DistanceOracle(board(blocked));
+        oracle.precompute(9, 0);
+        long builds = oracle.getRowBuilds();
+        int detour = oracle.distance(1, 0, 9, 0);
+
+        oracle.cellFreed(5, 0);
+        blocked[5] = false;
+
+        assertEquals(builds, oracle.getRowBuilds());
+        assertEquals(1, oracle.getIncrementalUpdates());
+        assertTrue(oracle.distance(1, 0, 9, 0) < detour);
+        assertMatchesAStar(oracle, blocked, new int[] { 9 });
+    }
+
+    @Test
+    void occupiedCellInvalidatesOnlyDependentRows() {
+        boolean[] blocked = new boolean[WIDTH * HEIGHT];
+        DistanceOracle oracle = new DistanceOracle(board(blocked));
+        oracle.precompute(0, 0);
+        oracle.precompute(WIDTH - 1, HEIGHT - 1);
+
+        // Через (11, 1) идёт путь из угла (11, 0) к (11, 8), а к (0, 0) — ни один
+        oracle.cellOccupied(WIDTH - 1, 1);
+        blocked[cellOf(WIDTH - 1, 1)] = true;
+
+        assertEquals(1, oracle.getInvalidations());
+        assertMatchesAStar(oracle, blocked, new int[] { 0, WIDTH * HEIGHT - 1 });
+    }
+
+    @Test
+    void pathFollowsTableAndMatchesDistance() {
+        Random random = new Random(3);
+        boolean[] blocked = new boolean[WIDTH * HEIGHT];
+        for (int cell = 0; cell < blocked.length; cell++) {
+            blocked[cell] = random.nextInt(100) < 25;
+        }
+        DistanceOracle oracle = new DistanceOracle(board(blocked));
+        int goal = cellOf(WIDTH - 1, HEIGHT / 2);
+        for (int start = 0; start < blocked.length; start++) {
+            int cost = oracle.distance(start % WIDTH, start / WIDTH, goal % WIDTH, goal / WIDTH);
+            CompactPath path = oracle.path(start % WIDTH, start / WIDTH, goal % WIDTH, goal / WIDTH);
+            if (cost == DistanceOracle.UNREACHABLE) {
+                assertTrue(path.isEmpty());
+                continue;
+            }
+            assertEquals(cost, path.getCost());
+            assertEquals(start, cellOf(path.getX(0), path.getY(0)));
+            assertEquals(goal, cellOf(path.getX(path.length() - 1), path.getY(path.length() - 1)));
+            int walked = 0;
+            for (int i = 1; i < path.length(); i++) {
+                int dx = Math.abs(path.getX(i) - path.getX(i - 1));
+                int dy = Math.abs(path.getY(i) - path.getY(i - 1));
+                assertTrue(dx <= 1 && dy <= 1 && dx + dy > 0);
+                if (i < path.length() - 1) {
+                    assertFalse(blocked[cellOf(path.getX(i), path.getY(i))]);
+                }
+                walked += dx + dy == 2 ? AStarSearch.DIAGONAL_COST : AStarSearch.STRAIGHT_COST;
+            }
+            assertEquals(cost, walked);
+        }
+    }
+
+    @Test
+    void simultaneousBattleWithOracleMatchesAStar() throws InterruptedException {
+        for (int seed = 0; seed < 5; seed++) {
+            List<Unit> withOracle = battle(seed, SimulateBattleImpl.DEFAULT_DISTANCE_ORACLE_LIMIT, true);
+            List<Unit> withAStar = battle(seed, 0, false);
+            for (int i = 0; i < withOracle.size(); i++) {
+                assertEquals(withAStar.get(i).getHealth(), withOracle.get(i).getHealth(), "seed " + seed);
+            }
+        }
+    }
+
+    private static List<Unit> battle(int seed, long oracleLimit, boolean expectOracle) throws InterruptedException {
+        Random random = new Random(seed);
+        List<Unit> player = new ArrayList<>();
+        List<Unit> computer = new ArrayList<>();
+        Set<Integer> taken = new HashSet<>();
+        for (int i = 0; i < 24; i++) {
+            List<Unit> side = i % 2 == 0 ? player : computer;
+            int x;
+            int y;
+            do {
+                x = random.nextInt(BoardSnapshot.DEFAULT_WIDTH);
+                y = random.nextInt(BoardSnapshot.DEFAULT_HEIGHT);
+            } while (!taken.add(y * BoardSnapshot.DEFAULT_WIDTH + x));
+            side.add(new Unit("u" + i, "Мечник", 40 + random.nextInt(30), 10 + random.nextInt(20), 100, "",
+                    new HashMap<>(), new HashMap<>(), x, y));
+        }
+        Army playerArmy = new Army(player);
+        Army computerArmy = new Army(computer);
+
+        SimulateBattleImpl simulation = new SimulateBattleImpl();
+        simulation.setRoundDelay(0);
+        simulation.setReportResult(false);
+        simulation.setMetrics(new BattleMetrics());
+        simulation.setDistanceOracleLimit(oracleLimit);
+        simulation.simulateWithStrategy(playerArmy, computerArmy, "SIMULTANEOUS");
+
+        DistanceOracle oracle = simulation.getLastDistanceOracle();
+        assertEquals(expectOracle, oracle != null);
+        if (oracle != null) {
+            assertTrue(oracle.getRowsBuilt() > 0);
+            assertTrue(oracle.getIncrementalUpdates() > 0);
+            assertEquals(0, oracle.getInvalidations());
+        }
+
+        List<Unit> units = new ArrayList<>(player);
+        units.addAll(computer);
+        return units;
+    }
+
+    private static void assertMatchesAStar(DistanceOracle oracle, boolean[] blocked, int[] targets) {
+        BoardSnapshot board = board(blocked);
+        AStarSearch search = AStarSearch.forCurrentThread(board.getCellCount());
+        for (int goal : targets) {
+            for (int start = 0; start < blocked.length; start++) {
+                int expected = search.findPath(board, start, goal) == null
+                        ? DistanceOracle.UNREACHABLE
+                        : search.getLastCost();
+                assertEquals(expected, oracle.distance(start % WIDTH, start / WIDTH, goal % WIDTH, goal / WIDTH),
+                        "from " + start + " to " + goal);
+            }
+        }
+    }
+
+    @Test
+    void boardWithDistancesBeyondCharIsRejected() {
+        // Самое длинное расстояние на самом большом поле ещё помещается в строку
+        int cells = DistanceOracle.MAX_CELLS;
+        DistanceOracle line = new DistanceOracle(BoardSnapshot.fromUnits(cells, 1, Collections.emptyList()));
+        assertEquals((cells - 1) * AStarSearch.STRAIGHT_COST, line.distance(0, 0, cells - 1, 0));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new DistanceOracle(BoardSnapshot.fromUnits(cells + 1, 1, Collections.emptyList())));
+    }
+
+    private static BoardSnapshot board(boolean[] blocked) {
+        List<Unit> units = new ArrayList<>();
+        for (int cell = 0; cell < blocked.length; cell++) {
+            if (blocked[cell]) {
+                units.add(new Unit("x", "x", 1, 1, 1, "", new HashMap<>(), new HashMap<>(),
+                        cell % WIDTH, cell / WIDTH));
+            }
+        }
+        return BoardSnapshot.fromUnits(WIDTH, HEIGHT, units);
+    }
+
+    private static int cellOf(int x, int y) {
+        return y * WIDTH + x;
+    }
+}
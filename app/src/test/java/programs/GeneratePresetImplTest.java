@@ -0,0 +1,117 @@
+package programs;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeneratePresetImplTest {
+
+    @Test
+    void massKnapsackMatchesCappedDpWhenCapDoesNotBind() {
+        Random random = new Random(19);
+        for (int trial = 0; trial < 40; trial++) {
+            List<Unit> templates = templates(random, 1 + random.nextInt(4));
+            // Ни одного типа не купить больше 11 штук: лимит не влияет на ответ
+            int budget = random.nextInt(12 * minCost(templates));
+
+            long[] capped = value(templates, armyOf(scale(GeneratePresetImpl.MAX_COUNT_UNITS_PER_TYPE), templates, budget));
+            long[] mass = value(templates, armyOf(scale(Integer.MAX_VALUE), templates, budget));
+
+            assertArrayEquals(capped, mass, "trial " + trial + ", budget " + budget);
+        }
+    }
+
+    @Test
+    void bothSolversMatchBruteForce() {
+        Random random = new Random(29);
+        for (int trial = 0; trial < 40; trial++) {
+            List<Unit> templates = templates(random, 1 + random.nextInt(3));
+            int budget = random.nextInt(800);
+            for (int cap : new int[] { 2, 5, GeneratePresetImpl.MAX_COUNT_UNITS_PER_TYPE, 14 }) {
+                int[] counts = armyOf(scale(cap), templates, budget);
+                String context = "trial " + trial + ", budget " + budget + ", cap " + cap;
+
+                int cost = 0;
+                for (int type = 0; type < counts.length; type++) {
+                    assertTrue(counts[type] <= cap, context);
+                    cost += counts[type] * templates.get(type).getCost();
+                }
+                assertTrue(cost <= budget, context);
+                assertArrayEquals(bruteForce(templates, budget, cap), value(templates, counts), context);
+            }
+        }
+    }
+
+    /**
+     * Эталон: лучшие (атака, здоровье) перебором всех составов
+     */
+    private static long[] bruteForce(List<Unit> templates, int budget, int cap) {
+        return bruteForce(templates, new int[templates.size()], 0, budget, cap);
+    }
+
+    private static long[] bruteForce(List<Unit> templates, int[] counts, int type, int budgetLeft, int cap) {
+        if (type == counts.length) {
+            return value(templates, counts);
+        }
+        long[] best = { 0, 0 };
+        for (int count = 0; count <= cap && count * templates.get(type).getCost() <= budgetLeft; count++) {
+            counts[type] = count;
+            long[] candidate = bruteForce(templates, counts, type + 1,
+                    budgetLeft - count * templates.get(type).getCost(), cap);
+            if (candidate[0] > best[0] || candidate[0] == best[0] && candidate[1] > best[1]) {
+                best = candidate;
+            }
+        }
+        counts[type] = 0;
+        return best;
+    }
+
+    private static int[] armyOf(BattleScale scale, List<Unit> templates, int budget) {
+        Army army = new GeneratePresetImpl(scale).generate(templates, budget, new Random(1));
+        int[] counts = new int[templates.size()];
+        for (Unit unit : army.getUnits()) {
+            for (int type = 0; type < templates.size(); type++) {
+                if (templates.get(type).getUnitType().equals(unit.getUnitType())) {
+                    counts[type]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static long[] value(List<Unit> templates, int[] counts) {
+        long attack = 0;
+        long health = 0;
+        for (int type = 0; type < counts.length; type++) {
+            attack += (long) counts[type] * templates.get(type).getBaseAttack();
+            health += (long) counts[type] * templates.get(type).getHealth();
+        }
+        return new long[] { attack, health };
+    }
+
+    private static BattleScale scale(int cap) {
+        // Зона расстановки вмещает любую армию из тестов
+        return BattleScale.of(40, 40, 20, cap, 0);
+    }
+
+    private static int minCost(List<Unit> templates) {
+        int min = Integer.MAX_VALUE;
+        for (Unit template : templates) {
+            min = Math.min(min, template.getCost());
+        }
+        return min;
+    }
+
+    private static List<Unit> templates(Random random, int count) {
+        List<Unit> templates = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            templates.add(new Unit("t" + i, "t" + i, 20 + random.nextInt(100), 5 + random.nextInt(30),
+                    (10 + random.nextInt(50)) * 5, "", new HashMap<>(), new HashMap<>(), 0, 0));
+        }
+        return templates;
+    }
+}
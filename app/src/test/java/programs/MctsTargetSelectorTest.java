@@ -0,0 +1,242 @@
+package programs;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import com.battle.heroes.army.programs.SuitableForAttackUnitsFinder;
+import com.battle.heroes.army.programs.computer.ComputerSwordsmanProgram;
+import com.battle.heroes.army.programs.user.UserSwordsmanProgram;
+import com.battle.heroes.util.GameSpeedUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MctsTargetSelectorTest {
+
+    @Test
+    void meleeTargetsAreWhatTheFinderSelects() {
+        Unit attacker = unit("Мечник", 25, 5);
+        List<Unit> allies = Arrays.asList(attacker, unit("Лучник", 26, 8), unit("Мечник", 20, 3));
+        List<Unit> enemies = Arrays.asList(unit("Мечник", 2, 5), unit("Копейщик", 0, 6), unit("Всадник", 1, 9),
+                unit("Мечник", 7, 5));
+
+        MctsTargetSelector.BattleModel model = new MctsTargetSelector.BattleModel(attacker, allies, enemies,
+                BattleScale.STANDARD, new SuitableForAttackUnitsFinderImpl());
+
+        // Враг, ушедший из зоны расстановки, и свой юнит вне неё целями ближнего боя не бывают
+        assertEquals(indices(model, SuitableForAttackUnitsFinderImpl.getFrontUnits(
+                new SuitableForAttackUnitsFinderImpl(), enemies, true, BattleScale.STANDARD)),
+                sorted(model.meleeTargets[0]));
+        assertEquals(Arrays.asList(3, 4, 5), sorted(model.meleeTargets[0]));
+        assertEquals(Arrays.asList(0, 1), sorted(model.meleeTargets[1]));
+    }
+
+    @Test
+    void modelUsesTheGivenFinder() {
+        Unit attacker = unit("Мечник", 25, 5);
+        List<Unit> allies = Collections.singletonList(attacker);
+        List<Unit> enemies = Arrays.asList(unit("Мечник", 0, 5), unit("Мечник", 1, 6), unit("Мечник", 2, 7));
+        // Поиск, который пропускает только первую колонку
+        SuitableForAttackUnitsFinder firstColumn = (rows, left) -> new ArrayList<>(rows.get(0));
+
+        MctsTargetSelector.BattleModel model = new MctsTargetSelector.BattleModel(attacker, allies, enemies,
+                BattleScale.STANDARD, firstColumn);
+
+        assertEquals(Collections.singletonList(1), sorted(model.legalTargets(model.root, model.alive)));
+    }
+
+    @Test
+    void legalTargetsSkipDeadUnitsAndArchersSeeEveryone() {
+        Unit swordsman = unit("Мечник", 25, 5);
+        Unit archer = unit("Лучник", 26, 5);
+        List<Unit> allies = Arrays.asList(swordsman, archer);
+        Unit dead = unit("Мечник", 2, 5);
+        dead.setAlive(false);
+        List<Unit> enemies = Arrays.asList(dead, unit("Мечник", 1, 6), unit("Мечник", 10, 7));
+
+        MctsTargetSelector.BattleModel model = new MctsTargetSelector.BattleModel(swordsman, allies, enemies,
+                BattleScale.STANDARD, new SuitableForAttackUnitsFinderImpl());
+
+        assertEquals(Collections.singletonList(3), sorted(model.legalTargets(0, model.alive)));
+        assertEquals(Arrays.asList(3, 4), sorted(model.legalTargets(1, model.alive)));
+    }
+
+    @Test
+    void fallsBackToProgramWhenNothingIsLegal() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MctsTargetSelector selector = new MctsTargetSelector(executor, 1, BattleScale.STANDARD, 1);
+            Unit attacker = unit("Мечник", 25, 5);
+
+            assertNull(selector.selectTarget(attacker, Collections.singletonList(attacker),
+                    Collections.singletonList(unit("Мечник", 10, 5))));
+
+            MctsTargetSelector.Statistics statistics = selector.getStatistics();
+            assertEquals(1, statistics.getDecisions());
+            assertEquals(1, statistics.getFallbacks());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void singleLegalTargetIsForcedWithoutSearch() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MctsTargetSelector selector = new MctsTargetSelector(executor, 1, BattleScale.STANDARD, 1);
+            Unit attacker = unit("Мечник", 25, 5);
+            Unit front = unit("Мечник", 2, 5);
+
+            assertSame(front, selector.selectTarget(attacker, Collections.singletonList(attacker),
+                    Arrays.asList(front, unit("Мечник", 12, 5))));
+
+            MctsTargetSelector.Statistics statistics = selector.getStatistics();
+            assertEquals(1, statistics.getForced());
+            assertEquals(0, statistics.getRollouts());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void fallsBackWhenSomeRootMoveWasNeverPlayed() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MctsTargetSelector selector = new MctsTargetSelector(executor, 1, BattleScale.STANDARD, 1);
+            // Одного розыгрыша не хватает на три хода из корня
+            selector.setMaxRollouts(1);
+            Unit attacker = unit("Мечник", 25, 5);
+
+            assertNull(selector.selectTarget(attacker, Collections.singletonList(attacker),
+                    Arrays.asList(unit("Мечник", 0, 5), unit("Мечник", 1, 6), unit("Мечник", 2, 7))));
+            assertEquals(1, selector.getStatistics().getFallbacks());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void engineRejectsTargetTheProgramCouldNotPick() throws InterruptedException {
+        Unit attacker = unit("Мечник", 25, 5);
+        Unit front = unit("Мечник", 2, 5);
+        Unit behind = unit("Мечник", 10, 5);
+        Army playerArmy = new Army(new ArrayList<>(Collections.singletonList(attacker)));
+        Army computerArmy = new Army(new ArrayList<>(Arrays.asList(front, behind)));
+        GameSpeedUtil speed = new GameSpeedUtil(0);
+        SuitableForAttackUnitsFinderImpl finder = new SuitableForAttackUnitsFinderImpl();
+        UnitTargetPathFinderImpl pathFinder = new UnitTargetPathFinderImpl();
+        pathFinder.setMetrics(new BattleMetrics());
+        attacker.setProgram(new UserSwordsmanProgram(attacker, playerArmy, computerArmy, speed, finder, pathFinder));
+        front.setProgram(new ComputerSwordsmanProgram(front, computerArmy, playerArmy, speed, finder, pathFinder));
+        behind.setProgram(new ComputerSwordsmanProgram(behind, computerArmy, playerArmy, speed, finder, pathFinder));
+
+        SimulateBattleImpl simulation = new SimulateBattleImpl();
+        simulation.setRoundDelay(0);
+        simulation.setReportResult(false);
+        simulation.setMetrics(new BattleMetrics());
+        simulation.setMaxRounds(1);
+        simulation.setPlayerTargetSelector((unit, allies, enemies) -> behind);
+        simulation.simulateWithStrategy(playerArmy, computerArmy, "ALTERNATING");
+
+        // Ход сделала программа: единственный враг в зоне расстановки — front
+        assertEquals(60, behind.getHealth());
+        assertTrue(front.getHealth() < 60);
+    }
+
+    @Test
+    void programStrikeOfSelectedTargetIsPartOfTheAttack() throws InterruptedException {
+        Unit attacker = unit("Мечник", 25, 5);
+        Unit front = unit("Мечник", 2, 5);
+        Army playerArmy = new Army(new ArrayList<>(Collections.singletonList(attacker)));
+        Army computerArmy = new Army(new ArrayList<>(Collections.singletonList(front)));
+        GameSpeedUtil speed = new GameSpeedUtil(0);
+        SuitableForAttackUnitsFinderImpl finder = new SuitableForAttackUnitsFinderImpl();
+        UnitTargetPathFinderImpl pathFinder = new UnitTargetPathFinderImpl();
+        attacker.setProgram(new UserSwordsmanProgram(attacker, playerArmy, computerArmy, speed, finder, pathFinder));
+        front.setProgram(new ComputerSwordsmanProgram(front, computerArmy, playerArmy, speed, finder, pathFinder));
+
+        List<BattleEvent> events = new ArrayList<>();
+        BattleEventPublisher publisher = new BattleEventPublisher(Runnable::run, 16, 4,
+                BattleEventPublisher.OverflowPolicy.BLOCK);
+        publisher.subscribe(new Flow.Subscriber<List<BattleEvent>>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(List<BattleEvent> batch) {
+                events.addAll(batch);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        SimulateBattleImpl simulation = new SimulateBattleImpl();
+        simulation.setRoundDelay(0);
+        simulation.setReportResult(false);
+        simulation.setMetrics(new BattleMetrics());
+        simulation.setEventPublisher(publisher);
+        simulation.setMaxRounds(1);
+        simulation.setPlayerTargetSelector((unit, allies, enemies) -> front);
+        simulation.simulateWithStrategy(playerArmy, computerArmy, "ALTERNATING");
+        publisher.close();
+
+        // Селектор не трогает цель: ATTACK видит полное здоровье, а DAMAGE
+        // включает и удар программы, и урон движка
+        BattleEvent attack = null;
+        BattleEvent damage = null;
+        for (BattleEvent event : events) {
+            if (event.getAttacker() != null && attacker.getName().equals(event.getAttacker().getName())) {
+                if (event.getType() == BattleEvent.Type.ATTACK) {
+                    attack = event;
+                } else if (event.getType() == BattleEvent.Type.DAMAGE) {
+                    damage = event;
+                }
+            }
+        }
+        assertNotNull(attack);
+        assertNotNull(damage);
+        assertEquals(60, attack.getHealthBefore());
+        assertEquals(60, damage.getHealthBefore());
+        assertEquals(2 * attacker.getBaseAttack(), damage.getDamage());
+        assertEquals(20, damage.getHealthAfter());
+        assertEquals(20, front.getHealth());
+    }
+
+    private static List<Integer> indices(MctsTargetSelector.BattleModel model, List<Unit> units) {
+        List<Integer> result = new ArrayList<>();
+        for (Unit unit : units) {
+            for (int i = 0; i < model.units.length; i++) {
+                if (model.units[i] == unit) {
+                    result.add(i);
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<Integer> sorted(int[] values) {
+        List<Integer> result = new ArrayList<>();
+        for (int value : values) {
+            result.add(value);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static Unit unit(String type, int x, int y) {
+        return new Unit(type + x + "," + y, type, 60, 20, 100, "", new HashMap<>(), new HashMap<>(), x, y);
+    }
+}
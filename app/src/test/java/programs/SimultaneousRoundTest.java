@@ -0,0 +1,189 @@
+package programs;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimultaneousRoundTest {
+
+    @Test
+    void unitKilledInTheSameRoundStillStrikes() throws InterruptedException {
+        Unit player = unit("p", 5, 5, 50, 100);
+        Unit computer = unit("c", 6, 5, 50, 60);
+
+        BattleMetrics.BattleSummary summary = fight(Collections.singletonList(player),
+                Collections.singletonList(computer), 0);
+
+        // Игрок ходит первым и убивает врага, но удар врага уже выбран и применяется
+        assertFalse(computer.isAlive());
+        assertFalse(player.isAlive());
+        assertEquals(0, player.getHealth());
+        assertEquals(1, summary.getRounds());
+        assertEquals(2, summary.getAttacks());
+        assertEquals(2, summary.getKills());
+    }
+
+    @Test
+    void strikeAtTargetKilledEarlierInTheRoundIsLost() throws InterruptedException {
+        Unit first = unit("p1", 5, 5, 50, 100);
+        Unit second = unit("p2", 5, 7, 50, 90);
+        Unit computer = unit("c", 6, 5, 50, 1);
+
+        BattleMetrics.BattleSummary summary = fight(Arrays.asList(second, first),
+                Collections.singletonList(computer), 0);
+
+        // Удары применяются по убыванию атаки: p1 убивает цель, удар p2 пропадает
+        assertFalse(computer.isAlive());
+        assertEquals(49, first.getHealth());
+        assertEquals(50, second.getHealth());
+        assertEquals(1, summary.getRounds());
+        assertEquals(2, summary.getAttacks());
+        assertEquals(1, summary.getKills());
+    }
+
+    @Test
+    void targetsAreChosenOnTheBoardFrozenAtRoundStart() throws InterruptedException {
+        // Оба юнита компьютера бьют ближайшего врага по снимку на начало раунда
+        Unit near = unit("near", 5, 5, 30, 10);
+        Unit far = unit("far", 5, 15, 200, 10);
+        Unit left = unit("c1", 6, 5, 100, 40);
+        Unit right = unit("c2", 7, 6, 100, 40);
+
+        BattleMetrics.BattleSummary summary = fight(Arrays.asList(near, far), Arrays.asList(left, right), 1);
+
+        // near погибает от первого удара, второй удар по нему пропадает, far не задет
+        assertFalse(near.isAlive());
+        assertEquals(200, far.getHealth());
+        assertEquals(3, summary.getAttacks());
+        assertEquals(1, summary.getKills());
+    }
+
+    @Test
+    void roundWithoutAttacksEndsBattleWithReasonAndWarnings() throws InterruptedException {
+        // Без типа юнита расчёт урона падает, и ни одна атака раунда не проходит
+        Unit player = broken("p", 5, 5);
+        Unit computer = broken("c", 6, 5);
+
+        Trace.Sink previous = Trace.getSink();
+        Trace.RingBufferSink sink = new Trace.RingBufferSink(16);
+        Trace.setSink(sink);
+        BattleMetrics.BattleSummary summary;
+        try {
+            summary = fight(Collections.singletonList(player), Collections.singletonList(computer), 0);
+        } finally {
+            Trace.setSink(previous);
+        }
+
+        assertEquals(BattleEvent.Outcome.DRAW, summary.getOutcome());
+        assertEquals(BattleMetrics.BattleSummary.EndReason.NO_ATTACKS, summary.getEndReason());
+        assertEquals(1, summary.getRounds());
+        assertEquals(2, summary.getSwallowedExceptions());
+        List<String> warnings = new ArrayList<>();
+        for (Trace.Entry entry : sink.snapshot()) {
+            if (entry.getLevel() == Trace.Level.WARN) {
+                warnings.add(entry.getMessage());
+            }
+        }
+        assertEquals(2, warnings.size());
+        assertTrue(warnings.get(0).contains("юнита p:"));
+        assertTrue(warnings.get(1).contains("юнита c:"));
+    }
+
+    @Test
+    void finishedBattlesReportWhyTheyEnded() throws InterruptedException {
+        BattleMetrics.BattleSummary destroyed = fight(Collections.singletonList(unit("p", 5, 5, 50, 100)),
+                Collections.singletonList(unit("c", 6, 5, 50, 10)), 0);
+        assertEquals(BattleMetrics.BattleSummary.EndReason.ARMY_DESTROYED, destroyed.getEndReason());
+
+        BattleMetrics.BattleSummary limited = fight(Collections.singletonList(unit("p", 5, 5, 500, 10)),
+                Collections.singletonList(unit("c", 6, 5, 500, 10)), 3);
+        assertEquals(BattleMetrics.BattleSummary.EndReason.ROUND_LIMIT, limited.getEndReason());
+        assertEquals(BattleEvent.Outcome.DRAW, limited.getOutcome());
+    }
+
+    @Test
+    void transpositionKeyTellsApartBonusesAndAttackType() {
+        BattleTranspositionTable table = new BattleTranspositionTable();
+        Unit computer = unit("c", 6, 5, 50, 10);
+        Map<String, Double> bonuses = new HashMap<>();
+        bonuses.put("Лучник", 1.5);
+        bonuses.put("Мечник", 0.5);
+        Map<String, Double> reordered = new LinkedHashMap<>();
+        reordered.put("Мечник", 0.5);
+        reordered.put("Лучник", 1.5);
+
+        Unit plain = unit("p", 5, 5, 50, 10);
+        Unit boosted = new Unit("p", "Копейщик", 50, 10, 100, "", bonuses, new HashMap<>(), 5, 5);
+        Unit sameBoost = new Unit("q", "Копейщик", 50, 10, 100, "", reordered, new HashMap<>(), 5, 5);
+        Unit defended = new Unit("p", "Копейщик", 50, 10, 100, "", new HashMap<>(), bonuses, 5, 5);
+        Unit ranged = new Unit("p", "Копейщик", 50, 10, 100, "дальний", new HashMap<>(), new HashMap<>(), 5, 5);
+
+        BattleTranspositionTable.Key key = key(table, plain, computer);
+        assertNotEquals(key, key(table, boosted, computer));
+        assertNotEquals(key, key(table, defended, computer));
+        assertNotEquals(key, key(table, ranged, computer));
+        assertEquals(key(table, boosted, computer), key(table, sameBoost, computer));
+    }
+
+    @Test
+    void cachedBattleIsMarkedAndFailedBattleIsNotStored() throws InterruptedException {
+        BattleTranspositionTable table = new BattleTranspositionTable();
+        BattleMetrics.BattleSummary played = fight(table, unit("p", 5, 5, 50, 20), unit("c", 8, 5, 50, 10));
+        BattleMetrics.BattleSummary cached = fight(table, unit("p", 5, 5, 50, 20), unit("c", 8, 5, 50, 10));
+        assertEquals(0, played.getCachedRounds());
+        assertEquals(played.getRounds(), cached.getCachedRounds());
+        assertEquals(played.getRounds(), cached.getRounds());
+        assertEquals(1, table.getStores());
+
+        // Ошибки в бою: исход не записывается и в следующий раз бой разыгрывается снова
+        fight(table, broken("p", 5, 5), broken("c", 6, 5));
+        BattleMetrics.BattleSummary again = fight(table, broken("p", 5, 5), broken("c", 6, 5));
+        assertEquals(0, again.getCachedRounds());
+        assertEquals(2, again.getSwallowedExceptions());
+        assertEquals(1, table.getStores());
+    }
+
+    private static BattleTranspositionTable.Key key(BattleTranspositionTable table, Unit player, Unit computer) {
+        return table.key(BattleScale.STANDARD, Collections.singletonList(player),
+                Collections.singletonList(computer), 0);
+    }
+
+    private static BattleMetrics.BattleSummary fight(BattleTranspositionTable table, Unit player, Unit computer)
+            throws InterruptedException {
+        SimulateBattleImpl simulation = new SimulateBattleImpl();
+        simulation.setRoundDelay(0);
+        simulation.setReportResult(false);
+        simulation.setMetrics(new BattleMetrics());
+        simulation.setTranspositionTable(table);
+        simulation.simulateWithStrategy(new Army(new ArrayList<>(Collections.singletonList(player))),
+                new Army(new ArrayList<>(Collections.singletonList(computer))), "SIMULTANEOUS");
+        return simulation.getLastBattleSummary();
+    }
+
+    /**
+     * Юнит без типа: расчёт урона по нему падает
+     */
+    private static Unit broken(String name, int x, int y) {
+        return new Unit(name, null, 50, 10, 100, "", new HashMap<>(), new HashMap<>(), x, y);
+    }
+
+    private static BattleMetrics.BattleSummary fight(List<Unit> player, List<Unit> computer, int maxRounds)
+            throws InterruptedException {
+        SimulateBattleImpl simulation = new SimulateBattleImpl();
+        simulation.setRoundDelay(0);
+        simulation.setReportResult(false);
+        simulation.setMetrics(new BattleMetrics());
+        simulation.setMaxRounds(maxRounds);
+        simulation.simulateWithStrategy(new Army(new ArrayList<>(player)), new Army(new ArrayList<>(computer)),
+                "SIMULTANEOUS");
+        return simulation.getLastBattleSummary();
+    }
+
+    private static Unit unit(String name, int x, int y, int health, int attack) {
+        return new Unit(name, "Копейщик", health, attack, 100, "", new HashMap<>(), new HashMap<>(), x, y);
+    }
+}
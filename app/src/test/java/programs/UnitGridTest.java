@@ -0,0 +1,81 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnitGridTest {
+
+    @Test
+    void nearestMatchesBruteForce() {
+        Random random = new Random(13);
+        for (int trial = 0; trial < 40; trial++) {
+            int width = 10 + random.nextInt(150);
+            int height = 10 + random.nextInt(120);
+            List<Unit> units = new ArrayList<>();
+            for (int i = random.nextInt(300); i > 0; i--) {
+                // Часть юнитов стоит на одной клетке, часть — за пределами поля
+                int x = random.nextInt(width + 4) - 2;
+                int y = random.nextInt(height + 4) - 2;
+                units.add(unit(x, y));
+                if (random.nextInt(10) == 0) {
+                    units.add(unit(x, y));
+                }
+            }
+            UnitGrid grid = new UnitGrid(width, height, units);
+
+            for (int query = 0; query < 30; query++) {
+                int x = random.nextInt(width + 40) - 20;
+                int y = random.nextInt(height + 40) - 20;
+                int limit = random.nextInt(12);
+                List<Unit> expected = bruteForce(width, height, units, x, y, limit);
+                List<Unit> actual = grid.nearest(x, y, limit);
+
+                String context = "trial " + trial + " at " + x + "," + y + " limit " + limit;
+                assertEquals(expected.size(), actual.size(), context);
+                for (int i = 0; i < expected.size(); i++) {
+                    assertSame(expected.get(i), actual.get(i), context + " position " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void emptyGridAndZeroLimit() {
+        UnitGrid empty = new UnitGrid(40, 40, Collections.emptyList());
+        assertTrue(empty.nearest(3, 3, 5).isEmpty());
+
+        UnitGrid grid = new UnitGrid(40, 40, Collections.singletonList(unit(1, 1)));
+        assertTrue(grid.nearest(3, 3, 0).isEmpty());
+        assertEquals(1, grid.nearest(39, 39, 5).size());
+    }
+
+    /**
+     * Эталон: все юниты на поле по возрастанию (октильное расстояние, индекс)
+     */
+    private static List<Unit> bruteForce(int width, int height, List<Unit> units, int x, int y, int limit) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            if (unit.getxCoordinate() >= 0 && unit.getxCoordinate() < width
+                    && unit.getyCoordinate() >= 0 && unit.getyCoordinate() < height) {
+                indices.add(i);
+            }
+        }
+        indices.sort(Comparator.comparingInt((Integer i) -> AStarSearch.octile(
+                units.get(i).getxCoordinate() - x, units.get(i).getyCoordinate() - y)).thenComparingInt(i -> i));
+
+        List<Unit> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, indices.size()); i++) {
+            result.add(units.get(indices.get(i)));
+        }
+        return result;
+    }
+
+    private static Unit unit(int x, int y) {
+        return new Unit("u", "Мечник", 50, 20, 100, "", new HashMap<>(), new HashMap<>(), x, y);
+    }
+}
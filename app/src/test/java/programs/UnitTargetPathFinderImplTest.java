@@ -0,0 +1,235 @@
+package programs;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import com.battle.heroes.army.programs.Edge;
+import com.battle.heroes.army.programs.computer.ComputerSwordsmanProgram;
+import com.battle.heroes.army.programs.user.UserSwordsmanProgram;
+import com.battle.heroes.util.GameSpeedUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnitTargetPathFinderImplTest {
+    private static final int WIDTH = BoardSnapshot.DEFAULT_WIDTH;
+    private static final int HEIGHT = BoardSnapshot.DEFAULT_HEIGHT;
+
+    @Test
+    void equalCostPathsAreBrokenByHScoreThenCellIndex() {
+        // На пустом поле сначала идут диагонали: у клеток ближе к цели меньше hScore
+        assertEquals(Arrays.asList("0,0", "1,1", "2,2", "3,2"), cells(find(0, 0, 3, 2)));
+
+        // Обход препятствия: из равных по f и h соседей берётся клетка с меньшим индексом
+        assertEquals(Arrays.asList("0,0", "1,0", "2,1", "3,0", "4,0"), cells(find(0, 0, 4, 0, unit(2, 0))));
+    }
+
+    @Test
+    void pathDoesNotDependOnUnitOrder() {
+        Random random = new Random(17);
+        for (int trial = 0; trial < 30; trial++) {
+            List<Unit> units = randomUnits(random, 60 + random.nextInt(120));
+            Unit attacker = units.get(0);
+            Unit target = units.get(1);
+            List<String> expected = cells(new UnitTargetPathFinderImpl().getTargetPath(attacker, target, units));
+
+            List<Unit> shuffled = new ArrayList<>(units);
+            Collections.shuffle(shuffled, random);
+            assertEquals(expected, cells(new UnitTargetPathFinderImpl().getTargetPath(attacker, target, shuffled)),
+                    "trial " + trial);
+        }
+    }
+
+    @Test
+    void costIsOptimal() {
+        Random random = new Random(23);
+        for (int trial = 0; trial < 30; trial++) {
+            List<Unit> units = randomUnits(random, 150);
+            Unit attacker = units.get(0);
+            Unit target = units.get(1);
+            boolean[] blocked = new boolean[WIDTH * HEIGHT];
+            for (Unit unit : units) {
+                if (unit != attacker && unit != target) {
+                    blocked[unit.getyCoordinate() * WIDTH + unit.getxCoordinate()] = true;
+                }
+            }
+            int expected = dijkstra(blocked, attacker, target);
+            if (expected < 0) {
+                continue;
+            }
+
+            List<Edge> path = new UnitTargetPathFinderImpl().getTargetPath(attacker, target, units);
+            assertEquals(expected, walkedCost(blocked, path), "trial " + trial);
+        }
+    }
+
+    @Test
+    void offBoardEndpointGetsStraightPath() {
+        // Поиск идёт только по полю: со стартом за краем путь прямой, даже сквозь препятствие
+        assertEquals(Arrays.asList("-2,5", "-1,5", "0,5", "1,5", "2,5"), cells(find(-2, 5, 2, 5, unit(0, 5))));
+        assertEquals(Arrays.asList("25,3", "26,4", "27,5"), cells(find(25, 3, 27, 5, unit(26, 4))));
+    }
+
+    @Test
+    void recordsPathfindingIntoInjectedMetrics() {
+        Unit attacker = unit(0, 5);
+        Unit target = unit(20, 7);
+        List<Unit> units = Arrays.asList(attacker, target, unit(10, 6));
+        long sharedBefore = BattleMetrics.shared().snapshot().getCount(BattleMetrics.Phase.PATHFINDING);
+
+        BattleMetrics metrics = new BattleMetrics();
+        UnitTargetPathFinderImpl finder = new UnitTargetPathFinderImpl();
+        finder.setMetrics(metrics);
+        assertFalse(finder.getTargetPath(attacker, target, units).isEmpty());
+
+        BattleMetrics incrementalMetrics = new BattleMetrics();
+        IncrementalPathFinder incremental = new IncrementalPathFinder();
+        incremental.setMetrics(incrementalMetrics);
+        assertFalse(incremental.getTargetPath(attacker, target, units).isEmpty());
+
+        assertEquals(1, metrics.snapshot().getCount(BattleMetrics.Phase.PATHFINDING));
+        assertEquals(1, incrementalMetrics.snapshot().getCount(BattleMetrics.Phase.PATHFINDING));
+        assertEquals(sharedBefore, BattleMetrics.shared().snapshot().getCount(BattleMetrics.Phase.PATHFINDING));
+    }
+
+    @Test
+    void disabledMetricsRecordNothing() {
+        BattleMetrics metrics = new BattleMetrics();
+        metrics.setEnabled(false);
+        UnitTargetPathFinderImpl finder = new UnitTargetPathFinderImpl();
+        finder.setMetrics(metrics);
+
+        finder.getTargetPath(unit(0, 0), unit(5, 5), Collections.emptyList());
+
+        assertEquals(0, metrics.snapshot().getCount(BattleMetrics.Phase.PATHFINDING));
+    }
+
+    @Test
+    void battleSummaryIncludesPathfindingOfUnitPrograms() throws InterruptedException {
+        BattleMetrics metrics = new BattleMetrics();
+        UnitTargetPathFinderImpl finder = new UnitTargetPathFinderImpl();
+        finder.setMetrics(metrics);
+        Unit player = unit(25, 5);
+        Unit computer = unit(1, 7);
+        Army playerArmy = new Army(new ArrayList<>(Collections.singletonList(player)));
+        Army computerArmy = new Army(new ArrayList<>(Collections.singletonList(computer)));
+        GameSpeedUtil speed = new GameSpeedUtil(0);
+        SuitableForAttackUnitsFinderImpl attackFinder = new SuitableForAttackUnitsFinderImpl();
+        player.setProgram(new UserSwordsmanProgram(player, playerArmy, computerArmy, speed, attackFinder, finder));
+        computer.setProgram(new ComputerSwordsmanProgram(computer, computerArmy, playerArmy, speed, attackFinder,
+                finder));
+
+        SimulateBattleImpl simulation = new SimulateBattleImpl();
+        simulation.setRoundDelay(0);
+        simulation.setReportResult(false);
+        simulation.setMetrics(metrics);
+        simulation.setMaxRounds(5);
+        simulation.simulate(playerArmy, computerArmy);
+
+        // Поиск пути из программ юнитов попадает в итоги боя, а вне боя — только в общие метрики
+        BattleMetrics.BattleSummary summary = simulation.getLastBattleSummary();
+        assertTrue(metrics.snapshot().getCount(BattleMetrics.Phase.PATHFINDING) > 0);
+        assertEquals(metrics.snapshot().getTotalNanos(BattleMetrics.Phase.PATHFINDING),
+                summary.getPhaseNanos(BattleMetrics.Phase.PATHFINDING));
+        finder.getTargetPath(unit(0, 0), unit(5, 5), Collections.emptyList());
+        assertEquals(summary.getPhaseNanos(BattleMetrics.Phase.PATHFINDING),
+                simulation.getLastBattleSummary().getPhaseNanos(BattleMetrics.Phase.PATHFINDING));
+    }
+
+    @Test
+    void timerStartedAtAnyNanoTimeIsRecorded() {
+        BattleMetrics metrics = new BattleMetrics();
+        // System.nanoTime() может вернуть 0 или отрицательное значение
+        metrics.record(BattleMetrics.Phase.PATHFINDING, 0);
+        metrics.record(BattleMetrics.Phase.PATHFINDING, -1);
+        metrics.record(BattleMetrics.Phase.PATHFINDING, BattleMetrics.TIMER_DISABLED);
+        assertEquals(2, metrics.snapshot().getCount(BattleMetrics.Phase.PATHFINDING));
+
+        metrics.setEnabled(false);
+        assertEquals(BattleMetrics.TIMER_DISABLED, metrics.startTimer());
+    }
+
+    /**
+     * Эталон: Дейкстра по той же сетке без эвристики и без порядка на равных
+     */
+    private static int dijkstra(boolean[] blocked, Unit from, Unit to) {
+        int start = from.getyCoordinate() * WIDTH + from.getxCoordinate();
+        int goal = to.getyCoordinate() * WIDTH + to.getxCoordinate();
+        int[] distance = new int[blocked.length];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        distance[start] = 0;
+        PriorityQueue<int[]> queue = new PriorityQueue<>(Comparator.comparingInt((int[] entry) -> entry[0]));
+        queue.add(new int[] { 0, start });
+        while (!queue.isEmpty()) {
+            int[] entry = queue.poll();
+            int cell = entry[1];
+            if (entry[0] > distance[cell]) {
+                continue;
+            }
+            if (cell == goal) {
+                return entry[0];
+            }
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    int nx = cell % WIDTH + dx;
+                    int ny = cell / WIDTH + dy;
+                    if ((dx == 0 && dy == 0) || nx < 0 || nx >= WIDTH || ny < 0 || ny >= HEIGHT) {
+                        continue;
+                    }
+                    int neighbor = ny * WIDTH + nx;
+                    if (blocked[neighbor]) {
+                        continue;
+                    }
+                    int cost = entry[0] + (dx != 0 && dy != 0 ? AStarSearch.DIAGONAL_COST : AStarSearch.STRAIGHT_COST);
+                    if (cost < distance[neighbor]) {
+                        distance[neighbor] = cost;
+                        queue.add(new int[] { cost, neighbor });
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int walkedCost(boolean[] blocked, List<Edge> path) {
+        int cost = 0;
+        for (int i = 1; i < path.size(); i++) {
+            int dx = Math.abs(path.get(i).getX() - path.get(i - 1).getX());
+            int dy = Math.abs(path.get(i).getY() - path.get(i - 1).getY());
+            assertTrue(dx <= 1 && dy <= 1 && dx + dy > 0);
+            assertFalse(blocked[path.get(i).getY() * WIDTH + path.get(i).getX()]);
+            cost += dx + dy == 2 ? AStarSearch.DIAGONAL_COST : AStarSearch.STRAIGHT_COST;
+        }
+        return cost;
+    }
+
+    private static List<Edge> find(int startX, int startY, int goalX, int goalY, Unit... obstacles) {
+        Unit attacker = unit(startX, startY);
+        Unit target = unit(goalX, goalY);
+        List<Unit> units = new ArrayList<>(Arrays.asList(obstacles));
+        units.add(attacker);
+        units.add(target);
+        return new UnitTargetPathFinderImpl().getTargetPath(attacker, target, units);
+    }
+
+    private static List<String> cells(List<Edge> path) {
+        List<String> result = new ArrayList<>();
+        for (Edge edge : path) {
+            result.add(edge.getX() + "," + edge.getY());
+        }
+        return result;
+    }
+
+    private static List<Unit> randomUnits(Random random, int count) {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            units.add(unit(random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+        }
+        return units;
+    }
+
+    private static Unit unit(int x, int y) {
+        return new Unit("x", "x", 1, 1, 1, "", new HashMap<>(), new HashMap<>(), x, y);
+    }
+}
@@ -0,0 +1,363 @@
+package programs;
+
+import java.lang.ref.SoftReference;
+
+/**
+ * Движок A* на целочисленной сетке с переиспользуемыми буферами.
+ * Один экземпляр не потокобезопасен: каждый поток берёт свой через
+ * {@link #forCurrentThread(int)}, поэтому повторные поиски не выделяют память
+ * под массивы размером с поле.
+ *
+ * Буферы занимают шесть int на клетку. Для полей до
+ * {@link #RETAINED_CELL_LIMIT} клеток (1.5 МБ) поток держит их постоянно.
+ * Буферы большего поля держатся через SoftReference: сборщик мусора может
+ * забрать их при нехватке памяти. Первый же поиск на малом поле отпускает их
+ * сразу, так что поток пула после массового боя не хранит их до конца жизни.
+ *
+ * Стоимости: прямой шаг = 10, диагональ = 14. При равном fScore узлы
+ * упорядочиваются по hScore и затем по индексу клетки, так что результат
+ * полностью детерминирован.
+ */
+final class AStarSearch {
+    static final int STRAIGHT_COST = 10;
+    static final int DIAGONAL_COST = 14;
+    // Поле до этого числа клеток: буферы потока хранятся постоянно
+    static final int RETAINED_CELL_LIMIT = BoardSnapshot.DENSE_CELL_LIMIT;
+
+    // Направления движения (8 направлений с диагоналями) в фиксированном порядке
+    private static final int[] DIR_X = { -1, -1, -1, 0, 0, 1, 1, 1 };
+    private static final int[] DIR_Y = { -1, 0, 1, -1, 1, -1, 0, 1 };
+
+    private static final ThreadLocal<AStarSearch> SCRATCH = new ThreadLocal<>();
+    private static final ThreadLocal<SoftReference<AStarSearch>> LARGE_SCRATCH = new ThreadLocal<>();
+
+    private int[] gScore;
+    private int[] hScore;
+    private int[] parent;
+    private int[] heapPos; // Позиция клетки в куче, -1 если клетка уже закрыта
+    private int[] stamp; // Номер поиска, в котором клетка была затронута
+    private int[] heap;
+    private int heapSize;
+    private int generation;
+    private int lastCost = -1;
+    private int lastStart = -1;
+    private int lastGoal = -1;
+    private int lastExpansions;
+
+    private AStarSearch(int cellCount) {
+        allocate(cellCount);
+    }
+
+    /**
+     * Возвращает буферы текущего потока, расширяя их при необходимости
+     */
+    static AStarSearch forCurrentThread(int cellCount) {
+        if (cellCount > RETAINED_CELL_LIMIT) {
+            return forLargeBoard(cellCount);
+        }
+        // Масштаб вернулся к обычному: буферы большого поля больше не нужны
+        if (LARGE_SCRATCH.get() != null) {
+            LARGE_SCRATCH.remove();
+        }
+        AStarSearch search = SCRATCH.get();
+        if (search == null) {
+            search = new AStarSearch(cellCount);
+            SCRATCH.set(search);
+        } else if (search.gScore.length < cellCount) {
+            search.allocate(cellCount);
+        }
+        return search;
+    }
+
+    private static AStarSearch forLargeBoard(int cellCount) {
+        SoftReference<AStarSearch> reference = LARGE_SCRATCH.get();
+        AStarSearch search = reference == null ? null : reference.get();
+        if (search == null || search.gScore.length < cellCount) {
+            // Старые буферы отпускаем до выделения новых
+            search = null;
+            LARGE_SCRATCH.remove();
+            search = new AStarSearch(cellCount);
+            LARGE_SCRATCH.set(new SoftReference<>(search));
+        }
+        return search;
+    }
+
+    /**
+     * Сколько клеток вмещают буферы, которые держит текущий поток
+     */
+    static int getRetainedCells() {
+        AStarSearch search = SCRATCH.get();
+        SoftReference<AStarSearch> reference = LARGE_SCRATCH.get();
+        AStarSearch large = reference == null ? null : reference.get();
+        return (search == null ? 0 : search.gScore.length) + (large == null ? 0 : large.gScore.length);
+    }
+
+    private void allocate(int cellCount) {
+        gScore = new int[cellCount];
+        hScore = new int[cellCount];
+        parent = new int[cellCount];
+        heapPos = new int[cellCount];
+        stamp = new int[cellCount];
+        heap = new int[cellCount];
+        generation = 0;
+    }
+
+    /**
+     * Стоимость последнего найденного пути, -1 если путь не найден
+     */
+    int getLastCost() {
+        return lastCost;
+    }
+
+    /**
+     * Сколько клеток раскрыл последний поиск
+     */
+    int getLastExpansions() {
+        return lastExpansions;
+    }
+
+    /**
+     * Ищет путь от startCell до goalCell. Клетки старта и цели считаются
+     * проходимыми, даже если заняты в снимке.
+     *
+     * @return индексы клеток пути от старта до цели включительно или null
+     */
+    int[] findPath(BoardSnapshot board, int startCell, int goalCell) {
+        return findPath(board, startCell, goalCell, Integer.MAX_VALUE);
+    }
+
+    /**
+     * То же, но ищет только пути дешевле costLimit: поиск прекращается, как
+     * только нижняя оценка fScore достигает предела. Нужен при выборе
+     * ближайшей из нескольких целей, где дорогие пути всё равно отбрасываются.
+     *
+     * @return индексы клеток пути или null, если пути дешевле costLimit нет
+     */
+    int[] findPath(BoardSnapshot board, int startCell, int goalCell, int costLimit) {
+        return search(board, startCell, goalCell, costLimit) ? buildPath(goalCell) : null;
+    }
+
+    /**
+     * Выполняет поиск без построения пути. После успешного поиска путь можно
+     * получить через {@link #summarize(BoardSnapshot)} или findPath.
+     *
+     * @return true, если цель достижима
+     */
+    boolean search(BoardSnapshot board, int startCell, int goalCell) {
+        return search(board, startCell, goalCell, Integer.MAX_VALUE);
+    }
+
+    private boolean search(BoardSnapshot board, int startCell, int goalCell, int costLimit) {
+        nextGeneration();
+        heapSize = 0;
+        lastCost = -1;
+        lastStart = startCell;
+        lastGoal = goalCell;
+        lastExpansions = 0;
+
+        int width = board.getWidth();
+        int height = board.getHeight();
+        int goalX = goalCell % width;
+        int goalY = goalCell / width;
+
+        // Цель, у которой все соседи заняты, недостижима: не обходим ради неё всё поле
+        if (startCell != goalCell && isEnclosed(board, goalX, goalY, startCell)) {
+            return false;
+        }
+
+        touch(startCell, goalX, goalY, width);
+        gScore[startCell] = 0;
+        parent[startCell] = -1;
+        push(startCell);
+
+        while (heapSize > 0) {
+            int current = pop();
+            lastExpansions++;
+
+            // Эвристика согласованная: все оставшиеся пути не дешевле fScore
+            if (gScore[current] + hScore[current] >= costLimit) {
+                return false;
+            }
+
+            if (current == goalCell) {
+                lastCost = gScore[current];
+                return true;
+            }
+
+            int cx = current % width;
+            int cy = current / width;
+
+            for (int d = 0; d < DIR_X.length; d++) {
+                int nx = cx + DIR_X[d];
+                int ny = cy + DIR_Y[d];
+
+                if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+                    continue;
+                }
+
+                int neighbor = ny * width + nx;
+
+                // Пропускаем препятствия (кроме самой цели) и закрытые клетки
+                if (neighbor != goalCell && board.isBlocked(nx, ny)) {
+                    continue;
+                }
+                if (stamp[neighbor] == generation && heapPos[neighbor] < 0) {
+                    continue;
+                }
+
+                int tentative = gScore[current] + (DIR_X[d] != 0 && DIR_Y[d] != 0 ? DIAGONAL_COST : STRAIGHT_COST);
+
+                if (stamp[neighbor] != generation) {
+                    touch(neighbor, goalX, goalY, width);
+                    gScore[neighbor] = tentative;
+                    parent[neighbor] = current;
+                    push(neighbor);
+                } else if (tentative < gScore[neighbor]) {
+                    gScore[neighbor] = tentative;
+                    parent[neighbor] = current;
+                    siftUp(heapPos[neighbor]);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Нет ни одного свободного соседа, через которого можно войти в клетку
+     */
+    private static boolean isEnclosed(BoardSnapshot board, int x, int y, int startCell) {
+        for (int d = 0; d < DIR_X.length; d++) {
+            int nx = x + DIR_X[d];
+            int ny = y + DIR_Y[d];
+            if (board.isInside(nx, ny) && (!board.isBlocked(nx, ny) || board.cellIndex(nx, ny) == startCell)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Длина, стоимость и первый шаг последнего найденного пути без его построения
+     */
+    CompactPath.Summary summarize(BoardSnapshot board) {
+        if (lastCost < 0) {
+            return CompactPath.Summary.NONE;
+        }
+        int length = 0;
+        int firstStep = lastGoal;
+        for (int cell = lastGoal; cell != -1; cell = parent[cell]) {
+            length++;
+            if (parent[cell] == lastStart) {
+                firstStep = cell;
+            }
+        }
+        return new CompactPath.Summary(length, lastCost, board.cellX(firstStep), board.cellY(firstStep));
+    }
+
+    /**
+     * Эвристика: октильное расстояние в тех же единицах, что и стоимость шага
+     */
+    static int octile(int dx, int dy) {
+        dx = Math.abs(dx);
+        dy = Math.abs(dy);
+        return STRAIGHT_COST * Math.max(dx, dy) + (DIAGONAL_COST - STRAIGHT_COST) * Math.min(dx, dy);
+    }
+
+    private void nextGeneration() {
+        generation++;
+        // При переполнении счётчика сбрасываем отметки, чтобы старые не совпали
+        if (generation == Integer.MAX_VALUE) {
+            java.util.Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    private void touch(int cell, int goalX, int goalY, int width) {
+        stamp[cell] = generation;
+        hScore[cell] = octile(cell % width - goalX, cell / width - goalY);
+    }
+
+    private int[] buildPath(int goalCell) {
+        int length = 0;
+        for (int cell = goalCell; cell != -1; cell = parent[cell]) {
+            length++;
+        }
+
+        // Заполняем массив с конца, чтобы не переворачивать его
+        int[] path = new int[length];
+        int index = length - 1;
+        for (int cell = goalCell; cell != -1; cell = parent[cell]) {
+            path[index--] = cell;
+        }
+        return path;
+    }
+
+    // Индексированная двоичная куча по (fScore, hScore, индекс клетки)
+
+    private boolean less(int a, int b) {
+        int fa = gScore[a] + hScore[a];
+        int fb = gScore[b] + hScore[b];
+        if (fa != fb)
+            return fa < fb;
+        if (hScore[a] != hScore[b])
+            return hScore[a] < hScore[b];
+        return a < b;
+    }
+
+    private void push(int cell) {
+        heap[heapSize] = cell;
+        heapPos[cell] = heapSize;
+        heapSize++;
+        siftUp(heapSize - 1);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapPos[heap[0]] = 0;
+            siftDown(0);
+        }
+        heapPos[top] = -1;
+        return top;
+    }
+
+    private void siftUp(int index) {
+        int cell = heap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            int parentCell = heap[parentIndex];
+            if (!less(cell, parentCell)) {
+                break;
+            }
+            heap[index] = parentCell;
+            heapPos[parentCell] = index;
+            index = parentIndex;
+        }
+        heap[index] = cell;
+        heapPos[cell] = index;
+    }
+
+    private void siftDown(int index) {
+        int cell = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], cell)) {
+                break;
+            }
+            heap[index] = heap[child];
+            heapPos[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = cell;
+        heapPos[cell] = index;
+    }
+}
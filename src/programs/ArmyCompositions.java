@@ -0,0 +1,438 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Ленивый перебор всех допустимых составов армии: векторов количеств по
+ * типам шаблонов, которые укладываются в бюджет и в лимит юнитов одного
+ * типа. Нужен там, где одного лучшего состава из {@link GeneratePresetImpl}
+ * мало: аудит баланса, стартовые точки для поиска симуляцией.
+ *
+ * Составы строятся обходом в глубину по типам и не хранятся: в памяти
+ * только текущий путь обхода. Ограничения снизу (доля бюджета, атака,
+ * здоровье) и свои правила {@link Pruning} отсекают целые поддеревья, а не
+ * фильтруют готовые составы. Spliterator делит оставшуюся работу по оценке
+ * размера поддеревьев, поэтому параллельный поток загружает ядра равномерно.
+ *
+ * <pre>
+ * ArmyCompositions compositions = new ArmyCompositions(templates, 1500);
+ * compositions.setMinCost(1400);
+ * long count = compositions.stream(true).count();
+ * </pre>
+ *
+ * Порядок составов в потоке не гарантируется; каждый состав встречается
+ * ровно один раз, и каждый выданный массив — новый.
+ */
+public final class ArmyCompositions {
+
+    /**
+     * Правило отсечения по частично собранному составу
+     */
+    public interface Pruning {
+        /**
+         * @param prefix состав, в котором заданы количества первых
+         *               prefix.getAssignedTypes() типов; объект переиспользуется,
+         *               сохранять его нельзя
+         * @return false, если ни одно продолжение этого состава не подходит
+         */
+        boolean mayContain(Prefix prefix);
+    }
+
+    private final int[] costs;
+    private final int[] attacks;
+    private final int[] healths;
+    private final int budget;
+    private int maxPerType = GeneratePresetImpl.MAX_COUNT_UNITS_PER_TYPE;
+    private int minCost;
+    private long minAttack;
+    private long minHealth;
+    private final List<Pruning> prunings = new ArrayList<>();
+
+    /**
+     * @param templates шаблоны юнитов, порядок задаёт порядок количеств в векторе
+     * @param budget    бюджет в очках
+     */
+    public ArmyCompositions(List<Unit> templates, int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Бюджет не может быть отрицательным: " + budget);
+        }
+        int typeCount = templates.size();
+        this.costs = new int[typeCount];
+        this.attacks = new int[typeCount];
+        this.healths = new int[typeCount];
+        for (int i = 0; i < typeCount; i++) {
+            Unit template = templates.get(i);
+            if (template.getCost() <= 0) {
+                throw new IllegalArgumentException("Стоимость юнита должна быть положительной: "
+                        + template.getUnitType() + " " + template.getCost());
+            }
+            costs[i] = template.getCost();
+            attacks[i] = template.getBaseAttack();
+            healths[i] = template.getHealth();
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Лимит юнитов одного типа (по умолчанию MAX_COUNT_UNITS_PER_TYPE)
+     */
+    public void setMaxPerType(int maxPerType) {
+        if (maxPerType < 0) {
+            throw new IllegalArgumentException("Лимит не может быть отрицательным: " + maxPerType);
+        }
+        this.maxPerType = maxPerType;
+    }
+
+    /**
+     * Нижняя граница потраченных очков: составы, тратящие меньше, отсекаются
+     */
+    public void setMinCost(int minCost) {
+        this.minCost = minCost;
+    }
+
+    /**
+     * Нижняя граница суммарной атаки
+     */
+    public void setMinAttack(long minAttack) {
+        this.minAttack = minAttack;
+    }
+
+    /**
+     * Нижняя граница суммарного здоровья
+     */
+    public void setMinHealth(long minHealth) {
+        this.minHealth = minHealth;
+    }
+
+    /**
+     * Добавляет своё правило отсечения
+     */
+    public void addPruning(Pruning pruning) {
+        prunings.add(Objects.requireNonNull(pruning, "pruning"));
+    }
+
+    public int getTypeCount() {
+        return costs.length;
+    }
+
+    /**
+     * Поток составов
+     *
+     * @param parallel true — параллельный поток
+     */
+    public Stream<int[]> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel);
+    }
+
+    /**
+     * Spliterator по всем составам
+     */
+    public Spliterator<int[]> spliterator() {
+        Bounds bounds = new Bounds(costs, attacks, healths, maxPerType);
+        List<Pruning> rules = new ArrayList<>();
+        if (minCost > 0) {
+            rules.add(prefix -> prefix.getCost() + bounds.maxExtraCost(prefix.getAssignedTypes(),
+                    prefix.getRemainingBudget()) >= minCost);
+        }
+        if (minAttack > 0) {
+            rules.add(prefix -> prefix.getAttack() + bounds.maxExtra(bounds.attacks, bounds.attackOrder,
+                    prefix.getAssignedTypes(), prefix.getRemainingBudget()) >= minAttack);
+        }
+        if (minHealth > 0) {
+            rules.add(prefix -> prefix.getHealth() + bounds.maxExtra(bounds.healths, bounds.healthOrder,
+                    prefix.getAssignedTypes(), prefix.getRemainingBudget()) >= minHealth);
+        }
+        rules.addAll(prunings);
+        return new CompositionSpliterator(this, rules.toArray(new Pruning[0]));
+    }
+
+    /**
+     * Частично собранный состав: количества первых getAssignedTypes() типов
+     * и их суммарные стоимость, атака и здоровье
+     */
+    public static final class Prefix {
+        private final int[] counts;
+        private final int budget;
+        private int assignedTypes;
+        private int cost;
+        private long attack;
+        private long health;
+
+        Prefix(int typeCount, int budget) {
+            this.counts = new int[typeCount];
+            this.budget = budget;
+        }
+
+        public int getAssignedTypes() {
+            return assignedTypes;
+        }
+
+        public int getTypeCount() {
+            return counts.length;
+        }
+
+        /**
+         * Количество юнитов типа type; имеет смысл для type < getAssignedTypes()
+         */
+        public int getCount(int type) {
+            return counts[type];
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        public long getAttack() {
+            return attack;
+        }
+
+        public long getHealth() {
+            return health;
+        }
+
+        public int getRemainingBudget() {
+            return budget - cost;
+        }
+
+        public boolean isComplete() {
+            return assignedTypes == counts.length;
+        }
+    }
+
+    /**
+     * Верхние оценки того, что ещё можно добавить типами начиная с level
+     */
+    private static final class Bounds {
+        private final int[] costs;
+        private final int[] attacks;
+        private final int[] healths;
+        private final int maxPerType;
+        // Наибольшая стоимость, которую могут дать типы level.. без учёта бюджета
+        private final long[] suffixCost;
+        // Типы по убыванию отношения характеристики к стоимости
+        private final Integer[] attackOrder;
+        private final Integer[] healthOrder;
+
+        Bounds(int[] costs, int[] attacks, int[] healths, int maxPerType) {
+            this.costs = costs;
+            this.attacks = attacks;
+            this.healths = healths;
+            this.maxPerType = maxPerType;
+            this.suffixCost = new long[costs.length + 1];
+            for (int type = costs.length - 1; type >= 0; type--) {
+                suffixCost[type] = suffixCost[type + 1] + (long) maxPerType * costs[type];
+            }
+            this.attackOrder = byRatio(attacks, costs);
+            this.healthOrder = byRatio(healths, costs);
+        }
+
+        private static Integer[] byRatio(int[] values, int[] costs) {
+            Integer[] order = new Integer[costs.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(values[b] / (double) costs[b], values[a] / (double) costs[a]));
+            return order;
+        }
+
+        long maxExtraCost(int level, int remainingBudget) {
+            return Math.min(remainingBudget, suffixCost[level]);
+        }
+
+        /**
+         * Дробный рюкзак по оставшимся типам: не меньше любого целого продолжения
+         */
+        long maxExtra(int[] values, Integer[] order, int level, int remainingBudget) {
+            double total = 0;
+            double left = remainingBudget;
+            for (int type : order) {
+                if (type < level || values[type] <= 0) {
+                    continue;
+                }
+                double take = Math.min(maxPerType, left / costs[type]);
+                total += take * values[type];
+                left -= take * costs[type];
+                if (left <= 0) {
+                    break;
+                }
+            }
+            return (long) Math.ceil(total);
+        }
+    }
+
+    /**
+     * Обход в глубину по типам. Уровень level хранит следующее количество
+     * next[level] и наибольшее limit[level] для типа level; уровни ниже root
+     * зафиксированы и принадлежат этому spliterator'у целиком.
+     */
+    private static final class CompositionSpliterator implements Spliterator<int[]> {
+        private final ArmyCompositions source;
+        private final Pruning[] rules;
+        private final Prefix prefix;
+        private final int root;
+        private final int[] next;
+        private final int[] limit;
+        // Суммы по типам 0..level-1 на входе в уровень level
+        private final int[] costAt;
+        private final long[] attackAt;
+        private final long[] healthAt;
+        private int depth;
+
+        /**
+         * Корневой spliterator: пустой префикс, уровень 0 со всеми количествами
+         */
+        CompositionSpliterator(ArmyCompositions source, Pruning[] rules) {
+            this(source, rules, 0);
+            prefix.assignedTypes = 0;
+            if (getTypeCount() == 0 || !accepts()) {
+                depth = -1;
+                return;
+            }
+            enterLevel(0, 0);
+        }
+
+        private CompositionSpliterator(ArmyCompositions source, Pruning[] rules, int root) {
+            this.source = source;
+            this.rules = rules;
+            this.root = root;
+            int typeCount = source.costs.length;
+            this.prefix = new Prefix(typeCount, source.budget);
+            this.next = new int[typeCount];
+            this.limit = new int[typeCount];
+            this.costAt = new int[typeCount + 1];
+            this.attackAt = new long[typeCount + 1];
+            this.healthAt = new long[typeCount + 1];
+            this.depth = root;
+        }
+
+        private int getTypeCount() {
+            return source.costs.length;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            int last = getTypeCount() - 1;
+            while (depth >= root) {
+                if (next[depth] > limit[depth]) {
+                    depth--;
+                    continue;
+                }
+                int count = next[depth]++;
+                assign(depth, count);
+                if (!accepts()) {
+                    continue;
+                }
+                if (depth == last) {
+                    action.accept(Arrays.copyOf(prefix.counts, prefix.counts.length));
+                    return true;
+                }
+                enterLevel(depth + 1, 0);
+            }
+            return false;
+        }
+
+        /**
+         * Делит самый верхний уровень, где осталось хотя бы два количества,
+         * по оценке размера поддеревьев: новая часть забирает верхнюю половину работы
+         */
+        @Override
+        public Spliterator<int[]> trySplit() {
+            for (int level = root; level <= depth; level++) {
+                int from = next[level];
+                int to = limit[level];
+                if (to - from < 1) {
+                    continue;
+                }
+                double[] weights = new double[to - from + 1];
+                double total = 0;
+                for (int count = from; count <= to; count++) {
+                    total += subtreeEstimate(level, count);
+                    weights[count - from] = total;
+                }
+                // Первое количество, на котором набралась половина работы
+                int split = from;
+                while (split < to && weights[split - from] < total / 2) {
+                    split++;
+                }
+                if (split == to) {
+                    split = to - 1;
+                }
+
+                CompositionSpliterator other = new CompositionSpliterator(source, rules, level);
+                System.arraycopy(prefix.counts, 0, other.prefix.counts, 0, level);
+                other.costAt[level] = costAt[level];
+                other.attackAt[level] = attackAt[level];
+                other.healthAt[level] = healthAt[level];
+                other.next[level] = split + 1;
+                other.limit[level] = to;
+                limit[level] = split;
+                return other;
+            }
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            double total = 0;
+            for (int level = root; level <= depth && level >= 0; level++) {
+                for (int count = next[level]; count <= limit[level]; count++) {
+                    total += subtreeEstimate(level, count);
+                    if (total >= Long.MAX_VALUE) {
+                        return Long.MAX_VALUE;
+                    }
+                }
+            }
+            return (long) total;
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | DISTINCT | IMMUTABLE;
+        }
+
+        /**
+         * Грубая оценка числа листьев под количеством count на уровне level:
+         * произведение числа возможных количеств оставшихся типов
+         */
+        private double subtreeEstimate(int level, int count) {
+            long remaining = source.budget - costAt[level] - (long) count * source.costs[level];
+            double estimate = 1;
+            for (int type = level + 1; type < getTypeCount() && remaining >= 0; type++) {
+                estimate *= Math.min(source.maxPerType, remaining / source.costs[type]) + 1;
+            }
+            return estimate;
+        }
+
+        private void enterLevel(int level, int from) {
+            depth = level;
+            next[level] = from;
+            int remaining = source.budget - costAt[level];
+            limit[level] = Math.min(source.maxPerType, remaining / source.costs[level]);
+        }
+
+        private void assign(int level, int count) {
+            prefix.counts[level] = count;
+            costAt[level + 1] = costAt[level] + count * source.costs[level];
+            attackAt[level + 1] = attackAt[level] + (long) count * source.attacks[level];
+            healthAt[level + 1] = healthAt[level] + (long) count * source.healths[level];
+            prefix.assignedTypes = level + 1;
+            prefix.cost = costAt[level + 1];
+            prefix.attack = attackAt[level + 1];
+            prefix.health = healthAt[level + 1];
+        }
+
+        private boolean accepts() {
+            for (Pruning rule : rules) {
+                if (!rule.mayContain(prefix)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
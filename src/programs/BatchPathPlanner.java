@@ -0,0 +1,256 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+import com.battle.heroes.army.programs.Edge;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Пакетное построение путей для всех юнитов в начале раунда.
+ * Все запросы решаются параллельно на ForkJoinPool против одного
+ * неизменяемого снимка поля, у каждого потока свои буферы A*.
+ * Если поле мало и между раундами почти не меняется, вместо снимка можно
+ * передать {@link DistanceOracle}: стоимость пути до каждого кандидата
+ * тогда берётся из таблицы за O(1), а запросы решаются в текущем потоке.
+ * Результаты возвращаются в том же порядке, что и запросы.
+ */
+public class BatchPathPlanner {
+    // Сколько запросов решаем в одной задаче без дальнейшего деления
+    private static final int SEQUENTIAL_THRESHOLD = 4;
+
+    private final ForkJoinPool pool;
+
+    public BatchPathPlanner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public BatchPathPlanner(ForkJoinPool pool) {
+        this.pool = Objects.requireNonNull(pool, "pool");
+    }
+
+    /**
+     * Для каждого запроса находит ближайшую по стоимости пути цель из кандидатов.
+     *
+     * @param board    снимок занятости поля на начало раунда
+     * @param requests пары (атакующий, кандидаты в цели)
+     * @return результаты в порядке запросов
+     */
+    public List<PlannedPath> planAll(BoardSnapshot board, List<PathRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        PathRequest[] input = requests.toArray(new PathRequest[0]);
+        PlannedPath[] output = new PlannedPath[input.length];
+        pool.invoke(new PlanTask(board, input, output, 0, input.length));
+        return Arrays.asList(output);
+    }
+
+    /**
+     * То же, но стоимости путей берутся из таблицы расстояний. Таблица
+     * однопоточная и достраивает строки по запросу, поэтому запросы решаются
+     * по очереди в текущем потоке: каждый стоит O(k) чтений таблицы, а строки
+     * строятся только для целей, которые прошли отсечение по прямой. Выбор
+     * цели совпадает с A*: ближайшая по стоимости пути, при равной стоимости —
+     * более ранний кандидат.
+     *
+     * @param oracle   таблица расстояний, согласованная с занятостью поля
+     * @param requests пары (атакующий, кандидаты в цели)
+     * @return результаты в порядке запросов
+     */
+    public List<PlannedPath> planAll(DistanceOracle oracle, List<PathRequest> requests) {
+        Objects.requireNonNull(oracle, "oracle");
+        if (requests == null || requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<PlannedPath> output = new ArrayList<>(requests.size());
+        for (PathRequest request : requests) {
+            output.add(plan(oracle, request));
+        }
+        return output;
+    }
+
+    /**
+     * Решает один запрос на буферах текущего потока
+     */
+    static PlannedPath plan(BoardSnapshot board, PathRequest request) {
+        if (!board.isInside(request.attackerX, request.attackerY)) {
+            return new PlannedPath(request.attacker, null, CompactPath.empty());
+        }
+
+        AStarSearch search = AStarSearch.forCurrentThread(board.getCellCount());
+        int startCell = board.cellIndex(request.attackerX, request.attackerY);
+
+        int bestIndex = -1;
+        int bestCost = Integer.MAX_VALUE;
+        int[] bestCells = null;
+
+        for (int i = 0; i < request.targets.size(); i++) {
+            int tx = request.targetX[i];
+            int ty = request.targetY[i];
+            if (!board.isInside(tx, ty)) {
+                continue;
+            }
+
+            // Отсекаем кандидатов, до которых даже по прямой дальше найденного
+            if (AStarSearch.octile(tx - request.attackerX, ty - request.attackerY) >= bestCost) {
+                continue;
+            }
+
+            // Пути не дешевле найденного не нужны, поиск обрывается на пределе
+            int[] cells = search.findPath(board, startCell, board.cellIndex(tx, ty), bestCost);
+            // При равной стоимости остаётся более ранний кандидат
+            if (cells != null && search.getLastCost() < bestCost) {
+                bestIndex = i;
+                bestCost = search.getLastCost();
+                bestCells = cells;
+            }
+        }
+
+        if (bestIndex < 0) {
+            return new PlannedPath(request.attacker, null, CompactPath.empty());
+        }
+        return new PlannedPath(request.attacker, request.targets.get(bestIndex),
+                CompactPath.fromCells(board, bestCells, bestCost));
+    }
+
+    /**
+     * Решает один запрос по таблице расстояний
+     */
+    static PlannedPath plan(DistanceOracle oracle, PathRequest request) {
+        int bestIndex = -1;
+        int bestCost = Integer.MAX_VALUE;
+
+        for (int i = 0; i < request.targets.size(); i++) {
+            // Та же отсечка, что и для A*: строку дальней цели можно не строить
+            if (AStarSearch.octile(request.targetX[i] - request.attackerX,
+                    request.targetY[i] - request.attackerY) >= bestCost) {
+                continue;
+            }
+            int cost = oracle.distance(request.attackerX, request.attackerY, request.targetX[i], request.targetY[i]);
+            // При равной стоимости остаётся более ранний кандидат
+            if (cost != DistanceOracle.UNREACHABLE && cost < bestCost) {
+                bestIndex = i;
+                bestCost = cost;
+            }
+        }
+
+        if (bestIndex < 0) {
+            return new PlannedPath(request.attacker, null, CompactPath.empty());
+        }
+        return new PlannedPath(request.attacker, request.targets.get(bestIndex), oracle.path(
+                request.attackerX, request.attackerY, request.targetX[bestIndex], request.targetY[bestIndex]));
+    }
+
+    private static class PlanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Задача не сериализуется: ссылки на данные помечены transient
+        private final transient BoardSnapshot board;
+        private final transient PathRequest[] input;
+        private final transient PlannedPath[] output;
+        private final int from;
+        private final int to;
+
+        PlanTask(BoardSnapshot board, PathRequest[] input, PlannedPath[] output, int from, int to) {
+            this.board = board;
+            this.input = input;
+            this.output = output;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    output[i] = plan(board, input[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new PlanTask(board, input, output, from, middle),
+                    new PlanTask(board, input, output, middle, to));
+        }
+    }
+
+    /**
+     * Запрос на построение пути. Координаты атакующего и целей фиксируются
+     * при создании, поэтому дальнейшие перемещения юнитов на план не влияют.
+     */
+    public static final class PathRequest {
+        private final Unit attacker;
+        private final List<Unit> targets;
+        private final int attackerX;
+        private final int attackerY;
+        private final int[] targetX;
+        private final int[] targetY;
+
+        public PathRequest(Unit attacker, List<Unit> candidateTargets) {
+            this.attacker = Objects.requireNonNull(attacker, "attacker");
+            this.targets = candidateTargets == null
+                    ? Collections.emptyList()
+                    : Collections.unmodifiableList(new ArrayList<>(candidateTargets));
+            this.attackerX = attacker.getxCoordinate();
+            this.attackerY = attacker.getyCoordinate();
+            this.targetX = new int[targets.size()];
+            this.targetY = new int[targets.size()];
+            for (int i = 0; i < targets.size(); i++) {
+                targetX[i] = targets.get(i).getxCoordinate();
+                targetY[i] = targets.get(i).getyCoordinate();
+            }
+        }
+
+        public Unit getAttacker() {
+            return attacker;
+        }
+
+        public List<Unit> getTargets() {
+            return targets;
+        }
+    }
+
+    /**
+     * Результат планирования: выбранная цель, путь до неё и его стоимость
+     * (в единицах A*: прямой шаг = 10, диагональ = 14). Если ни одна цель
+     * недостижима, target равен null, путь пустой, а стоимость -1.
+     */
+    public static final class PlannedPath {
+        private final Unit attacker;
+        private final Unit target;
+        private final CompactPath path;
+
+        PlannedPath(Unit attacker, Unit target, CompactPath path) {
+            this.attacker = attacker;
+            this.target = target;
+            this.path = path;
+        }
+
+        public Unit getAttacker() {
+            return attacker;
+        }
+
+        public Unit getTarget() {
+            return target;
+        }
+
+        public List<Edge> getPath() {
+            return path.asEdges();
+        }
+
+        public CompactPath getCompactPath() {
+            return path;
+        }
+
+        public int getCost() {
+            return path.getCost();
+        }
+
+        public boolean isReachable() {
+            return target != null;
+        }
+    }
+}
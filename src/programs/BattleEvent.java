@@ -0,0 +1,195 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+
+/**
+ * Типизированное событие боя для потока {@link BattleEventPublisher}.
+ * Неиспользуемые для данного типа поля равны null или 0.
+ *
+ * Подписчики получают события асинхронно, когда симуляция уже ушла вперёд,
+ * поэтому событие не держит ссылок на изменяемые {@link Unit}: имя, тип
+ * и координаты участников и здоровье цели копируются в момент события.
+ */
+public final class BattleEvent {
+
+    public enum Type {
+        ROUND_START, // Начало раунда
+        ATTACK, // Юнит выбрал цель и атакует
+        DAMAGE, // Урон нанесён
+        DEATH, // Цель погибла
+        BATTLE_END // Бой завершён
+    }
+
+    public enum Outcome {
+        PLAYER_WON, COMPUTER_WON, DRAW, BOTH_DESTROYED
+    }
+
+    private final Type type;
+    private final int round;
+    private final UnitSnapshot attacker;
+    private final UnitSnapshot target;
+    private final int damage;
+    private final int healthBefore;
+    private final int healthAfter;
+    private final Outcome outcome;
+    private final int playerSurvivors;
+    private final int computerSurvivors;
+
+    private BattleEvent(Type type, int round, Unit attacker, Unit target, int damage, int healthBefore,
+            int healthAfter, Outcome outcome, int playerSurvivors, int computerSurvivors) {
+        this.type = type;
+        this.round = round;
+        this.attacker = UnitSnapshot.of(attacker);
+        this.target = UnitSnapshot.of(target);
+        this.damage = damage;
+        this.healthBefore = healthBefore;
+        this.healthAfter = healthAfter;
+        this.outcome = outcome;
+        this.playerSurvivors = playerSurvivors;
+        this.computerSurvivors = computerSurvivors;
+    }
+
+    public static BattleEvent roundStart(int round) {
+        return new BattleEvent(Type.ROUND_START, round, null, null, 0, 0, 0, null, 0, 0);
+    }
+
+    /**
+     * Удар ещё не нанесён: здоровье цели до и после совпадает
+     */
+    public static BattleEvent attack(int round, Unit attacker, Unit target) {
+        int health = target.getHealth();
+        return new BattleEvent(Type.ATTACK, round, attacker, target, 0, health, health, null, 0, 0);
+    }
+
+    /**
+     * Вызывается после удара
+     *
+     * @param healthBefore здоровье цели до удара
+     */
+    public static BattleEvent damage(int round, Unit attacker, Unit target, int damage, int healthBefore) {
+        return new BattleEvent(Type.DAMAGE, round, attacker, target, damage, healthBefore, target.getHealth(), null,
+                0, 0);
+    }
+
+    public static BattleEvent death(int round, Unit killer, Unit victim) {
+        return new BattleEvent(Type.DEATH, round, killer, victim, 0, 0, 0, null, 0, 0);
+    }
+
+    public static BattleEvent battleEnd(int rounds, Outcome outcome, int playerSurvivors, int computerSurvivors) {
+        return new BattleEvent(Type.BATTLE_END, rounds, null, null, 0, 0, 0, outcome, playerSurvivors,
+                computerSurvivors);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * Атакующий на момент события или null
+     */
+    public UnitSnapshot getAttacker() {
+        return attacker;
+    }
+
+    /**
+     * Цель на момент события или null
+     */
+    public UnitSnapshot getTarget() {
+        return target;
+    }
+
+    public int getDamage() {
+        return damage;
+    }
+
+    /**
+     * Здоровье цели до удара (ATTACK, DAMAGE)
+     */
+    public int getHealthBefore() {
+        return healthBefore;
+    }
+
+    /**
+     * Здоровье цели после удара (DAMAGE); для ATTACK удар ещё не нанесён
+     * и значение равно {@link #getHealthBefore()}
+     */
+    public int getHealthAfter() {
+        return healthAfter;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public int getPlayerSurvivors() {
+        return playerSurvivors;
+    }
+
+    public int getComputerSurvivors() {
+        return computerSurvivors;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case ROUND_START:
+                return "ROUND_START " + round;
+            case BATTLE_END:
+                return "BATTLE_END " + outcome + " rounds=" + round
+                        + " player=" + playerSurvivors + " computer=" + computerSurvivors;
+            default:
+                return type + " round=" + round
+                        + " " + (attacker != null ? attacker.getName() : null)
+                        + " -> " + (target != null ? target.getName() : null)
+                        + (type == Type.DAMAGE ? " damage=" + damage + " hp=" + healthBefore + "->" + healthAfter : "");
+        }
+    }
+
+    /**
+     * Неизменяемая копия полей юнита, нужных подписчикам
+     */
+    public static final class UnitSnapshot {
+        private final String name;
+        private final String unitType;
+        private final int x;
+        private final int y;
+
+        private UnitSnapshot(String name, String unitType, int x, int y) {
+            this.name = name;
+            this.unitType = unitType;
+            this.x = x;
+            this.y = y;
+        }
+
+        static UnitSnapshot of(Unit unit) {
+            return unit == null
+                    ? null
+                    : new UnitSnapshot(unit.getName(), unit.getUnitType(), unit.getxCoordinate(), unit.getyCoordinate());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUnitType() {
+            return unitType;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package programs;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Поток событий боя на основе java.util.concurrent.Flow.
+ * События копятся в пачки и отдаются подписчикам через SubmissionPublisher,
+ * который соблюдает запрошенный подписчиком спрос (request(n)) и держит для
+ * каждого подписчика ограниченный буфер. Пачка отправляется при наборе
+ * batchSize событий, в конце раунда и в конце боя.
+ *
+ * При политике DROP симуляция никогда не ждёт подписчиков: если буфер
+ * медленного подписчика полон, пачка для него отбрасывается и учитывается
+ * в {@link #getDroppedBatches()}. При политике BLOCK симуляция ждёт,
+ * пока в буфере появится место (для журналов, где нельзя терять события).
+ */
+public class BattleEventPublisher implements Flow.Publisher<List<BattleEvent>>, AutoCloseable {
+
+    public enum OverflowPolicy {
+        DROP, BLOCK
+    }
+
+    public final static int DEFAULT_BATCH_SIZE = 64;
+
+    private final SubmissionPublisher<List<BattleEvent>> publisher;
+    private final int batchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final LongAdder droppedBatches = new LongAdder();
+    private final LongAdder publishedEvents = new LongAdder();
+
+    private List<BattleEvent> batch;
+
+    public BattleEventPublisher() {
+        this(ForkJoinPool.commonPool(), Flow.defaultBufferSize(), DEFAULT_BATCH_SIZE, OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param executor       исполнитель доставки подписчикам
+     * @param bufferCapacity максимум пачек в буфере одного подписчика
+     * @param batchSize      максимум событий в одной пачке
+     * @param overflowPolicy что делать, если буфер подписчика полон
+     */
+    public BattleEventPublisher(Executor executor, int bufferCapacity, int batchSize, OverflowPolicy overflowPolicy) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Размер пачки должен быть положительным: " + batchSize);
+        }
+        this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+        this.batchSize = batchSize;
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<BattleEvent>> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Есть ли подписчики: без них симуляция не создаёт события вовсе
+     */
+    public boolean hasSubscribers() {
+        return publisher.hasSubscribers();
+    }
+
+    /**
+     * Добавляет событие в текущую пачку и отправляет её, если она заполнена
+     */
+    public synchronized void emit(BattleEvent event) {
+        batch.add(event);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Отправляет накопленные события, даже если пачка неполная
+     */
+    public synchronized void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<BattleEvent> ready = Collections.unmodifiableList(batch);
+        batch = new ArrayList<>(batchSize);
+        publishedEvents.add(ready.size());
+
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            publisher.submit(ready);
+        } else {
+            publisher.offer(ready, (subscriber, dropped) -> {
+                droppedBatches.increment();
+                return false;
+            });
+        }
+    }
+
+    public long getDroppedBatches() {
+        return droppedBatches.sum();
+    }
+
+    public long getPublishedEvents() {
+        return publishedEvents.sum();
+    }
+
+    /**
+     * Отправляет остаток и сообщает подписчикам onComplete
+     */
+    @Override
+    public void close() {
+        flush();
+        publisher.close();
+    }
+}
@@ -0,0 +1,515 @@
+package programs;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики боевого движка: таймеры и гистограммы по фазам, счётчики атак,
+ * убийств, раундов и проглоченных исключений (по типу).
+ * Все счётчики — LongAdder, так что запись из многих потоков почти не
+ * конкурирует. Снимок берётся через {@link #snapshot()}, а для JMX метрики
+ * регистрируются через {@link #registerMBean(String)}.
+ *
+ * Выключенные метрики ({@link #setEnabled(boolean)}) не вызывают System.nanoTime().
+ */
+public class BattleMetrics implements BattleMetricsMXBean {
+
+    public enum Phase {
+        TARGET_SELECTION, // attacker.getProgram().attack(), включает поиск пути
+        PATHFINDING, // UnitTargetPathFinderImpl и IncrementalPathFinder
+        DAMAGE, // Расчёт и применение урона
+        LOGGING // PrintBattleLog и поток событий
+    }
+
+    // Значение startTimer() при выключенных метриках. System.nanoTime() может
+    // вернуть и 0, и отрицательное число, поэтому признак — отдельная константа
+    public final static long TIMER_DISABLED = Long.MIN_VALUE;
+
+    // Корзины гистограммы: i-я корзина — длительности из [2^i, 2^(i+1)) нс
+    private static final int BUCKETS = 64;
+
+    private static final BattleMetrics SHARED = new BattleMetrics();
+
+    private volatile boolean enabled = true;
+
+    private final LongAdder[] phaseCounts = newAdders(Phase.values().length);
+    private final LongAdder[] phaseNanos = newAdders(Phase.values().length);
+    private final LongAccumulator[] phaseMaxNanos = new LongAccumulator[Phase.values().length];
+    private final LongAdder[][] histograms = new LongAdder[Phase.values().length][];
+
+    private final LongAdder battles = new LongAdder();
+    private final LongAdder rounds = new LongAdder();
+    private final LongAdder attacks = new LongAdder();
+    private final LongAdder kills = new LongAdder();
+    private final Map<String, LongAdder> swallowedExceptions = new ConcurrentHashMap<>();
+
+    // Итоги фаз боя, который идёт в этом потоке (см. beginBattle)
+    private final ThreadLocal<long[]> battlePhaseNanos = new ThreadLocal<>();
+
+    public BattleMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = newAdders(BUCKETS);
+            phaseMaxNanos[i] = new LongAccumulator(Math::max, 0);
+        }
+    }
+
+    /**
+     * Общий экземпляр: в него пишут движок и поиск пути по умолчанию
+     */
+    public static BattleMetrics shared() {
+        return SHARED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Начало замера фазы: {@link #TIMER_DISABLED}, если метрики выключены
+     */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : TIMER_DISABLED;
+    }
+
+    /**
+     * Завершает замер фазы
+     *
+     * @param phase фаза
+     * @param start значение {@link #startTimer()}
+     * @return длительность в наносекундах (0, если метрики выключены)
+     */
+    public long record(Phase phase, long start) {
+        if (!enabled || start == TIMER_DISABLED) {
+            return 0;
+        }
+        long elapsed = System.nanoTime() - start;
+        int index = phase.ordinal();
+        long[] battle = battlePhaseNanos.get();
+        if (battle != null) {
+            battle[index] += elapsed;
+        }
+        phaseCounts[index].increment();
+        phaseNanos[index].add(elapsed);
+        phaseMaxNanos[index].accumulate(elapsed);
+        histograms[index][bucket(elapsed)].increment();
+        return elapsed;
+    }
+
+    /**
+     * Начинает бой в текущем потоке: до {@link #endBattle()} все замеры этого
+     * потока, в том числе поиска пути из программ юнитов, добавляются
+     * в phaseNanos
+     *
+     * @param phaseNanos итоги фаз боя по {@link Phase#ordinal()}
+     */
+    void beginBattle(long[] phaseNanos) {
+        battlePhaseNanos.set(phaseNanos);
+    }
+
+    /**
+     * Завершает бой текущего потока, начатый {@link #beginBattle(long[])}
+     */
+    void endBattle() {
+        battlePhaseNanos.remove();
+    }
+
+    public void battleFinished() {
+        battles.increment();
+    }
+
+    public void roundStarted() {
+        rounds.increment();
+    }
+
+    public void attackPerformed() {
+        attacks.increment();
+    }
+
+    public void unitKilled() {
+        kills.increment();
+    }
+
+    public void exceptionSwallowed(Throwable e) {
+        swallowedExceptions.computeIfAbsent(e.getClass().getName(), key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Снимок всех метрик. Счётчики читаются по очереди без блокировок,
+     * поэтому при параллельной записи снимок согласован лишь приблизительно
+     */
+    public Snapshot snapshot() {
+        int phases = Phase.values().length;
+        long[] counts = new long[phases];
+        long[] totals = new long[phases];
+        long[] max = new long[phases];
+        long[][] buckets = new long[phases][BUCKETS];
+        for (int p = 0; p < phases; p++) {
+            counts[p] = phaseCounts[p].sum();
+            totals[p] = phaseNanos[p].sum();
+            max[p] = phaseMaxNanos[p].get();
+            for (int b = 0; b < BUCKETS; b++) {
+                buckets[p][b] = histograms[p][b].sum();
+            }
+        }
+        return new Snapshot(counts, totals, max, buckets,
+                battles.sum(), rounds.sum(), attacks.sum(), kills.sum(), getSwallowedExceptions());
+    }
+
+    @Override
+    public void reset() {
+        for (int p = 0; p < Phase.values().length; p++) {
+            phaseCounts[p].reset();
+            phaseNanos[p].reset();
+            phaseMaxNanos[p].reset();
+            for (LongAdder adder : histograms[p]) {
+                adder.reset();
+            }
+        }
+        battles.reset();
+        rounds.reset();
+        attacks.reset();
+        kills.reset();
+        swallowedExceptions.clear();
+    }
+
+    /**
+     * Регистрирует метрики в платформенном MBeanServer
+     *
+     * @param name значение ключа name в ObjectName, например "default"
+     * @return зарегистрированное имя
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("programs:type=BattleMetrics,name=" + ObjectName.quote(name));
+        try {
+            server.registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        }
+        return objectName;
+    }
+
+    // Атрибуты MXBean
+
+    @Override
+    public long getBattles() {
+        return battles.sum();
+    }
+
+    @Override
+    public long getRounds() {
+        return rounds.sum();
+    }
+
+    @Override
+    public long getAttacks() {
+        return attacks.sum();
+    }
+
+    @Override
+    public long getKills() {
+        return kills.sum();
+    }
+
+    @Override
+    public Map<String, Long> getSwallowedExceptions() {
+        Map<String, Long> result = new TreeMap<>();
+        swallowedExceptions.forEach((type, count) -> result.put(type, count.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        return snapshot().toMap(Snapshot.Stat.COUNT);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMeanNanos() {
+        return snapshot().toMap(Snapshot.Stat.MEAN);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseP99Nanos() {
+        return snapshot().toMap(Snapshot.Stat.P99);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMaxNanos() {
+        return snapshot().toMap(Snapshot.Stat.MAX);
+    }
+
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    private static LongAdder[] newAdders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Неизменяемый снимок метрик
+     */
+    public static final class Snapshot {
+        enum Stat {
+            COUNT, MEAN, P99, MAX
+        }
+
+        private final long[] counts;
+        private final long[] totalNanos;
+        private final long[] maxNanos;
+        private final long[][] histograms;
+        private final long battles;
+        private final long rounds;
+        private final long attacks;
+        private final long kills;
+        private final Map<String, Long> swallowedExceptions;
+
+        Snapshot(long[] counts, long[] totalNanos, long[] maxNanos, long[][] histograms,
+                long battles, long rounds, long attacks, long kills, Map<String, Long> swallowedExceptions) {
+            this.counts = counts;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.histograms = histograms;
+            this.battles = battles;
+            this.rounds = rounds;
+            this.attacks = attacks;
+            this.kills = kills;
+            this.swallowedExceptions = Collections.unmodifiableMap(swallowedExceptions);
+        }
+
+        public long getCount(Phase phase) {
+            return counts[phase.ordinal()];
+        }
+
+        public long getTotalNanos(Phase phase) {
+            return totalNanos[phase.ordinal()];
+        }
+
+        public long getMeanNanos(Phase phase) {
+            long count = getCount(phase);
+            return count == 0 ? 0 : getTotalNanos(phase) / count;
+        }
+
+        public long getMaxNanos(Phase phase) {
+            return maxNanos[phase.ordinal()];
+        }
+
+        /**
+         * Оценка перцентиля по гистограмме: верхняя граница корзины,
+         * в которую попадает заданная доля замеров
+         *
+         * @param quantile доля от 0 до 1, например 0.99
+         */
+        public long getPercentileNanos(Phase phase, double quantile) {
+            long count = getCount(phase);
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            long[] buckets = histograms[phase.ordinal()];
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank) {
+                    return Math.min(b >= 62 ? Long.MAX_VALUE : (1L << (b + 1)) - 1, getMaxNanos(phase));
+                }
+            }
+            return getMaxNanos(phase);
+        }
+
+        public long getBattles() {
+            return battles;
+        }
+
+        public long getRounds() {
+            return rounds;
+        }
+
+        public long getAttacks() {
+            return attacks;
+        }
+
+        public long getKills() {
+            return kills;
+        }
+
+        public Map<String, Long> getSwallowedExceptions() {
+            return swallowedExceptions;
+        }
+
+        Map<String, Long> toMap(Stat stat) {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (Phase phase : Phase.values()) {
+                long value;
+                switch (stat) {
+                    case COUNT:
+                        value = getCount(phase);
+                        break;
+                    case MEAN:
+                        value = getMeanNanos(phase);
+                        break;
+                    case P99:
+                        value = getPercentileNanos(phase, 0.99);
+                        break;
+                    default:
+                        value = getMaxNanos(phase);
+                }
+                result.put(phase.name(), value);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("battles=").append(battles)
+                    .append(" rounds=").append(rounds)
+                    .append(" attacks=").append(attacks)
+                    .append(" kills=").append(kills)
+                    .append(" swallowed=").append(swallowedExceptions);
+            for (Phase phase : Phase.values()) {
+                sb.append(System.lineSeparator())
+                        .append(phase).append(": count=").append(getCount(phase))
+                        .append(" mean=").append(getMeanNanos(phase)).append("ns")
+                        .append(" p50<=").append(getPercentileNanos(phase, 0.5)).append("ns")
+                        .append(" p99<=").append(getPercentileNanos(phase, 0.99)).append("ns")
+                        .append(" max=").append(getMaxNanos(phase)).append("ns");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Итоги одного боя. PATHFINDING — поиск пути, который программы юнитов
+     * вызвали в потоке боя через поисковик с теми же метриками, что
+     * у симуляции; это время входит и в TARGET_SELECTION. Режим SIMULTANEOUS
+     * выбирает цели без поисковиков, и PATHFINDING в нём 0.
+     */
+    public static final class BattleSummary {
+        /**
+         * Почему бой закончился
+         */
+        public enum EndReason {
+            /** Одна из армий (или обе) уничтожена */
+            ARMY_DESTROYED,
+            /** Достигнуто ограничение числа раундов */
+            ROUND_LIMIT,
+            /** За раунд не прошло ни одной атаки: дальше бой не изменится */
+            NO_ATTACKS
+        }
+
+        private final BattleEvent.Outcome outcome;
+        private final EndReason endReason;
+        private final int playerSurvivors;
+        private final int computerSurvivors;
+        private final int rounds;
+        private final int cachedRounds;
+        private final int attacks;
+        private final int kills;
+        private final int swallowedExceptions;
+        private final long wallNanos;
+        private final long[] phaseNanos;
+
+        BattleSummary(BattleEvent.Outcome outcome, EndReason endReason, int playerSurvivors, int computerSurvivors,
+                int rounds, int cachedRounds, int attacks, int kills, int swallowedExceptions, long wallNanos,
+                long[] phaseNanos) {
+            this.outcome = outcome;
+            this.endReason = endReason;
+            this.playerSurvivors = playerSurvivors;
+            this.computerSurvivors = computerSurvivors;
+            this.rounds = rounds;
+            this.cachedRounds = cachedRounds;
+            this.attacks = attacks;
+            this.kills = kills;
+            this.swallowedExceptions = swallowedExceptions;
+            this.wallNanos = wallNanos;
+            this.phaseNanos = phaseNanos.clone();
+        }
+
+        public BattleEvent.Outcome getOutcome() {
+            return outcome;
+        }
+
+        public EndReason getEndReason() {
+            return endReason;
+        }
+
+        public int getPlayerSurvivors() {
+            return playerSurvivors;
+        }
+
+        public int getComputerSurvivors() {
+            return computerSurvivors;
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+         * Сколько из {@link #getRounds()} раундов взято из таблицы исходов
+         * вместо розыгрыша. Атаки и гибели этих раундов в итогах есть, а
+         * замеров фаз, событий и общих метрик для них нет.
+         */
+        public int getCachedRounds() {
+            return cachedRounds;
+        }
+
+        public int getAttacks() {
+            return attacks;
+        }
+
+        public int getKills() {
+            return kills;
+        }
+
+        public int getSwallowedExceptions() {
+            return swallowedExceptions;
+        }
+
+        /**
+         * Полное время боя, включая паузы между раундами
+         */
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getPhaseNanos(Phase phase) {
+            return phaseNanos[phase.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("BattleSummary{outcome=").append(outcome)
+                    .append(", end=").append(endReason)
+                    .append(", player=").append(playerSurvivors)
+                    .append(", computer=").append(computerSurvivors)
+                    .append(", rounds=").append(rounds)
+                    .append(", cached=").append(cachedRounds)
+                    .append(", attacks=").append(attacks)
+                    .append(", kills=").append(kills)
+                    .append(", swallowed=").append(swallowedExceptions)
+                    .append(", wall=").append(wallNanos / 1_000_000).append("ms");
+            for (Phase phase : Phase.values()) {
+                sb.append(", ").append(phase).append('=').append(phaseNanos[phase.ordinal()] / 1_000).append("us");
+            }
+            return sb.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package programs;
+
+import java.util.Map;
+
+/**
+ * JMX-представление {@link BattleMetrics}. Длительности — в наносекундах,
+ * ключи карт фаз — имена {@link BattleMetrics.Phase}.
+ */
+public interface BattleMetricsMXBean {
+
+    long getBattles();
+
+    long getRounds();
+
+    long getAttacks();
+
+    long getKills();
+
+    Map<String, Long> getSwallowedExceptions();
+
+    Map<String, Long> getPhaseCounts();
+
+    Map<String, Long> getPhaseMeanNanos();
+
+    Map<String, Long> getPhaseP99Nanos();
+
+    Map<String, Long> getPhaseMaxNanos();
+
+    void reset();
+}
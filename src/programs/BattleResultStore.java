@@ -0,0 +1,606 @@
+package programs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+
+/**
+ * Итоги боёв массовых прогонов вне кучи, по столбцам. Миллионы итогов
+ * в виде объектов Java не помещаются в кучу; здесь строка — 23 числа int
+ * в прямой памяти, а объекты есть только у словарей: стратегий, типов
+ * юнитов и составов армий.
+ *
+ * <pre>
+ * сегмент    столбец × segmentRows × int, столбцы подряд:
+ *            outcome  strategy  playerComposition  computerComposition  rounds
+ *            playerDamage  computerDamage  MAX_UNIT_TYPES × playerSurvivors
+ *            MAX_UNIT_TYPES × computerSurvivors
+ * </pre>
+ *
+ * outcome — порядковый номер {@link BattleEvent.Outcome} плюс один, 0 — строка
+ * ещё пишется. Состав армии — номер вектора количеств по типам в словаре.
+ *
+ * Запись идёт из многих потоков через полосы: у каждой полосы свой текущий
+ * сегмент и курсор, строка резервируется getAndIncrement без блокировок,
+ * монитор берётся только при смене сегмента, раз на segmentRows строк. Первые
+ * maxResidentSegments сегментов лежат в прямой памяти, остальные создаются
+ * в отображённых файлах каталога сброса, и вытеснять их на диск — забота ОС.
+ *
+ * Запросы не собирают строки: они идут по нужным столбцам сегментов
+ * простыми циклами по int и видят только дописанные строки. Запросы можно
+ * выполнять одновременно с записью.
+ */
+public final class BattleResultStore implements Closeable {
+    public final static int MAX_UNIT_TYPES = 8;
+    public final static int DEFAULT_SEGMENT_ROWS = 1 << 14;
+    // Сегментов в прямой памяти у хранилища со сбросом: 16 × 1.5 МБ
+    public final static int DEFAULT_RESIDENT_SEGMENTS = 16;
+
+    private static final int OUTCOME = 0;
+    private static final int STRATEGY = 1;
+    private static final int PLAYER_COMPOSITION = 2;
+    private static final int COMPUTER_COMPOSITION = 3;
+    private static final int ROUNDS = 4;
+    private static final int PLAYER_DAMAGE = 5;
+    private static final int COMPUTER_DAMAGE = 6;
+    private static final int PLAYER_SURVIVORS = 7;
+    private static final int COMPUTER_SURVIVORS = PLAYER_SURVIVORS + MAX_UNIT_TYPES;
+    private static final int COLUMN_COUNT = COMPUTER_SURVIVORS + MAX_UNIT_TYPES;
+
+    private static final int PLAYER_WON = BattleEvent.Outcome.PLAYER_WON.ordinal() + 1;
+    private static final BattleEvent.Outcome[] OUTCOMES = BattleEvent.Outcome.values();
+
+    // Публикация строки: outcome пишется последним с release-семантикой
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final Path spillDirectory;
+    private final int maxResidentSegments;
+    private final int segmentRows;
+    private final AtomicReferenceArray<Segment> stripes;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Dictionary<String> strategies = new Dictionary<>(UnaryOperator.identity());
+    private final Dictionary<String> unitTypes = new Dictionary<>(UnaryOperator.identity());
+    private final Dictionary<Composition> compositions = new Dictionary<>(Composition::copy);
+    private volatile boolean closed;
+
+    private BattleResultStore(Path spillDirectory, int maxResidentSegments, int segmentRows, int stripeCount) {
+        if (segmentRows <= 0 || maxResidentSegments < 0 || stripeCount <= 0) {
+            throw new IllegalArgumentException("Некорректные размеры хранилища итогов");
+        }
+        this.spillDirectory = spillDirectory;
+        this.maxResidentSegments = maxResidentSegments;
+        this.segmentRows = segmentRows;
+        this.stripes = new AtomicReferenceArray<>(Integer.highestOneBit(stripeCount - 1 | 1) << 1);
+    }
+
+    /**
+     * Хранилище только в прямой памяти
+     */
+    public static BattleResultStore offHeap() {
+        return new BattleResultStore(null, Integer.MAX_VALUE, DEFAULT_SEGMENT_ROWS,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Хранилище со сбросом: сегменты сверх maxResidentSegments создаются
+     * отображёнными файлами в каталоге directory и удаляются при {@link #close()}
+     */
+    public static BattleResultStore spilling(Path directory, int maxResidentSegments) throws IOException {
+        Files.createDirectories(directory);
+        return new BattleResultStore(directory, maxResidentSegments, DEFAULT_SEGMENT_ROWS,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Хранилище с заданными размерами, для проверок сброса и смены сегментов
+     *
+     * @param spillDirectory каталог сброса или null
+     */
+    static BattleResultStore create(Path spillDirectory, int maxResidentSegments, int segmentRows, int stripeCount) {
+        return new BattleResultStore(spillDirectory, maxResidentSegments, segmentRows, stripeCount);
+    }
+
+    /**
+     * Новая строка для заполнения. Строку можно переиспользовать после
+     * {@link #append(Row)}, но не делить между потоками.
+     */
+    public Row newRow() {
+        return new Row();
+    }
+
+    /**
+     * Дописывает строку
+     *
+     * @throws IllegalStateException если в строке нет исхода или типов юнитов больше MAX_UNIT_TYPES
+     * @throws UncheckedIOException  если не удалось создать файл сброса
+     */
+    public void append(Row row) {
+        if (closed) {
+            throw new IllegalStateException("Хранилище итогов закрыто");
+        }
+        if (row.outcome == null) {
+            throw new IllegalStateException("Не задан исход боя");
+        }
+        int strategy = strategies.idOf(row.strategy);
+        int playerComposition = compositionId(row, 0);
+        int computerComposition = compositionId(row, 1);
+
+        int stripe = (int) Thread.currentThread().threadId() & (stripes.length() - 1);
+        Segment segment = stripes.get(stripe);
+        int index = segment == null ? segmentRows : segment.reserved.getAndIncrement();
+        while (index >= segmentRows) {
+            segment = nextSegment(stripe, segment);
+            index = segment.reserved.getAndIncrement();
+        }
+
+        ByteBuffer buffer = segment.buffer;
+        buffer.putInt(offset(STRATEGY, index), strategy);
+        buffer.putInt(offset(PLAYER_COMPOSITION, index), playerComposition);
+        buffer.putInt(offset(COMPUTER_COMPOSITION, index), computerComposition);
+        buffer.putInt(offset(ROUNDS, index), row.rounds);
+        buffer.putInt(offset(PLAYER_DAMAGE, index), row.damage[0]);
+        buffer.putInt(offset(COMPUTER_DAMAGE, index), row.damage[1]);
+        for (int type = 0; type < MAX_UNIT_TYPES; type++) {
+            buffer.putInt(offset(PLAYER_SURVIVORS + type, index), row.survivors[0][type]);
+            buffer.putInt(offset(COMPUTER_SURVIVORS + type, index), row.survivors[1][type]);
+        }
+        INTS.setRelease(buffer, offset(OUTCOME, index), row.outcome.ordinal() + 1);
+        segment.completed.incrementAndGet();
+    }
+
+    /**
+     * Число дописанных строк
+     */
+    public long getRowCount() {
+        long rows = 0;
+        for (Segment segment : segments) {
+            rows += segment.completed.get();
+        }
+        return rows;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Сколько сегментов лежит в файлах сброса
+     */
+    public int getSpilledSegmentCount() {
+        int spilled = 0;
+        for (Segment segment : segments) {
+            if (segment.file != null) {
+                spilled++;
+            }
+        }
+        return spilled;
+    }
+
+    /**
+     * Доля побед армии игрока по её составу, по убыванию числа боёв
+     */
+    public List<CompositionStats> winRateByComposition() {
+        int size = compositions.size();
+        long[] battles = new long[size];
+        long[] wins = new long[size];
+        long[] damage = new long[size];
+        for (Segment segment : segments) {
+            int completed = segment.completed.get();
+            int rows = Math.min(segment.reserved.get(), segmentRows);
+            // Все выданные строки дописаны: их можно читать без проверки каждой
+            boolean settled = completed >= rows;
+            ByteBuffer buffer = segment.buffer;
+            for (int row = 0; row < rows; row++) {
+                int outcome = settled ? buffer.getInt(offset(OUTCOME, row))
+                        : (int) INTS.getAcquire(buffer, offset(OUTCOME, row));
+                int composition = buffer.getInt(offset(PLAYER_COMPOSITION, row));
+                // Строка ещё пишется или её состав появился после снимка словаря
+                if (outcome == 0 || composition >= size) {
+                    continue;
+                }
+                battles[composition]++;
+                wins[composition] += outcome == PLAYER_WON ? 1 : 0;
+                damage[composition] += buffer.getInt(offset(PLAYER_DAMAGE, row));
+            }
+        }
+
+        List<String> types = unitTypes.values();
+        List<CompositionStats> result = new ArrayList<>();
+        for (int id = 0; id < size; id++) {
+            if (battles[id] > 0) {
+                result.add(new CompositionStats(compositions.get(id).toMap(types), battles[id], wins[id],
+                        damage[id] / (double) battles[id]));
+            }
+        }
+        result.sort((a, b) -> Long.compare(b.battles, a.battles));
+        return result;
+    }
+
+    /**
+     * Среднее число раундов боя по стратегиям
+     */
+    public Map<String, Double> meanRoundsByStrategy() {
+        int size = strategies.size();
+        long[] battles = new long[size];
+        long[] rounds = new long[size];
+        for (Segment segment : segments) {
+            int completed = segment.completed.get();
+            int rows = Math.min(segment.reserved.get(), segmentRows);
+            // Все выданные строки дописаны: их можно читать без проверки каждой
+            boolean settled = completed >= rows;
+            ByteBuffer buffer = segment.buffer;
+            for (int row = 0; row < rows; row++) {
+                int outcome = settled ? buffer.getInt(offset(OUTCOME, row))
+                        : (int) INTS.getAcquire(buffer, offset(OUTCOME, row));
+                int strategy = buffer.getInt(offset(STRATEGY, row));
+                if (outcome == 0 || strategy >= size) {
+                    continue;
+                }
+                battles[strategy]++;
+                rounds[strategy] += buffer.getInt(offset(ROUNDS, row));
+            }
+        }
+
+        Map<String, Double> result = new TreeMap<>();
+        for (int id = 0; id < size; id++) {
+            if (battles[id] > 0) {
+                result.put(strategies.get(id), rounds[id] / (double) battles[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Число боёв по исходам
+     */
+    public Map<BattleEvent.Outcome, Long> countByOutcome() {
+        long[] counts = new long[OUTCOMES.length + 1];
+        for (Segment segment : segments) {
+            int completed = segment.completed.get();
+            int rows = Math.min(segment.reserved.get(), segmentRows);
+            // Все выданные строки дописаны: их можно читать без проверки каждой
+            boolean settled = completed >= rows;
+            ByteBuffer buffer = segment.buffer;
+            for (int row = 0; row < rows; row++) {
+                counts[settled ? buffer.getInt(offset(OUTCOME, row))
+                        : (int) INTS.getAcquire(buffer, offset(OUTCOME, row))]++;
+            }
+        }
+        Map<BattleEvent.Outcome, Long> result = new EnumMap<>(BattleEvent.Outcome.class);
+        for (BattleEvent.Outcome outcome : OUTCOMES) {
+            result.put(outcome, counts[outcome.ordinal() + 1]);
+        }
+        return result;
+    }
+
+    /**
+     * Удаляет файлы сброса. Отображения освобождает сборщик мусора.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        IOException failure = null;
+        for (Segment segment : segments) {
+            if (segment.file != null) {
+                try {
+                    Files.deleteIfExists(segment.file);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "BattleResultStore{rows=%d, segments=%d, spilled=%d, compositions=%d}",
+                getRowCount(), getSegmentCount(), getSpilledSegmentCount(), compositions.size());
+    }
+
+    private int offset(int column, int row) {
+        return (column * segmentRows + row) * Integer.BYTES;
+    }
+
+    private int compositionId(Row row, int side) {
+        Composition probe = row.probe;
+        Arrays.fill(probe.counts, 0);
+        for (int i = 0; i < row.typeCount[side]; i++) {
+            String type = row.types[side][i];
+            // Лишний тип не должен попасть в словарь: иначе он займёт номер навсегда
+            int id = unitTypes.idOf(type, MAX_UNIT_TYPES);
+            if (id < 0) {
+                throw new IllegalStateException("Типов юнитов больше " + MAX_UNIT_TYPES + ": " + type);
+            }
+            probe.counts[id] = row.counts[side][i];
+            row.survivors[side][id] = row.alive[side][i];
+        }
+        return compositions.idOf(probe);
+    }
+
+    /**
+     * Заменяет заполненный сегмент полосы новым
+     */
+    private Segment nextSegment(int stripe, Segment full) {
+        synchronized (stripes) {
+            Segment current = stripes.get(stripe);
+            if (current != full) {
+                return current;
+            }
+            Segment segment = allocate();
+            segments.add(segment);
+            stripes.set(stripe, segment);
+            return segment;
+        }
+    }
+
+    private Segment allocate() {
+        int bytes = COLUMN_COUNT * segmentRows * Integer.BYTES;
+        if (spillDirectory == null || segments.size() < maxResidentSegments) {
+            return new Segment(ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()), null);
+        }
+        Path file = spillDirectory.resolve("results-" + segments.size() + ".col");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+            return new Segment(buffer, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось создать файл сброса " + file, e);
+        }
+    }
+
+    /**
+     * Итоги одного боя перед записью. Количества юнитов задаются по типам,
+     * номера столбцов типам присваивает хранилище.
+     */
+    public final class Row {
+        private BattleEvent.Outcome outcome;
+        private String strategy = "";
+        private int rounds;
+        private final int[] damage = new int[2];
+        private final String[][] types = new String[2][MAX_UNIT_TYPES];
+        private final int[][] counts = new int[2][MAX_UNIT_TYPES];
+        private final int[][] alive = new int[2][MAX_UNIT_TYPES];
+        private final int[] typeCount = new int[2];
+        private final int[][] survivors = new int[2][MAX_UNIT_TYPES];
+        private final Composition probe = new Composition(new int[MAX_UNIT_TYPES]);
+
+        private Row() {
+        }
+
+        /**
+         * Очищает строку для следующего боя
+         */
+        public Row reset() {
+            outcome = null;
+            strategy = "";
+            rounds = 0;
+            Arrays.fill(damage, 0);
+            Arrays.fill(typeCount, 0);
+            for (int side = 0; side < 2; side++) {
+                Arrays.fill(survivors[side], 0);
+            }
+            return this;
+        }
+
+        public Row setOutcome(BattleEvent.Outcome outcome) {
+            this.outcome = outcome;
+            return this;
+        }
+
+        public Row setStrategy(String strategy) {
+            this.strategy = Objects.requireNonNull(strategy, "strategy");
+            return this;
+        }
+
+        public Row setRounds(int rounds) {
+            this.rounds = rounds;
+            return this;
+        }
+
+        /**
+         * Суммарный урон, нанесённый армией
+         *
+         * @param player true — армия игрока, false — компьютера
+         */
+        public Row setDamageDealt(boolean player, int damage) {
+            this.damage[player ? 0 : 1] = damage;
+            return this;
+        }
+
+        /**
+         * Учитывает юнит армии в составе и, если он выжил, в выживших
+         *
+         * @param player true — армия игрока, false — компьютера
+         */
+        public Row addUnit(boolean player, String unitType, boolean survived) {
+            int side = player ? 0 : 1;
+            int slot = 0;
+            while (slot < typeCount[side] && !types[side][slot].equals(unitType)) {
+                slot++;
+            }
+            if (slot == typeCount[side]) {
+                if (slot == MAX_UNIT_TYPES) {
+                    throw new IllegalStateException("Типов юнитов больше " + MAX_UNIT_TYPES + ": " + unitType);
+                }
+                types[side][slot] = unitType;
+                counts[side][slot] = 0;
+                alive[side][slot] = 0;
+                typeCount[side]++;
+            }
+            counts[side][slot]++;
+            if (survived) {
+                alive[side][slot]++;
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Статистика армии игрока одного состава
+     */
+    public static final class CompositionStats {
+        private final Map<String, Integer> counts;
+        private final long battles;
+        private final long wins;
+        private final double meanDamageDealt;
+
+        CompositionStats(Map<String, Integer> counts, long battles, long wins, double meanDamageDealt) {
+            this.counts = counts;
+            this.battles = battles;
+            this.wins = wins;
+            this.meanDamageDealt = meanDamageDealt;
+        }
+
+        /**
+         * Количество юнитов по типам; типы без юнитов не входят
+         */
+        public Map<String, Integer> getCounts() {
+            return counts;
+        }
+
+        public long getBattles() {
+            return battles;
+        }
+
+        public long getWins() {
+            return wins;
+        }
+
+        public double getWinRate() {
+            return wins / (double) battles;
+        }
+
+        public double getMeanDamageDealt() {
+            return meanDamageDealt;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s боёв=%d побед=%.1f%% урон=%.0f",
+                    counts, battles, 100 * getWinRate(), meanDamageDealt);
+        }
+    }
+
+    /**
+     * Сегмент: по segmentRows строк каждого столбца. reserved — выданные
+     * строки, completed — дописанные.
+     */
+    private static final class Segment {
+        private final ByteBuffer buffer;
+        private final Path file;
+        private final AtomicInteger reserved = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+
+        Segment(ByteBuffer buffer, Path file) {
+            this.buffer = buffer;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Вектор количеств юнитов по номерам типов
+     */
+    private static final class Composition {
+        private final int[] counts;
+
+        Composition(int[] counts) {
+            this.counts = counts;
+        }
+
+        Composition copy() {
+            return new Composition(counts.clone());
+        }
+
+        Map<String, Integer> toMap(List<String> types) {
+            Map<String, Integer> result = new LinkedHashMap<>();
+            for (int type = 0; type < counts.length; type++) {
+                if (counts[type] > 0) {
+                    result.put(types.get(type), counts[type]);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof Composition && Arrays.equals(counts, ((Composition) o).counts);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(counts);
+        }
+    }
+
+    /**
+     * Словарь значение → номер; номера выдаются подряд с нуля
+     */
+    private static final class Dictionary<T> {
+        private final Map<T, Integer> ids = new ConcurrentHashMap<>();
+        private final List<T> values = new CopyOnWriteArrayList<>();
+        // Копия значения для хранения: поиск идёт по переиспользуемому образцу
+        private final UnaryOperator<T> copier;
+
+        Dictionary(UnaryOperator<T> copier) {
+            this.copier = copier;
+        }
+
+        int idOf(T probe) {
+            return idOf(probe, Integer.MAX_VALUE);
+        }
+
+        /**
+         * То же, но новое значение получает номер, только если номеров меньше limit
+         *
+         * @return номер или -1, если значения нет, а словарь заполнен
+         */
+        int idOf(T probe, int limit) {
+            Integer id = ids.get(probe);
+            if (id != null) {
+                return id;
+            }
+            synchronized (this) {
+                id = ids.get(probe);
+                if (id == null) {
+                    if (values.size() >= limit) {
+                        return -1;
+                    }
+                    T value = copier.apply(probe);
+                    id = values.size();
+                    values.add(value);
+                    ids.put(value, id);
+                }
+                return id;
+            }
+        }
+
+        T get(int id) {
+            return values.get(id);
+        }
+
+        List<T> values() {
+            return values;
+        }
+
+        int size() {
+            return values.size();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package programs;
+
+/**
+ * Масштаб боя: размеры поля, глубина зон расстановки, лимит юнитов одного
+ * типа и число кандидатов в цели для режима SIMULTANEOUS.
+ *
+ * {@link #STANDARD} повторяет правила задания: поле 27×21, по 3 колонки
+ * на армию, не больше 11 юнитов одного типа, в цели рассматриваются все
+ * враги. Масштаб {@link #mass(int, int, int)} рассчитан на десятки тысяч
+ * юнитов: каждый юнит выбирает цель только среди ближайших врагов,
+ * а занятость поля хранится по чанкам (см. {@link BoardSnapshot}).
+ */
+public final class BattleScale {
+    // Сколько ближайших врагов проверять поиском пути в массовом бою
+    public final static int DEFAULT_MASS_CANDIDATES = 8;
+    // Наибольшая сторона поля: пути хранят координаты в 16 битах (см. CompactPath)
+    public final static int MAX_SIDE = CompactPath.MAX_COORDINATE + 1;
+
+    public final static BattleScale STANDARD = new BattleScale(BoardSnapshot.DEFAULT_WIDTH,
+            BoardSnapshot.DEFAULT_HEIGHT, 3, GeneratePresetImpl.MAX_COUNT_UNITS_PER_TYPE, 0);
+
+    private final int width;
+    private final int height;
+    private final int deploymentDepth;
+    private final int maxUnitsPerType;
+    private final int targetCandidates;
+
+    private BattleScale(int width, int height, int deploymentDepth, int maxUnitsPerType, int targetCandidates) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Размеры поля должны быть положительными: " + width + "x" + height);
+        }
+        if (width > MAX_SIDE || height > MAX_SIDE) {
+            throw new IllegalArgumentException("Сторона поля больше " + MAX_SIDE + ": " + width + "x" + height);
+        }
+        if (deploymentDepth <= 0 || deploymentDepth * 2 > width) {
+            throw new IllegalArgumentException("Некорректная глубина зоны расстановки: " + deploymentDepth);
+        }
+        if (maxUnitsPerType <= 0 || targetCandidates < 0) {
+            throw new IllegalArgumentException("Лимиты должны быть положительными");
+        }
+        this.width = width;
+        this.height = height;
+        this.deploymentDepth = deploymentDepth;
+        this.maxUnitsPerType = maxUnitsPerType;
+        this.targetCandidates = targetCandidates;
+    }
+
+    /**
+     * Произвольный масштаб
+     *
+     * @param targetCandidates сколько ближайших врагов рассматривать; 0 — всех
+     */
+    public static BattleScale of(int width, int height, int deploymentDepth, int maxUnitsPerType,
+            int targetCandidates) {
+        return new BattleScale(width, height, deploymentDepth, maxUnitsPerType, targetCandidates);
+    }
+
+    /**
+     * Массовый бой: число юнитов одного типа ограничено только бюджетом
+     */
+    public static BattleScale mass(int width, int height, int deploymentDepth) {
+        return new BattleScale(width, height, deploymentDepth, Integer.MAX_VALUE, DEFAULT_MASS_CANDIDATES);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Сколько колонок у края поля занимает зона расстановки одной армии
+     */
+    public int getDeploymentDepth() {
+        return deploymentDepth;
+    }
+
+    /**
+     * Сколько клеток в зоне расстановки одной армии
+     */
+    public int getDeploymentCapacity() {
+        return deploymentDepth * height;
+    }
+
+    public int getMaxUnitsPerType() {
+        return maxUnitsPerType;
+    }
+
+    public int getTargetCandidates() {
+        return targetCandidates;
+    }
+
+    /**
+     * Зеркальная колонка: переносит расстановку компьютера в зону игрока
+     */
+    public int mirrorX(int x) {
+        return width - 1 - x;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + " depth=" + deploymentDepth
+                + " maxPerType=" + (maxUnitsPerType == Integer.MAX_VALUE ? "∞" : String.valueOf(maxUnitsPerType))
+                + " candidates=" + (targetCandidates == 0 ? "all" : String.valueOf(targetCandidates));
+    }
+}
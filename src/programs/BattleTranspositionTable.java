@@ -0,0 +1,351 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Таблица исходов боёв для детерминированного режима SIMULTANEOUS
+ * (см. {@link SimulateBattleImpl#setTranspositionTable}). Прогоны сценариев
+ * часто повторяют один и тот же бой: те же составы и позиции, другие имена
+ * юнитов или расстановка, отражённая по оси Y. Такие бои сводятся к одному
+ * каноническому ключу, и второй раз бой не разыгрывается: юнитам сразу
+ * выставляется итоговое здоровье.
+ *
+ * Ключ — упакованные в long юниты обеих армий в порядке хода: шаблон
+ * (тип, базовая атака, тип атаки, бонусы атаки и защиты; имя не входит),
+ * текущее здоровье и координаты, плюс размеры поля, число кандидатов
+ * в цели и оставшийся лимит раундов.
+ * Из ключа и его зеркального отражения по Y берётся меньший. Отражение
+ * допустимо, только когда цели выбираются среди всех врагов: стоимость пути
+ * при отражении не меняется, а равные цели различаются порядком хода.
+ * Ключи сравниваются целиком, поэтому ложных попаданий не бывает.
+ *
+ * Таблица ограничена: 2 ячейки на корзину, без блокировок. Одна ячейка
+ * держит самый длинный бой корзины (его дороже всего переигрывать), другая
+ * — последний записанный.
+ *
+ * Экземпляр потокобезопасен и может быть общим для многих симуляторов.
+ */
+public final class BattleTranspositionTable {
+    public final static int DEFAULT_CAPACITY = 1 << 16;
+
+    // Ширины полей юнита в упакованном ключе
+    private static final int TEMPLATE_BITS = 16;
+    private static final int HEALTH_BITS = 24;
+    private static final int COORDINATE_BITS = 12;
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final Map<String, Integer> templateIds = new ConcurrentHashMap<>();
+    private volatile boolean checkMidBattle;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder midBattleHits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder replaced = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+    private final LongAdder savedRounds = new LongAdder();
+
+    public BattleTranspositionTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity наибольшее число записей; округляется вверх до степени двойки
+     */
+    public BattleTranspositionTable(int capacity) {
+        if (capacity < 2 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Некорректная ёмкость таблицы: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 2; // корзина — пара соседних ячеек
+    }
+
+    /**
+     * Проверять таблицу не только в начале боя, но и в начале каждого раунда.
+     * Попадания чаще (бои сходятся в одинаковые концовки), но каждый раунд
+     * стоит построения ключа, а каждый бой — записи на каждый раунд.
+     */
+    public void setCheckMidBattle(boolean checkMidBattle) {
+        this.checkMidBattle = checkMidBattle;
+    }
+
+    public boolean isCheckMidBattle() {
+        return checkMidBattle;
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * Канонический ключ состояния боя
+     *
+     * @param playerUnits   живые юниты игрока в порядке хода
+     * @param computerUnits живые юниты компьютера в порядке хода
+     * @param roundsLeft    сколько раундов ещё можно сыграть; 0 — без ограничения
+     * @return ключ или null, если характеристики не помещаются в ключ
+     */
+    Key key(BattleScale scale, List<Unit> playerUnits, List<Unit> computerUnits, int roundsLeft) {
+        int unitCount = playerUnits.size() + computerUnits.size();
+        long[] words = new long[3 + unitCount];
+        long[] mirrored = scale.getTargetCandidates() == 0 ? new long[words.length] : null;
+        words[0] = (long) scale.getWidth() << 32 | scale.getHeight();
+        words[1] = (long) scale.getTargetCandidates() << 32 | roundsLeft;
+        words[2] = playerUnits.size();
+        int index = 3;
+        for (int side = 0; side < 2; side++) {
+            for (Unit unit : side == 0 ? playerUnits : computerUnits) {
+                int template = templateId(unit);
+                int health = unit.getHealth();
+                int x = unit.getxCoordinate();
+                int y = unit.getyCoordinate();
+                if (template >>> TEMPLATE_BITS != 0 || health <= 0 || health >>> HEALTH_BITS != 0
+                        || x < 0 || x >>> COORDINATE_BITS != 0 || y < 0 || y >>> COORDINATE_BITS != 0) {
+                    uncacheable.increment();
+                    return null;
+                }
+                long packed = ((long) template << HEALTH_BITS | health) << 2 * COORDINATE_BITS
+                        | (long) x << COORDINATE_BITS;
+                words[index] = packed | y;
+                if (mirrored != null) {
+                    mirrored[index] = packed | (scale.getHeight() - 1 - y);
+                }
+                index++;
+            }
+        }
+        if (mirrored != null) {
+            System.arraycopy(words, 0, mirrored, 0, 3);
+            if (Arrays.compare(mirrored, words) < 0) {
+                words = mirrored;
+            }
+        }
+        return new Key(words);
+    }
+
+    /**
+     * Исход, записанный для ключа, или null
+     *
+     * @param midBattle ключ построен в начале не первого раунда
+     */
+    Entry lookup(Key key, boolean midBattle) {
+        lookups.increment();
+        int bucket = key.hash & mask;
+        for (int i = 0; i < 2; i++) {
+            Entry entry = slots.get(bucket + i);
+            if (entry != null && entry.key.equals(key)) {
+                hits.increment();
+                if (midBattle) {
+                    midBattleHits.increment();
+                }
+                savedRounds.add(entry.rounds);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Записывает исход боя из состояния key. Первая ячейка корзины хранит
+     * самый длинный бой из попавших в неё, вторая — последний записанный.
+     */
+    void store(Entry entry) {
+        int bucket = entry.key.hash & mask;
+        while (true) {
+            Entry first = slots.get(bucket);
+            Entry second = slots.get(bucket + 1);
+            int slot;
+            Entry victim;
+            if (first == null || first.key.equals(entry.key) || entry.rounds >= first.rounds) {
+                slot = bucket;
+                victim = first;
+            } else {
+                slot = bucket + 1;
+                victim = second;
+            }
+            if (slots.compareAndSet(slot, victim, entry)) {
+                stores.increment();
+                if (victim != null && !victim.key.equals(entry.key)) {
+                    replaced.increment();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Номер шаблона по всем характеристикам, от которых может зависеть бой.
+     * Бонусы сравниваются в порядке ключей: порядок обхода HashMap зависит
+     * от истории вставок.
+     */
+    private int templateId(Unit unit) {
+        String template = unit.getUnitType() + '\u0000' + unit.getBaseAttack() + '\u0000' + unit.getAttackType()
+                + '\u0000' + bonuses(unit.getAttackBonuses()) + '\u0000' + bonuses(unit.getDefenceBonuses());
+        Integer id = templateIds.get(template);
+        if (id == null) {
+            synchronized (templateIds) {
+                id = templateIds.computeIfAbsent(template, key -> templateIds.size());
+            }
+        }
+        return id;
+    }
+
+    private static String bonuses(Map<String, Double> bonuses) {
+        return bonuses == null || bonuses.isEmpty() ? "" : new TreeMap<>(bonuses).toString();
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Попадания в начале не первого раунда
+     */
+    public long getMidBattleHits() {
+        return midBattleHits.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    /**
+     * Записи, вытесненные другими ключами
+     */
+    public long getReplaced() {
+        return replaced.sum();
+    }
+
+    /**
+     * Состояния, которые не поместились в ключ и разыгрываются без таблицы
+     */
+    public long getUncacheable() {
+        return uncacheable.sum();
+    }
+
+    /**
+     * Сколько раундов не пришлось разыгрывать благодаря попаданиям
+     */
+    public long getSavedRounds() {
+        return savedRounds.sum();
+    }
+
+    public double getHitRate() {
+        long lookups = getLookups();
+        return lookups == 0 ? 0 : getHits() / (double) lookups;
+    }
+
+    /**
+     * Очищает таблицу и счётчики
+     */
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+        lookups.reset();
+        hits.reset();
+        midBattleHits.reset();
+        stores.reset();
+        replaced.reset();
+        uncacheable.reset();
+        savedRounds.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "BattleTranspositionTable{lookups=%d, hits=%d (%.1f%%), midBattleHits=%d, stores=%d, replaced=%d, savedRounds=%d}",
+                getLookups(), getHits(), 100 * getHitRate(), getMidBattleHits(), getStores(), getReplaced(),
+                getSavedRounds());
+    }
+
+    /**
+     * Упакованное состояние боя
+     */
+    static final class Key {
+        private final long[] words;
+        private final int hash;
+
+        Key(long[] words) {
+            this.words = words;
+            long hash = 0xcbf29ce484222325L;
+            for (long word : words) {
+                hash = (hash ^ word) * 0x100000001b3L;
+            }
+            this.hash = (int) (hash ^ hash >>> 32);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && Arrays.equals(words, other.words);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Исход боя из состояния key: итоговое здоровье юнитов в порядке ключа
+     * (0 — погиб) и сколько раундов, атак и убийств заняла оставшаяся часть боя
+     */
+    static final class Entry {
+        private final Key key;
+        private final int[] finalHealth;
+        private final int rounds;
+        private final int attacks;
+        private final int kills;
+        private final BattleMetrics.BattleSummary.EndReason endReason;
+
+        Entry(Key key, int[] finalHealth, int rounds, int attacks, int kills,
+                BattleMetrics.BattleSummary.EndReason endReason) {
+            this.key = key;
+            this.finalHealth = finalHealth;
+            this.rounds = rounds;
+            this.attacks = attacks;
+            this.kills = kills;
+            this.endReason = endReason;
+        }
+
+        int getFinalHealth(int index) {
+            return finalHealth[index];
+        }
+
+        int getRounds() {
+            return rounds;
+        }
+
+        int getAttacks() {
+            return attacks;
+        }
+
+        int getKills() {
+            return kills;
+        }
+
+        /**
+         * Явная причина конца боя или null, если она следует из армий
+         */
+        BattleMetrics.BattleSummary.EndReason getEndReason() {
+            return endReason;
+        }
+    }
+}
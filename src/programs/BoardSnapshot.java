@@ -0,0 +1,179 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+
+import java.util.*;
+
+/**
+ * Неизменяемый снимок занятости поля боя.
+ * Хранит только то, какие клетки заняты, поэтому его можно безопасно
+ * читать из нескольких потоков одновременно, пока симуляция двигает юнитов.
+ *
+ * Поле до {@link #DENSE_CELL_LIMIT} клеток хранится плоским массивом.
+ * Большое поле делится на чанки 32×32 клетки с битовой маской занятости;
+ * чанки без юнитов не создаются, поэтому снимок строится за время,
+ * пропорциональное числу юнитов, а не площади поля.
+ */
+public final class BoardSnapshot {
+    // Размеры стандартного поля: 27 колонок (0-26) и 21 строка (0-20)
+    public final static int DEFAULT_WIDTH = 27;
+    public final static int DEFAULT_HEIGHT = 21;
+
+    // Поле больше этого числа клеток хранится по чанкам
+    public final static int DENSE_CELL_LIMIT = 1 << 16;
+
+    // Сторона чанка — 2^CHUNK_SHIFT клеток
+    public final static int CHUNK_SHIFT = 5;
+    public final static int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CHUNK_WORDS = CHUNK_SIZE * CHUNK_SIZE / Long.SIZE;
+
+    private final int width;
+    private final int height;
+    private final boolean[] blocked;
+    private final long[][] chunks;
+    private final int chunkColumns;
+
+    private BoardSnapshot(int width, int height, boolean[] blocked, long[][] chunks) {
+        this.width = width;
+        this.height = height;
+        this.blocked = blocked;
+        this.chunks = chunks;
+        this.chunkColumns = chunkCount(width);
+    }
+
+    /**
+     * Строит снимок стандартного поля по списку юнитов
+     *
+     * @param units   юниты, занимающие клетки (мёртвые тоже считаются препятствием)
+     * @param ignored юниты, клетки которых нужно считать свободными
+     * @return снимок занятости
+     */
+    public static BoardSnapshot fromUnits(List<Unit> units, Unit... ignored) {
+        return fromUnits(DEFAULT_WIDTH, DEFAULT_HEIGHT, units, ignored);
+    }
+
+    /**
+     * Строит снимок поля заданного размера по списку юнитов
+     */
+    public static BoardSnapshot fromUnits(int width, int height, List<Unit> units, Unit... ignored) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Размеры поля должны быть положительными: " + width + "x" + height);
+        }
+        if ((long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Слишком большое поле: " + width + "x" + height);
+        }
+
+        boolean dense = (long) width * height <= DENSE_CELL_LIMIT;
+        boolean[] blocked = dense ? new boolean[width * height] : null;
+        long[][] chunks = dense ? null : new long[chunkCount(width) * chunkCount(height)][];
+        int chunkColumns = chunkCount(width);
+
+        if (units != null) {
+            for (Unit unit : units) {
+                if (unit == null || isIgnored(unit, ignored)) {
+                    continue;
+                }
+                int x = unit.getxCoordinate();
+                int y = unit.getyCoordinate();
+                if (x < 0 || x >= width || y < 0 || y >= height) {
+                    continue;
+                }
+                if (dense) {
+                    blocked[y * width + x] = true;
+                } else {
+                    int chunk = (y >> CHUNK_SHIFT) * chunkColumns + (x >> CHUNK_SHIFT);
+                    if (chunks[chunk] == null) {
+                        chunks[chunk] = new long[CHUNK_WORDS];
+                    }
+                    int bit = (y & CHUNK_MASK) << CHUNK_SHIFT | (x & CHUNK_MASK);
+                    chunks[chunk][bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+        return new BoardSnapshot(width, height, blocked, chunks);
+    }
+
+    private static int chunkCount(int cells) {
+        return (cells + CHUNK_MASK) >> CHUNK_SHIFT;
+    }
+
+    private static boolean isIgnored(Unit unit, Unit[] ignored) {
+        for (Unit other : ignored) {
+            if (unit == other) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCellCount() {
+        return width * height;
+    }
+
+    public boolean isInside(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+
+    /**
+     * Индекс клетки: y * width + x
+     */
+    public int cellIndex(int x, int y) {
+        return y * width + x;
+    }
+
+    public int cellX(int cell) {
+        return cell % width;
+    }
+
+    public int cellY(int cell) {
+        return cell / width;
+    }
+
+    public boolean isBlocked(int cell) {
+        return blocked != null ? blocked[cell] : isBlocked(cell % width, cell / width);
+    }
+
+    public boolean isBlocked(int x, int y) {
+        if (blocked != null) {
+            return blocked[y * width + x];
+        }
+        long[] chunk = chunks[(y >> CHUNK_SHIFT) * chunkColumns + (x >> CHUNK_SHIFT)];
+        if (chunk == null) {
+            return false;
+        }
+        int bit = (y & CHUNK_MASK) << CHUNK_SHIFT | (x & CHUNK_MASK);
+        return (chunk[bit >>> 6] & 1L << bit) != 0;
+    }
+
+    /**
+     * Хранится ли снимок по чанкам
+     */
+    public boolean isChunked() {
+        return chunks != null;
+    }
+
+    /**
+     * Примерный объём памяти под занятость в байтах
+     */
+    public long getMemoryFootprintBytes() {
+        if (blocked != null) {
+            return blocked.length;
+        }
+        long bytes = (long) chunks.length * 8;
+        for (long[] chunk : chunks) {
+            if (chunk != null) {
+                bytes += CHUNK_WORDS * 8L;
+            }
+        }
+        return bytes;
+    }
+}
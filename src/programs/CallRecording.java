@@ -0,0 +1,795 @@
+package programs;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+import com.battle.heroes.army.programs.GeneratePreset;
+import com.battle.heroes.army.programs.SimulateBattle;
+import com.battle.heroes.army.programs.SuitableForAttackUnitsFinder;
+import com.battle.heroes.army.programs.UnitTargetPathFinder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Запись реальных вызовов четырёх точек входа (генерация пресета, поиск
+ * атакуемых юнитов, поиск пути, симуляция боя) для нагрузочного
+ * воспроизведения: входные данные каждого вызова и когда и сколько он шёл.
+ *
+ * <pre>
+ * заголовок  magic:int  version:int  startMillis:long
+ * записи     kind:byte, дальше по виду записи:
+ *   шаблон   id:short  шаблон как в {@link ScenarioFile}
+ *   вызов    flags:byte  start:long  duration:long  length:int  входные данные:length
+ * </pre>
+ *
+ * kind 0 — шаблон юнита, 1 + {@link EntryPoint#ordinal()} — вызов. start —
+ * наносекунды от начала записи до начала вызова, duration — длительность
+ * вызова при записи. Флаг {@link #NESTED} ставится вызову, сделанному изнутри
+ * другого записанного вызова того же потока (поиск пути внутри боя).
+ *
+ * <pre>
+ * GENERATE        budget:int  count:short  count × unit
+ * SUITABLE_UNITS  left:byte  rows:short  rows × (count:short  count × unit)
+ * TARGET_PATH     attacker:int  target:int  count:short  count × unit  [attacker:unit]  [target:unit]
+ * SIMULATE        strategy:str  player:short  computer:short  (player + computer) × unit
+ * </pre>
+ *
+ * unit — long, упакованный как в ScenarioFile: (шаблон:16 | x:16 | y:16 |
+ * здоровье:16). attacker и target — номера юнитов в списке или -1, если юнита
+ * в списке нет и он записан после списка. Шаблон пишется перед первым
+ * вызовом, который на него ссылается.
+ *
+ * {@link Recorder} дописывает вызовы по мере завершения.
+ * {@link #open(Path)} отображает файл в память и упорядочивает вызовы по
+ * началу. Каждый decode* собирает новых юнитов, поэтому воспроизводить
+ * вызовы можно из многих потоков.
+ */
+public final class CallRecording implements Closeable {
+
+    public enum EntryPoint {
+        GENERATE, SUITABLE_UNITS, TARGET_PATH, SIMULATE
+    }
+
+    public final static int MAGIC = 0x4843414C; // "HCAL"
+    public final static int VERSION = 1;
+    public final static int NESTED = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int CALL_HEADER_SIZE = 1 + 1 + 8 + 8 + 4;
+    private static final byte TEMPLATE_KIND = 0;
+    private static final EntryPoint[] ENTRY_POINTS = EntryPoint.values();
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final List<ScenarioFile.Template> templates = new ArrayList<>();
+    private final long startMillis;
+    private final boolean truncated;
+    // Вызовы по возрастанию начала, параллельными массивами
+    private final int callCount;
+    private final byte[] entryPoints;
+    private final byte[] flags;
+    private final long[] starts;
+    private final long[] durations;
+    private final int[] offsets;
+
+    private CallRecording(FileChannel channel, ByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Файл не является записью вызовов");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Неподдерживаемая версия записи вызовов: " + version);
+        }
+        this.startMillis = buffer.getLong(8);
+
+        int capacity = 1024;
+        byte[] entryPoints = new byte[capacity];
+        byte[] flags = new byte[capacity];
+        long[] starts = new long[capacity];
+        long[] durations = new long[capacity];
+        int[] offsets = new int[capacity];
+        int count = 0;
+        boolean truncated = false;
+
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(HEADER_SIZE);
+        while (reader.hasRemaining()) {
+            // Запись могла оборваться на полуслове, если процесс не закрыл Recorder
+            int recordStart = reader.position();
+            byte kind = reader.get();
+            if (kind == TEMPLATE_KIND) {
+                try {
+                    int id = reader.getShort() & ScenarioFile.MAX_FIELD_VALUE;
+                    ScenarioFile.Template template = ScenarioFile.Template.read(reader);
+                    if (id != templates.size()) {
+                        throw new IOException("Шаблоны записи вызовов идут не по порядку: " + id);
+                    }
+                    templates.add(template);
+                } catch (BufferUnderflowException e) {
+                    truncated = true;
+                    break;
+                }
+                continue;
+            }
+            if (kind < 1 || kind > ENTRY_POINTS.length) {
+                throw new IOException("Неизвестный вид записи " + kind + " по смещению " + recordStart);
+            }
+            if (reader.remaining() < CALL_HEADER_SIZE - 1) {
+                truncated = true;
+                break;
+            }
+            byte callFlags = reader.get();
+            long start = reader.getLong();
+            long duration = reader.getLong();
+            int length = reader.getInt();
+            if (length < 0 || length > reader.remaining()) {
+                truncated = true;
+                break;
+            }
+            if (count == entryPoints.length) {
+                capacity = count * 2;
+                entryPoints = Arrays.copyOf(entryPoints, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                durations = Arrays.copyOf(durations, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+            }
+            entryPoints[count] = (byte) (kind - 1);
+            flags[count] = callFlags;
+            starts[count] = start;
+            durations[count] = duration;
+            offsets[count] = reader.position();
+            count++;
+            reader.position(reader.position() + length);
+        }
+        this.truncated = truncated;
+        this.callCount = count;
+
+        // Вызовы записаны по завершении; воспроизведению нужен порядок начала
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        long[] unsortedStarts = starts;
+        Arrays.sort(order, Comparator.comparingLong(i -> unsortedStarts[i]));
+        this.entryPoints = new byte[count];
+        this.flags = new byte[count];
+        this.starts = new long[count];
+        this.durations = new long[count];
+        this.offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            int from = order[i];
+            this.entryPoints[i] = entryPoints[from];
+            this.flags[i] = flags[from];
+            this.starts[i] = starts[from];
+            this.durations[i] = durations[from];
+            this.offsets[i] = offsets[from];
+        }
+    }
+
+    /**
+     * Отображает запись в память только для чтения
+     */
+    public static CallRecording open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Запись вызовов больше 2 ГБ, разделите её: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new CallRecording(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Время начала записи, мс от эпохи
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Запись оборвалась: процесс завершился, не закрыв Recorder. Вызовы до
+     * обрыва доступны.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int getCallCount() {
+        return callCount;
+    }
+
+    public EntryPoint getEntryPoint(int call) {
+        return ENTRY_POINTS[entryPoints[checkCall(call)]];
+    }
+
+    public boolean isNested(int call) {
+        return (flags[checkCall(call)] & NESTED) != 0;
+    }
+
+    /**
+     * Начало вызова, нс от начала записи
+     */
+    public long getStartNanos(int call) {
+        return starts[checkCall(call)];
+    }
+
+    /**
+     * Сколько вызов длился при записи, нс
+     */
+    public long getRecordedNanos(int call) {
+        return durations[checkCall(call)];
+    }
+
+    public Generate decodeGenerate(int call) {
+        int position = payload(call, EntryPoint.GENERATE);
+        int budget = buffer.getInt(position);
+        List<Unit> units = new ArrayList<>();
+        readUnits(position + 4, units);
+        return new Generate(units, budget);
+    }
+
+    public SuitableUnits decodeSuitableUnits(int call) {
+        int position = payload(call, EntryPoint.SUITABLE_UNITS);
+        boolean leftArmyTarget = buffer.get(position) != 0;
+        int rowCount = buffer.getShort(position + 1) & ScenarioFile.MAX_FIELD_VALUE;
+        position += 3;
+        List<List<Unit>> rows = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            List<Unit> units = new ArrayList<>();
+            position = readUnits(position, units);
+            rows.add(units);
+        }
+        return new SuitableUnits(rows, leftArmyTarget);
+    }
+
+    public TargetPath decodeTargetPath(int call) {
+        int position = payload(call, EntryPoint.TARGET_PATH);
+        int attackerIndex = buffer.getInt(position);
+        int targetIndex = buffer.getInt(position + 4);
+        List<Unit> units = new ArrayList<>();
+        position = readUnits(position + 8, units);
+        Unit attacker;
+        if (attackerIndex >= 0) {
+            attacker = units.get(attackerIndex);
+        } else {
+            attacker = unpack(buffer.getLong(position), units.size() + 1);
+            position += 8;
+        }
+        Unit target = targetIndex >= 0 ? units.get(targetIndex) : unpack(buffer.getLong(position), units.size() + 2);
+        return new TargetPath(attacker, target, units);
+    }
+
+    public Simulate decodeSimulate(int call) {
+        int position = payload(call, EntryPoint.SIMULATE);
+        int length = buffer.getShort(position) & ScenarioFile.MAX_FIELD_VALUE;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + 2 + i);
+        }
+        position += 2 + length;
+        int playerCount = buffer.getShort(position) & ScenarioFile.MAX_FIELD_VALUE;
+        int computerCount = buffer.getShort(position + 2) & ScenarioFile.MAX_FIELD_VALUE;
+        position += 4;
+        List<Unit> player = new ArrayList<>(playerCount);
+        List<Unit> computer = new ArrayList<>(computerCount);
+        for (int i = 0; i < playerCount + computerCount; i++, position += 8) {
+            List<Unit> side = i < playerCount ? player : computer;
+            side.add(unpack(buffer.getLong(position), side.size() + 1));
+        }
+        return new Simulate(new Army(player), new Army(computer), new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private int payload(int call, EntryPoint expected) {
+        if (getEntryPoint(call) != expected) {
+            throw new IllegalArgumentException("Вызов " + call + " — " + getEntryPoint(call) + ", а не " + expected);
+        }
+        return offsets[call];
+    }
+
+    /**
+     * Читает count:short и count юнитов в units
+     *
+     * @return позиция сразу за юнитами
+     */
+    private int readUnits(int position, List<Unit> units) {
+        int count = buffer.getShort(position) & ScenarioFile.MAX_FIELD_VALUE;
+        position += 2;
+        for (int i = 0; i < count; i++, position += 8) {
+            units.add(unpack(buffer.getLong(position), units.size() + 1));
+        }
+        return position;
+    }
+
+    private Unit unpack(long record, int number) {
+        int id = (int) (record >>> 48);
+        if (id >= templates.size()) {
+            throw new IllegalStateException("Неизвестный шаблон юнита: " + id);
+        }
+        int health = (int) record & ScenarioFile.MAX_FIELD_VALUE;
+        Unit unit = templates.get(id).createUnit(number, (int) (record >>> 32) & ScenarioFile.MAX_FIELD_VALUE,
+                (int) (record >>> 16) & ScenarioFile.MAX_FIELD_VALUE, health);
+        unit.setAlive(health > 0);
+        return unit;
+    }
+
+    private int checkCall(int call) {
+        if (call < 0 || call >= callCount) {
+            throw new IndexOutOfBoundsException("Вызов " + call + " из " + callCount);
+        }
+        return call;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        int[] counts = new int[ENTRY_POINTS.length];
+        for (int i = 0; i < callCount; i++) {
+            counts[entryPoints[i]]++;
+        }
+        StringBuilder builder = new StringBuilder("CallRecording{calls=").append(callCount);
+        for (EntryPoint entryPoint : ENTRY_POINTS) {
+            builder.append(", ").append(entryPoint).append('=').append(counts[entryPoint.ordinal()]);
+        }
+        return builder.append(truncated ? ", truncated}" : "}").toString();
+    }
+
+    /**
+     * Входные данные {@link GeneratePreset#generate}
+     */
+    public static final class Generate {
+        private final List<Unit> templates;
+        private final int budget;
+
+        Generate(List<Unit> templates, int budget) {
+            this.templates = templates;
+            this.budget = budget;
+        }
+
+        public List<Unit> getTemplates() {
+            return templates;
+        }
+
+        public int getBudget() {
+            return budget;
+        }
+    }
+
+    /**
+     * Входные данные {@link SuitableForAttackUnitsFinder#getSuitableUnits}
+     */
+    public static final class SuitableUnits {
+        private final List<List<Unit>> unitsByRow;
+        private final boolean leftArmyTarget;
+
+        SuitableUnits(List<List<Unit>> unitsByRow, boolean leftArmyTarget) {
+            this.unitsByRow = unitsByRow;
+            this.leftArmyTarget = leftArmyTarget;
+        }
+
+        public List<List<Unit>> getUnitsByRow() {
+            return unitsByRow;
+        }
+
+        public boolean isLeftArmyTarget() {
+            return leftArmyTarget;
+        }
+    }
+
+    /**
+     * Входные данные {@link UnitTargetPathFinder#getTargetPath}. Атакующий и
+     * цель — те же объекты, что в списке, если они были в нём при записи.
+     */
+    public static final class TargetPath {
+        private final Unit attacker;
+        private final Unit target;
+        private final List<Unit> units;
+
+        TargetPath(Unit attacker, Unit target, List<Unit> units) {
+            this.attacker = attacker;
+            this.target = target;
+            this.units = units;
+        }
+
+        public Unit getAttacker() {
+            return attacker;
+        }
+
+        public Unit getTarget() {
+            return target;
+        }
+
+        public List<Unit> getUnits() {
+            return units;
+        }
+    }
+
+    /**
+     * Армии перед боем и стратегия очерёдности ходов. Программы юнитам не
+     * назначаются.
+     */
+    public static final class Simulate {
+        private final Army playerArmy;
+        private final Army computerArmy;
+        private final String strategy;
+
+        Simulate(Army playerArmy, Army computerArmy, String strategy) {
+            this.playerArmy = playerArmy;
+            this.computerArmy = computerArmy;
+            this.strategy = strategy;
+        }
+
+        public Army getPlayerArmy() {
+            return playerArmy;
+        }
+
+        public Army getComputerArmy() {
+            return computerArmy;
+        }
+
+        public String getStrategy() {
+            return strategy;
+        }
+    }
+
+    /**
+     * Запись вызовов в файл. Входные данные упаковываются в начале вызова,
+     * запись в файл — по его завершении под блокировкой, через буфер.
+     * Вызов, который не помещается в формат (координата или здоровье больше
+     * 0xFFFF, слишком длинный список), не записывается, а считается в
+     * {@link #getDropped()}: запись не должна ломать вызов.
+     *
+     * Экземпляр потокобезопасен.
+     */
+    public static final class Recorder implements Closeable {
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final FileChannel channel;
+        private final long origin = System.nanoTime();
+        private final Map<String, Integer> templateIds = new ConcurrentHashMap<>();
+        private final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+        private final LongAdder[] recorded = new LongAdder[ENTRY_POINTS.length];
+        private final LongAdder dropped = new LongAdder();
+        // Под блокировкой this
+        private final List<ScenarioFile.Template> templates = new ArrayList<>();
+        private int writtenTemplates;
+        private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+        private long position;
+        private IOException failure;
+
+        public Recorder(Path path) throws IOException {
+            for (int i = 0; i < recorded.length; i++) {
+                recorded[i] = new LongAdder();
+            }
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            pending.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        }
+
+        public Call beginGenerate(List<Unit> unitList, int maxPoints) {
+            Payload payload = new Payload(this, 4 + 2 + unitList.size() * 8);
+            payload.out.putInt(maxPoints);
+            payload.units(unitList);
+            return begin(EntryPoint.GENERATE, payload);
+        }
+
+        public Call beginSuitableUnits(List<List<Unit>> unitsByRow, boolean isLeftArmyTarget) {
+            int size = 3;
+            for (List<Unit> row : unitsByRow) {
+                size += 2 + row.size() * 8;
+            }
+            Payload payload = new Payload(this, size);
+            payload.out.put((byte) (isLeftArmyTarget ? 1 : 0));
+            payload.count(unitsByRow.size());
+            for (List<Unit> row : unitsByRow) {
+                payload.units(row);
+            }
+            return begin(EntryPoint.SUITABLE_UNITS, payload);
+        }
+
+        public Call beginTargetPath(Unit attackUnit, Unit targetUnit, List<Unit> existingUnitList) {
+            int attackerIndex = indexOf(existingUnitList, attackUnit);
+            int targetIndex = indexOf(existingUnitList, targetUnit);
+            Payload payload = new Payload(this, 8 + 2 + existingUnitList.size() * 8 + 16);
+            payload.out.putInt(attackerIndex).putInt(targetIndex);
+            payload.units(existingUnitList);
+            if (attackerIndex < 0) {
+                payload.unit(attackUnit);
+            }
+            if (targetIndex < 0) {
+                payload.unit(targetUnit);
+            }
+            return begin(EntryPoint.TARGET_PATH, payload);
+        }
+
+        public Call beginSimulate(Army playerArmy, Army computerArmy, String strategy) {
+            byte[] name = strategy.getBytes(StandardCharsets.UTF_8);
+            List<Unit> player = playerArmy.getUnits();
+            List<Unit> computer = computerArmy.getUnits();
+            Payload payload = new Payload(this, 2 + name.length + 4 + (player.size() + computer.size()) * 8);
+            payload.count(name.length);
+            payload.out.put(name);
+            payload.count(player.size());
+            payload.count(computer.size());
+            for (Unit unit : player) {
+                payload.unit(unit);
+            }
+            for (Unit unit : computer) {
+                payload.unit(unit);
+            }
+            return begin(EntryPoint.SIMULATE, payload);
+        }
+
+        public GeneratePreset wrapPreset(GeneratePreset preset) {
+            return (unitList, maxPoints) -> {
+                Call call = beginGenerate(unitList, maxPoints);
+                try {
+                    return preset.generate(unitList, maxPoints);
+                } finally {
+                    call.finish();
+                }
+            };
+        }
+
+        public SuitableForAttackUnitsFinder wrapFinder(SuitableForAttackUnitsFinder finder) {
+            return (unitsByRow, isLeftArmyTarget) -> {
+                Call call = beginSuitableUnits(unitsByRow, isLeftArmyTarget);
+                try {
+                    return finder.getSuitableUnits(unitsByRow, isLeftArmyTarget);
+                } finally {
+                    call.finish();
+                }
+            };
+        }
+
+        public UnitTargetPathFinder wrapPathFinder(UnitTargetPathFinder pathFinder) {
+            return (attackUnit, targetUnit, existingUnitList) -> {
+                Call call = beginTargetPath(attackUnit, targetUnit, existingUnitList);
+                try {
+                    return pathFinder.getTargetPath(attackUnit, targetUnit, existingUnitList);
+                } finally {
+                    call.finish();
+                }
+            };
+        }
+
+        /**
+         * Симуляция через интерфейс записывается со стратегией ALTERNATING:
+         * так ходы чередует {@link SimulateBattleImpl#simulate}
+         */
+        public SimulateBattle wrapSimulation(SimulateBattle simulation) {
+            return (playerArmy, computerArmy) -> {
+                Call call = beginSimulate(playerArmy, computerArmy, "ALTERNATING");
+                try {
+                    simulation.simulate(playerArmy, computerArmy);
+                } finally {
+                    call.finish();
+                }
+            };
+        }
+
+        public long getRecorded(EntryPoint entryPoint) {
+            return recorded[entryPoint.ordinal()].sum();
+        }
+
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        private Call begin(EntryPoint entryPoint, Payload payload) {
+            int[] level = depth.get();
+            int callFlags = level[0] > 0 ? NESTED : 0;
+            level[0]++;
+            if (payload.dropped) {
+                dropped.increment();
+                return new Call(this, null, null, 0, 0);
+            }
+            // Время берётся последним, чтобы упаковка не попала в длительность
+            return new Call(this, entryPoint, payload.out, callFlags, System.nanoTime());
+        }
+
+        private void finish(Call call, long end) {
+            depth.get()[0]--;
+            if (call.entryPoint == null) {
+                return;
+            }
+            ByteBuffer payload = call.payload;
+            payload.flip();
+            synchronized (this) {
+                if (failure != null || !channel.isOpen()) {
+                    dropped.increment();
+                    return;
+                }
+                try {
+                    while (writtenTemplates < templates.size() && writtenTemplates <= ScenarioFile.MAX_FIELD_VALUE) {
+                        ScenarioFile.Template template = templates.get(writtenTemplates);
+                        reserve(3 + template.encodedSize());
+                        pending.put(TEMPLATE_KIND).putShort((short) writtenTemplates);
+                        template.write(pending);
+                        writtenTemplates++;
+                    }
+                    reserve(CALL_HEADER_SIZE + payload.remaining());
+                    pending.put((byte) (1 + call.entryPoint.ordinal())).put((byte) call.flags)
+                            .putLong(call.start - origin).putLong(end - call.start).putInt(payload.remaining())
+                            .put(payload);
+                    recorded[call.entryPoint.ordinal()].increment();
+                } catch (IOException e) {
+                    failure = e;
+                    dropped.increment();
+                }
+            }
+        }
+
+        /**
+         * Освобождает в буфере место под size байт, сбрасывая его в файл
+         */
+        private void reserve(int size) throws IOException {
+            if (pending.remaining() >= size) {
+                return;
+            }
+            flushPending();
+            if (pending.capacity() < size) {
+                pending = ByteBuffer.allocate(size);
+            }
+        }
+
+        private void flushPending() throws IOException {
+            pending.flip();
+            while (pending.hasRemaining()) {
+                position += channel.write(pending, position);
+            }
+            pending.clear();
+        }
+
+        private int templateId(Unit unit) {
+            String key = unit.getUnitType() + '\u0000' + unit.getAttackType() + '\u0000' + unit.getBaseAttack()
+                    + '\u0000' + unit.getCost();
+            Integer id = templateIds.get(key);
+            if (id == null) {
+                synchronized (this) {
+                    id = templateIds.computeIfAbsent(key, ignored -> {
+                        templates.add(new ScenarioFile.Template(unit));
+                        return templates.size() - 1;
+                    });
+                }
+            }
+            return id;
+        }
+
+        private static int indexOf(List<Unit> units, Unit unit) {
+            for (int i = 0; i < units.size(); i++) {
+                if (units.get(i) == unit) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Сбрасывает буфер и закрывает файл; вызовы, завершившиеся позже, не записываются
+         *
+         * @throws IOException первая ошибка записи за время работы, если она была
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (!channel.isOpen()) {
+                    return;
+                }
+                try {
+                    if (failure == null) {
+                        flushPending();
+                    }
+                } finally {
+                    channel.close();
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Recorder{");
+            for (EntryPoint entryPoint : ENTRY_POINTS) {
+                builder.append(entryPoint).append('=').append(getRecorded(entryPoint)).append(", ");
+            }
+            return builder.append("dropped=").append(getDropped()).append('}').toString();
+        }
+    }
+
+    /**
+     * Начатый вызов; {@link #finish()} нужно вызвать ровно один раз, в том же
+     * потоке, даже если вызов бросил исключение
+     */
+    public static final class Call {
+        private final Recorder recorder;
+        private final EntryPoint entryPoint;
+        private final ByteBuffer payload;
+        private final int flags;
+        private final long start;
+
+        private Call(Recorder recorder, EntryPoint entryPoint, ByteBuffer payload, int flags, long start) {
+            this.recorder = recorder;
+            this.entryPoint = entryPoint;
+            this.payload = payload;
+            this.flags = flags;
+            this.start = start;
+        }
+
+        public void finish() {
+            recorder.finish(this, System.nanoTime());
+        }
+    }
+
+    /**
+     * Упаковка входных данных вызова. Не помещающийся в формат вызов
+     * помечается dropped, остальные поля после этого не важны.
+     */
+    private static final class Payload {
+        private final Recorder recorder;
+        private final ByteBuffer out;
+        private boolean dropped;
+
+        Payload(Recorder recorder, int size) {
+            this.recorder = recorder;
+            this.out = ByteBuffer.allocate(size);
+        }
+
+        void count(int count) {
+            if (count > ScenarioFile.MAX_FIELD_VALUE) {
+                dropped = true;
+                count = 0;
+            }
+            out.putShort((short) count);
+        }
+
+        void units(List<Unit> units) {
+            count(units.size());
+            if (dropped) {
+                return;
+            }
+            for (Unit unit : units) {
+                unit(unit);
+            }
+        }
+
+        void unit(Unit unit) {
+            if (dropped) {
+                return;
+            }
+            int x = unit.getxCoordinate();
+            int y = unit.getyCoordinate();
+            int health = unit.isAlive() ? Math.max(0, unit.getHealth()) : 0;
+            int template = recorder.templateId(unit);
+            if (x < 0 || x > ScenarioFile.MAX_FIELD_VALUE || y < 0 || y > ScenarioFile.MAX_FIELD_VALUE
+                    || health > ScenarioFile.MAX_FIELD_VALUE || template > ScenarioFile.MAX_FIELD_VALUE) {
+                dropped = true;
+                return;
+            }
+            out.putLong((long) template << 48 | (long) x << 32 | (long) y << 16 | health);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package programs;
+
+import com.battle.heroes.army.programs.Edge;
+import com.battle.heroes.army.programs.EdgeDistance;
+
+import java.util.*;
+
+/**
+ * Компактное представление пути: координаты точек упакованы в один int[]
+ * (x в старших 16 битах, y в младших). Объекты Edge и EdgeDistance создаются
+ * только при обращении к элементу через {@link #asEdges()} или
+ * {@link #asEdgeDistances()}, поэтому путь не копируется в промежуточные списки.
+ */
+public final class CompactPath {
+    // Координата хранится в 16 битах со знаком
+    static final int MIN_COORDINATE = Short.MIN_VALUE;
+    static final int MAX_COORDINATE = Short.MAX_VALUE;
+
+    private static final CompactPath EMPTY = new CompactPath(new int[0], -1);
+
+    private final int[] points;
+    private final int cost;
+
+    private CompactPath(int[] points, int cost) {
+        this.points = points;
+        this.cost = cost;
+    }
+
+    public static CompactPath empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Строит путь из индексов клеток поля. Массив переиспользуется
+     * и после вызова принадлежит пути.
+     *
+     * @param board снимок поля, по которому считались индексы
+     * @param cells индексы клеток от старта до цели
+     * @param cost  стоимость пути в единицах A* или -1, если неизвестна
+     */
+    static CompactPath fromCells(BoardSnapshot board, int[] cells, int cost) {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = pack(board.cellX(cells[i]), board.cellY(cells[i]));
+        }
+        return new CompactPath(cells, cost);
+    }
+
+    /**
+     * Строит путь из уже упакованных координат (см. {@link #pack(int, int)})
+     */
+    static CompactPath fromPacked(int[] packed, int cost) {
+        return new CompactPath(packed, cost);
+    }
+
+    /**
+     * Упаковывает точку в int
+     *
+     * @throws IllegalArgumentException если координата не помещается в 16 бит
+     */
+    static int pack(int x, int y) {
+        if (x < MIN_COORDINATE || x > MAX_COORDINATE || y < MIN_COORDINATE || y > MAX_COORDINATE) {
+            throw new IllegalArgumentException("Координаты вне диапазона CompactPath: (" + x + ", " + y + ")");
+        }
+        return (x << 16) | (y & 0xFFFF);
+    }
+
+    /**
+     * Количество точек пути, включая старт и цель
+     */
+    public int length() {
+        return points.length;
+    }
+
+    public boolean isEmpty() {
+        return points.length == 0;
+    }
+
+    /**
+     * Стоимость пути в единицах A* (прямой шаг = 10, диагональ = 14) или -1
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    public int getX(int index) {
+        return points[index] >> 16;
+    }
+
+    public int getY(int index) {
+        return (short) points[index];
+    }
+
+    public Edge edgeAt(int index) {
+        return new Edge(getX(index), getY(index));
+    }
+
+    /**
+     * Первый шаг после стартовой клетки или null, если шагать некуда
+     */
+    public Edge firstStep() {
+        return points.length > 1 ? edgeAt(1) : null;
+    }
+
+    /**
+     * Список-представление пути: Edge создаётся при каждом обращении к элементу
+     */
+    public List<Edge> asEdges() {
+        return new EdgeView();
+    }
+
+    /**
+     * Список-представление пути с порядковым номером шага в качестве расстояния
+     */
+    public List<EdgeDistance> asEdgeDistances() {
+        return new EdgeDistanceView();
+    }
+
+    /**
+     * Краткие сведения о пути для тех, кому нужен только следующий ход
+     */
+    public Summary summary() {
+        if (points.length == 0) {
+            return Summary.NONE;
+        }
+        int index = points.length > 1 ? 1 : 0;
+        return new Summary(points.length, cost, getX(index), getY(index));
+    }
+
+    private final class EdgeView extends AbstractList<Edge> implements RandomAccess {
+        @Override
+        public Edge get(int index) {
+            Objects.checkIndex(index, points.length);
+            return edgeAt(index);
+        }
+
+        @Override
+        public int size() {
+            return points.length;
+        }
+    }
+
+    private final class EdgeDistanceView extends AbstractList<EdgeDistance> implements RandomAccess {
+        @Override
+        public EdgeDistance get(int index) {
+            Objects.checkIndex(index, points.length);
+            return new EdgeDistance(getX(index), getY(index), index);
+        }
+
+        @Override
+        public int size() {
+            return points.length;
+        }
+    }
+
+    /**
+     * Длина пути, его стоимость и координаты первого шага.
+     * Если путь состоит из одной точки, первым шагом считается она сама.
+     */
+    public static final class Summary {
+        static final Summary NONE = new Summary(0, -1, 0, 0);
+
+        private final int length;
+        private final int cost;
+        private final int firstStepX;
+        private final int firstStepY;
+
+        Summary(int length, int cost, int firstStepX, int firstStepY) {
+            this.length = length;
+            this.cost = cost;
+            this.firstStepX = firstStepX;
+            this.firstStepY = firstStepY;
+        }
+
+        public boolean isFound() {
+            return length > 0;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        public int getFirstStepX() {
+            return firstStepX;
+        }
+
+        public int getFirstStepY() {
+            return firstStepY;
+        }
+    }
+}
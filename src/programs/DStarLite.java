@@ -0,0 +1,377 @@
+package programs;
+
+import java.util.Arrays;
+
+/**
+ * Инкрементальный поиск пути D* Lite для одной пары (атакующий, цель).
+ * Поиск идёт от цели к старту, поэтому старт может сдвигаться между ходами,
+ * а при изменении занятости клеток пересчитываются только вершины, чьи
+ * оценки стали неверны, а не всё дерево поиска.
+ *
+ * Правила проходимости те же, что у {@link AStarSearch}: 8 направлений,
+ * прямой шаг 10, диагональ 14, в занятую клетку входить нельзя, кроме самой
+ * цели. Стоимость найденного пути совпадает со стоимостью пути A*; при
+ * равной стоимости сам путь может отличаться.
+ *
+ * Состояние хранит по шесть массивов int размером с поле, поэтому
+ * предназначено для плотных полей. Экземпляр не потокобезопасен.
+ */
+final class DStarLite {
+    private static final int INF = Integer.MAX_VALUE / 2;
+
+    private static final int[] DIR_X = { -1, -1, -1, 0, 0, 1, 1, 1 };
+    private static final int[] DIR_Y = { -1, 0, 1, -1, 1, -1, 0, 1 };
+
+    private final int width;
+    private final int height;
+    private final int goal;
+    private final boolean[] blocked;
+    private final int[] g;
+    private final int[] rhs;
+    // Ключ вершины в очереди: (key1, key2), при равенстве — индекс клетки
+    private final int[] key1;
+    private final int[] key2;
+    private final int[] heap;
+    private final int[] heapPos; // -1 — вершины нет в очереди
+    private int heapSize;
+    private int start;
+    private int km;
+    private long expansions;
+
+    /**
+     * Начинает поиск на снимке board
+     */
+    DStarLite(BoardSnapshot board, int startCell, int goalCell) {
+        this.width = board.getWidth();
+        this.height = board.getHeight();
+        int cellCount = board.getCellCount();
+        this.goal = goalCell;
+        this.start = startCell;
+        this.blocked = new boolean[cellCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            blocked[cell] = board.isBlocked(cell);
+        }
+        this.g = new int[cellCount];
+        this.rhs = new int[cellCount];
+        this.key1 = new int[cellCount];
+        this.key2 = new int[cellCount];
+        this.heap = new int[cellCount];
+        this.heapPos = new int[cellCount];
+        Arrays.fill(g, INF);
+        Arrays.fill(rhs, INF);
+        Arrays.fill(heapPos, -1);
+
+        rhs[goal] = 0;
+        insert(goal);
+    }
+
+    int getGoal() {
+        return goal;
+    }
+
+    /**
+     * Подходит ли состояние для поля таких размеров
+     */
+    boolean fits(BoardSnapshot board) {
+        return board.getWidth() == width && board.getHeight() == height;
+    }
+
+    /**
+     * Сколько вершин раскрыто за всё время жизни состояния
+     */
+    long getExpansions() {
+        return expansions;
+    }
+
+    /**
+     * Переносит старт и применяет изменения занятости по новому снимку
+     *
+     * @return сколько клеток сменили занятость
+     */
+    int update(BoardSnapshot board, int startCell) {
+        if (startCell != start) {
+            // Ключи в очереди посчитаны от старого старта: вместо пересчёта
+            // всех ключей растёт поправка km (эвристика согласованная)
+            km += heuristic(start, startCell);
+            start = startCell;
+        }
+
+        int changed = 0;
+        for (int cell = 0; cell < blocked.length; cell++) {
+            boolean now = board.isBlocked(cell);
+            if (now == blocked[cell]) {
+                continue;
+            }
+            blocked[cell] = now;
+            changed++;
+            // Изменились стоимости рёбер, входящих в клетку: пересчитываем соседей
+            int cx = cell % width;
+            int cy = cell / width;
+            for (int d = 0; d < DIR_X.length; d++) {
+                int nx = cx + DIR_X[d];
+                int ny = cy + DIR_Y[d];
+                if (nx >= 0 && nx < width && ny >= 0 && ny < height) {
+                    int neighbor = ny * width + nx;
+                    if (neighbor != goal) {
+                        rhs[neighbor] = bestSuccessor(neighbor);
+                        updateVertex(neighbor);
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Доводит поиск до согласованного старта и строит путь
+     *
+     * @return индексы клеток от старта до цели включительно или null, если пути нет
+     */
+    int[] plan() {
+        computeShortestPath();
+        if (rhs[start] >= INF) {
+            return null;
+        }
+
+        int length = 1;
+        int[] path = new int[16];
+        path[0] = start;
+        int current = start;
+        while (current != goal) {
+            int next = -1;
+            int best = INF;
+            int cx = current % width;
+            int cy = current / width;
+            for (int d = 0; d < DIR_X.length; d++) {
+                int nx = cx + DIR_X[d];
+                int ny = cy + DIR_Y[d];
+                if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+                    continue;
+                }
+                int neighbor = ny * width + nx;
+                int cost = add(edgeCost(d, neighbor), g[neighbor]);
+                if (cost < best) {
+                    best = cost;
+                    next = neighbor;
+                }
+            }
+            // Путь длиннее поля — оценки несогласованы, доверять им нельзя
+            if (next < 0 || length == blocked.length) {
+                return null;
+            }
+            if (length == path.length) {
+                path = Arrays.copyOf(path, path.length * 2);
+            }
+            path[length++] = next;
+            current = next;
+        }
+        return Arrays.copyOf(path, length);
+    }
+
+    /**
+     * Стоимость пути от старта, -1 если пути нет
+     */
+    int getCost() {
+        return rhs[start] >= INF ? -1 : rhs[start];
+    }
+
+    private void computeShortestPath() {
+        while (heapSize > 0) {
+            int top = heap[0];
+            int startKey1 = calculateKey1(start);
+            int startKey2 = Math.min(g[start], rhs[start]);
+            if (!lessKey(key1[top], key2[top], startKey1, startKey2) && rhs[start] <= g[start]) {
+                return;
+            }
+
+            int newKey1 = calculateKey1(top);
+            int newKey2 = Math.min(g[top], rhs[top]);
+            if (lessKey(key1[top], key2[top], newKey1, newKey2)) {
+                // Ключ устарел после сдвига старта: переставляем вершину
+                key1[top] = newKey1;
+                key2[top] = newKey2;
+                siftDown(0);
+                continue;
+            }
+
+            expansions++;
+            int tx = top % width;
+            int ty = top / width;
+            if (g[top] > rhs[top]) {
+                // Вершина стала дешевле: улучшаем предшественников
+                g[top] = rhs[top];
+                remove(top);
+                for (int d = 0; d < DIR_X.length; d++) {
+                    int nx = tx - DIR_X[d];
+                    int ny = ty - DIR_Y[d];
+                    if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+                        continue;
+                    }
+                    int predecessor = ny * width + nx;
+                    if (predecessor != goal) {
+                        rhs[predecessor] = Math.min(rhs[predecessor], add(edgeCost(d, top), g[top]));
+                        updateVertex(predecessor);
+                    }
+                }
+            } else {
+                // Вершина подорожала: сбрасываем её и всех, кто шёл через неё
+                int oldG = g[top];
+                g[top] = INF;
+                for (int d = 0; d < DIR_X.length; d++) {
+                    int nx = tx - DIR_X[d];
+                    int ny = ty - DIR_Y[d];
+                    if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+                        continue;
+                    }
+                    int predecessor = ny * width + nx;
+                    if (predecessor != goal && rhs[predecessor] == add(edgeCost(d, top), oldG)) {
+                        rhs[predecessor] = bestSuccessor(predecessor);
+                        updateVertex(predecessor);
+                    }
+                }
+                if (top != goal) {
+                    rhs[top] = bestSuccessor(top);
+                }
+                updateVertex(top);
+            }
+        }
+    }
+
+    /**
+     * Наименьшая стоимость пути до цели через соседей клетки
+     */
+    private int bestSuccessor(int cell) {
+        int best = INF;
+        int cx = cell % width;
+        int cy = cell / width;
+        for (int d = 0; d < DIR_X.length; d++) {
+            int nx = cx + DIR_X[d];
+            int ny = cy + DIR_Y[d];
+            if (nx >= 0 && nx < width && ny >= 0 && ny < height) {
+                int neighbor = ny * width + nx;
+                best = Math.min(best, add(edgeCost(d, neighbor), g[neighbor]));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Стоимость шага в направлении d в клетку to
+     */
+    private int edgeCost(int d, int to) {
+        if (to != goal && blocked[to]) {
+            return INF;
+        }
+        return DIR_X[d] != 0 && DIR_Y[d] != 0 ? AStarSearch.DIAGONAL_COST : AStarSearch.STRAIGHT_COST;
+    }
+
+    private void updateVertex(int cell) {
+        boolean queued = heapPos[cell] >= 0;
+        if (g[cell] != rhs[cell]) {
+            if (queued) {
+                int oldKey1 = key1[cell];
+                int oldKey2 = key2[cell];
+                key1[cell] = calculateKey1(cell);
+                key2[cell] = Math.min(g[cell], rhs[cell]);
+                if (lessKey(key1[cell], key2[cell], oldKey1, oldKey2)) {
+                    siftUp(heapPos[cell]);
+                } else {
+                    siftDown(heapPos[cell]);
+                }
+            } else {
+                insert(cell);
+            }
+        } else if (queued) {
+            remove(cell);
+        }
+    }
+
+    private int calculateKey1(int cell) {
+        int best = Math.min(g[cell], rhs[cell]);
+        return best >= INF ? INF : best + heuristic(start, cell) + km;
+    }
+
+    private int heuristic(int from, int to) {
+        return AStarSearch.octile(from % width - to % width, from / width - to / width);
+    }
+
+    private static int add(int a, int b) {
+        return a >= INF || b >= INF ? INF : a + b;
+    }
+
+    private static boolean lessKey(int a1, int a2, int b1, int b2) {
+        return a1 < b1 || a1 == b1 && a2 < b2;
+    }
+
+    // Индексированная двоичная куча по (key1, key2, индекс клетки)
+
+    private boolean less(int a, int b) {
+        if (key1[a] != key1[b]) {
+            return key1[a] < key1[b];
+        }
+        if (key2[a] != key2[b]) {
+            return key2[a] < key2[b];
+        }
+        return a < b;
+    }
+
+    private void insert(int cell) {
+        key1[cell] = calculateKey1(cell);
+        key2[cell] = Math.min(g[cell], rhs[cell]);
+        heap[heapSize] = cell;
+        heapPos[cell] = heapSize;
+        heapSize++;
+        siftUp(heapSize - 1);
+    }
+
+    private void remove(int cell) {
+        int index = heapPos[cell];
+        heapSize--;
+        heapPos[cell] = -1;
+        if (index == heapSize) {
+            return;
+        }
+        int last = heap[heapSize];
+        heap[index] = last;
+        heapPos[last] = index;
+        siftUp(index);
+        siftDown(heapPos[last]);
+    }
+
+    private void siftUp(int index) {
+        int cell = heap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            int parentCell = heap[parentIndex];
+            if (!less(cell, parentCell)) {
+                break;
+            }
+            heap[index] = parentCell;
+            heapPos[parentCell] = index;
+            index = parentIndex;
+        }
+        heap[index] = cell;
+        heapPos[cell] = index;
+    }
+
+    private void siftDown(int index) {
+        int cell = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], cell)) {
+                break;
+            }
+            heap[index] = heap[child];
+            heapPos[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = cell;
+        heapPos[cell] = index;
+    }
+}
@@ -0,0 +1,443 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+
+import java.util.*;
+
+/**
+ * Таблица расстояний для небольшого фиксированного поля.
+ * Для каждой клетки-цели хранится строка расстояний от всех клеток до неё
+ * (в единицах A*: прямой шаг = 10, диагональ = 14), поэтому запрос длины пути
+ * выполняется за O(1). Строки строятся лениво (или все сразу через
+ * {@link #precomputeAll()}) и поддерживаются при изменении занятости:
+ * освобождение клетки распространяется инкрементально, а занятие клетки
+ * сбрасывает только те строки, кратчайшие пути которых через неё проходили.
+ *
+ * Сам путь восстанавливается по строке только когда юнит действительно ходит.
+ * Расстояния хранятся в char: строка вдвое меньше int[], а простой путь
+ * не длиннее {@link #MAX_CELLS} клеток в char помещается всегда.
+ * Класс не потокобезопасен.
+ */
+public class DistanceOracle {
+    public final static int UNREACHABLE = -1;
+
+    /**
+     * Наибольшее число клеток поля: путь по всем клеткам диагоналями
+     * должен остаться меньше {@link Character#MAX_VALUE}
+     */
+    public final static int MAX_CELLS = (Character.MAX_VALUE - 1) / AStarSearch.DIAGONAL_COST + 1;
+
+    private static final char INFINITY = Character.MAX_VALUE;
+
+    // Направления движения в том же порядке, что и в AStarSearch
+    private static final int[] DIR_X = { -1, -1, -1, 0, 0, 1, 1, 1 };
+    private static final int[] DIR_Y = { -1, 0, 1, -1, 1, -1, 0, 1 };
+
+    private final int width;
+    private final int height;
+    private final boolean[] blocked;
+    private final char[][] rows; // rows[цель][старт], null если строка не построена
+    private final boolean[] dirty;
+
+    // Буфер очереди Дейкстры: (расстояние << 32) | клетка
+    private long[] queue = new long[64];
+    private int queueSize;
+
+    // Статистика
+    private int rowsBuilt;
+    private int peakRowsBuilt;
+    private long rowBuilds;
+    private long incrementalUpdates;
+    private long invalidations;
+    private long lastRebuildNanos;
+    private long totalRebuildNanos;
+
+    public DistanceOracle(BoardSnapshot board) {
+        this.width = board.getWidth();
+        this.height = board.getHeight();
+        int cellCount = board.getCellCount();
+        if (cellCount > MAX_CELLS) {
+            throw new IllegalArgumentException("Поле из " + cellCount + " клеток больше " + MAX_CELLS
+                    + ": расстояния не поместятся в строку таблицы");
+        }
+        this.blocked = new boolean[cellCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            blocked[cell] = board.isBlocked(cell);
+        }
+        this.rows = new char[cellCount][];
+        this.dirty = new boolean[cellCount];
+    }
+
+    /**
+     * Строит строки для всех клеток поля (таблица всех пар)
+     */
+    public void precomputeAll() {
+        long start = System.nanoTime();
+        for (int cell = 0; cell < rows.length; cell++) {
+            row(cell);
+        }
+        lastRebuildNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Строит строки только для заданных целей, например передовой линии противника
+     */
+    public void precompute(List<Unit> targets) {
+        long start = System.nanoTime();
+        for (Unit target : targets) {
+            if (isInside(target.getxCoordinate(), target.getyCoordinate())) {
+                row(cellIndex(target.getxCoordinate(), target.getyCoordinate()));
+            }
+        }
+        lastRebuildNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Строит строку для одной клетки-цели, если её ещё нет или она сброшена
+     */
+    public void precompute(int x, int y) {
+        if (isInside(x, y)) {
+            row(cellIndex(x, y));
+        }
+    }
+
+    /**
+     * Оценка памяти под таблицу, если будут построены rowCount строк
+     * для поля из cellCount клеток
+     */
+    public static long estimateFootprintBytes(int cellCount, int rowCount) {
+        return (long) rowCount * cellCount * Character.BYTES + (long) cellCount * (Integer.BYTES + 2);
+    }
+
+    /**
+     * Стоимость кратчайшего пути между клетками или {@link #UNREACHABLE}.
+     * Клетки старта и цели считаются проходимыми, как и в A*.
+     */
+    public int distance(int fromX, int fromY, int toX, int toY) {
+        if (!isInside(fromX, fromY) || !isInside(toX, toY)) {
+            return UNREACHABLE;
+        }
+        int value = row(cellIndex(toX, toY))[cellIndex(fromX, fromY)];
+        return value == INFINITY ? UNREACHABLE : value;
+    }
+
+    public int distance(Unit from, Unit to) {
+        return distance(from.getxCoordinate(), from.getyCoordinate(), to.getxCoordinate(), to.getyCoordinate());
+    }
+
+    /**
+     * Восстанавливает путь по строке цели: на каждом шаге выбирается первый
+     * сосед, через которого проходит кратчайший путь.
+     *
+     * @return путь от старта до цели включительно или пустой путь
+     */
+    public CompactPath path(int fromX, int fromY, int toX, int toY) {
+        int cost = distance(fromX, fromY, toX, toY);
+        if (cost == UNREACHABLE) {
+            return CompactPath.empty();
+        }
+
+        char[] dist = row(cellIndex(toX, toY));
+        int goal = cellIndex(toX, toY);
+        int current = cellIndex(fromX, fromY);
+
+        // Каждый шаг стоит не меньше прямого, так что длина ограничена сверху
+        int[] points = new int[cost / AStarSearch.STRAIGHT_COST + 1];
+        int length = 0;
+        points[length++] = CompactPath.pack(fromX, fromY);
+
+        while (current != goal) {
+            int cx = current % width;
+            int cy = current / width;
+            int next = -1;
+
+            for (int d = 0; d < DIR_X.length; d++) {
+                int nx = cx + DIR_X[d];
+                int ny = cy + DIR_Y[d];
+                if (!isInside(nx, ny)) {
+                    continue;
+                }
+                int neighbor = ny * width + nx;
+                if (neighbor != goal && blocked[neighbor]) {
+                    continue;
+                }
+                if (dist[neighbor] != INFINITY && dist[neighbor] + stepCost(d) == dist[current]) {
+                    next = neighbor;
+                    break;
+                }
+            }
+
+            // Строка рассогласована с полем — такого быть не должно
+            if (next < 0) {
+                return CompactPath.empty();
+            }
+
+            current = next;
+            points[length++] = CompactPath.pack(current % width, current / width);
+        }
+
+        return CompactPath.fromPacked(length == points.length ? points : Arrays.copyOf(points, length), cost);
+    }
+
+    /**
+     * Юнит ушёл с клетки или погиб: расстояния могут только уменьшиться,
+     * поэтому построенные строки обновляются распространением от этой клетки.
+     */
+    public void cellFreed(int x, int y) {
+        if (!isInside(x, y)) {
+            return;
+        }
+        int cell = cellIndex(x, y);
+        if (!blocked[cell]) {
+            return;
+        }
+        blocked[cell] = false;
+
+        long start = System.nanoTime();
+        for (int target = 0; target < rows.length; target++) {
+            char[] dist = rows[target];
+            if (dist == null || dirty[target] || dist[cell] == INFINITY) {
+                continue;
+            }
+            queueSize = 0;
+            push(dist[cell], cell);
+            relax(dist, target);
+            incrementalUpdates++;
+        }
+        totalRebuildNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Юнит занял клетку: строка сбрасывается, только если от этой клетки
+     * зависело расстояние хотя бы одного соседа.
+     */
+    public void cellOccupied(int x, int y) {
+        if (!isInside(x, y)) {
+            return;
+        }
+        int cell = cellIndex(x, y);
+        if (blocked[cell]) {
+            return;
+        }
+        blocked[cell] = true;
+
+        for (int target = 0; target < rows.length; target++) {
+            char[] dist = rows[target];
+            if (dist == null || dirty[target] || target == cell) {
+                continue;
+            }
+            if (isOnShortestPath(dist, cell)) {
+                dirty[target] = true;
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Удаляет строку клетки, которая больше не будет целью (например, юнит на
+     * ней погиб), чтобы не тратить на неё обновления и память
+     */
+    public void forget(int x, int y) {
+        if (!isInside(x, y)) {
+            return;
+        }
+        int target = cellIndex(x, y);
+        if (rows[target] != null) {
+            rows[target] = null;
+            dirty[target] = false;
+            rowsBuilt--;
+        }
+    }
+
+    public void unitMoved(int fromX, int fromY, int toX, int toY) {
+        if (fromX == toX && fromY == toY) {
+            return;
+        }
+        cellOccupied(toX, toY);
+        cellFreed(fromX, fromY);
+    }
+
+    /**
+     * Объём памяти под построенные строки в байтах
+     */
+    public long getMemoryFootprintBytes() {
+        return estimateFootprintBytes(rows.length, rowsBuilt) + (long) queue.length * Long.BYTES;
+    }
+
+    /**
+     * Наибольший объём памяти под строки за время жизни таблицы в байтах
+     */
+    public long getPeakMemoryFootprintBytes() {
+        return estimateFootprintBytes(rows.length, peakRowsBuilt) + (long) queue.length * Long.BYTES;
+    }
+
+    public int getRowsBuilt() {
+        return rowsBuilt;
+    }
+
+    public long getRowBuilds() {
+        return rowBuilds;
+    }
+
+    public long getIncrementalUpdates() {
+        return incrementalUpdates;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Время последнего вызова precompute в наносекундах
+     */
+    public long getLastRebuildNanos() {
+        return lastRebuildNanos;
+    }
+
+    /**
+     * Суммарное время построения и обновления строк в наносекундах
+     */
+    public long getTotalRebuildNanos() {
+        return totalRebuildNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "DistanceOracle{" + width + "x" + height
+                + ", rows=" + rowsBuilt + "/" + rows.length
+                + ", memory=" + getMemoryFootprintBytes() + " B"
+                + ", rowBuilds=" + rowBuilds
+                + ", incremental=" + incrementalUpdates
+                + ", invalidations=" + invalidations
+                + ", lastRebuild=" + lastRebuildNanos / 1_000 + " us"
+                + ", totalRebuild=" + totalRebuildNanos / 1_000 + " us}";
+    }
+
+    private char[] row(int target) {
+        char[] dist = rows[target];
+        if (dist != null && !dirty[target]) {
+            return dist;
+        }
+
+        long start = System.nanoTime();
+        if (dist == null) {
+            dist = new char[rows.length];
+            rows[target] = dist;
+            rowsBuilt++;
+            peakRowsBuilt = Math.max(peakRowsBuilt, rowsBuilt);
+        }
+        Arrays.fill(dist, INFINITY);
+        dist[target] = 0;
+        queueSize = 0;
+        push(0, target);
+        relax(dist, target);
+        dirty[target] = false;
+        rowBuilds++;
+        totalRebuildNanos += System.nanoTime() - start;
+        return dist;
+    }
+
+    /**
+     * Дейкстра от клеток в очереди. Занятые клетки получают расстояние
+     * (с них может начинаться путь), но дальше через них не идём.
+     */
+    private void relax(char[] dist, int target) {
+        while (queueSize > 0) {
+            long entry = pop();
+            int d = (int) (entry >>> 32);
+            int cell = (int) entry;
+
+            if (d > dist[cell]) {
+                continue;
+            }
+            if (cell != target && blocked[cell]) {
+                continue;
+            }
+
+            int cx = cell % width;
+            int cy = cell / width;
+            for (int dir = 0; dir < DIR_X.length; dir++) {
+                int nx = cx + DIR_X[dir];
+                int ny = cy + DIR_Y[dir];
+                if (!isInside(nx, ny)) {
+                    continue;
+                }
+                int neighbor = ny * width + nx;
+                int candidate = d + stepCost(dir);
+                if (candidate < dist[neighbor]) {
+                    dist[neighbor] = (char) candidate;
+                    push(candidate, neighbor);
+                }
+            }
+        }
+    }
+
+    private boolean isOnShortestPath(char[] dist, int cell) {
+        if (dist[cell] == INFINITY) {
+            return false;
+        }
+        int cx = cell % width;
+        int cy = cell / width;
+        for (int d = 0; d < DIR_X.length; d++) {
+            int nx = cx + DIR_X[d];
+            int ny = cy + DIR_Y[d];
+            if (isInside(nx, ny) && dist[ny * width + nx] == dist[cell] + stepCost(d)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int stepCost(int direction) {
+        return DIR_X[direction] != 0 && DIR_Y[direction] != 0 ? AStarSearch.DIAGONAL_COST : AStarSearch.STRAIGHT_COST;
+    }
+
+    private boolean isInside(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+
+    private int cellIndex(int x, int y) {
+        return y * width + x;
+    }
+
+    // Двоичная куча по long-ключу (расстояние в старших битах)
+
+    private void push(int distance, int cell) {
+        if (queueSize == queue.length) {
+            queue = Arrays.copyOf(queue, queueSize * 2);
+        }
+        long entry = ((long) distance << 32) | cell;
+        int index = queueSize++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (queue[parent] <= entry) {
+                break;
+            }
+            queue[index] = queue[parent];
+            index = parent;
+        }
+        queue[index] = entry;
+    }
+
+    private long pop() {
+        long top = queue[0];
+        long last = queue[--queueSize];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= queueSize) {
+                break;
+            }
+            if (child + 1 < queueSize && queue[child + 1] < queue[child]) {
+                child++;
+            }
+            if (queue[child] >= last) {
+                break;
+            }
+            queue[index] = queue[child];
+            index = child;
+        }
+        queue[index] = last;
+        return top;
+    }
+}
@@ -21,8 +21,44 @@ public class GeneratePresetImpl implements GeneratePreset {
         HEALTHS // Здоровье
     }
 
+    private final BattleScale scale;
+    private final PresetTableStore store;
+
+    public GeneratePresetImpl() {
+        this(BattleScale.STANDARD);
+    }
+
+    /**
+     * Генератор для поля и лимитов заданного масштаба: армия встаёт в первые
+     * scale.getDeploymentDepth() колонок, а юнитов одного типа не больше
+     * scale.getMaxUnitsPerType().
+     */
+    public GeneratePresetImpl(BattleScale scale) {
+        this(scale, null);
+    }
+
+    /**
+     * Генератор, который берёт оптимальный состав армии из хранилища решённых
+     * таблиц и решает задачу заново, только если таблицы для этих шаблонов
+     * и лимита там нет.
+     *
+     * @param store хранилище таблиц или null, чтобы решать каждый раз
+     */
+    public GeneratePresetImpl(BattleScale scale, PresetTableStore store) {
+        this.scale = Objects.requireNonNull(scale, "scale");
+        this.store = store;
+    }
+
     @Override
     public Army generate(List<Unit> unitList, int maxPoints) {
+        return generate(unitList, maxPoints, new Random());
+    }
+
+    /**
+     * То же, что generate(unitList, maxPoints), но с заданным генератором
+     * случайных чисел для расстановки — чтобы прогоны можно было повторить.
+     */
+    public Army generate(List<Unit> unitList, int maxPoints, Random random) {
         Army army = new Army();
 
         if (unitList == null || unitList.isEmpty())
@@ -31,10 +67,17 @@ public class GeneratePresetImpl implements GeneratePreset {
         // Находим идеальный баланс {atack, health, countsUnits per types} с помощью
         // димнамического
         // программированиядля этого используем вспомогательный класс ArmyState
-        int[] optimalCounts = calculateOptimalArmy(unitList, maxPoints);
+        int[] optimalCounts;
+        if (store != null) {
+            optimalCounts = store.lookup(unitList, scale.getMaxUnitsPerType(), maxPoints, this::solveTable);
+        } else if (isStandardCap()) {
+            optimalCounts = calculateOptimalArmy(unitList, maxPoints);
+        } else {
+            optimalCounts = calculateOptimalMassArmy(unitList, maxPoints, scale.getMaxUnitsPerType());
+        }
 
         // Генирируем координаты и возвращаем
-        return generateArmyCoordinates(unitList, optimalCounts, army);
+        return generateArmyCoordinates(unitList, optimalCounts, army, random);
     }
 
     /**
@@ -53,6 +96,25 @@ public class GeneratePresetImpl implements GeneratePreset {
         // Извлекаем характеристики для того чтобы было удобнее их извлекать в
         // последубщем
         Map<UnitField, int[]> unitData = extractUnitData(unitList, typeCount);
+        ArmyState[] armyStateList = solveArmyStates(unitData, typeCount, maxPoints);
+
+        // Теперь из лучшей выборки находим лучшеий сет по атаке ,если атака равна то по
+        // звдороью + количество юнитов по типу
+        ArmyState bestState = null;
+        for (int points = 0; points <= maxPoints; points++) {
+            if (armyStateList[points] != null && (bestState == null || armyStateList[points].isBetterThan(bestState))) {
+                bestState = armyStateList[points];
+            }
+        }
+        return bestState != null ? bestState.counts : new int[typeCount];
+    }
+
+    /**
+     * Заполняет массив лучших армий ровно за каждое число очков от 0 до maxPoints.
+     * Ячейка p зависит только от ячеек меньше p, поэтому массив, решённый для
+     * большего бюджета, годится и для всех меньших.
+     */
+    private ArmyState[] solveArmyStates(Map<UnitField, int[]> unitData, int typeCount, int maxPoints) {
         int[] costs = unitData.get(UnitField.COSTS);
         int[] baseAttack = unitData.get(UnitField.BASE_ATTACK);
         int[] healths = unitData.get(UnitField.HEALTHS);
@@ -70,13 +132,13 @@ public class GeneratePresetImpl implements GeneratePreset {
                     continue;
 
                 // Пробуем добавить от 1 до 11 юнитов этого типа
-                for (int count = 1; count <= MAX_COUNT_UNITS_PER_TYPE; count++) {
+                for (int count = 1; count <= scale.getMaxUnitsPerType(); count++) {
                     int newCost = points + count * costs[type];
                     if (newCost > maxPoints)
                         break;
 
                     // Проверяем лимит на макс кол-во очков на один тип юнита
-                    if (armyStateList[points].counts[type] + count > MAX_COUNT_UNITS_PER_TYPE) {
+                    if (armyStateList[points].counts[type] + count > scale.getMaxUnitsPerType()) {
                         continue;
                     }
 
@@ -95,16 +157,151 @@ public class GeneratePresetImpl implements GeneratePreset {
                 }
             }
         }
+        return armyStateList;
+    }
 
-        // Теперь из лучшей выборки находим лучшеий сет по атаке ,если атака равна то по
-        // звдороью + количество юнитов по типу
-        ArmyState bestState = null;
-        for (int points = 0; points <= maxPoints; points++) {
-            if (armyStateList[points] != null && (bestState == null || armyStateList[points].isBetterThan(bestState))) {
-                bestState = armyStateList[points];
+    /**
+     * Та же задача для массового боя, где юнитов одного типа тысячи.
+     * Ограниченный рюкзак сводится к 0/1 двоичным разбиением количества
+     * (1, 2, 4, ... штук одного типа), стоимости делятся на общий НОД.
+     * Время O(типы × log(лимит) × очки), память — бит на пару (часть, очки)
+     * для восстановления состава.
+     */
+    private int[] calculateOptimalMassArmy(List<Unit> unitList, int maxPoints, int maxPerType) {
+        int typeCount = unitList.size();
+        MassSolution solution = solveMass(extractUnitData(unitList, typeCount), typeCount, maxPoints, maxPerType);
+        if (solution == null) {
+            return new int[typeCount];
+        }
+
+        int best = 0;
+        for (int points = 1; points < solution.attack.length; points++) {
+            if (solution.isBetter(points, best)) {
+                best = points;
             }
         }
-        return bestState != null ? bestState.counts : new int[typeCount];
+        return solution.countsAt(best);
+    }
+
+    /**
+     * Решает ограниченный рюкзак двоичным разбиением
+     *
+     * @return решение или null, если у шаблона некорректная стоимость
+     */
+    private MassSolution solveMass(Map<UnitField, int[]> unitData, int typeCount, int maxPoints, int maxPerType) {
+        int[] costs = unitData.get(UnitField.COSTS);
+        int[] baseAttack = unitData.get(UnitField.BASE_ATTACK);
+        int[] healths = unitData.get(UnitField.HEALTHS);
+
+        int divisor = 0;
+        for (int cost : costs) {
+            if (cost <= 0) {
+                Trace.log(Trace.Component.PRESET, Trace.Level.ERROR, "Некорректная стоимость юнита: " + cost);
+                return null;
+            }
+            divisor = gcd(divisor, cost);
+        }
+        int capacity = maxPoints / divisor;
+
+        // Части: (тип, сколько штук)
+        List<int[]> parts = new ArrayList<>();
+        for (int type = 0; type < typeCount; type++) {
+            int limit = (int) Math.min(maxPerType, (long) capacity / (costs[type] / divisor));
+            for (int size = 1; limit > 0; size <<= 1) {
+                int take = Math.min(size, limit);
+                parts.add(new int[] { type, take });
+                limit -= take;
+            }
+        }
+
+        // Лучшие (атака, здоровье) ровно за p очков; -1 — недостижимо
+        long[] attack = new long[capacity + 1];
+        long[] health = new long[capacity + 1];
+        Arrays.fill(attack, -1);
+        attack[0] = 0;
+        BitSet[] taken = new BitSet[parts.size()];
+
+        for (int i = 0; i < parts.size(); i++) {
+            int type = parts.get(i)[0];
+            int count = parts.get(i)[1];
+            int weight = count * (costs[type] / divisor);
+            long partAttack = (long) count * baseAttack[type];
+            long partHealth = (long) count * healths[type];
+            taken[i] = new BitSet(capacity + 1);
+
+            for (int points = capacity; points >= weight; points--) {
+                int from = points - weight;
+                if (attack[from] < 0) {
+                    continue;
+                }
+                long newAttack = attack[from] + partAttack;
+                long newHealth = health[from] + partHealth;
+                if (newAttack > attack[points] || newAttack == attack[points] && newHealth > health[points]) {
+                    attack[points] = newAttack;
+                    health[points] = newHealth;
+                    taken[i].set(points);
+                }
+            }
+        }
+        return new MassSolution(typeCount, costs, divisor, parts, attack, health, taken);
+    }
+
+    /**
+     * Решает задачу один раз для бюджета maxBudget и сворачивает ответ
+     * в таблицу для всех бюджетов от 0 до maxBudget: ответ для бюджета b —
+     * лучшая армия ровно за p ≤ b очков, поэтому он меняется только в
+     * точках, где появляется новая лучшая армия. Хранятся только эти точки.
+     */
+    PresetTableStore.Table solveTable(List<Unit> unitList, int maxBudget) {
+        int typeCount = unitList.size();
+        Map<UnitField, int[]> unitData = extractUnitData(unitList, typeCount);
+        List<Integer> budgets = new ArrayList<>();
+        List<int[]> counts = new ArrayList<>();
+
+        if (isStandardCap()) {
+            ArmyState[] states = solveArmyStates(unitData, typeCount, maxBudget);
+            ArmyState best = null;
+            for (int points = 0; points <= maxBudget; points++) {
+                if (states[points] != null && (best == null || states[points].isBetterThan(best))) {
+                    best = states[points];
+                    budgets.add(points);
+                    counts.add(best.counts.clone());
+                }
+            }
+        } else {
+            MassSolution solution = solveMass(unitData, typeCount, maxBudget, scale.getMaxUnitsPerType());
+            if (solution != null) {
+                int best = 0;
+                budgets.add(0);
+                counts.add(new int[typeCount]);
+                for (int points = 1; points < solution.attack.length; points++) {
+                    if (solution.isBetter(points, best)) {
+                        best = points;
+                        budgets.add(points * solution.divisor);
+                        counts.add(solution.countsAt(points));
+                    }
+                }
+            }
+        }
+        if (budgets.isEmpty()) {
+            budgets.add(0);
+            counts.add(new int[typeCount]);
+        }
+        return new PresetTableStore.Table(unitData.get(UnitField.COSTS), unitData.get(UnitField.BASE_ATTACK),
+                unitData.get(UnitField.HEALTHS), scale.getMaxUnitsPerType(), maxBudget, budgets, counts);
+    }
+
+    private boolean isStandardCap() {
+        return scale.getMaxUnitsPerType() <= MAX_COUNT_UNITS_PER_TYPE;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
     }
 
     private Map<UnitField, int[]> extractUnitData(List<Unit> unitList, int typeCount) {
@@ -124,15 +321,16 @@ public class GeneratePresetImpl implements GeneratePreset {
         return data;
     }
 
-    private Army generateArmyCoordinates(List<Unit> unitList, int[] counts, Army army) {
-        Random random = new Random();
-        Set<String> usedCoordinates = new HashSet<>();
+    private Army generateArmyCoordinates(List<Unit> unitList, int[] counts, Army army, Random random) {
+        // Занятые клетки зоны: индекс x * (MAX_Y + 1) + y
+        BitSet usedCoordinates = new BitSet(scale.getDeploymentCapacity());
         int unitCounter = 0;
 
         // Определяем зону для армии компьютера
         final int MIN_X = 0; // Левая часть поля
-        final int MAX_X = 2; // 3 колонки: 0, 1, 2
-        final int MAX_Y = 20; // 21 строка: 0-20
+        final int MAX_X = scale.getDeploymentDepth() - 1; // на стандартном поле 3 колонки: 0, 1, 2
+        final int MAX_Y = scale.getHeight() - 1; // на стандартном поле 21 строка: 0-20
+        final int zoneCells = scale.getDeploymentCapacity();
 
         // Создаем юниты каждого типа
         for (int typeIndex = 0; typeIndex < unitList.size(); typeIndex++) {
@@ -143,38 +341,34 @@ public class GeneratePresetImpl implements GeneratePreset {
                 continue;
 
             for (int i = 0; i < count; i++) {
+                if (unitCounter >= zoneCells) {
+                    Trace.log(Trace.Component.PRESET, Trace.Level.WARN, "Зона расстановки заполнена, размещено "
+                            + unitCounter + " юнитов из " + Arrays.stream(counts).sum());
+                    return army;
+                }
+
                 // Генерируем уникальные координаты
                 int x, y;
-                String coordKey;
+                int cell;
                 int attempts = 0;
 
                 do {
-                    x = MIN_X + random.nextInt(MAX_X - MIN_X + 1); // 0, 1 или 2
-                    y = random.nextInt(MAX_Y + 1); // 0-20
-                    coordKey = x + ":" + y;
+                    x = MIN_X + random.nextInt(MAX_X - MIN_X + 1); // на стандартном поле 0, 1 или 2
+                    y = random.nextInt(MAX_Y + 1); // на стандартном поле 0-20
+                    cell = (x - MIN_X) * (MAX_Y + 1) + y;
                     attempts++;
 
-                    // Если долго не можем найти свободное место
+                    // Если долго не можем найти свободное место — берём первое
+                    // свободное, перебирая колонки слева направо и строки сверху вниз
                     if (attempts > 100) {
-                        // Ищем любое свободное место
-                        for (x = MIN_X; x <= MAX_X; x++) {
-                            for (y = 0; y <= MAX_Y; y++) {
-                                coordKey = x + ":" + y;
-                                // Если нашли повторяющиеся координаты выходим
-                                if (!usedCoordinates.contains(coordKey)) {
-                                    break;
-                                }
-                            }
-                            // Если нашли повторяющиеся координаты выходим
-                            if (!usedCoordinates.contains(coordKey)) {
-                                break;
-                            }
-                        }
+                        cell = usedCoordinates.nextClearBit(0);
+                        x = MIN_X + cell / (MAX_Y + 1);
+                        y = cell % (MAX_Y + 1);
                         break;
                     }
-                } while (usedCoordinates.contains(coordKey));
+                } while (usedCoordinates.get(cell));
 
-                usedCoordinates.add(coordKey);
+                usedCoordinates.set(cell);
 
                 // Создаем юнита
                 Unit newUnit = createUnit(
@@ -190,7 +384,6 @@ public class GeneratePresetImpl implements GeneratePreset {
 
             }
         }
-
         return army;
     }
 
@@ -208,7 +401,7 @@ public class GeneratePresetImpl implements GeneratePreset {
                     x,
                     y);
         } catch (Exception e) {
-            System.err.println("Ошибка создания юнита: " + e.getMessage());
+            Trace.log(Trace.Component.PRESET, Trace.Level.ERROR, "Ошибка создания юнита: " + e.getMessage());
             return template;
         }
     }
@@ -228,7 +421,48 @@ public class GeneratePresetImpl implements GeneratePreset {
 
             }
         } catch (Exception e) {
-            System.err.println("Ошибка добавления юнита: " + e.getMessage());
+            Trace.log(Trace.Component.PRESET, Trace.Level.ERROR, "Ошибка добавления юнита: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Решённый массовый рюкзак: лучшие (атака, здоровье) ровно за каждое число
+     * очков, делённое на НОД стоимостей, и биты для восстановления состава
+     */
+    private static class MassSolution {
+        final int typeCount;
+        final int[] costs;
+        final int divisor;
+        final List<int[]> parts;
+        final long[] attack;
+        final long[] health;
+        final BitSet[] taken;
+
+        MassSolution(int typeCount, int[] costs, int divisor, List<int[]> parts, long[] attack, long[] health,
+                BitSet[] taken) {
+            this.typeCount = typeCount;
+            this.costs = costs;
+            this.divisor = divisor;
+            this.parts = parts;
+            this.attack = attack;
+            this.health = health;
+            this.taken = taken;
+        }
+
+        boolean isBetter(int points, int other) {
+            return attack[points] > attack[other] || attack[points] == attack[other] && health[points] > health[other];
+        }
+
+        int[] countsAt(int points) {
+            int[] counts = new int[typeCount];
+            for (int i = parts.size() - 1; i >= 0 && points > 0; i--) {
+                if (taken[i].get(points)) {
+                    int type = parts.get(i)[0];
+                    counts[type] += parts.get(i)[1];
+                    points -= parts.get(i)[1] * (costs[type] / divisor);
+                }
+            }
+            return counts;
         }
     }
 
@@ -0,0 +1,291 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+import com.battle.heroes.army.programs.Edge;
+import com.battle.heroes.army.programs.UnitTargetPathFinder;
+
+import java.util.*;
+
+/**
+ * Поиск пути с памятью между ходами. Программы библиотеки просят путь
+ * у одного и того же атакующего к одной и той же цели ход за ходом, а между
+ * ходами на поле сдвигаются или гибнут лишь несколько юнитов.
+ * {@link UnitTargetPathFinderImpl} каждый раз ищет заново; здесь на каждую
+ * пару (атакующий, цель) хранится состояние {@link DStarLite}, и новый
+ * запрос исправляет только ту часть поиска, которую задели изменения
+ * занятости с прошлого запроса. Изменения находятся сравнением нового
+ * снимка поля с сохранённым.
+ *
+ * Поиск начинается заново, если цель сместилась или состояния пары нет.
+ * Хранится не больше maxStates состояний, вытесняются давно не
+ * использованные. На больших полях с чанками ({@link BoardSnapshot#isChunked()})
+ * состояние слишком велико, и запрос уходит в обычный A*.
+ *
+ * С {@link #setCompareWithAStar(boolean)} каждый запрос дополнительно
+ * решается полным A*: статистика показывает цену обоих поисков и число
+ * расхождений в стоимости пути (их быть не должно).
+ *
+ * Экземпляр не потокобезопасен: один поисковик на бой.
+ */
+public class IncrementalPathFinder implements UnitTargetPathFinder {
+    public final static int DEFAULT_MAX_STATES = 256;
+
+    private final BattleScale scale;
+    private final int maxStates;
+    private final Map<Pair, DStarLite> states;
+    private final UnitTargetPathFinderImpl fallback;
+    private final Statistics statistics = new Statistics();
+    private BattleMetrics metrics = BattleMetrics.shared();
+    private boolean compareWithAStar;
+
+    public IncrementalPathFinder() {
+        this(BattleScale.STANDARD, DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * @param maxStates сколько пар (атакующий, цель) помнить одновременно
+     */
+    public IncrementalPathFinder(BattleScale scale, int maxStates) {
+        if (maxStates <= 0) {
+            throw new IllegalArgumentException("Число состояний должно быть положительным: " + maxStates);
+        }
+        this.scale = Objects.requireNonNull(scale, "scale");
+        this.maxStates = maxStates;
+        this.fallback = new UnitTargetPathFinderImpl(scale);
+        this.states = new LinkedHashMap<Pair, DStarLite>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Pair, DStarLite> eldest) {
+                return size() > IncrementalPathFinder.this.maxStates;
+            }
+        };
+    }
+
+    /**
+     * Устанавливает приёмник метрик для фазы PATHFINDING, в том числе для
+     * запросов, ушедших в обычный A* (по умолчанию {@link BattleMetrics#shared()}).
+     *
+     * @param metrics метрики движка, обычно те же, что и у симуляции боя
+     */
+    public void setMetrics(BattleMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+        fallback.setMetrics(metrics);
+    }
+
+    /**
+     * Решать каждый запрос ещё и полным A* для сравнения
+     */
+    public void setCompareWithAStar(boolean compareWithAStar) {
+        this.compareWithAStar = compareWithAStar;
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public List<Edge> getTargetPath(Unit attackUnit, Unit targetUnit, List<Unit> existingUnitList) {
+        return getCompactTargetPath(attackUnit, targetUnit, existingUnitList).asEdges();
+    }
+
+    /**
+     * То же, что {@link UnitTargetPathFinderImpl#getCompactTargetPath}, но с
+     * исправлением сохранённого поиска вместо нового
+     */
+    public CompactPath getCompactTargetPath(Unit attackUnit, Unit targetUnit, List<Unit> existingUnitList) {
+        if (attackUnit == null || targetUnit == null) {
+            return CompactPath.empty();
+        }
+        int startX = attackUnit.getxCoordinate();
+        int startY = attackUnit.getyCoordinate();
+        int targetX = targetUnit.getxCoordinate();
+        int targetY = targetUnit.getyCoordinate();
+        if (startX == targetX && startY == targetY) {
+            return CompactPath.fromPacked(new int[] { CompactPath.pack(startX, startY) }, 0);
+        }
+
+        long timer = metrics.startTimer();
+        try {
+            BoardSnapshot board = BoardSnapshot.fromUnits(scale.getWidth(), scale.getHeight(), existingUnitList,
+                    attackUnit, targetUnit);
+            if (!UnitTargetPathFinderImpl.canSearch(board, startX, startY, targetX, targetY)) {
+                return UnitTargetPathFinderImpl.createSimplePath(startX, startY, targetX, targetY);
+            }
+            if (board.isChunked()) {
+                statistics.fullSearches++;
+                return fallback.getCompactTargetPath(attackUnit, targetUnit, existingUnitList);
+            }
+
+            // Снимок поля нужен обоим поискам, в их время он не входит
+            long start = System.nanoTime();
+            int startCell = board.cellIndex(startX, startY);
+            int goalCell = board.cellIndex(targetX, targetY);
+            Pair pair = new Pair(attackUnit, targetUnit);
+            DStarLite state = states.get(pair);
+            long expansionsBefore = 0;
+            if (state == null || state.getGoal() != goalCell || !state.fits(board)) {
+                state = new DStarLite(board, startCell, goalCell);
+                states.put(pair, state);
+                statistics.restarts++;
+            } else {
+                expansionsBefore = state.getExpansions();
+                statistics.changedCells += state.update(board, startCell);
+                statistics.repairs++;
+            }
+            int[] cells = state.plan();
+            statistics.expansions += state.getExpansions() - expansionsBefore;
+            statistics.nanos += System.nanoTime() - start;
+
+            if (compareWithAStar) {
+                compare(board, startCell, goalCell, state.getCost());
+            }
+            if (cells == null) {
+                return UnitTargetPathFinderImpl.createSimplePath(startX, startY, targetX, targetY);
+            }
+            return CompactPath.fromCells(board, cells, state.getCost());
+        } finally {
+            metrics.record(BattleMetrics.Phase.PATHFINDING, timer);
+        }
+    }
+
+    /**
+     * Забывает состояния пар с этим юнитом, например, после его гибели
+     */
+    public void forget(Unit unit) {
+        states.keySet().removeIf(pair -> pair.attacker == unit || pair.target == unit);
+    }
+
+    /**
+     * Забывает все состояния, например, перед новым боем
+     */
+    public void clear() {
+        states.clear();
+    }
+
+    public int getStateCount() {
+        return states.size();
+    }
+
+    private void compare(BoardSnapshot board, int startCell, int goalCell, int cost) {
+        long start = System.nanoTime();
+        AStarSearch search = AStarSearch.forCurrentThread(board.getCellCount());
+        boolean found = search.search(board, startCell, goalCell);
+        statistics.aStarNanos += System.nanoTime() - start;
+        statistics.aStarExpansions += search.getLastExpansions();
+        if ((found ? search.getLastCost() : -1) != cost) {
+            statistics.mismatches++;
+        }
+    }
+
+    /**
+     * Цена поиска: сколько раз состояние создавалось и исправлялось,
+     * сколько вершин раскрыто и сколько времени заняло, и то же для A*,
+     * если включено сравнение
+     */
+    public static final class Statistics {
+        private long restarts;
+        private long repairs;
+        private long changedCells;
+        private long expansions;
+        private long nanos;
+        private long fullSearches;
+        private long aStarExpansions;
+        private long aStarNanos;
+        private long mismatches;
+
+        /**
+         * Запросы, для которых поиск начинался с нуля
+         */
+        public long getRestarts() {
+            return restarts;
+        }
+
+        /**
+         * Запросы, для которых исправлялся сохранённый поиск
+         */
+        public long getRepairs() {
+            return repairs;
+        }
+
+        /**
+         * Сколько клеток сменили занятость, суммарно по исправлениям
+         */
+        public long getChangedCells() {
+            return changedCells;
+        }
+
+        public long getExpansions() {
+            return expansions;
+        }
+
+        /**
+         * Время D* Lite вместе с поиском изменений занятости
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Запросы, ушедшие в обычный A* на полях с чанками
+         */
+        public long getFullSearches() {
+            return fullSearches;
+        }
+
+        public long getAStarExpansions() {
+            return aStarExpansions;
+        }
+
+        public long getAStarNanos() {
+            return aStarNanos;
+        }
+
+        /**
+         * Запросы, где стоимость пути D* Lite и A* разошлась
+         */
+        public long getMismatches() {
+            return mismatches;
+        }
+
+        public long getSearches() {
+            return restarts + repairs;
+        }
+
+        @Override
+        public String toString() {
+            long searches = Math.max(1, getSearches());
+            return String.format(Locale.ROOT,
+                    "Statistics{searches=%d, restarts=%d, repairs=%d, changedCells/repair=%.1f,"
+                            + " expansions/search=%.1f (A* %.1f), us/search=%.2f (A* %.2f), mismatches=%d}",
+                    getSearches(), restarts, repairs, changedCells / (double) Math.max(1, repairs),
+                    expansions / (double) searches, aStarExpansions / (double) searches,
+                    nanos / 1e3 / searches, aStarNanos / 1e3 / searches, mismatches);
+        }
+    }
+
+    /**
+     * Пара юнитов, сравниваемая по ссылкам
+     */
+    private static final class Pair {
+        private final Unit attacker;
+        private final Unit target;
+
+        Pair(Unit attacker, Unit target) {
+            this.attacker = attacker;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Pair)) {
+                return false;
+            }
+            Pair other = (Pair) o;
+            return attacker == other.attacker && target == other.target;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(attacker) * 31 + System.identityHashCode(target);
+        }
+    }
+}
@@ -0,0 +1,687 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+import com.battle.heroes.army.programs.SuitableForAttackUnitsFinder;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Выбор цели поиском по дереву Монте-Карло (MCTS). На каждый ход
+ * состояние боя копируется в компактную модель, и несколько потоков
+ * в пределах бюджета времени разыгрывают короткие бои без интерфейса.
+ * Каждый поток строит своё дерево (параллелизм по корню), в конце
+ * посещения ходов из корня суммируются, и выбирается самый посещаемый.
+ *
+ * Модель повторяет правила движка и программ библиотеки:
+ * <ul>
+ *     <li>лучник бьёт любого живого врага, остальные — только юнитов,
+ *     которых {@link SuitableForAttackUnitsFinder} отбирает из колонок зоны
+ *     расстановки противника, как это делают программы ближнего боя;</li>
+ *     <li>программа наносит удар базовой атакой, затем движок добавляет
+ *     свой урон с бонусом (лучник против мечника, всадник против лучника);</li>
+ *     <li>программы противника выбирают цель случайно, как в библиотеке;</li>
+ *     <li>ходы сторон чередуются, внутри стороны — по убыванию атаки.</li>
+ * </ul>
+ * Остаток текущего раунда не моделируется: розыгрыш после нашего хода
+ * начинается с раунда, в котором первым ходит противник. Позиции юнитов
+ * не меняются (программы возвращают юнита на место), поэтому поиск
+ * пути в модели не нужен: {@link UnitTargetPathFinderImpl} всегда отдаёт
+ * путь (если A* не нашёл, то прямой), и программа бьёт выбранную цель.
+ *
+ * Дерево строится без запоминания случайных исходов (open-loop): узел —
+ * последовательность наших решений, ходы противника разыгрываются заново
+ * в каждом розыгрыше. Если за бюджет не набралось ни одного розыгрыша на
+ * каждый ход из корня, селектор возвращает null, и ход делает программа.
+ *
+ * Рассчитан на стандартное поле: модель хранит всех юнитов обеих армий.
+ */
+public class MctsTargetSelector implements TargetSelector {
+    public final static long DEFAULT_BUDGET_MILLIS = 10;
+    public final static int DEFAULT_MAX_ROLLOUT_ROUNDS = 20;
+    // Константа исследования UCB1 для наград в [0, 1]
+    private static final double EXPLORATION = Math.sqrt(2);
+
+    private static final int ARCHER = 0;
+    private static final int KNIGHT = 1;
+    private static final int SWORDSMAN = 2;
+    private static final int OTHER = 3;
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final BattleScale scale;
+    private long budgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUDGET_MILLIS);
+    private int maxRolloutRounds = DEFAULT_MAX_ROLLOUT_ROUNDS;
+    private int maxRollouts; // 0 — пока не кончится бюджет
+    private final SplittableRandom seeds;
+    private SuitableForAttackUnitsFinder suitableUnitsFinder = new SuitableForAttackUnitsFinderImpl();
+
+    // Статистика решений
+    private final LongAdder decisions = new LongAdder();
+    private final LongAdder searched = new LongAdder();
+    private final LongAdder forced = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder rollouts = new LongAdder();
+    private final LongAdder decisionNanos = new LongAdder();
+
+    public MctsTargetSelector() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism(), BattleScale.STANDARD,
+                System.nanoTime());
+    }
+
+    /**
+     * @param executor    пул для розыгрышей
+     * @param parallelism сколько деревьев строить параллельно
+     * @param scale       масштаб боя: по нему определяются передние колонки армий
+     * @param seed        зерно генератора розыгрышей
+     */
+    public MctsTargetSelector(ExecutorService executor, int parallelism, BattleScale scale, long seed) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Число потоков должно быть положительным: " + parallelism);
+        }
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.parallelism = parallelism;
+        this.scale = Objects.requireNonNull(scale, "scale");
+        this.seeds = new SplittableRandom(seed);
+    }
+
+    /**
+     * Устанавливает поиск атакуемых юнитов, которым пользуются программы
+     * ближнего боя (по умолчанию {@link SuitableForAttackUnitsFinderImpl})
+     *
+     * @param suitableUnitsFinder поиск атакуемых юнитов
+     */
+    public void setSuitableUnitsFinder(SuitableForAttackUnitsFinder suitableUnitsFinder) {
+        this.suitableUnitsFinder = Objects.requireNonNull(suitableUnitsFinder, "suitableUnitsFinder");
+    }
+
+    /**
+     * Устанавливает бюджет времени на один ход
+     *
+     * @param budgetMillis миллисекунды на ход
+     */
+    public void setBudgetMillis(long budgetMillis) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException("Бюджет должен быть положительным: " + budgetMillis);
+        }
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * Ограничивает длину одного розыгрыша
+     *
+     * @param maxRolloutRounds раундов на розыгрыш
+     */
+    public void setMaxRolloutRounds(int maxRolloutRounds) {
+        if (maxRolloutRounds <= 0) {
+            throw new IllegalArgumentException("Число раундов должно быть положительным: " + maxRolloutRounds);
+        }
+        this.maxRolloutRounds = maxRolloutRounds;
+    }
+
+    /**
+     * Ограничивает число розыгрышей на ход (для воспроизводимых замеров);
+     * 0 — разыгрывать, пока не кончится бюджет времени.
+     *
+     * @param maxRollouts розыгрышей на ход
+     */
+    public void setMaxRollouts(int maxRollouts) {
+        if (maxRollouts < 0) {
+            throw new IllegalArgumentException("Число розыгрышей не может быть отрицательным: " + maxRollouts);
+        }
+        this.maxRollouts = maxRollouts;
+    }
+
+    @Override
+    public Unit selectTarget(Unit attacker, List<Unit> allies, List<Unit> enemies) {
+        long start = System.nanoTime();
+        decisions.increment();
+        try {
+            BattleModel model = new BattleModel(attacker, allies, enemies, scale, suitableUnitsFinder);
+            int[] legal = model.legalTargets(model.root, model.alive);
+            if (legal.length == 0) {
+                fallbacks.increment();
+                return null;
+            }
+            if (legal.length == 1) {
+                forced.increment();
+                return model.units[legal[0]];
+            }
+
+            int best = search(model, legal, start + budgetNanos);
+            if (best < 0) {
+                fallbacks.increment();
+                return null;
+            }
+            searched.increment();
+            return model.units[best];
+        } finally {
+            decisionNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Строит деревья в нескольких потоках и выбирает ход из корня
+     *
+     * @return индекс цели в модели или -1, если розыгрышей не хватило
+     */
+    private int search(BattleModel model, int[] legal, long deadline) {
+        AtomicInteger remaining = new AtomicInteger(maxRollouts > 0 ? maxRollouts : Integer.MAX_VALUE);
+        List<Future<RootStatistics>> futures = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            futures.add(executor.submit(new Worker(model, legal, deadline, remaining, maxRolloutRounds,
+                    seeds.split())));
+        }
+
+        long[] visits = new long[model.units.length];
+        double[] values = new double[model.units.length];
+        for (Future<RootStatistics> future : futures) {
+            try {
+                // Запас на случай, если поток начал розыгрыш перед самым дедлайном
+                long wait = Math.max(0, deadline - System.nanoTime()) + budgetNanos;
+                RootStatistics statistics = future.get(wait, TimeUnit.NANOSECONDS);
+                for (int target : legal) {
+                    visits[target] += statistics.visits[target];
+                    values[target] += statistics.values[target];
+                }
+                rollouts.add(statistics.rollouts);
+            } catch (TimeoutException | ExecutionException e) {
+                future.cancel(true);
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int best = -1;
+        for (int target : legal) {
+            if (visits[target] == 0) {
+                return -1;
+            }
+            if (best < 0 || visits[target] > visits[best]
+                    || visits[target] == visits[best] && values[target] / visits[target] > values[best] / visits[best]) {
+                best = target;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Снимок статистики решений
+     */
+    public Statistics getStatistics() {
+        return new Statistics(decisions.sum(), searched.sum(), forced.sum(), fallbacks.sum(), rollouts.sum(),
+                decisionNanos.sum());
+    }
+
+    public void resetStatistics() {
+        decisions.reset();
+        searched.reset();
+        forced.reset();
+        fallbacks.reset();
+        rollouts.reset();
+        decisionNanos.reset();
+    }
+
+    /**
+     * Компактная модель боя на момент решения: все юниты обеих армий
+     * в массивах, наша сторона — 0, противник — 1.
+     */
+    static final class BattleModel {
+        final Unit[] units;
+        final int root; // индекс атакующего
+        final int[] side;
+        final int[] type;
+        final int[] attack;
+        final int[] bonusAttack;
+        final int[] health;
+        final boolean[] alive;
+        // По убыванию атаки, как сортирует движок
+        final int[][] order = new int[2][];
+        // Кого могут атаковать бойцы ближнего боя стороны s: отбор finder из армии 1 - s
+        final int[][] meleeTargets = new int[2][];
+        final int[] initialHealth = new int[2];
+
+        BattleModel(Unit attacker, List<Unit> allies, List<Unit> enemies, BattleScale scale,
+                SuitableForAttackUnitsFinder finder) {
+            int n = allies.size() + enemies.size();
+            units = new Unit[n];
+            side = new int[n];
+            type = new int[n];
+            attack = new int[n];
+            bonusAttack = new int[n];
+            health = new int[n];
+            alive = new boolean[n];
+
+            int rootIndex = -1;
+            long[] sumX = new long[2];
+            for (int i = 0; i < n; i++) {
+                boolean ally = i < allies.size();
+                Unit unit = ally ? allies.get(i) : enemies.get(i - allies.size());
+                units[i] = unit;
+                side[i] = ally ? 0 : 1;
+                type[i] = typeOf(unit.getUnitType());
+                attack[i] = unit.getBaseAttack();
+                bonusAttack[i] = (int) (unit.getBaseAttack() * 1.5);
+                health[i] = unit.getHealth();
+                alive[i] = unit.isAlive();
+                sumX[side[i]] += unit.getxCoordinate();
+                if (alive[i]) {
+                    initialHealth[side[i]] += health[i];
+                }
+                if (unit == attacker) {
+                    rootIndex = i;
+                }
+            }
+            if (rootIndex < 0) {
+                throw new IllegalArgumentException("Атакующий не входит в свою армию: " + attacker.getName());
+            }
+            root = rootIndex;
+
+            // Левая армия — та, что в среднем ближе к x = 0
+            boolean alliesLeft = sumX[0] * enemies.size() <= sumX[1] * allies.size();
+            Map<Unit, Integer> indices = new IdentityHashMap<>(n);
+            for (int i = 0; i < n; i++) {
+                indices.put(units[i], i);
+            }
+            meleeTargets[0] = frontUnits(finder, enemies, !alliesLeft, scale, indices);
+            meleeTargets[1] = frontUnits(finder, allies, alliesLeft, scale, indices);
+            for (int s = 0; s < 2; s++) {
+                order[s] = sortedByAttack(s);
+            }
+        }
+
+        /**
+         * Индексы юнитов, которых finder отбирает из армии targets,
+         * как в программах ближнего боя библиотеки
+         */
+        private static int[] frontUnits(SuitableForAttackUnitsFinder finder, List<Unit> targets, boolean left,
+                BattleScale scale, Map<Unit, Integer> indices) {
+            List<Unit> front = SuitableForAttackUnitsFinderImpl.getFrontUnits(finder, targets, left, scale);
+            int[] result = new int[front.size()];
+            int count = 0;
+            for (Unit unit : front) {
+                Integer index = indices.get(unit);
+                if (index != null) {
+                    result[count++] = index;
+                }
+            }
+            // Порядок отбора не важен для модели, а повторы исказили бы случайный выбор
+            return Arrays.stream(result, 0, count).distinct().sorted().toArray();
+        }
+
+        private int[] sortedByAttack(int s) {
+            List<Integer> indices = new ArrayList<>();
+            for (int i = 0; i < units.length; i++) {
+                if (side[i] == s) {
+                    indices.add(i);
+                }
+            }
+            indices.sort((a, b) -> Integer.compare(attack[b], attack[a]));
+            int[] result = new int[indices.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = indices.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * Живые цели, которые юнит может выбрать при текущем состоянии
+         */
+        int[] legalTargets(int unit, boolean[] aliveNow) {
+            int[] candidates = type[unit] == ARCHER ? order[1 - side[unit]] : meleeTargets[side[unit]];
+            int[] result = new int[candidates.length];
+            int count = 0;
+            for (int target : candidates) {
+                if (aliveNow[target]) {
+                    result[count++] = target;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        /**
+         * Урон движка после удара программы (см. SimulateBattleImpl.calculateEffectiveDamage)
+         */
+        int engineDamage(int attacker, int target) {
+            boolean advantage = type[attacker] == ARCHER && type[target] == SWORDSMAN
+                    || type[attacker] == KNIGHT && type[target] == ARCHER;
+            return Math.max(1, advantage ? bonusAttack[attacker] : attack[attacker]);
+        }
+
+        private static int typeOf(String unitType) {
+            if (unitType == null) {
+                return OTHER;
+            }
+            if (unitType.contains("Лучник")) {
+                return ARCHER;
+            }
+            if (unitType.contains("Всадник")) {
+                return KNIGHT;
+            }
+            if (unitType.contains("Мечник")) {
+                return SWORDSMAN;
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * Узел дерева: наше решение и статистика розыгрышей через него
+     */
+    private static final class Node {
+        private Node[] children;
+        private int visits;
+        private double value;
+    }
+
+    /**
+     * Статистика корня одного потока
+     */
+    private static final class RootStatistics {
+        private final long[] visits;
+        private final double[] values;
+        private final long rollouts;
+
+        RootStatistics(long[] visits, double[] values, long rollouts) {
+            this.visits = visits;
+            this.values = values;
+            this.rollouts = rollouts;
+        }
+    }
+
+    /**
+     * Один поток поиска: своё дерево, свои массивы состояния, свой генератор
+     */
+    private static final class Worker implements Callable<RootStatistics> {
+        private final BattleModel model;
+        private final int[] legal;
+        private final long deadline;
+        private final AtomicInteger remaining;
+        private final int maxRounds;
+        private final SplittableRandom random;
+
+        private final int[] health;
+        private final boolean[] alive;
+        private final int[] aliveCount = new int[2];
+        // Живые юниты сторон в порядке ходов текущего раунда
+        private final int[][] roundOrder = new int[2][];
+        private final int[] roundSize = new int[2];
+        private final int[] roundIndex = new int[2];
+        private final Node[] path;
+        private final int[] buffer;
+
+        Worker(BattleModel model, int[] legal, long deadline, AtomicInteger remaining, int maxRounds,
+                SplittableRandom random) {
+            this.model = model;
+            this.legal = legal;
+            this.deadline = deadline;
+            this.remaining = remaining;
+            this.maxRounds = maxRounds;
+            this.random = random;
+            int n = model.units.length;
+            this.health = new int[n];
+            this.alive = new boolean[n];
+            this.roundOrder[0] = new int[model.order[0].length];
+            this.roundOrder[1] = new int[model.order[1].length];
+            // Корень, ход из корня и не больше одного нашего решения на ход в каждом раунде
+            this.path = new Node[maxRounds * model.order[0].length + 2];
+            this.buffer = new int[n];
+        }
+
+        @Override
+        public RootStatistics call() {
+            Node root = new Node();
+            long count = 0;
+            while (System.nanoTime() < deadline && remaining.getAndDecrement() > 0
+                    && !Thread.currentThread().isInterrupted()) {
+                rollout(root);
+                count++;
+            }
+
+            long[] visits = new long[model.units.length];
+            double[] values = new double[model.units.length];
+            for (int target : legal) {
+                Node child = root.children == null ? null : root.children[target];
+                if (child != null) {
+                    visits[target] = child.visits;
+                    values[target] = child.value;
+                }
+            }
+            return new RootStatistics(visits, values, count);
+        }
+
+        /**
+         * Один розыгрыш: спуск по дереву, расширение, случайная доигровка, обновление
+         */
+        private void rollout(Node root) {
+            System.arraycopy(model.health, 0, health, 0, health.length);
+            System.arraycopy(model.alive, 0, alive, 0, alive.length);
+            aliveCount[0] = 0;
+            aliveCount[1] = 0;
+            for (int i = 0; i < alive.length; i++) {
+                if (alive[i]) {
+                    aliveCount[model.side[i]]++;
+                }
+            }
+
+            int depth = 0;
+            path[depth++] = root;
+
+            // Ход из корня: атакующий и его допустимые цели известны заранее
+            Node node = root;
+            int target = choose(node, legal);
+            node = node.children[target];
+            path[depth++] = node;
+            boolean inTree = node.visits > 0;
+            strike(model.root, target);
+
+            // Сначала отвечает противник, дальше раунды чередуют первый ход
+            int first = 1;
+            for (int round = 0; round < maxRounds && isFighting(); round++) {
+                fillRoundOrder(0);
+                fillRoundOrder(1);
+                int turn = first;
+                int maxMoves = Math.max(roundSize[0], roundSize[1]) * 2;
+                for (int move = 0; move < maxMoves && isFighting(); move++) {
+                    while (roundIndex[turn] < roundSize[turn] && !alive[roundOrder[turn][roundIndex[turn]]]) {
+                        roundIndex[turn]++;
+                    }
+                    if (roundIndex[turn] < roundSize[turn]) {
+                        int attacker = roundOrder[turn][roundIndex[turn]++];
+                        if (turn == 0 && inTree) {
+                            int[] targets = model.legalTargets(attacker, alive);
+                            if (targets.length > 0) {
+                                target = choose(node, targets);
+                                node = node.children[target];
+                                path[depth++] = node;
+                                inTree = node.visits > 0;
+                                strike(attacker, target);
+                            }
+                        } else {
+                            strike(attacker, randomTarget(attacker));
+                        }
+                    }
+                    turn = 1 - turn;
+                }
+                first = 1 - first;
+            }
+
+            double reward = reward();
+            for (int i = 0; i < depth; i++) {
+                path[i].visits++;
+                path[i].value += reward;
+            }
+        }
+
+        private boolean isFighting() {
+            return aliveCount[0] > 0 && aliveCount[1] > 0;
+        }
+
+        /**
+         * Непосещённый ход, если есть, иначе лучший по UCB1. Создаёт узел хода,
+         * если его ещё нет.
+         *
+         * @return индекс цели в модели
+         */
+        private int choose(Node parent, int[] targets) {
+            if (parent.children == null) {
+                parent.children = new Node[model.units.length];
+            }
+            int untried = 0;
+            for (int target : targets) {
+                if (parent.children[target] == null || parent.children[target].visits == 0) {
+                    buffer[untried++] = target;
+                }
+            }
+            if (untried > 0) {
+                int target = buffer[random.nextInt(untried)];
+                if (parent.children[target] == null) {
+                    parent.children[target] = new Node();
+                }
+                return target;
+            }
+
+            double logVisits = Math.log(Math.max(1, parent.visits));
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int target : targets) {
+                Node child = parent.children[target];
+                double score = child.value / child.visits + EXPLORATION * Math.sqrt(logVisits / child.visits);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = target;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Цель, которую выбрала бы программа библиотеки: лучник — случайный живой
+         * враг, остальные — случайный юнит передних колонок, даже погибший
+         */
+        private int randomTarget(int attacker) {
+            if (model.type[attacker] == ARCHER) {
+                int count = 0;
+                for (int enemy : model.order[1 - model.side[attacker]]) {
+                    if (alive[enemy]) {
+                        buffer[count++] = enemy;
+                    }
+                }
+                return count == 0 ? -1 : buffer[random.nextInt(count)];
+            }
+            int[] front = model.meleeTargets[model.side[attacker]];
+            return front.length == 0 ? -1 : front[random.nextInt(front.length)];
+        }
+
+        /**
+         * Удар программы и урон движка, как в SimulateBattleImpl.executeSingleAttack
+         */
+        private void strike(int attacker, int target) {
+            if (target < 0 || !alive[target]) {
+                return;
+            }
+            health[target] -= model.attack[attacker];
+            if (health[target] > 0) {
+                health[target] = Math.max(0, health[target] - model.engineDamage(attacker, target));
+            }
+            if (health[target] <= 0) {
+                alive[target] = false;
+                aliveCount[model.side[target]]--;
+            }
+        }
+
+        private void fillRoundOrder(int s) {
+            int count = 0;
+            for (int unit : model.order[s]) {
+                if (alive[unit]) {
+                    roundOrder[s][count++] = unit;
+                }
+            }
+            roundSize[s] = count;
+            roundIndex[s] = 0;
+        }
+
+        /**
+         * Награда в [0, 1]: 0,5 плюс половина разницы долей оставшегося здоровья
+         */
+        private double reward() {
+            long[] remainingHealth = new long[2];
+            for (int i = 0; i < health.length; i++) {
+                if (alive[i]) {
+                    remainingHealth[model.side[i]] += health[i];
+                }
+            }
+            double ours = model.initialHealth[0] == 0 ? 0 : remainingHealth[0] / (double) model.initialHealth[0];
+            double theirs = model.initialHealth[1] == 0 ? 0 : remainingHealth[1] / (double) model.initialHealth[1];
+            return 0.5 + 0.5 * (ours - theirs);
+        }
+    }
+
+    /**
+     * Статистика решений селектора
+     */
+    public static final class Statistics {
+        private final long decisions;
+        private final long searched;
+        private final long forced;
+        private final long fallbacks;
+        private final long rollouts;
+        private final long decisionNanos;
+
+        Statistics(long decisions, long searched, long forced, long fallbacks, long rollouts, long decisionNanos) {
+            this.decisions = decisions;
+            this.searched = searched;
+            this.forced = forced;
+            this.fallbacks = fallbacks;
+            this.rollouts = rollouts;
+            this.decisionNanos = decisionNanos;
+        }
+
+        public long getDecisions() {
+            return decisions;
+        }
+
+        /**
+         * Ходы, выбранные поиском
+         */
+        public long getSearched() {
+            return searched;
+        }
+
+        /**
+         * Ходы с единственной допустимой целью — без поиска
+         */
+        public long getForced() {
+            return forced;
+        }
+
+        /**
+         * Ходы, отданные программе юнита: нет целей или не хватило времени
+         */
+        public long getFallbacks() {
+            return fallbacks;
+        }
+
+        public long getRollouts() {
+            return rollouts;
+        }
+
+        public double getMillisPerDecision() {
+            return decisions == 0 ? 0 : decisionNanos / 1e6 / decisions;
+        }
+
+        public double getRolloutsPerSearch() {
+            return searched == 0 ? 0 : rollouts / (double) searched;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "decisions=%d searched=%d forced=%d fallbacks=%d rollouts/search=%.0f ms/decision=%.2f",
+                    decisions, searched, forced, fallbacks, getRolloutsPerSearch(), getMillisPerDecision());
+        }
+    }
+}
@@ -0,0 +1,618 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Хранилище решённых таблиц оптимального состава армии для
+ * {@link GeneratePresetImpl}. Таблица решается один раз на набор шаблонов
+ * и лимит юнитов одного типа и отвечает на любой бюджет не больше того,
+ * для которого решена, без повторного динамического программирования.
+ *
+ * <pre>
+ * заголовок  magic:int  version:int  tableCount:int  reserved:int
+ * таблица    fingerprint:long  cap:int  typeCount:int  maxBudget:int  pointCount:int
+ *            typeCount × (cost:int  attack:int  health:int)
+ *            pointCount × (budget:int  typeCount × count:int)
+ * </pre>
+ *
+ * Точки таблицы идут по возрастанию бюджета: ответ для бюджета b — состав
+ * последней точки с budget ≤ b. При открытии файл отображается в память,
+ * и читаются только заголовки таблиц; ответы берутся прямо из отображения
+ * двоичным поиском.
+ *
+ * Отпечаток считается по стоимости, атаке и здоровью шаблонов в их порядке
+ * (имена на ответ не влияют) и по лимиту. Если шаблоны изменились, отпечаток
+ * не совпадёт, таблица будет решена заново и попадёт в файл при следующем
+ * {@link #save()}. Файл другой версии или повреждённый файл не мешают работе:
+ * хранилище начинает с пустого набора и заменит его при сохранении.
+ *
+ * Отображённый файл нельзя заменять на месте: в Java нет способа снять
+ * отображение явно, оно живёт, пока буфер не соберёт сборщик мусора, а
+ * Windows не даёт ни переместить что-либо поверх отображённого файла, ни
+ * удалить его. Поэтому файл хранится поколениями: path — поколение 0,
+ * path.1, path.2, ... — следующие. {@link #save()} пишет новое поколение
+ * под новым именем, переключается на него и удаляет старые. Если старое
+ * поколение ещё отображено (на Windows), удалить его не выйдет, и оно
+ * останется на диске до следующего сохранения или открытия. Открытие
+ * берёт новейшее поколение, которое удалось прочитать. Старые поколения
+ * удаляются при открытии, только если прочитано самое новое; иначе все
+ * файлы остаются до следующего сохранения, которое пишет поколение
+ * с номером больше любого на диске.
+ *
+ * Экземпляр потокобезопасен.
+ */
+public final class PresetTableStore {
+    public final static int MAGIC = 0x48505354; // "HPST"
+    public final static int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int TABLE_HEADER_SIZE = 24;
+
+    private final Path path;
+    // Поколение файла, отображённое сейчас; следующее сохранение пишет generation + 1
+    private volatile int generation;
+    // Таблицы из файла: ключ → смещение заголовка таблицы в отображении
+    private volatile Mapped mapped;
+    // Таблицы, решённые после открытия файла
+    private final Map<Key, Table> solved = new ConcurrentHashMap<>();
+    private volatile int minTableBudget;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder mappedHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder solveNanos = new LongAdder();
+
+    private PresetTableStore(Path path, int generation, Mapped mapped) {
+        this.path = path;
+        this.generation = generation;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Хранилище без файла: таблицы живут, пока живёт процесс
+     */
+    public static PresetTableStore inMemory() {
+        return new PresetTableStore(null, 0, Mapped.EMPTY);
+    }
+
+    /**
+     * Открывает хранилище, привязанное к файлу. Отсутствующий, старый или
+     * повреждённый файл даёт пустое хранилище, которое создаст файл заново
+     * при {@link #save()}.
+     *
+     * @throws IOException если файл есть, но прочитать его не удалось
+     */
+    public static PresetTableStore open(Path path) throws IOException {
+        Objects.requireNonNull(path, "path");
+        List<Integer> generations = generationsOnDisk(path);
+        generations.add(0);
+        generations.sort(Collections.reverseOrder());
+        for (int i = 0; i < generations.size(); i++) {
+            int generation = generations.get(i);
+            Mapped mapped = map(generationFile(path, generation));
+            if (mapped == null) {
+                continue;
+            }
+            PresetTableStore store = new PresetTableStore(path, generation, mapped);
+            if (i == 0) {
+                store.deleteOlderGenerations();
+            } else if (Trace.isEnabled(Trace.Component.PRESET, Trace.Level.WARN)) {
+                Trace.log(Trace.Component.PRESET, Trace.Level.WARN, "Новейшее поколение таблиц "
+                        + generations.get(0) + " не прочитано, открыто поколение " + generation);
+            }
+            return store;
+        }
+        return new PresetTableStore(path, 0, Mapped.EMPTY);
+    }
+
+    /**
+     * Задаёт минимальный бюджет, на который решаются новые таблицы:
+     * таблица, решённая на больший бюджет, отвечает и на все меньшие.
+     *
+     * @param minTableBudget бюджет в очках; 0 — решать ровно на запрошенный
+     */
+    public void setMinTableBudget(int minTableBudget) {
+        if (minTableBudget < 0) {
+            throw new IllegalArgumentException("Бюджет не может быть отрицательным: " + minTableBudget);
+        }
+        this.minTableBudget = minTableBudget;
+    }
+
+    /**
+     * Оптимальный состав армии по типам шаблонов
+     *
+     * @param templates шаблоны юнитов
+     * @param cap       лимит юнитов одного типа
+     * @param budget    бюджет в очках
+     * @param solver    решатель на случай промаха
+     */
+    int[] lookup(List<Unit> templates, int cap, int budget, Solver solver) {
+        int[] costs = new int[templates.size()];
+        int[] attacks = new int[templates.size()];
+        int[] healths = new int[templates.size()];
+        for (int i = 0; i < templates.size(); i++) {
+            costs[i] = templates.get(i).getCost();
+            attacks[i] = templates.get(i).getBaseAttack();
+            healths[i] = templates.get(i).getHealth();
+        }
+        Key key = new Key(fingerprint(costs, attacks, healths, cap), cap);
+
+        Table table = solved.get(key);
+        if (table != null && table.matches(costs, attacks, healths) && table.maxBudget >= budget) {
+            memoryHits.increment();
+            return table.countsFor(budget);
+        }
+
+        Mapped current = mapped;
+        Integer offset = current.offsets.get(key);
+        if (offset != null && current.matches(offset, costs, attacks, healths) && current.maxBudget(offset) >= budget) {
+            mappedHits.increment();
+            return current.countsFor(offset, budget);
+        }
+
+        misses.increment();
+        long start = System.nanoTime();
+        table = solver.solve(templates, Math.max(budget, minTableBudget));
+        solveNanos.add(System.nanoTime() - start);
+        solved.merge(key, table, (old, fresh) -> fresh.maxBudget >= old.maxBudget ? fresh : old);
+        return table.countsFor(budget);
+    }
+
+    /**
+     * Есть ли таблицы, которых ещё нет в файле
+     */
+    public boolean isDirty() {
+        return !solved.isEmpty();
+    }
+
+    /**
+     * Записывает все таблицы (из файла и решённые) в файл следующего
+     * поколения, отображает его в память и удаляет старые поколения.
+     * Файл, отображённый сейчас, не перезаписывается и не перемещается.
+     *
+     * @throws IOException если записать файл не удалось
+     */
+    public synchronized void save() throws IOException {
+        if (path == null) {
+            throw new IllegalStateException("Хранилище не привязано к файлу");
+        }
+        if (!isDirty()) {
+            return;
+        }
+
+        Mapped current = mapped;
+        Map<Key, Table> pending = new HashMap<>(solved);
+        Map<Key, Table> snapshot = new HashMap<>(pending);
+        List<ByteBuffer> tables = new ArrayList<>();
+        for (Map.Entry<Key, Integer> entry : current.offsets.entrySet()) {
+            Table replacement = snapshot.get(entry.getKey());
+            if (replacement == null || replacement.maxBudget < current.maxBudget(entry.getValue())) {
+                tables.add(current.slice(entry.getValue()));
+                snapshot.remove(entry.getKey());
+            }
+        }
+        for (Map.Entry<Key, Table> entry : snapshot.entrySet()) {
+            tables.add(entry.getValue().encode(entry.getKey().fingerprint));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(tables.size()).putInt(0).flip();
+
+        Path directory = path.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        // Новое имя: поверх отображённого файла перемещать нельзя (Windows),
+        // а непрочитанное новейшее поколение могло остаться на диске
+        int next = Math.max(generation, latestGeneration(path)) + 1;
+        Path target = generationFile(path, next);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                for (ByteBuffer table : tables) {
+                    writeFully(channel, table);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        Mapped written = map(target);
+        if (written == null) {
+            throw new IOException("Записанный файл таблиц не читается: " + target);
+        }
+        mapped = written;
+        generation = next;
+        deleteOlderGenerations();
+        // Снимаем только сохранённые решения: таблица, решённая во время записи, останется в памяти
+        for (Map.Entry<Key, Table> entry : pending.entrySet()) {
+            solved.remove(entry.getKey(), entry.getValue());
+        }
+        if (Trace.isEnabled(Trace.Component.PRESET, Trace.Level.INFO)) {
+            Trace.log(Trace.Component.PRESET, Trace.Level.INFO,
+                    "Сохранено таблиц составов армии: " + tables.size() + " в " + target);
+        }
+    }
+
+    /**
+     * Путь к файлу текущего поколения или null для хранилища без файла
+     */
+    public Path getCurrentFile() {
+        return path == null ? null : generationFile(path, generation);
+    }
+
+    /**
+     * Файл поколения: path для 0, path.N для остальных
+     */
+    static Path generationFile(Path path, int generation) {
+        return generation == 0 ? path : path.resolveSibling(path.getFileName() + "." + generation);
+    }
+
+    /**
+     * Номер последнего поколения на диске, 0 если поколений нет
+     */
+    private static int latestGeneration(Path path) throws IOException {
+        int latest = 0;
+        for (int found : generationsOnDisk(path)) {
+            latest = Math.max(latest, found);
+        }
+        return latest;
+    }
+
+    /**
+     * Номера поколений 1, 2, ... из каталога файла (поколение 0 не ищется)
+     */
+    private static List<Integer> generationsOnDisk(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        List<Integer> generations = new ArrayList<>();
+        if (directory == null || !Files.isDirectory(directory)) {
+            return generations;
+        }
+        String prefix = path.getFileName() + ".";
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.length() > prefix.length() && name.length() <= prefix.length() + 9
+                        && name.startsWith(prefix) && isDigits(name, prefix.length())) {
+                    generations.add(Integer.parseInt(name.substring(prefix.length())));
+                }
+            }
+        }
+        return generations;
+    }
+
+    private static boolean isDigits(String name, int from) {
+        for (int i = from; i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Удаляет поколения старше текущего. Файл, который ещё отображён
+     * (на Windows), удалить нельзя: он останется до следующей попытки.
+     */
+    private void deleteOlderGenerations() throws IOException {
+        List<Integer> older = generationsOnDisk(path);
+        if (generation > 0) {
+            older.add(0);
+        }
+        for (int old : older) {
+            if (old >= generation) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(generationFile(path, old));
+            } catch (IOException e) {
+                Trace.log(Trace.Component.PRESET, Trace.Level.DEBUG,
+                        "Старое поколение таблиц пока не удалено: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Сколько таблиц доступно без решения: из файла и решённых в памяти
+     */
+    public int getTableCount() {
+        Set<Key> keys = new HashSet<>(mapped.offsets.keySet());
+        keys.addAll(solved.keySet());
+        return keys.size();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    public long getMappedHits() {
+        return mappedHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getSolveNanos() {
+        return solveNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "PresetTableStore{tables=%d, mappedHits=%d, memoryHits=%d, misses=%d, solve=%.1fms}",
+                getTableCount(), getMappedHits(), getMemoryHits(), getMisses(), getSolveNanos() / 1e6);
+    }
+
+    /**
+     * Отпечаток шаблонов и лимита: FNV-1a по характеристикам, влияющим на ответ
+     */
+    static long fingerprint(int[] costs, int[] attacks, int[] healths, int cap) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, cap);
+        hash = mix(hash, costs.length);
+        for (int i = 0; i < costs.length; i++) {
+            hash = mix(hash, costs[i]);
+            hash = mix(hash, attacks[i]);
+            hash = mix(hash, healths[i]);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash ^= (value >>> shift) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Отображает файл таблиц и читает заголовки
+     *
+     * @return таблицы файла или null, если файла нет или он не прочитался
+     */
+    private static Mapped map(Path path) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        // Отображение остаётся действительным и после закрытия канала
+        try (FileChannel opened = channel) {
+            long size = opened.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Файл таблиц больше 2 ГБ: " + path);
+            }
+            MappedByteBuffer buffer = opened.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                return Mapped.read(buffer);
+            } catch (IOException e) {
+                Trace.log(Trace.Component.PRESET, Trace.Level.WARN,
+                        "Файл таблиц составов армии " + path + " не прочитан: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Решатель таблицы на бюджет maxBudget
+     */
+    interface Solver {
+        Table solve(List<Unit> templates, int maxBudget);
+    }
+
+    /**
+     * Ключ таблицы: отпечаток шаблонов и лимит
+     */
+    private static final class Key {
+        private final long fingerprint;
+        private final int cap;
+
+        Key(long fingerprint, int cap) {
+            this.fingerprint = fingerprint;
+            this.cap = cap;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return fingerprint == other.fingerprint && cap == other.cap;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(fingerprint) * 31 + cap;
+        }
+    }
+
+    /**
+     * Таблицы файла, отображённого в память
+     */
+    private static final class Mapped {
+        static final Mapped EMPTY = new Mapped(ByteBuffer.allocate(0), Collections.emptyMap());
+
+        private final ByteBuffer buffer;
+        private final Map<Key, Integer> offsets;
+
+        private Mapped(ByteBuffer buffer, Map<Key, Integer> offsets) {
+            this.buffer = buffer;
+            this.offsets = offsets;
+        }
+
+        static Mapped read(ByteBuffer buffer) throws IOException {
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("файл не является файлом таблиц");
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("неподдерживаемая версия " + version);
+            }
+            int tableCount = buffer.getInt(8);
+            Map<Key, Integer> offsets = new HashMap<>();
+            long offset = HEADER_SIZE;
+            for (int i = 0; i < tableCount; i++) {
+                if (offset + TABLE_HEADER_SIZE > buffer.limit()) {
+                    throw new IOException("обрезан заголовок таблицы " + i);
+                }
+                int position = (int) offset;
+                int typeCount = buffer.getInt(position + 12);
+                int pointCount = buffer.getInt(position + 20);
+                if (typeCount < 0 || pointCount <= 0) {
+                    throw new IOException("повреждена таблица " + i);
+                }
+                long size = tableSize(typeCount, pointCount);
+                if (offset + size > buffer.limit()) {
+                    throw new IOException("обрезана таблица " + i);
+                }
+                offsets.put(new Key(buffer.getLong(position), buffer.getInt(position + 8)), position);
+                offset += size;
+            }
+            return new Mapped(buffer, offsets);
+        }
+
+        int maxBudget(int offset) {
+            return buffer.getInt(offset + 16);
+        }
+
+        boolean matches(int offset, int[] costs, int[] attacks, int[] healths) {
+            int typeCount = buffer.getInt(offset + 12);
+            if (typeCount != costs.length) {
+                return false;
+            }
+            int position = offset + TABLE_HEADER_SIZE;
+            for (int i = 0; i < typeCount; i++, position += 12) {
+                if (buffer.getInt(position) != costs[i] || buffer.getInt(position + 4) != attacks[i]
+                        || buffer.getInt(position + 8) != healths[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Двоичный поиск последней точки с бюджетом не больше budget прямо в отображении
+         */
+        int[] countsFor(int offset, int budget) {
+            int typeCount = buffer.getInt(offset + 12);
+            int pointCount = buffer.getInt(offset + 20);
+            int points = offset + TABLE_HEADER_SIZE + typeCount * 12;
+            int pointSize = 4 + typeCount * 4;
+
+            int low = 0;
+            int high = pointCount - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (buffer.getInt(points + middle * pointSize) <= budget) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            int[] counts = new int[typeCount];
+            int position = points + low * pointSize + 4;
+            for (int i = 0; i < typeCount; i++) {
+                counts[i] = buffer.getInt(position + i * 4);
+            }
+            return counts;
+        }
+
+        ByteBuffer slice(int offset) {
+            int size = (int) tableSize(buffer.getInt(offset + 12), buffer.getInt(offset + 20));
+            ByteBuffer copy = buffer.duplicate();
+            copy.position(offset).limit(offset + size);
+            return copy.slice();
+        }
+
+        private static long tableSize(int typeCount, int pointCount) {
+            return TABLE_HEADER_SIZE + typeCount * 12L + pointCount * (4L + typeCount * 4L);
+        }
+    }
+
+    /**
+     * Решённая таблица: точки, где меняется оптимальный состав
+     */
+    static final class Table {
+        private final int[] costs;
+        private final int[] attacks;
+        private final int[] healths;
+        private final int cap;
+        private final int maxBudget;
+        private final int[] budgets;
+        private final int[][] counts;
+
+        Table(int[] costs, int[] attacks, int[] healths, int cap, int maxBudget, List<Integer> budgets,
+                List<int[]> counts) {
+            this.costs = costs.clone();
+            this.attacks = attacks.clone();
+            this.healths = healths.clone();
+            this.cap = cap;
+            this.maxBudget = maxBudget;
+            this.budgets = new int[budgets.size()];
+            for (int i = 0; i < this.budgets.length; i++) {
+                this.budgets[i] = budgets.get(i);
+            }
+            this.counts = counts.toArray(new int[0][]);
+        }
+
+        boolean matches(int[] costs, int[] attacks, int[] healths) {
+            return Arrays.equals(this.costs, costs) && Arrays.equals(this.attacks, attacks)
+                    && Arrays.equals(this.healths, healths);
+        }
+
+        int[] countsFor(int budget) {
+            int index = Arrays.binarySearch(budgets, budget);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return counts[Math.max(0, index)].clone();
+        }
+
+        ByteBuffer encode(long fingerprint) {
+            int typeCount = costs.length;
+            ByteBuffer buffer = ByteBuffer.allocate((int) Mapped.tableSize(typeCount, budgets.length));
+            buffer.putLong(fingerprint).putInt(cap).putInt(typeCount).putInt(maxBudget).putInt(budgets.length);
+            for (int i = 0; i < typeCount; i++) {
+                buffer.putInt(costs[i]).putInt(attacks[i]).putInt(healths[i]);
+            }
+            for (int i = 0; i < budgets.length; i++) {
+                buffer.putInt(budgets[i]);
+                for (int count : counts[i]) {
+                    buffer.putInt(count);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
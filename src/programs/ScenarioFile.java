@@ -0,0 +1,541 @@
+package programs;
+
+import com.battle.heroes.army.Army;
+import com.battle.heroes.army.Unit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Компактный двоичный формат расстановок армий для регрессионных прогонов.
+ *
+ * <pre>
+ * заголовок   magic:int  version:int  templateCount:int  scenarioCount:int  indexOffset:long
+ * шаблоны     templateCount × (type:str  attackType:str  health:int  attack:int  cost:int
+ *                              attackBonuses:map  defenceBonuses:map)
+ * сценарии    playerCount:int  computerCount:int  (playerCount + computerCount) × record:long
+ * индекс      scenarioCount × offset:long
+ * </pre>
+ *
+ * str — длина (short) и байты UTF-8, map — число пар (short) и пары str:double.
+ * record упаковывает юнит в 8 байт: (шаблон:16 | x:16 | y:16 | здоровье:16),
+ * сначала идут юниты игрока, затем компьютера.
+ *
+ * Файл отображается в память целиком; индекс даёт доступ к сценарию по номеру
+ * за O(1), поэтому прогон легко делить на части. {@link #read(int, BattleState)}
+ * раскладывает сценарий в переиспользуемые примитивные массивы без выделения
+ * памяти на каждую запись, {@link #loadArmy(int, Side)} собирает обычную Army.
+ */
+public final class ScenarioFile implements Closeable {
+
+    public enum Side {
+        PLAYER, COMPUTER
+    }
+
+    public final static int MAGIC = 0x4853434E; // "HSCN"
+    public final static int VERSION = 1;
+    public final static int MAX_FIELD_VALUE = 0xFFFF;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int SCENARIO_HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 8;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final List<Template> templates;
+    private final int scenarioCount;
+    private final int indexOffset;
+    private final int dataOffset; // начало сценариев, сразу за таблицей шаблонов
+
+    private ScenarioFile(FileChannel channel, ByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Файл не является файлом сценариев");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Неподдерживаемая версия файла сценариев: " + version);
+        }
+        int templateCount = buffer.getInt(8);
+        this.scenarioCount = buffer.getInt(12);
+        long index = buffer.getLong(16);
+        if (scenarioCount < 0 || index < HEADER_SIZE || index + (long) scenarioCount * 8 > buffer.limit()) {
+            throw new IOException("Повреждён индекс файла сценариев");
+        }
+        this.indexOffset = (int) index;
+
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(HEADER_SIZE);
+        List<Template> table = new ArrayList<>(templateCount);
+        for (int i = 0; i < templateCount; i++) {
+            table.add(Template.read(reader));
+        }
+        this.templates = Collections.unmodifiableList(table);
+        this.dataOffset = reader.position();
+        if (dataOffset > indexOffset) {
+            throw new IOException("Повреждена таблица шаблонов файла сценариев");
+        }
+    }
+
+    /**
+     * Отображает файл в память только для чтения
+     */
+    public static ScenarioFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Файл сценариев больше 2 ГБ, разделите его: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new ScenarioFile(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Проверяет по сигнатуре, что файл записан в этом формате
+     */
+    public static boolean isScenarioFile(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // читаем, пока не наберём 4 байта или не кончится файл
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public int getScenarioCount() {
+        return scenarioCount;
+    }
+
+    public List<Template> getTemplates() {
+        return templates;
+    }
+
+    public int getUnitCount(int scenario, Side side) {
+        int offset = scenarioOffset(scenario);
+        return buffer.getInt(side == Side.PLAYER ? offset : offset + 4);
+    }
+
+    /**
+     * Раскладывает сценарий в state. Массивы state растут только при нехватке
+     * места, поэтому при обходе файла одним state память не выделяется.
+     *
+     * @return state, заполненный сценарием scenario
+     */
+    public BattleState read(int scenario, BattleState state) {
+        int offset = scenarioOffset(scenario);
+        int playerCount = buffer.getInt(offset);
+        int computerCount = buffer.getInt(offset + 4);
+        state.reset(scenario, playerCount, computerCount);
+
+        int position = offset + SCENARIO_HEADER_SIZE;
+        int total = playerCount + computerCount;
+        for (int i = 0; i < total; i++, position += RECORD_SIZE) {
+            long record = buffer.getLong(position);
+            state.templateIds[i] = (int) (record >>> 48);
+            state.x[i] = (int) (record >>> 32) & MAX_FIELD_VALUE;
+            state.y[i] = (int) (record >>> 16) & MAX_FIELD_VALUE;
+            state.health[i] = (int) record & MAX_FIELD_VALUE;
+        }
+        return state;
+    }
+
+    /**
+     * Собирает армию одной стороны сценария. Программы юнитам не назначаются.
+     */
+    public Army loadArmy(int scenario, Side side) {
+        int offset = scenarioOffset(scenario);
+        int playerCount = buffer.getInt(offset);
+        int count = side == Side.PLAYER ? playerCount : buffer.getInt(offset + 4);
+        int position = offset + SCENARIO_HEADER_SIZE + (side == Side.PLAYER ? 0 : playerCount * RECORD_SIZE);
+
+        List<Unit> units = new ArrayList<>(count);
+        for (int i = 0; i < count; i++, position += RECORD_SIZE) {
+            long record = buffer.getLong(position);
+            Template template = templateAt((int) (record >>> 48));
+            int health = (int) record & MAX_FIELD_VALUE;
+            Unit unit = template.createUnit(i + 1, (int) (record >>> 32) & MAX_FIELD_VALUE,
+                    (int) (record >>> 16) & MAX_FIELD_VALUE, health);
+            unit.setAlive(health > 0);
+            units.add(unit);
+        }
+        return new Army(units);
+    }
+
+    /**
+     * Смещение сценария из индекса. Сценарий вместе со всеми записями
+     * юнитов должен лежать между таблицей шаблонов и индексом, иначе файл
+     * повреждён: читать его записи дальше нельзя.
+     *
+     * @throws UncheckedIOException если смещение или размер сценария выходят за свою область
+     */
+    private int scenarioOffset(int scenario) {
+        if (scenario < 0 || scenario >= scenarioCount) {
+            throw new IndexOutOfBoundsException("Сценарий " + scenario + " из " + scenarioCount);
+        }
+        long offset = buffer.getLong(indexOffset + scenario * 8);
+        if (offset < dataOffset || offset > indexOffset - SCENARIO_HEADER_SIZE) {
+            throw corrupt(scenario, "смещение " + offset);
+        }
+        int playerCount = buffer.getInt((int) offset);
+        int computerCount = buffer.getInt((int) offset + 4);
+        if (playerCount < 0 || computerCount < 0 || offset + SCENARIO_HEADER_SIZE
+                + ((long) playerCount + computerCount) * RECORD_SIZE > indexOffset) {
+            throw corrupt(scenario, "юнитов " + playerCount + " и " + computerCount);
+        }
+        return (int) offset;
+    }
+
+    private static UncheckedIOException corrupt(int scenario, String detail) {
+        return new UncheckedIOException(new IOException(
+                "Повреждён индекс файла сценариев: сценарий " + scenario + ", " + detail));
+    }
+
+    private Template templateAt(int id) {
+        if (id >= templates.size()) {
+            throw new IllegalStateException("Неизвестный шаблон юнита: " + id);
+        }
+        return templates.get(id);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Шаблон юнита: всё, что одинаково у юнитов одного типа
+     */
+    public static final class Template {
+        private final String unitType;
+        private final String attackType;
+        private final int health;
+        private final int baseAttack;
+        private final int cost;
+        private final Map<String, Double> attackBonuses;
+        private final Map<String, Double> defenceBonuses;
+
+        Template(Unit unit) {
+            this(unit.getUnitType(), unit.getAttackType() != null ? unit.getAttackType() : "", unit.getHealth(),
+                    unit.getBaseAttack(), unit.getCost(), unit.getAttackBonuses(), unit.getDefenceBonuses());
+        }
+
+        private Template(String unitType, String attackType, int health, int baseAttack, int cost,
+                Map<String, Double> attackBonuses, Map<String, Double> defenceBonuses) {
+            this.unitType = unitType;
+            this.attackType = attackType;
+            this.health = health;
+            this.baseAttack = baseAttack;
+            this.cost = cost;
+            this.attackBonuses = attackBonuses != null ? new HashMap<>(attackBonuses) : new HashMap<>();
+            this.defenceBonuses = defenceBonuses != null ? new HashMap<>(defenceBonuses) : new HashMap<>();
+        }
+
+        /**
+         * Создаёт юнита с именем в стиле GeneratePresetImpl: "тип номер"
+         */
+        public Unit createUnit(int number, int x, int y, int currentHealth) {
+            return new Unit(unitType + " " + number, unitType, currentHealth, baseAttack, cost, attackType,
+                    attackBonuses, defenceBonuses, x, y);
+        }
+
+        public String getUnitType() {
+            return unitType;
+        }
+
+        public int getHealth() {
+            return health;
+        }
+
+        public int getBaseAttack() {
+            return baseAttack;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        static Template read(ByteBuffer in) {
+            String unitType = readString(in);
+            String attackType = readString(in);
+            int health = in.getInt();
+            int baseAttack = in.getInt();
+            int cost = in.getInt();
+            return new Template(unitType, attackType, health, baseAttack, cost, readBonuses(in), readBonuses(in));
+        }
+
+        void write(ByteBuffer out) {
+            writeString(out, unitType);
+            writeString(out, attackType);
+            out.putInt(health).putInt(baseAttack).putInt(cost);
+            writeBonuses(out, attackBonuses);
+            writeBonuses(out, defenceBonuses);
+        }
+
+        int encodedSize() {
+            int size = stringSize(unitType) + stringSize(attackType) + 12 + 4;
+            for (String key : attackBonuses.keySet()) {
+                size += stringSize(key) + 8;
+            }
+            for (String key : defenceBonuses.keySet()) {
+                size += stringSize(key) + 8;
+            }
+            return size;
+        }
+
+        private static String readString(ByteBuffer in) {
+            byte[] bytes = new byte[in.getShort() & MAX_FIELD_VALUE];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static Map<String, Double> readBonuses(ByteBuffer in) {
+            int count = in.getShort() & MAX_FIELD_VALUE;
+            Map<String, Double> bonuses = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                bonuses.put(readString(in), in.getDouble());
+            }
+            return bonuses;
+        }
+
+        private static void writeString(ByteBuffer out, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.putShort((short) bytes.length).put(bytes);
+        }
+
+        private static void writeBonuses(ByteBuffer out, Map<String, Double> bonuses) {
+            out.putShort((short) bonuses.size());
+            for (Map.Entry<String, Double> entry : bonuses.entrySet()) {
+                writeString(out, entry.getKey());
+                out.putDouble(entry.getValue());
+            }
+        }
+
+        private static int stringSize(String value) {
+            int length = value.getBytes(StandardCharsets.UTF_8).length;
+            if (length > MAX_FIELD_VALUE) {
+                throw new IllegalArgumentException("Слишком длинная строка в шаблоне: " + value.length());
+            }
+            return 2 + length;
+        }
+    }
+
+    /**
+     * Примитивное состояние боя: параллельные массивы по всем юнитам сценария,
+     * сначала playerCount юнитов игрока, затем юниты компьютера.
+     */
+    public static final class BattleState {
+        int scenario = -1;
+        int playerCount;
+        int computerCount;
+        int[] templateIds = new int[0];
+        int[] x = new int[0];
+        int[] y = new int[0];
+        int[] health = new int[0];
+
+        void reset(int scenario, int playerCount, int computerCount) {
+            this.scenario = scenario;
+            this.playerCount = playerCount;
+            this.computerCount = computerCount;
+            int total = playerCount + computerCount;
+            if (templateIds.length < total) {
+                int capacity = Math.max(total, templateIds.length * 2);
+                templateIds = new int[capacity];
+                x = new int[capacity];
+                y = new int[capacity];
+                health = new int[capacity];
+            }
+        }
+
+        public int getScenario() {
+            return scenario;
+        }
+
+        public int getPlayerCount() {
+            return playerCount;
+        }
+
+        public int getComputerCount() {
+            return computerCount;
+        }
+
+        public int getUnitCount() {
+            return playerCount + computerCount;
+        }
+
+        public int getTemplateId(int unit) {
+            return templateIds[checkUnit(unit)];
+        }
+
+        public int getX(int unit) {
+            return x[checkUnit(unit)];
+        }
+
+        public int getY(int unit) {
+            return y[checkUnit(unit)];
+        }
+
+        public int getHealth(int unit) {
+            return health[checkUnit(unit)];
+        }
+
+        private int checkUnit(int unit) {
+            if (unit < 0 || unit >= playerCount + computerCount) {
+                throw new IndexOutOfBoundsException("Юнит " + unit + " из " + (playerCount + computerCount));
+            }
+            return unit;
+        }
+    }
+
+    /**
+     * Последовательная запись файла сценариев. Сценарии пишутся сразу на диск,
+     * в памяти остаются только смещения для индекса.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final List<Template> templates = new ArrayList<>();
+        private final Map<String, Integer> templateIds = new HashMap<>();
+        private long[] offsets = new long[64];
+        private int scenarioCount;
+        private long position;
+        private ByteBuffer scratch = ByteBuffer.allocate(4096);
+
+        /**
+         * @param templates шаблоны юнитов; юниты сценариев сопоставляются им по типу
+         */
+        public Writer(Path path, List<Unit> templates) throws IOException {
+            for (Unit unit : templates) {
+                if (templateIds.putIfAbsent(unit.getUnitType(), this.templates.size()) != null) {
+                    throw new IllegalArgumentException("Тип юнита повторяется: " + unit.getUnitType());
+                }
+                this.templates.add(new Template(unit));
+            }
+            if (this.templates.size() > MAX_FIELD_VALUE) {
+                throw new IllegalArgumentException("Слишком много шаблонов: " + this.templates.size());
+            }
+
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            int size = HEADER_SIZE;
+            for (Template template : this.templates) {
+                size += template.encodedSize();
+            }
+            ByteBuffer out = buffer(size);
+            writeHeader(out, 0, 0);
+            for (Template template : this.templates) {
+                template.write(out);
+            }
+            flush(out);
+        }
+
+        /**
+         * Дописывает сценарий; в файл попадают тип, координаты и текущее здоровье юнитов
+         *
+         * @return номер сценария в файле
+         */
+        public int add(Army playerArmy, Army computerArmy) throws IOException {
+            List<Unit> player = playerArmy.getUnits();
+            List<Unit> computer = computerArmy.getUnits();
+            ByteBuffer out = buffer(SCENARIO_HEADER_SIZE + (player.size() + computer.size()) * RECORD_SIZE);
+            out.putInt(player.size()).putInt(computer.size());
+            for (Unit unit : player) {
+                out.putLong(pack(unit));
+            }
+            for (Unit unit : computer) {
+                out.putLong(pack(unit));
+            }
+
+            if (scenarioCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[scenarioCount] = position;
+            flush(out);
+            return scenarioCount++;
+        }
+
+        private long pack(Unit unit) {
+            Integer templateId = templateIds.get(unit.getUnitType());
+            if (templateId == null) {
+                throw new IllegalArgumentException("Нет шаблона для типа юнита: " + unit.getUnitType());
+            }
+            int x = unit.getxCoordinate();
+            int y = unit.getyCoordinate();
+            int health = unit.isAlive() ? Math.max(0, unit.getHealth()) : 0;
+            if (x < 0 || x > MAX_FIELD_VALUE || y < 0 || y > MAX_FIELD_VALUE || health > MAX_FIELD_VALUE) {
+                throw new IllegalArgumentException("Юнит не помещается в запись: " + unit.getName()
+                        + " (" + x + ", " + y + ") hp=" + health);
+            }
+            return (long) templateId << 48 | (long) x << 32 | (long) y << 16 | health;
+        }
+
+        /**
+         * Дописывает индекс и заголовок; после этого файл готов к чтению
+         */
+        @Override
+        public void close() throws IOException {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                long indexOffset = position;
+                ByteBuffer out = buffer(scenarioCount * 8);
+                for (int i = 0; i < scenarioCount; i++) {
+                    out.putLong(offsets[i]);
+                }
+                flush(out);
+                if (position > Integer.MAX_VALUE) {
+                    throw new IOException("Файл сценариев больше 2 ГБ: " + scenarioCount + " сценариев");
+                }
+
+                ByteBuffer header = buffer(HEADER_SIZE);
+                writeHeader(header, scenarioCount, indexOffset);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void writeHeader(ByteBuffer out, int scenarios, long indexOffset) {
+            out.putInt(MAGIC).putInt(VERSION).putInt(templates.size()).putInt(scenarios).putLong(indexOffset);
+        }
+
+        private ByteBuffer buffer(int size) {
+            if (scratch.capacity() < size) {
+                scratch = ByteBuffer.allocate(Math.max(size, scratch.capacity() * 2));
+            }
+            scratch.clear();
+            return scratch;
+        }
+
+        private void flush(ByteBuffer out) throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                position += channel.write(out, position);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package programs;
 import com.battle.heroes.army.Army;
 import com.battle.heroes.army.Unit;
 import com.battle.heroes.army.programs.PrintBattleLog;
+import com.battle.heroes.army.programs.SuitableForAttackUnitsFinder;
 import com.battle.heroes.army.programs.SimulateBattle;
 
 import java.util.*;
@@ -22,9 +23,47 @@ import java.util.stream.Collectors;
  * Когда все юниты походили, раунд завершается, и начинается следующий.
  */
 public class SimulateBattleImpl implements SimulateBattle {
+    // Память под таблицу расстояний по умолчанию: стандартному полю хватает с запасом
+    public final static long DEFAULT_DISTANCE_ORACLE_LIMIT = 16L << 20;
 
     private PrintBattleLog printBattleLog;
-    private final int roundDelay = 50; // задержка между раундами в миллисекундах
+    private BattleEventPublisher eventPublisher;
+    private int roundDelay = 50; // задержка между раундами в миллисекундах
+    private boolean reportResult = true; // печатать ли итог боя в консоль
+    private int currentRound; // номер текущего раунда для событий
+
+    // Метрики: общие для всех боёв и итоги текущего боя
+    private BattleMetrics metrics = BattleMetrics.shared();
+    private final long[] battlePhaseNanos = new long[BattleMetrics.Phase.values().length];
+    private int battleAttacks;
+    private int battleKills;
+    private int battleSwallowedExceptions;
+    private BattleMetrics.BattleSummary.EndReason battleEndReason; // null — определяется по армиям
+    private int battleCachedRounds; // раунды, исход которых взят из таблицы
+    private long battleStartNanos;
+    private BattleMetrics.BattleSummary lastBattleSummary;
+
+    // Планировщик путей для режима одновременных ходов
+    private BatchPathPlanner pathPlanner;
+    private long distanceOracleLimit = DEFAULT_DISTANCE_ORACLE_LIMIT;
+    private DistanceOracle lastDistanceOracle;
+
+    // Размеры поля и число кандидатов в цели для режима одновременных ходов
+    private BattleScale scale = BattleScale.STANDARD;
+    private int maxRounds; // 0 — без ограничения
+
+    // Выбор цели для юнитов игрока вместо их программ (null — только программы)
+    private TargetSelector playerTargetSelector;
+    private List<Unit> selectorAllies = Collections.emptyList();
+    private List<Unit> selectorEnemies = Collections.emptyList();
+    private Set<Unit> selectorUnits = Collections.emptySet();
+    private Set<Unit> selectorEnemySet = Collections.emptySet();
+    private final Set<Unit> selectorFront = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int selectorFrontRound = -1; // раунд, для которого посчитан selectorFront
+    private final SuitableForAttackUnitsFinder selectorFinder = new SuitableForAttackUnitsFinderImpl();
+
+    // Таблица исходов для режима одновременных ходов (null — без неё)
+    private BattleTranspositionTable transpositionTable;
 
     /**
      * Устанавливает обработчик для логирования боевых действий.
@@ -35,6 +74,142 @@ public class SimulateBattleImpl implements SimulateBattle {
         this.printBattleLog = printBattleLog;
     }
 
+    /**
+     * Устанавливает поток типизированных событий боя.
+     * Работает вместе с PrintBattleLog, а не вместо него.
+     *
+     * @param eventPublisher поток событий или null, чтобы отключить
+     */
+    public void setEventPublisher(BattleEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Устанавливает приёмник метрик (по умолчанию {@link BattleMetrics#shared()}).
+     *
+     * @param metrics метрики движка
+     */
+    public void setMetrics(BattleMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+    }
+
+    /**
+     * Устанавливает задержку между раундами; 0 отключает паузы
+     * (для пакетного прогона без интерфейса).
+     *
+     * @param roundDelay задержка в миллисекундах
+     */
+    public void setRoundDelay(int roundDelay) {
+        if (roundDelay < 0) {
+            throw new IllegalArgumentException("Задержка не может быть отрицательной: " + roundDelay);
+        }
+        this.roundDelay = roundDelay;
+    }
+
+    /**
+     * Включает или отключает печать итога боя в System.out.
+     *
+     * @param reportResult true — печатать итог
+     */
+    public void setReportResult(boolean reportResult) {
+        this.reportResult = reportResult;
+    }
+
+    /**
+     * Устанавливает планировщик путей для режима SIMULTANEOUS
+     * (по умолчанию — на общем ForkJoinPool).
+     *
+     * @param pathPlanner планировщик путей
+     */
+    public void setPathPlanner(BatchPathPlanner pathPlanner) {
+        this.pathPlanner = Objects.requireNonNull(pathPlanner, "pathPlanner");
+    }
+
+    /**
+     * Ограничивает память под таблицу расстояний в режиме SIMULTANEOUS.
+     * Если цели выбираются среди всех врагов и строки для всех юнитов боя
+     * помещаются в limit байт, стоимости путей берутся из
+     * {@link DistanceOracle} вместо A*. Юниты в этом режиме не ходят, поэтому
+     * таблица строится один раз за бой и только обновляется при гибели юнитов.
+     *
+     * @param limit предел в байтах; 0 — всегда A*
+     */
+    public void setDistanceOracleLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Предел памяти не может быть отрицательным: " + limit);
+        }
+        this.distanceOracleLimit = limit;
+    }
+
+    /**
+     * Таблица расстояний последнего боя в режиме SIMULTANEOUS
+     * или null, если бой шёл на A*
+     */
+    public DistanceOracle getLastDistanceOracle() {
+        return lastDistanceOracle;
+    }
+
+    /**
+     * Устанавливает масштаб боя. В режиме SIMULTANEOUS от него зависят
+     * размеры снимка поля и то, сколько ближайших врагов каждый юнит
+     * рассматривает как цели.
+     *
+     * @param scale масштаб боя
+     */
+    public void setScale(BattleScale scale) {
+        this.scale = Objects.requireNonNull(scale, "scale");
+    }
+
+    /**
+     * Ограничивает число раундов: если обе армии живы после maxRounds
+     * раундов, бой заканчивается ничьей. 0 снимает ограничение.
+     *
+     * @param maxRounds максимум раундов
+     */
+    public void setMaxRounds(int maxRounds) {
+        if (maxRounds < 0) {
+            throw new IllegalArgumentException("Число раундов не может быть отрицательным: " + maxRounds);
+        }
+        this.maxRounds = maxRounds;
+    }
+
+    /**
+     * Устанавливает выбор цели для юнитов игрока в режимах с очередными
+     * ходами (ALTERNATING, PLAYER_FIRST, COMPUTER_FIRST). Если селектор
+     * не выбрал цель, ход делает программа юнита. В режиме SIMULTANEOUS
+     * цели выбирает планировщик путей, и селектор не используется.
+     *
+     * @param playerTargetSelector селектор или null, чтобы отключить
+     */
+    public void setPlayerTargetSelector(TargetSelector playerTargetSelector) {
+        this.playerTargetSelector = playerTargetSelector;
+    }
+
+    /**
+     * Подключает таблицу исходов к режиму SIMULTANEOUS — единственному
+     * детерминированному: в остальных режимах лучники выбирают цель случайно.
+     * Бой, уже сыгранный из того же канонического состояния, не разыгрывается:
+     * юнитам выставляется итоговое здоровье, итоги боя совпадают с настоящим
+     * боем, кроме времени. Пока у боя есть лог или подписчики событий,
+     * таблица не используется: их нужно кормить ходами.
+     *
+     * Общие метрики раундов и атак пополняются только разыгранными раундами.
+     *
+     * @param transpositionTable таблица или null, чтобы отключить
+     */
+    public void setTranspositionTable(BattleTranspositionTable transpositionTable) {
+        this.transpositionTable = transpositionTable;
+    }
+
+    /**
+     * Возвращает итоги последнего завершённого боя.
+     *
+     * @return итоги боя или null, если бой ещё не проводился
+     */
+    public BattleMetrics.BattleSummary getLastBattleSummary() {
+        return lastBattleSummary;
+    }
+
     /**
      * Запускает симуляцию боя с чередованием первого хода:
      * нечётные раунды — игрок, чётные — компьютер.
@@ -45,21 +220,37 @@ public class SimulateBattleImpl implements SimulateBattle {
      */
     @Override
     public void simulate(Army playerArmy, Army computerArmy) throws InterruptedException {
+        try {
+            simulateAlternating(playerArmy, computerArmy);
+        } finally {
+            metrics.endBattle();
+        }
+    }
+
+    /**
+     * Бой с чередованием первого хода (см. {@link #simulate(Army, Army)})
+     */
+    private void simulateAlternating(Army playerArmy, Army computerArmy) throws InterruptedException {
         List<Unit> playerUnits = getAliveUnits(playerArmy);
         List<Unit> computerUnits = getAliveUnits(computerArmy);
 
         int round = 1;
+        beginBattle();
+        bindTargetSelector(playerArmy, computerArmy);
 
-        while (!playerUnits.isEmpty() && !computerUnits.isEmpty()) {
+        while (!playerUnits.isEmpty() && !computerUnits.isEmpty() && isRoundAllowed(round)) {
             // Обновляем списки живых юнитов и сортируем по убыванию атаки
             playerUnits = getSortedAliveUnits(playerUnits);
             computerUnits = getSortedAliveUnits(computerUnits);
 
+            startRound(round);
+
             boolean playerStartsFirst = (round % 2 == 1);
             executeAlternatingMoves(playerUnits, computerUnits, playerStartsFirst);
 
+            flushEvents();
             round++;
-            Thread.sleep(roundDelay);
+            pauseBetweenRounds();
         }
 
         determineWinner(playerUnits, computerUnits);
@@ -76,6 +267,8 @@ public class SimulateBattleImpl implements SimulateBattle {
         int playerIndex = 0;
         int computerIndex = 0;
         boolean playerTurn = playerMovesFirst;
+        int playerAlive = countAlive(playerUnits);
+        int computerAlive = countAlive(computerUnits);
 
         int maxMoves = Math.max(playerUnits.size(), computerUnits.size()) * 2;
 
@@ -84,7 +277,9 @@ public class SimulateBattleImpl implements SimulateBattle {
                 if (playerIndex < playerUnits.size()) {
                     Unit attacker = playerUnits.get(playerIndex);
                     if (attacker.isAlive()) {
-                        executeSingleAttack(attacker, computerUnits);
+                        if (isKilled(executeSingleAttack(attacker, computerUnits))) {
+                            computerAlive--;
+                        }
                         playerIndex++;
                     } else {
                         playerIndex++; // пропускаем мёртвого
@@ -95,7 +290,9 @@ public class SimulateBattleImpl implements SimulateBattle {
                 if (computerIndex < computerUnits.size()) {
                     Unit attacker = computerUnits.get(computerIndex);
                     if (attacker.isAlive()) {
-                        executeSingleAttack(attacker, playerUnits);
+                        if (isKilled(executeSingleAttack(attacker, playerUnits))) {
+                            playerAlive--;
+                        }
                         computerIndex++;
                     } else {
                         computerIndex++;
@@ -106,8 +303,15 @@ public class SimulateBattleImpl implements SimulateBattle {
 
             playerTurn = !playerTurn;
 
-            // Проверка окончания боя
-            if (getAliveUnits(playerUnits).isEmpty() || getAliveUnits(computerUnits).isEmpty()) {
+            // Проверка окончания боя: счётчик уточняется полным пересчётом,
+            // только когда дошёл до нуля, поэтому ход стоит O(1), а не O(n)
+            if (playerAlive <= 0) {
+                playerAlive = countAlive(playerUnits);
+            }
+            if (computerAlive <= 0) {
+                computerAlive = countAlive(computerUnits);
+            }
+            if (playerAlive == 0 || computerAlive == 0) {
                 break;
             }
         }
@@ -118,25 +322,196 @@ public class SimulateBattleImpl implements SimulateBattle {
      *
      * @param attacker   атакующий юнит
      * @param enemyUnits список целей
+     * @return выбранная цель или null, если атаки не было
      */
-    private void executeSingleAttack(Unit attacker, List<Unit> enemyUnits) {
+    private Unit executeSingleAttack(Unit attacker, List<Unit> enemyUnits) {
         try {
-            Unit target = attacker.getProgram().attack();
+            long start = metrics.startTimer();
+            Unit target = selectTarget(attacker);
+            // Программа библиотеки бьёт цель сама внутри attack(); за селектор
+            // этот удар наносит commitAttack в фазе урона
+            int programStrike = target == null ? 0 : attacker.getBaseAttack();
+            if (target == null) {
+                target = attacker.getProgram().attack();
+            }
+            metrics.record(BattleMetrics.Phase.TARGET_SELECTION, start);
 
             if (target != null && target.isAlive()) {
-                if (printBattleLog != null) {
-                    printBattleLog.printBattleLog(attacker, target);
-                }
+                commitAttack(attacker, target, programStrike);
+            }
+            return target;
+        } catch (Exception e) {
+            // Ошибки при атаке не прерывают бой, но учитываются в метриках
+            metrics.exceptionSwallowed(e);
+            battleSwallowedExceptions++;
+            if (Trace.isEnabled(Trace.Component.SIMULATION, Trace.Level.DEBUG)) {
+                Trace.log(Trace.Component.SIMULATION, Trace.Level.DEBUG,
+                        "Ошибка при атаке юнита " + attacker.getName() + ": " + e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Спрашивает цель у селектора, если юнит играет за сторону игрока.
+     * Поле не меняется: удар, который программа нанесла бы сама, наносит
+     * {@link #commitAttack}. Цель, которую программа юнита выбрать не могла
+     * бы, отклоняется, и ход делает программа.
+     *
+     * @param attacker атакующий юнит
+     * @return цель или null, если ход должна сделать программа
+     */
+    private Unit selectTarget(Unit attacker) {
+        if (playerTargetSelector == null || !selectorUnits.contains(attacker)) {
+            return null;
+        }
+        Unit target = playerTargetSelector.selectTarget(attacker, selectorAllies, selectorEnemies);
+        if (target == null || !target.isAlive()) {
+            return null;
+        }
+        if (!isLegalSelection(attacker, target)) {
+            if (Trace.isEnabled(Trace.Component.SIMULATION, Trace.Level.DEBUG)) {
+                Trace.log(Trace.Component.SIMULATION, Trace.Level.DEBUG,
+                        "Селектор выбрал недоступную цель " + target.getName() + " для " + attacker.getName());
+            }
+            return null;
+        }
+        return target;
+    }
 
-                applyDamage(attacker, target);
+    /**
+     * Может ли программа юнита игрока выбрать эту цель: лучник бьёт любого
+     * врага, остальные — только отобранных {@link SuitableForAttackUnitsFinderImpl}
+     * из левой армии. Передовая линия считается раз в раунд. Путь не
+     * проверяется: поиск пути всегда отдаёт путь.
+     */
+    private boolean isLegalSelection(Unit attacker, Unit target) {
+        if (!selectorEnemySet.contains(target)) {
+            return false;
+        }
+        if (SuitableForAttackUnitsFinderImpl.isArcher(attacker)) {
+            return true;
+        }
+        if (selectorFrontRound != currentRound) {
+            selectorFront.clear();
+            selectorFront.addAll(SuitableForAttackUnitsFinderImpl.getFrontUnits(selectorFinder, selectorEnemies, true,
+                    scale));
+            selectorFrontRound = currentRound;
+        }
+        return selectorFront.contains(target);
+    }
 
-                if (!target.isAlive() && printBattleLog != null) {
-                    printBattleLog.printBattleLog(target, attacker);
-                }
+    /**
+     * Запоминает армии боя для селектора цели.
+     *
+     * @param playerArmy   армия игрока
+     * @param computerArmy армия компьютера
+     */
+    private void bindTargetSelector(Army playerArmy, Army computerArmy) {
+        selectorFront.clear();
+        selectorFrontRound = -1;
+        if (playerTargetSelector == null) {
+            selectorUnits = Collections.emptySet();
+            selectorEnemySet = Collections.emptySet();
+            return;
+        }
+        selectorAllies = playerArmy.getUnits();
+        selectorEnemies = computerArmy.getUnits();
+        selectorUnits = Collections.newSetFromMap(new IdentityHashMap<>());
+        selectorUnits.addAll(selectorAllies);
+        selectorEnemySet = Collections.newSetFromMap(new IdentityHashMap<>());
+        selectorEnemySet.addAll(selectorEnemies);
+    }
+
+    /**
+     * Погибла ли цель атаки.
+     *
+     * @param target цель или null
+     * @return true, если цель есть и она мертва
+     */
+    private boolean isKilled(Unit target) {
+        return target != null && !target.isAlive();
+    }
+
+    /**
+     * Считает живых юнитов в списке.
+     *
+     * @param units список юнитов
+     * @return число живых
+     */
+    private int countAlive(List<Unit> units) {
+        int alive = 0;
+        for (Unit unit : units) {
+            if (unit.isAlive()) {
+                alive++;
             }
-        } catch (Exception e) {
-            // Ошибки при атаке не прерывают бой
         }
+        return alive;
+    }
+
+    /**
+     * Наносит урон выбранной цели: логирует атаку, применяет урон,
+     * учитывает гибель цели в метриках и событиях. Программы библиотеки
+     * бьют цель базовой атакой сами, внутри attack(); для цели от селектора
+     * этот удар наносится здесь, в фазе урона, и входит в урон события DAMAGE.
+     *
+     * @param attacker      атакующий юнит
+     * @param target        живая цель
+     * @param programStrike удар программы перед уроном движка или 0
+     */
+    private void commitAttack(Unit attacker, Unit target, int programStrike) {
+        long start = metrics.startTimer();
+        if (printBattleLog != null) {
+            printBattleLog.printBattleLog(attacker, target);
+        }
+        if (isPublishingEvents()) {
+            eventPublisher.emit(BattleEvent.attack(currentRound, attacker, target));
+        }
+        metrics.record(BattleMetrics.Phase.LOGGING, start);
+
+        start = metrics.startTimer();
+        int healthBefore = target.getHealth();
+        if (programStrike != 0) {
+            // Как в программе: без нижней границы, её ставит applyDamage
+            target.setHealth(healthBefore - programStrike);
+        }
+        int damage = programStrike + applyDamage(attacker, target);
+        metrics.record(BattleMetrics.Phase.DAMAGE, start);
+        metrics.attackPerformed();
+        battleAttacks++;
+
+        start = metrics.startTimer();
+        if (isPublishingEvents()) {
+            eventPublisher.emit(BattleEvent.damage(currentRound, attacker, target, damage, healthBefore));
+        }
+
+        if (!target.isAlive()) {
+            metrics.unitKilled();
+            battleKills++;
+            if (printBattleLog != null) {
+                printBattleLog.printBattleLog(target, attacker);
+            }
+            if (isPublishingEvents()) {
+                eventPublisher.emit(BattleEvent.death(currentRound, attacker, target));
+            }
+        }
+        metrics.record(BattleMetrics.Phase.LOGGING, start);
+    }
+
+    /**
+     * Сбрасывает итоги перед новым боем.
+     */
+    private void beginBattle() {
+        currentRound = 0;
+        battleAttacks = 0;
+        battleKills = 0;
+        battleSwallowedExceptions = 0;
+        battleEndReason = null;
+        battleCachedRounds = 0;
+        Arrays.fill(battlePhaseNanos, 0);
+        // Замеры потока боя, включая поиск пути из программ юнитов, идут в итоги боя
+        metrics.beginBattle(battlePhaseNanos);
+        battleStartNanos = System.nanoTime();
     }
 
     /**
@@ -144,13 +519,15 @@ public class SimulateBattleImpl implements SimulateBattle {
      *
      * @param attacker атакующий юнит
      * @param target   цель
+     * @return нанесённый урон
      */
-    private void applyDamage(Unit attacker, Unit target) {
+    private int applyDamage(Unit attacker, Unit target) {
         int damage = calculateEffectiveDamage(attacker, target);
         int newHealth = Math.max(0, target.getHealth() - damage);
 
         target.setHealth(newHealth);
         target.setAlive(newHealth > 0);
+        return damage;
     }
 
     /**
@@ -233,16 +610,101 @@ public class SimulateBattleImpl implements SimulateBattle {
      * @param computerUnits оставшиеся юниты компьютера
      */
     private void determineWinner(List<Unit> playerUnits, List<Unit> computerUnits) {
-        System.out.println("\n=== РЕЗУЛЬТАТ БОЯ ===");
+        report("\n=== РЕЗУЛЬТАТ БОЯ ===");
 
+        BattleEvent.Outcome outcome;
         if (!playerUnits.isEmpty() && !computerUnits.isEmpty()) {
-            System.out.println("НИЧЬЯ!");
+            report("НИЧЬЯ!");
+            outcome = BattleEvent.Outcome.DRAW;
         } else if (!playerUnits.isEmpty()) {
-            System.out.println("ПОБЕДИЛ ИГРОК! Осталось юнитов: " + playerUnits.size());
+            report("ПОБЕДИЛ ИГРОК! Осталось юнитов: " + playerUnits.size());
+            outcome = BattleEvent.Outcome.PLAYER_WON;
         } else if (!computerUnits.isEmpty()) {
-            System.out.println("ПОБЕДИЛ КОМПЬЮТЕР! Осталось юнитов: " + computerUnits.size());
+            report("ПОБЕДИЛ КОМПЬЮТЕР! Осталось юнитов: " + computerUnits.size());
+            outcome = BattleEvent.Outcome.COMPUTER_WON;
         } else {
-            System.out.println("ОБЕ АРМИИ УНИЧТОЖЕНЫ!");
+            report("ОБЕ АРМИИ УНИЧТОЖЕНЫ!");
+            outcome = BattleEvent.Outcome.BOTH_DESTROYED;
+        }
+
+        if (isPublishingEvents()) {
+            eventPublisher.emit(BattleEvent.battleEnd(currentRound, outcome, playerUnits.size(), computerUnits.size()));
+        }
+        flushEvents();
+
+        BattleMetrics.BattleSummary.EndReason endReason = battleEndReason;
+        if (endReason == null) {
+            endReason = playerUnits.isEmpty() || computerUnits.isEmpty()
+                    ? BattleMetrics.BattleSummary.EndReason.ARMY_DESTROYED
+                    : BattleMetrics.BattleSummary.EndReason.ROUND_LIMIT;
+        }
+
+        metrics.battleFinished();
+        lastBattleSummary = new BattleMetrics.BattleSummary(outcome, endReason, playerUnits.size(), computerUnits.size(),
+                currentRound, battleCachedRounds, battleAttacks, battleKills, battleSwallowedExceptions,
+                System.nanoTime() - battleStartNanos, battlePhaseNanos);
+    }
+
+    /**
+     * Печатает строку итога, если это не отключено.
+     *
+     * @param message строка итога
+     */
+    private void report(String message) {
+        if (reportResult) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Можно ли начинать раунд с этим номером.
+     *
+     * @param round номер раунда
+     * @return true, если ограничение раундов не достигнуто
+     */
+    private boolean isRoundAllowed(int round) {
+        return maxRounds == 0 || round <= maxRounds;
+    }
+
+    /**
+     * Пауза между раундами для отображения боя.
+     *
+     * @throws InterruptedException если поток был прерван
+     */
+    private void pauseBetweenRounds() throws InterruptedException {
+        if (roundDelay > 0) {
+            Thread.sleep(roundDelay);
+        }
+    }
+
+    /**
+     * Запоминает номер раунда и сообщает о его начале подписчикам.
+     *
+     * @param round номер раунда
+     */
+    private void startRound(int round) {
+        currentRound = round;
+        metrics.roundStarted();
+        if (isPublishingEvents()) {
+            eventPublisher.emit(BattleEvent.roundStart(round));
+        }
+    }
+
+    /**
+     * События создаются, только если на поток кто-то подписан.
+     *
+     * @return true, если события нужно публиковать
+     */
+    private boolean isPublishingEvents() {
+        return eventPublisher != null && eventPublisher.hasSubscribers();
+    }
+
+    /**
+     * Отправляет накопленную пачку событий подписчикам.
+     */
+    private void flushEvents() {
+        if (eventPublisher != null) {
+            eventPublisher.flush();
         }
     }
 
@@ -251,21 +713,28 @@ public class SimulateBattleImpl implements SimulateBattle {
      *
      * @param playerArmy   армия игрока
      * @param computerArmy армия компьютера
-     * @param strategy     стратегия: ALTERNATING, PLAYER_FIRST, COMPUTER_FIRST
+     * @param strategy     стратегия: ALTERNATING, PLAYER_FIRST, COMPUTER_FIRST, SIMULTANEOUS
      * @throws InterruptedException если поток был прерван
      */
     public void simulateWithStrategy(Army playerArmy, Army computerArmy, String strategy)
             throws InterruptedException {
-        switch (strategy) {
-            case "PLAYER_FIRST":
-                simulateFixedOrder(playerArmy, computerArmy, true);
-                break;
-            case "COMPUTER_FIRST":
-                simulateFixedOrder(playerArmy, computerArmy, false);
-                break;
-            case "ALTERNATING":
-            default:
-                simulate(playerArmy, computerArmy);
+        try {
+            switch (strategy) {
+                case "PLAYER_FIRST":
+                    simulateFixedOrder(playerArmy, computerArmy, true);
+                    break;
+                case "COMPUTER_FIRST":
+                    simulateFixedOrder(playerArmy, computerArmy, false);
+                    break;
+                case "SIMULTANEOUS":
+                    simulateSimultaneous(playerArmy, computerArmy);
+                    break;
+                case "ALTERNATING":
+                default:
+                    simulateAlternating(playerArmy, computerArmy);
+            }
+        } finally {
+            metrics.endBattle();
         }
     }
 
@@ -284,8 +753,12 @@ public class SimulateBattleImpl implements SimulateBattle {
         List<Unit> computerUnits = getAliveUnits(computerArmy);
 
         int round = 1;
+        beginBattle();
+        bindTargetSelector(playerArmy, computerArmy);
+
+        while (!playerUnits.isEmpty() && !computerUnits.isEmpty() && isRoundAllowed(round)) {
+            startRound(round);
 
-        while (!playerUnits.isEmpty() && !computerUnits.isEmpty()) {
             if (playerFirst) {
                 executeRoundFixedOrder(playerUnits, computerUnits);
             } else {
@@ -299,8 +772,9 @@ public class SimulateBattleImpl implements SimulateBattle {
             playerUnits = getAliveUnits(playerUnits);
             computerUnits = getAliveUnits(computerUnits);
 
+            flushEvents();
             round++;
-            Thread.sleep(roundDelay);
+            pauseBetweenRounds();
         }
 
         determineWinner(playerUnits, computerUnits);
@@ -313,13 +787,292 @@ public class SimulateBattleImpl implements SimulateBattle {
      * @param defenders защищающиеся юниты
      */
     private void executeRoundFixedOrder(List<Unit> attackers, List<Unit> defenders) {
+        int defendersAlive = countAlive(defenders);
         for (Unit attacker : attackers) {
             if (attacker.isAlive()) {
-                executeSingleAttack(attacker, defenders);
-                if (getAliveUnits(defenders).isEmpty()) {
-                    break;
+                if (isKilled(executeSingleAttack(attacker, defenders)) && --defendersAlive <= 0) {
+                    // Счётчик мог ошибиться, если цель уже была мертва, — пересчитываем
+                    defendersAlive = countAlive(defenders);
+                    if (defendersAlive == 0) {
+                        break;
+                    }
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Симуляция с одновременными ходами. В начале раунда состояние поля
+     * замораживается, и каждый живой юнит параллельно выбирает ближайшую по
+     * длине пути достижимую цель. Затем урон применяется в одной фазе в
+     * детерминированном порядке: сначала юниты игрока, потом компьютера,
+     * каждая сторона по убыванию атаки. Юнит, погибший в этом же раунде,
+     * всё равно наносит свой удар; удары по уже погибшей цели пропадают.
+     *
+     * @param playerArmy   армия игрока
+     * @param computerArmy армия компьютера
+     * @throws InterruptedException если поток был прерван
+     */
+    private void simulateSimultaneous(Army playerArmy, Army computerArmy) throws InterruptedException {
+        List<Unit> playerUnits = getAliveUnits(playerArmy);
+        List<Unit> computerUnits = getAliveUnits(computerArmy);
+        if (pathPlanner == null) {
+            pathPlanner = new BatchPathPlanner();
+        }
+        DistanceOracle oracle = createDistanceOracle(playerUnits, computerUnits);
+        lastDistanceOracle = oracle;
+
+        int round = 1;
+        beginBattle();
+        BattleTranspositionTable table = transpositionTable;
+        if (printBattleLog != null || isPublishingEvents()) {
+            table = null;
+        }
+        List<VisitedState> visited = table == null ? Collections.emptyList() : new ArrayList<>();
+
+        while (!playerUnits.isEmpty() && !computerUnits.isEmpty() && isRoundAllowed(round)) {
+            playerUnits = getSortedAliveUnits(playerUnits);
+            computerUnits = getSortedAliveUnits(computerUnits);
+
+            if (table != null && (round == 1 || table.isCheckMidBattle())
+                    && probeTranspositionTable(table, playerUnits, computerUnits, round, visited)) {
+                playerUnits = getAliveUnits(playerUnits);
+                computerUnits = getAliveUnits(computerUnits);
+                break;
+            }
+
+            startRound(round);
+
+            // Фаза решений: все юниты смотрят на одно и то же замороженное поле
+            long start = metrics.startTimer();
+            List<BatchPathPlanner.PlannedPath> decisions = planRound(playerUnits, computerUnits, oracle);
+            metrics.record(BattleMetrics.Phase.TARGET_SELECTION, start);
+
+            // Фаза применения урона
+            int committed = 0;
+            for (BatchPathPlanner.PlannedPath decision : decisions) {
+                Unit target = decision.getTarget();
+                if (target != null && target.isAlive()) {
+                    try {
+                        commitAttack(decision.getAttacker(), target, 0);
+                        committed++;
+                    } catch (Exception e) {
+                        // Как и в обычных режимах, ошибка одной атаки не прерывает бой
+                        metrics.exceptionSwallowed(e);
+                        battleSwallowedExceptions++;
+                        if (Trace.isEnabled(Trace.Component.SIMULATION, Trace.Level.WARN)) {
+                            Trace.log(Trace.Component.SIMULATION, Trace.Level.WARN,
+                                    "Ошибка при атаке юнита " + decision.getAttacker().getName() + ": " + e);
+                        }
+                    }
+                }
+            }
+
+            List<Unit> fallen = new ArrayList<>();
+            collectFallen(playerUnits, fallen);
+            collectFallen(computerUnits, fallen);
+            playerUnits = getAliveUnits(playerUnits);
+            computerUnits = getAliveUnits(computerUnits);
+            if (oracle != null && !fallen.isEmpty()) {
+                freeCells(oracle, fallen, playerUnits, computerUnits);
+            }
+
+            flushEvents();
+            round++;
+
+            // Никто не может дотянуться до противника — дальше бой не изменится
+            if (committed == 0) {
+                battleEndReason = BattleMetrics.BattleSummary.EndReason.NO_ATTACKS;
+                if (Trace.isEnabled(Trace.Component.SIMULATION, Trace.Level.INFO)) {
+                    Trace.log(Trace.Component.SIMULATION, Trace.Level.INFO,
+                            "Раунд " + currentRound + " прошёл без атак, бой остановлен: игрок "
+                                    + playerUnits.size() + ", компьютер " + computerUnits.size());
+                }
+                break;
+            }
+            pauseBetweenRounds();
+        }
+
+        // Бой с проглоченными ошибками мог пойти не так, как пошёл бы без них:
+        // его исход в таблицу не попадает
+        for (int i = 0; battleSwallowedExceptions == 0 && i < visited.size(); i++) {
+            VisitedState state = visited.get(i);
+            table.store(state.toEntry(currentRound, battleAttacks, battleKills, battleEndReason));
+        }
+        determineWinner(playerUnits, computerUnits);
+    }
+
+    /**
+     * Ищет исход боя из текущего состояния в таблице. При попадании
+     * выставляет юнитам итоговое здоровье и досчитывает итоги боя,
+     * иначе запоминает состояние, чтобы записать исход после боя.
+     *
+     * @return true, если исход взят из таблицы и бой окончен
+     */
+    private boolean probeTranspositionTable(BattleTranspositionTable table, List<Unit> playerUnits,
+            List<Unit> computerUnits, int round, List<VisitedState> visited) {
+        int roundsLeft = maxRounds == 0 ? 0 : maxRounds - round + 1;
+        BattleTranspositionTable.Key key = table.key(scale, playerUnits, computerUnits, roundsLeft);
+        if (key == null) {
+            return false;
+        }
+        List<Unit> units = new ArrayList<>(playerUnits.size() + computerUnits.size());
+        units.addAll(playerUnits);
+        units.addAll(computerUnits);
+
+        BattleTranspositionTable.Entry entry = table.lookup(key, round > 1);
+        if (entry == null) {
+            visited.add(new VisitedState(key, units, round, battleAttacks, battleKills));
+            return false;
+        }
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            int health = entry.getFinalHealth(i);
+            unit.setHealth(health);
+            unit.setAlive(health > 0);
+        }
+        currentRound = round - 1 + entry.getRounds();
+        battleAttacks += entry.getAttacks();
+        battleKills += entry.getKills();
+        battleEndReason = entry.getEndReason();
+        battleCachedRounds = entry.getRounds();
+        return true;
+    }
+
+    /**
+     * Состояние боя в начале раунда, исход которого ещё не известен
+     */
+    private static final class VisitedState {
+        private final BattleTranspositionTable.Key key;
+        private final List<Unit> units;
+        private final int round;
+        private final int attacks;
+        private final int kills;
+
+        VisitedState(BattleTranspositionTable.Key key, List<Unit> units, int round, int attacks, int kills) {
+            this.key = key;
+            this.units = units;
+            this.round = round;
+            this.attacks = attacks;
+            this.kills = kills;
+        }
+
+        /**
+         * Исход из этого состояния по итогам боя
+         */
+        BattleTranspositionTable.Entry toEntry(int lastRound, int battleAttacks, int battleKills,
+                BattleMetrics.BattleSummary.EndReason endReason) {
+            int[] finalHealth = new int[units.size()];
+            for (int i = 0; i < finalHealth.length; i++) {
+                Unit unit = units.get(i);
+                finalHealth[i] = unit.isAlive() ? unit.getHealth() : 0;
+            }
+            return new BattleTranspositionTable.Entry(key, finalHealth, lastRound - round + 1,
+                    battleAttacks - attacks, battleKills - kills, endReason);
+        }
+    }
+
+    /**
+     * Таблица расстояний на бой, если цели выбираются среди всех врагов,
+     * поле не больше {@link DistanceOracle#MAX_CELLS} и строки для всех
+     * юнитов помещаются в предел памяти, иначе null
+     */
+    private DistanceOracle createDistanceOracle(List<Unit> playerUnits, List<Unit> computerUnits) {
+        if (scale.getTargetCandidates() != 0) {
+            return null;
+        }
+        int cellCount = scale.getWidth() * scale.getHeight();
+        int rowCount = playerUnits.size() + computerUnits.size();
+        if (cellCount > DistanceOracle.MAX_CELLS
+                || DistanceOracle.estimateFootprintBytes(cellCount, rowCount) > distanceOracleLimit) {
+            return null;
+        }
+        List<Unit> everyone = new ArrayList<>(rowCount);
+        everyone.addAll(playerUnits);
+        everyone.addAll(computerUnits);
+        return new DistanceOracle(BoardSnapshot.fromUnits(scale.getWidth(), scale.getHeight(), everyone));
+    }
+
+    private static void collectFallen(List<Unit> units, List<Unit> fallen) {
+        for (Unit unit : units) {
+            if (!unit.isAlive()) {
+                fallen.add(unit);
+            }
+        }
+    }
+
+    /**
+     * Освобождает в таблице клетки погибших, если на них не стоит живой юнит.
+     * Строки этих клеток сначала удаляются: целью они больше не будут.
+     */
+    private static void freeCells(DistanceOracle oracle, List<Unit> fallen, List<Unit> playerUnits,
+            List<Unit> computerUnits) {
+        Set<Long> occupied = new HashSet<>();
+        for (Unit unit : playerUnits) {
+            occupied.add(cellKey(unit));
+        }
+        for (Unit unit : computerUnits) {
+            occupied.add(cellKey(unit));
+        }
+        for (Unit unit : fallen) {
+            if (!occupied.contains(cellKey(unit))) {
+                oracle.forget(unit.getxCoordinate(), unit.getyCoordinate());
+            }
+        }
+        for (Unit unit : fallen) {
+            if (!occupied.contains(cellKey(unit))) {
+                oracle.cellFreed(unit.getxCoordinate(), unit.getyCoordinate());
+            }
+        }
+    }
+
+    private static long cellKey(Unit unit) {
+        return ((long) unit.getxCoordinate() << 32) | (unit.getyCoordinate() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Параллельно выбирает цели всем живым юнитам по снимку поля.
+     * Если масштаб ограничивает число кандидатов, каждый юнит проверяет
+     * поиском пути только ближайших врагов из {@link UnitGrid}, и раунд
+     * стоит O(n · k) поисков вместо O(n²). Если есть таблица расстояний,
+     * стоимости путей берутся из неё, а снимок поля не строится.
+     *
+     * @param playerUnits   живые юниты игрока в порядке хода
+     * @param computerUnits живые юниты компьютера в порядке хода
+     * @param oracle        таблица расстояний боя или null
+     * @return решения в порядке применения
+     */
+    private List<BatchPathPlanner.PlannedPath> planRound(List<Unit> playerUnits, List<Unit> computerUnits,
+            DistanceOracle oracle) {
+        List<BatchPathPlanner.PathRequest> requests = new ArrayList<>(playerUnits.size() + computerUnits.size());
+        int candidates = scale.getTargetCandidates();
+        if (candidates == 0) {
+            for (Unit unit : playerUnits) {
+                requests.add(new BatchPathPlanner.PathRequest(unit, computerUnits));
+            }
+            for (Unit unit : computerUnits) {
+                requests.add(new BatchPathPlanner.PathRequest(unit, playerUnits));
+            }
+        } else {
+            UnitGrid computerGrid = new UnitGrid(scale.getWidth(), scale.getHeight(), computerUnits);
+            UnitGrid playerGrid = new UnitGrid(scale.getWidth(), scale.getHeight(), playerUnits);
+            for (Unit unit : playerUnits) {
+                requests.add(new BatchPathPlanner.PathRequest(unit,
+                        computerGrid.nearest(unit.getxCoordinate(), unit.getyCoordinate(), candidates)));
+            }
+            for (Unit unit : computerUnits) {
+                requests.add(new BatchPathPlanner.PathRequest(unit,
+                        playerGrid.nearest(unit.getxCoordinate(), unit.getyCoordinate(), candidates)));
+            }
+        }
+        if (oracle != null) {
+            return pathPlanner.planAll(oracle, requests);
+        }
+
+        List<Unit> everyone = new ArrayList<>(playerUnits.size() + computerUnits.size());
+        everyone.addAll(playerUnits);
+        everyone.addAll(computerUnits);
+        BoardSnapshot board = BoardSnapshot.fromUnits(scale.getWidth(), scale.getHeight(), everyone);
+        return pathPlanner.planAll(board, requests);
+    }
+}
@@ -13,6 +13,43 @@ import java.util.*;
  */
 public class SuitableForAttackUnitsFinderImpl implements SuitableForAttackUnitsFinder {
 
+    /**
+     * Цели, из которых программа ближнего боя библиотеки выбирает удар.
+     * Программа собирает юнитов противника (и погибших тоже) по колонкам его
+     * зоны расстановки и отдаёт их finder: программы игрока бьют левую армию
+     * (isLeftArmyTarget = true), программы компьютера — правую.
+     *
+     * @param finder           поиск атакуемых юнитов, которым пользуются программы
+     * @param enemies          все юниты армии противника
+     * @param isLeftArmyTarget противник стоит слева
+     * @param scale            масштаб боя: ширина поля и глубина зоны расстановки
+     * @return юниты, которых программа может выбрать целью
+     */
+    static List<Unit> getFrontUnits(SuitableForAttackUnitsFinder finder, List<Unit> enemies,
+            boolean isLeftArmyTarget, BattleScale scale) {
+        int depth = scale.getDeploymentDepth();
+        int firstColumn = isLeftArmyTarget ? 0 : scale.getWidth() - depth;
+        List<List<Unit>> unitsByRow = new ArrayList<>(depth);
+        for (int column = firstColumn; column < firstColumn + depth; column++) {
+            List<Unit> row = new ArrayList<>();
+            for (Unit enemy : enemies) {
+                if (enemy.getxCoordinate() == column) {
+                    row.add(enemy);
+                }
+            }
+            unitsByRow.add(row);
+        }
+        List<Unit> result = finder.getSuitableUnits(unitsByRow, isLeftArmyTarget);
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * Лучник бьёт любого живого врага, остальные выбирают из {@link #getFrontUnits}
+     */
+    static boolean isArcher(Unit unit) {
+        return unit.getUnitType() != null && unit.getUnitType().contains("Лучник");
+    }
+
     @Override
     public List<Unit> getSuitableUnits(List<List<Unit>> unitsByRow, boolean isLeftArmyTarget) {
         if (unitsByRow == null) {
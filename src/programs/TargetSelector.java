@@ -0,0 +1,26 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+
+import java.util.List;
+
+/**
+ * Выбор цели вместо программы юнита. Движок спрашивает селектор перед
+ * вызовом {@code Program.attack()}; если селектор вернул null, ход делает
+ * программа, как обычно.
+ *
+ * Селектор только выбирает цель: удар наносится по тем же правилам,
+ * что и удар программы библиотеки.
+ */
+public interface TargetSelector {
+
+    /**
+     * Выбирает цель для атакующего юнита.
+     *
+     * @param attacker атакующий юнит
+     * @param allies   все юниты армии атакующего, включая погибших
+     * @param enemies  все юниты армии противника, включая погибших
+     * @return живая цель или null, чтобы ход сделала программа юнита
+     */
+    Unit selectTarget(Unit attacker, List<Unit> allies, List<Unit> enemies);
+}
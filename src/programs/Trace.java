@@ -0,0 +1,242 @@
+package programs;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Трассировка с уровнями и переключателями по компонентам.
+ * Выключенная трассировка стоит одного сравнения: вызывающий код проверяет
+ * {@link #isEnabled(Component, Level)} и только потом собирает строку.
+ *
+ * <pre>
+ * if (Trace.isEnabled(Trace.Component.PATHFINDING, Trace.Level.DEBUG)) {
+ *     Trace.log(Trace.Component.PATHFINDING, Trace.Level.DEBUG, "Старт: (" + x + ", " + y + ")");
+ * }
+ * </pre>
+ *
+ * Начальные уровни задаются системным свойством heroes.trace, например
+ * -Dheroes.trace=PATHFINDING=DEBUG,SIMULATION=INFO. По умолчанию у всех
+ * компонентов уровень WARN, а записи уходят в System.err.
+ */
+public final class Trace {
+
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG
+    }
+
+    public enum Component {
+        PATHFINDING, SIMULATION, PRESET
+    }
+
+    /**
+     * Приёмник записей трассировки. Вызывается из любых потоков.
+     */
+    public interface Sink {
+        void record(Component component, Level level, String message);
+    }
+
+    public final static String PROPERTY = "heroes.trace";
+
+    // Максимальный включённый уровень для каждого компонента (ordinal), -1 — выключено.
+    // Уровни меняются на ходу из любого потока, поэтому чтение и запись атомарные
+    private static final AtomicIntegerArray thresholds = new AtomicIntegerArray(Component.values().length);
+    private static volatile Sink sink = new ConsoleSink();
+
+    static {
+        for (int i = 0; i < thresholds.length(); i++) {
+            thresholds.set(i, Level.WARN.ordinal());
+        }
+        configure(System.getProperty(PROPERTY));
+    }
+
+    private Trace() {
+    }
+
+    public static boolean isEnabled(Component component, Level level) {
+        return level.ordinal() <= thresholds.get(component.ordinal());
+    }
+
+    public static void log(Component component, Level level, String message) {
+        if (isEnabled(component, level)) {
+            sink.record(component, level, message);
+        }
+    }
+
+    /**
+     * Включает компонент до заданного уровня; null выключает его полностью
+     */
+    public static void setLevel(Component component, Level level) {
+        thresholds.set(component.ordinal(), level == null ? -1 : level.ordinal());
+    }
+
+    public static void setSink(Sink newSink) {
+        sink = Objects.requireNonNull(newSink, "sink");
+    }
+
+    public static Sink getSink() {
+        return sink;
+    }
+
+    /**
+     * Разбирает строку вида "PATHFINDING=DEBUG,PRESET=OFF"
+     */
+    public static void configure(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return;
+        }
+        for (String part : spec.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                continue;
+            }
+            try {
+                Component component = Component.valueOf(pair[0].trim().toUpperCase(Locale.ROOT));
+                String levelName = pair[1].trim().toUpperCase(Locale.ROOT);
+                setLevel(component, "OFF".equals(levelName) ? null : Level.valueOf(levelName));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Неизвестная настройка трассировки: " + part);
+            }
+        }
+    }
+
+    /**
+     * Печатает все записи в System.err: stdout занят результатами прогона
+     */
+    public static class ConsoleSink implements Sink {
+        @Override
+        public void record(Component component, Level level, String message) {
+            System.err.println(message);
+        }
+    }
+
+    /**
+     * Хранит последние записи в кольцевом буфере фиксированного размера
+     */
+    public static class RingBufferSink implements Sink {
+        private final Entry[] entries;
+        private long written;
+
+        public RingBufferSink(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Размер буфера должен быть положительным: " + capacity);
+            }
+            this.entries = new Entry[capacity];
+        }
+
+        @Override
+        public synchronized void record(Component component, Level level, String message) {
+            entries[(int) (written % entries.length)] = new Entry(System.nanoTime(), component, level, message);
+            written++;
+        }
+
+        /**
+         * Записи в порядке поступления, от самой старой к самой новой
+         */
+        public synchronized List<Entry> snapshot() {
+            int size = (int) Math.min(written, entries.length);
+            List<Entry> result = new ArrayList<>(size);
+            for (long i = written - size; i < written; i++) {
+                result.add(entries[(int) (i % entries.length)]);
+            }
+            return result;
+        }
+
+        public synchronized long getWritten() {
+            return written;
+        }
+    }
+
+    /**
+     * Дописывает записи в файл через буфер
+     */
+    public static class FileSink implements Sink, Closeable {
+        private final Writer writer;
+
+        public FileSink(File file) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public synchronized void record(Component component, Level level, String message) {
+            try {
+                writer.write(level + " " + component + " " + message);
+                writer.write(System.lineSeparator());
+            } catch (IOException e) {
+                // Трассировка не должна ломать бой
+            }
+        }
+
+        public synchronized void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Только считает записи по компонентам и уровням, текст отбрасывает
+     */
+    public static class CountingSink implements Sink {
+        private final LongAdder[][] counters;
+
+        public CountingSink() {
+            counters = new LongAdder[Component.values().length][Level.values().length];
+            for (LongAdder[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = new LongAdder();
+                }
+            }
+        }
+
+        @Override
+        public void record(Component component, Level level, String message) {
+            counters[component.ordinal()][level.ordinal()].increment();
+        }
+
+        public long getCount(Component component, Level level) {
+            return counters[component.ordinal()][level.ordinal()].sum();
+        }
+    }
+
+    public static final class Entry {
+        private final long nanoTime;
+        private final Component component;
+        private final Level level;
+        private final String message;
+
+        Entry(long nanoTime, Component component, Level level, String message) {
+            this.nanoTime = nanoTime;
+            this.component = component;
+            this.level = level;
+            this.message = message;
+        }
+
+        public long getNanoTime() {
+            return nanoTime;
+        }
+
+        public Component getComponent() {
+            return component;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return level + " " + component + " " + message;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package programs;
+
+import com.battle.heroes.army.Unit;
+
+import java.util.*;
+
+/**
+ * Пространственный индекс юнитов по чанкам поля (того же размера, что и в
+ * {@link BoardSnapshot}). Строится за O(n) сортировкой подсчётом и отвечает,
+ * кто ближе всего к клетке, просматривая чанки кольцами от клетки наружу,
+ * пока следующее кольцо не может дать никого ближе уже найденных.
+ *
+ * Координаты юнитов фиксируются при построении; индекс неизменяем
+ * и может читаться из нескольких потоков.
+ */
+final class UnitGrid {
+    private static final int SHIFT = BoardSnapshot.CHUNK_SHIFT;
+    private static final int SIZE = BoardSnapshot.CHUNK_SIZE;
+
+    private final List<Unit> units;
+    private final int chunkColumns;
+    private final int chunkRows;
+    // Юниты чанка c: order[chunkStart[c]] .. order[chunkStart[c + 1] - 1], по возрастанию индекса в units
+    private final int[] chunkStart;
+    private final int[] order;
+    private final int[] xs;
+    private final int[] ys;
+
+    UnitGrid(int width, int height, List<Unit> units) {
+        this.units = units;
+        this.chunkColumns = (width + SIZE - 1) >> SHIFT;
+        this.chunkRows = (height + SIZE - 1) >> SHIFT;
+        int count = units.size();
+        this.xs = new int[count];
+        this.ys = new int[count];
+        this.chunkStart = new int[chunkColumns * chunkRows + 1];
+
+        int[] chunkOf = new int[count];
+        for (int i = 0; i < count; i++) {
+            Unit unit = units.get(i);
+            xs[i] = unit.getxCoordinate();
+            ys[i] = unit.getyCoordinate();
+            // Юниты за пределами поля в индекс не попадают
+            if (xs[i] < 0 || xs[i] >= width || ys[i] < 0 || ys[i] >= height) {
+                chunkOf[i] = -1;
+                continue;
+            }
+            chunkOf[i] = (ys[i] >> SHIFT) * chunkColumns + (xs[i] >> SHIFT);
+            chunkStart[chunkOf[i] + 1]++;
+        }
+        for (int c = 0; c < chunkColumns * chunkRows; c++) {
+            chunkStart[c + 1] += chunkStart[c];
+        }
+        this.order = new int[chunkStart[chunkStart.length - 1]];
+        int[] fill = Arrays.copyOf(chunkStart, chunkStart.length - 1);
+        for (int i = 0; i < count; i++) {
+            if (chunkOf[i] >= 0) {
+                order[fill[chunkOf[i]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * До limit юнитов, ближайших к клетке (x, y) по октильному расстоянию
+     * (в единицах A*). При равном расстоянии раньше идёт юнит с меньшим
+     * индексом в исходном списке.
+     *
+     * @return юниты в порядке возрастания расстояния
+     */
+    List<Unit> nearest(int x, int y, int limit) {
+        if (limit <= 0 || order.length == 0) {
+            return Collections.emptyList();
+        }
+        int[] bestDistance = new int[limit];
+        int[] bestIndex = new int[limit];
+        int found = 0;
+
+        int originColumn = clamp(x >> SHIFT, chunkColumns);
+        int originRow = clamp(y >> SHIFT, chunkRows);
+        // Оценка по кольцам верна, только если клетка лежит в своём чанке
+        boolean canStopEarly = x >= 0 && y >= 0 && x >> SHIFT == originColumn && y >> SHIFT == originRow;
+        int maxRing = Math.max(Math.max(originColumn, chunkColumns - 1 - originColumn),
+                Math.max(originRow, chunkRows - 1 - originRow));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Всё в кольце ring не ближе (ring - 1) * SIZE + 1 клеток по Чебышёву
+            if (canStopEarly && found == limit && ring > 0
+                    && (long) AStarSearch.STRAIGHT_COST * ((ring - 1) * SIZE + 1) > bestDistance[limit - 1]) {
+                break;
+            }
+            for (int row = originRow - ring; row <= originRow + ring; row++) {
+                if (row < 0 || row >= chunkRows) {
+                    continue;
+                }
+                boolean edgeRow = row == originRow - ring || row == originRow + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int column = originColumn - ring; column <= originColumn + ring; column += step) {
+                    if (column < 0 || column >= chunkColumns) {
+                        continue;
+                    }
+                    int chunk = row * chunkColumns + column;
+                    for (int k = chunkStart[chunk]; k < chunkStart[chunk + 1]; k++) {
+                        int index = order[k];
+                        int distance = AStarSearch.octile(xs[index] - x, ys[index] - y);
+                        found = insert(bestDistance, bestIndex, found, distance, index);
+                    }
+                }
+            }
+        }
+
+        List<Unit> result = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            result.add(units.get(bestIndex[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Вставляет кандидата в отсортированный массив лучших, вытесняя худшего
+     */
+    private static int insert(int[] bestDistance, int[] bestIndex, int found, int distance, int index) {
+        int limit = bestDistance.length;
+        if (found == limit && !closer(distance, index, bestDistance[limit - 1], bestIndex[limit - 1])) {
+            return found;
+        }
+        int position = found == limit ? limit - 1 : found;
+        while (position > 0 && closer(distance, index, bestDistance[position - 1], bestIndex[position - 1])) {
+            bestDistance[position] = bestDistance[position - 1];
+            bestIndex[position] = bestIndex[position - 1];
+            position--;
+        }
+        bestDistance[position] = distance;
+        bestIndex[position] = index;
+        return found == limit ? found : found + 1;
+    }
+
+    private static boolean closer(int distance, int index, int otherDistance, int otherIndex) {
+        return distance < otherDistance || distance == otherDistance && index < otherIndex;
+    }
+
+    private static int clamp(int value, int count) {
+        return Math.max(0, Math.min(count - 1, value));
+    }
+}
@@ -18,334 +18,179 @@ import java.util.*;
  */
 public class UnitTargetPathFinderImpl implements UnitTargetPathFinder {
 
+    private final BattleScale scale;
+    private BattleMetrics metrics = BattleMetrics.shared();
+
+    public UnitTargetPathFinderImpl() {
+        this(BattleScale.STANDARD);
+    }
+
+    /**
+     * Поиск пути на поле размеров scale
+     */
+    public UnitTargetPathFinderImpl(BattleScale scale) {
+        this.scale = Objects.requireNonNull(scale, "scale");
+    }
+
+    /**
+     * Устанавливает приёмник метрик для фазы PATHFINDING
+     * (по умолчанию {@link BattleMetrics#shared()}).
+     *
+     * @param metrics метрики движка, обычно те же, что и у симуляции боя
+     */
+    public void setMetrics(BattleMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+    }
+
     @Override
     public List<Edge> getTargetPath(Unit attackUnit, Unit targetUnit, List<Unit> existingUnitList) {
-        System.out.println("=== Поиск пути для атаки ===");
+        return getCompactTargetPath(attackUnit, targetUnit, existingUnitList).asEdges();
+    }
 
-        List<Edge> path = new ArrayList<>();
+    /**
+     * Возвращает путь в компактном виде: координаты упакованы в int[],
+     * а Edge создаются только при обращении к элементам
+     */
+    public CompactPath getCompactTargetPath(Unit attackUnit, Unit targetUnit, List<Unit> existingUnitList) {
+        // Проверяем флаг один раз: при выключенной трассировке строки не собираются
+        boolean debug = Trace.isEnabled(Trace.Component.PATHFINDING, Trace.Level.DEBUG);
+
+        if (debug) {
+            Trace.log(Trace.Component.PATHFINDING, Trace.Level.DEBUG, "=== Поиск пути для атаки ===");
+        }
 
         if (attackUnit == null || targetUnit == null) {
-            System.out.println("Ошибка: один из юнитов равен null");
-            return path;
+            Trace.log(Trace.Component.PATHFINDING, Trace.Level.WARN, "Ошибка: один из юнитов равен null");
+            return CompactPath.empty();
         }
 
         // Логируем информацию о юнитах
-        System.out.println("Атакующий юнит: " + attackUnit);
-        System.out.println("Целевой юнит: " + targetUnit);
+        if (debug) {
+            Trace.log(Trace.Component.PATHFINDING, Trace.Level.DEBUG, "Атакующий юнит: " + attackUnit);
+            Trace.log(Trace.Component.PATHFINDING, Trace.Level.DEBUG, "Целевой юнит: " + targetUnit);
+        }
 
         try {
             // Получаем координаты атакующего и цели
-            int startX = getUnitCoordinate(attackUnit, "xCoordinate", "x");
-            int startY = getUnitCoordinate(attackUnit, "yCoordinate", "y");
-            int targetX = getUnitCoordinate(targetUnit, "xCoordinate", "x");
-            int targetY = getUnitCoordinate(targetUnit, "yCoordinate", "y");
-
-            System.out.println("Старт: (" + startX + ", " + startY + ")");
-            System.out.println("Цель: (" + targetX + ", " + targetY + ")");
+            int startX = attackUnit.getxCoordinate();
+            int startY = attackUnit.getyCoordinate();
+            int targetX = targetUnit.getxCoordinate();
+            int targetY = targetUnit.getyCoordinate();
+
+            if (debug) {
+                Trace.log(Trace.Component.PATHFINDING, Trace.Level.DEBUG, "Старт: (" + startX + ", " + startY + ")");
+                Trace.log(Trace.Component.PATHFINDING, Trace.Level.DEBUG, "Цель: (" + targetX + ", " + targetY + ")");
+            }
 
             // Если координаты совпадают, возвращаем путь из одной точки
             if (startX == targetX && startY == targetY) {
-                path.add(new Edge(startX, startY));
-                System.out.println("Цель уже достигнута (координаты совпадают)");
-                return path;
+                if (debug) {
+                    Trace.log(Trace.Component.PATHFINDING, Trace.Level.DEBUG, "Цель уже достигнута (координаты совпадают)");
+                }
+                return CompactPath.fromPacked(new int[] { CompactPath.pack(startX, startY) }, 0);
             }
 
             // Используем алгоритм A* для поиска пути с учетом препятствий
-            path = findPathAStar(startX, startY, targetX, targetY, existingUnitList, attackUnit, targetUnit);
+            CompactPath path = findPathAStar(startX, startY, targetX, targetY, existingUnitList, attackUnit, targetUnit);
 
-            System.out.println("Найден путь длиной " + path.size() + " шагов");
+            if (debug) {
+                Trace.log(Trace.Component.PATHFINDING, Trace.Level.DEBUG, "Найден путь длиной " + path.length() + " шагов");
+            }
 
             return path;
 
         } catch (Exception e) {
-            System.err.println("Критическая ошибка при поиске пути: " + e.getMessage());
-            return new ArrayList<>();
-        }
-    }
-
-    /**
-     * Вспомогательный метод для получения координаты юнита
-     */
-    private int getUnitCoordinate(Unit unit, String primaryFieldName, String secondaryFieldName) {
-        try {
-            // Пробуем основное имя поля
-            java.lang.reflect.Field field = unit.getClass().getDeclaredField(primaryFieldName);
-            field.setAccessible(true);
-            return field.getInt(unit);
-        } catch (NoSuchFieldException e) {
-            try {
-                // Пробуем альтернативное имя поля
-                java.lang.reflect.Field field = unit.getClass().getDeclaredField(secondaryFieldName);
-                field.setAccessible(true);
-                return field.getInt(unit);
-            } catch (Exception e2) {
-                // Пробуем методы getX/getY
-                try {
-                    java.lang.reflect.Method method = unit.getClass().getMethod("getX");
-                    return (int) method.invoke(unit);
-                } catch (Exception e3) {
-                    try {
-                        java.lang.reflect.Method method = unit.getClass().getMethod("getY");
-                        return (int) method.invoke(unit);
-                    } catch (Exception e4) {
-                        // Возвращаем значение по умолчанию
-                        System.out.println("Не удалось получить координату для юнита, используется значение 0");
-                        return 0;
-                    }
-                }
+            if (Trace.isEnabled(Trace.Component.PATHFINDING, Trace.Level.ERROR)) {
+                Trace.log(Trace.Component.PATHFINDING, Trace.Level.ERROR, "Критическая ошибка при поиске пути: " + e.getMessage());
             }
-        } catch (Exception e) {
-            System.out.println("Ошибка при получении координаты для юнита, используется значение 0");
-            return 0;
+            return CompactPath.empty();
         }
     }
 
     /**
-     * Упрощенная версия алгоритма A* для поиска пути
+     * Возвращает только длину пути, его стоимость и первый шаг —
+     * для тех, кто двигает юнита на одну клетку. Сам путь не строится.
      */
-    private List<Edge> findPathAStar(int startX, int startY, int targetX, int targetY,
-            List<Unit> obstacles, Unit attackUnit, Unit targetUnit) {
-        // Создаём множество препятствий
-        Set<Point> obstacleSet = new HashSet<>();
-        if (obstacles != null) {
-            for (Unit unit : obstacles) {
-                if (unit != null && unit != attackUnit && unit != targetUnit) {
-                    try {
-                        int x = getUnitCoordinate(unit, "xCoordinate", "x");
-                        int y = getUnitCoordinate(unit, "yCoordinate", "y");
-                        obstacleSet.add(new Point(x, y));
-                    } catch (Exception e) {
-                        // Игнорируем юнитов с некорректными координатами
-                    }
-                }
-            }
+    public CompactPath.Summary getTargetPathSummary(Unit attackUnit, Unit targetUnit, List<Unit> existingUnitList) {
+        if (attackUnit == null || targetUnit == null) {
+            return CompactPath.Summary.NONE;
         }
 
-        // Точки начала и цели
-        Point start = new Point(startX, startY);
-        Point goal = new Point(targetX, targetY);
+        int startX = attackUnit.getxCoordinate();
+        int startY = attackUnit.getyCoordinate();
+        int targetX = targetUnit.getxCoordinate();
+        int targetY = targetUnit.getyCoordinate();
 
-        // Если цель заблокирована — возвращаем прямой путь
-        if (obstacleSet.contains(goal)) {
-            return createSimplePath(startX, startY, targetX, targetY);
+        BoardSnapshot board = BoardSnapshot.fromUnits(scale.getWidth(), scale.getHeight(), existingUnitList,
+                attackUnit, targetUnit);
+        if (startX == targetX && startY == targetY || !canSearch(board, startX, startY, targetX, targetY)) {
+            return createSimplePath(startX, startY, targetX, targetY).summary();
         }
 
-        // Структуры данных для A*
-        PriorityQueue<Node> openSet = new PriorityQueue<>(Comparator.comparingDouble(n -> n.fScore));
-        Map<Point, Node> allNodes = new HashMap<>();
-
-        Node startNode = new Node(start, 0, heuristic(start, goal));
-        openSet.add(startNode);
-        allNodes.put(start, startNode);
-
-        // Направления движения (8 направлений с диагоналями)
-        int[][] directions = {
-                { -1, -1 }, { -1, 0 }, { -1, 1 },
-                { 0, -1 }, { 0, 1 },
-                { 1, -1 }, { 1, 0 }, { 1, 1 }
-        };
-
-        while (!openSet.isEmpty()) {
-            Node current = openSet.poll();
-
-            if (current.point.equals(goal)) {
-                return reconstructPath(current);
-            }
-
-            for (int[] dir : directions) {
-                Point neighbor = new Point(current.point.x + dir[0], current.point.y + dir[1]);
-
-                // Пропускаем, если это препятствие
-                if (obstacleSet.contains(neighbor)) {
-                    continue;
-                }
-
-                // Стоимость движения: диагональ = 1.41, прямая = 1.0
-                double tentativeGScore = current.gScore +
-                        (dir[0] != 0 && dir[1] != 0 ? 1.41 : 1.0);
-
-                Node neighborNode = allNodes.get(neighbor);
-
-                if (neighborNode == null) {
-                    neighborNode = new Node(neighbor, Double.MAX_VALUE, Double.MAX_VALUE);
-                    allNodes.put(neighbor, neighborNode);
-                }
-
-                if (tentativeGScore < neighborNode.gScore) {
-                    neighborNode.cameFrom = current;
-                    neighborNode.gScore = tentativeGScore;
-                    neighborNode.fScore = tentativeGScore + heuristic(neighbor, goal);
-                    openSet.remove(neighborNode); // Обновляем приоритет
-                    openSet.add(neighborNode);
-                }
-            }
+        AStarSearch search = AStarSearch.forCurrentThread(board.getCellCount());
+        if (!search.search(board, board.cellIndex(startX, startY), board.cellIndex(targetX, targetY))) {
+            return createSimplePath(startX, startY, targetX, targetY).summary();
         }
-
-        // Если путь не найден — возвращаем простой (без препятствий)
-        return createSimplePath(startX, startY, targetX, targetY);
-    }
-
-    /**
-     * Эвристика: расстояние Чебышёва (максимум из разницы координат)
-     */
-    private double heuristic(Point a, Point b) {
-        return Math.max(Math.abs(a.x - b.x), Math.abs(a.y - b.y));
+        return search.summarize(board);
     }
 
     /**
-     * Восстанавливает путь из цели к началу
+     * Упрощенная версия алгоритма A* для поиска пути.
+     * Сам поиск выполняет {@link AStarSearch} на буферах текущего потока:
+     * стоимости целочисленные (прямой шаг = 10, диагональ = 14), а порядок
+     * обхода детерминирован, поэтому одинаковые входные данные дают один путь.
      */
-    private List<Edge> reconstructPath(Node node) {
-        List<Edge> path = new ArrayList<>();
-        Node current = node;
-
-        while (current != null) {
-            path.add(new Edge(current.point.x, current.point.y));
-            current = current.cameFrom;
-        }
-
-        Collections.reverse(path);
-        return path;
-    }
-
-    // Вспомогательные классы
-
-    private static class Point {
-        final int x, y;
-
-        Point(int x, int y) {
-            this.x = x;
-            this.y = y;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o)
-                return true;
-            if (o == null || getClass() != o.getClass())
-                return false;
-            Point point = (Point) o;
-            return x == point.x && y == point.y;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(x, y);
+    private CompactPath findPathAStar(int startX, int startY, int targetX, int targetY,
+            List<Unit> obstacles, Unit attackUnit, Unit targetUnit) {
+        long start = metrics.startTimer();
+        try {
+            return searchPath(startX, startY, targetX, targetY, obstacles, attackUnit, targetUnit);
+        } finally {
+            metrics.record(BattleMetrics.Phase.PATHFINDING, start);
         }
     }
 
-    private static class Node {
-        final Point point;
-        double gScore; // Стоимость от начала до этой точки
-        double fScore; // gScore + эвристика
-        Node cameFrom; // Откуда пришли
+    private CompactPath searchPath(int startX, int startY, int targetX, int targetY,
+            List<Unit> obstacles, Unit attackUnit, Unit targetUnit) {
+        // Снимок препятствий без самих атакующего и цели
+        BoardSnapshot board = BoardSnapshot.fromUnits(scale.getWidth(), scale.getHeight(), obstacles,
+                attackUnit, targetUnit);
 
-        Node(Point point, double gScore, double fScore) {
-            this.point = point;
-            this.gScore = gScore;
-            this.fScore = fScore;
+        // A* ищет только внутри поля: если старт или цель за его пределами
+        // либо цель заблокирована, возвращаем прямой путь без учёта препятствий
+        if (!canSearch(board, startX, startY, targetX, targetY)) {
+            return createSimplePath(startX, startY, targetX, targetY);
         }
-    }
 
-    /**
-     * Проверяет, свободен ли прямой путь между двумя точками
-     */
-    private boolean isDirectPathClear(int startX, int startY, int targetX, int targetY, Set<String> obstacles) {
-        int dx = Math.abs(targetX - startX);
-        int dy = Math.abs(targetY - startY);
+        AStarSearch search = AStarSearch.forCurrentThread(board.getCellCount());
+        int[] cells = search.findPath(board, board.cellIndex(startX, startY), board.cellIndex(targetX, targetY));
 
-        // Если точки на одной линии по X или Y
-        if (dx == 0) {
-            int stepY = startY < targetY ? 1 : -1;
-            for (int y = startY + stepY; y != targetY; y += stepY) {
-                if (obstacles.contains(startX + "," + y)) {
-                    return false;
-                }
-            }
-        } else if (dy == 0) {
-            int stepX = startX < targetX ? 1 : -1;
-            for (int x = startX + stepX; x != targetX; x += stepX) {
-                if (obstacles.contains(x + "," + startY)) {
-                    return false;
-                }
-            }
+        // Если путь не найден — возвращаем простой (без препятствий)
+        if (cells == null) {
+            return createSimplePath(startX, startY, targetX, targetY);
         }
 
-        return true;
+        return CompactPath.fromCells(board, cells, search.getLastCost());
     }
 
-    /**
-     * Поиск пути с учетом препятствий
-     */
-    private List<Edge> findPathWithObstacles(int startX, int startY, int targetX, int targetY, Set<String> obstacles) {
-        List<Edge> path = new ArrayList<>();
-
-        // Простая стратегия: сначала пытаемся двигаться по диагонали, затем по прямой
-        int currentX = startX;
-        int currentY = startY;
-
-        path.add(new Edge(currentX, currentY));
-
-        // Определяем направление движения
-        int dirX = Integer.compare(targetX, startX);
-        int dirY = Integer.compare(targetY, startY);
-
-        // Максимальное количество шагов для предотвращения бесконечного цикла
-        int maxSteps = 100;
-        int steps = 0;
-
-        while ((currentX != targetX || currentY != targetY) && steps < maxSteps) {
-            steps++;
-
-            // Пробуем двигаться по диагонали
-            if (currentX != targetX && currentY != targetY) {
-                int nextX = currentX + dirX;
-                int nextY = currentY + dirY;
-
-                if (!obstacles.contains(nextX + "," + nextY)) {
-                    currentX = nextX;
-                    currentY = nextY;
-                    path.add(new Edge(currentX, currentY));
-                    continue;
-                }
-            }
-
-            // Если диагональ заблокирована, двигаемся по X или Y
-            if (currentX != targetX) {
-                int nextX = currentX + dirX;
-                if (!obstacles.contains(nextX + "," + currentY)) {
-                    currentX = nextX;
-                    path.add(new Edge(currentX, currentY));
-                    continue;
-                }
-            }
-
-            if (currentY != targetY) {
-                int nextY = currentY + dirY;
-                if (!obstacles.contains(currentX + "," + nextY)) {
-                    currentY = nextY;
-                    path.add(new Edge(currentX, currentY));
-                    continue;
-                }
-            }
-
-            // Если все направления заблокированы, пытаемся обойти
-            break;
-        }
-
-        return path;
+    static boolean canSearch(BoardSnapshot board, int startX, int startY, int targetX, int targetY) {
+        return board.isInside(startX, startY) && board.isInside(targetX, targetY)
+                && !board.isBlocked(targetX, targetY);
     }
 
     /**
      * Создает простой путь
      */
-    private List<Edge> createSimplePath(int startX, int startY, int targetX, int targetY) {
-        List<Edge> path = new ArrayList<>();
+    static CompactPath createSimplePath(int startX, int startY, int targetX, int targetY) {
+        int dx = Math.abs(targetX - startX);
+        int dy = Math.abs(targetY - startY);
+        int[] points = new int[Math.max(dx, dy) + 1];
+        int index = 0;
 
         int currentX = startX;
         int currentY = startY;
 
-        path.add(new Edge(currentX, currentY));
+        points[index++] = CompactPath.pack(currentX, currentY);
 
         // Определяем направление движения
         int dirX = Integer.compare(targetX, currentX);
@@ -355,36 +200,29 @@ public class UnitTargetPathFinderImpl implements UnitTargetPathFinder {
         while (currentX != targetX && currentY != targetY) {
             currentX += dirX;
             currentY += dirY;
-            path.add(new Edge(currentX, currentY));
+            points[index++] = CompactPath.pack(currentX, currentY);
         }
 
         // Двигаемся по оставшейся оси (X или Y)
         while (currentX != targetX) {
             currentX += dirX;
-            path.add(new Edge(currentX, currentY));
+            points[index++] = CompactPath.pack(currentX, currentY);
         }
 
         while (currentY != targetY) {
             currentY += dirY;
-            path.add(new Edge(currentX, currentY));
+            points[index++] = CompactPath.pack(currentX, currentY);
         }
 
-        return path;
+        return CompactPath.fromPacked(points, -1);
     }
 
     /**
-     * Дополнительный метод для использования EdgeDistance
+     * Дополнительный метод для использования EdgeDistance.
+     * Возвращает представление над компактным путём без копирования.
      */
     public List<EdgeDistance> getTargetPathWithDistance(Unit attackUnit, Unit targetUnit, List<Unit> existingUnitList) {
-        List<Edge> path = getTargetPath(attackUnit, targetUnit, existingUnitList);
-        List<EdgeDistance> pathWithDistance = new ArrayList<>();
-
-        for (int i = 0; i < path.size(); i++) {
-            Edge edge = path.get(i);
-            pathWithDistance.add(new EdgeDistance(edge.getX(), edge.getY(), i));
-        }
-
-        return pathWithDistance;
+        return getCompactTargetPath(attackUnit, targetUnit, existingUnitList).asEdgeDistances();
     }
 
     /**
@@ -392,12 +230,12 @@ public class UnitTargetPathFinderImpl implements UnitTargetPathFinder {
      */
     public List<Edge> getSimplePath(Unit attackUnit, Unit targetUnit) {
         try {
-            int startX = getUnitCoordinate(attackUnit, "xCoordinate", "x");
-            int startY = getUnitCoordinate(attackUnit, "yCoordinate", "y");
-            int targetX = getUnitCoordinate(targetUnit, "xCoordinate", "x");
-            int targetY = getUnitCoordinate(targetUnit, "yCoordinate", "y");
+            int startX = attackUnit.getxCoordinate();
+            int startY = attackUnit.getyCoordinate();
+            int targetX = targetUnit.getxCoordinate();
+            int targetY = targetUnit.getyCoordinate();
 
-            return createSimplePath(startX, startY, targetX, targetY);
+            return createSimplePath(startX, startY, targetX, targetY).asEdges();
         } catch (Exception e) {
             return new ArrayList<>();
         }